@@ -35,4 +35,14 @@ public interface Deployer {
 	 */
 	public List<Deployment> deploy();
 
+	/**
+	 * Executes associated deployment based on the properties and reports the
+	 * outcome of each instance to the listener as soon as it is known.
+	 * 
+	 * @param listener Receives each deployment as its instance completes.
+	 * @return A list of Instances that were successfully created. And their
+	 *         status.
+	 */
+	public List<Deployment> deploy(DeploymentListener listener);
+
 }
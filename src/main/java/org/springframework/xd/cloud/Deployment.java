@@ -27,22 +27,46 @@ public class Deployment {
 
 	private final InetAddress address;
 
+	private final String instanceId;
+
 	private final InstanceType type;
 
 	private final DeploymentStatus status;
 
 	public Deployment(InetAddress address, InstanceType type,
 			DeploymentStatus status) {
-		super();
+		this(address, null, type, status);
+	}
+
+	/**
+	 * Creates a deployment.
+	 * @param address The address of the instance, or null if the instance has no host, e.g. it failed before
+	 * it was running.
+	 * @param instanceId The id of the instance, or null if it is not known.
+	 * @param type The type of xd instance.
+	 * @param status The outcome of the deployment.
+	 */
+	public Deployment(InetAddress address, String instanceId, InstanceType type, DeploymentStatus status) {
 		this.address = address;
+		this.instanceId = instanceId;
 		this.type = type;
 		this.status = status;
 	}
 
+	/**
+	 * @return The address of the instance, or null if the instance has no host.
+	 */
 	public InetAddress getAddress() {
 		return address;
 	}
 
+	/**
+	 * @return The id of the instance, or null if it is not known.
+	 */
+	public String getInstanceId() {
+		return instanceId;
+	}
+
 	public InstanceType getType() {
 		return type;
 	}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.cloud;
+
+import java.util.List;
+
+/**
+ * Receives the outcome of each server as soon as it is known, instead of waiting for the whole
+ * cluster to be deployed.
+ */
+public interface DeploymentListener {
+
+	/**
+	 * Called once per server when its deployment succeeded or failed.  May be called from several
+	 * threads, but never concurrently.
+	 * @param deployment The outcome of the server deployment.
+	 */
+	public void deploymentCompleted(Deployment deployment);
+
+	/**
+	 * Called once, when the admin or single node server and the minimum number of healthy
+	 * containers are running.  The remaining containers may still be deploying.
+	 * @param deployments The deployments completed so far.
+	 */
+	public void clusterUsable(List<Deployment> deployments);
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.cloud;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Executes a graph of {@link DeploymentTask}s.  A task is started as soon as all of its dependencies
+ * completed successfully, so independent tasks across nodes and roles run concurrently.  When more
+ * tasks are ready than there are threads, the task with the longest chain of dependent tasks (the
+ * critical path) runs first.  If a task fails, the tasks that depend on it are skipped while the
+ * rest of the graph continues.
+ * <p>
+ * A task that returns a pending future releases its thread while it waits, its continuations are run
+ * by the same bounded pool, so the number of threads does not depend on the number of tasks.
+ */
+public class DeploymentScheduler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DeploymentScheduler.class);
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final Map<DeploymentTask<?>, Integer> ranks = new HashMap<DeploymentTask<?>, Integer>();
+
+	private final Map<DeploymentTask<?>, Integer> pendingDependencies = new HashMap<DeploymentTask<?>, Integer>();
+
+	private final Map<DeploymentTask<?>, List<DeploymentTask<?>>> dependents = new HashMap<DeploymentTask<?>, List<DeploymentTask<?>>>();
+
+	private List<DeploymentTask<?>> tasks = Collections.emptyList();
+
+	private CountDownLatch remaining;
+
+	/**
+	 * Creates a scheduler.
+	 * @param concurrency The max number of threads executing tasks and their continuations.
+	 */
+	public DeploymentScheduler(int concurrency) {
+		Assert.isTrue(concurrency > 0, "concurrency must be greater than 0");
+		executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Executes the tasks and the tasks they depend on.  Blocks until all tasks completed or the timeout expires.
+	 * @param roots The tasks to execute.
+	 * @param timeout The max time to wait for the tasks to complete.
+	 * @param unit The unit of the timeout.
+	 * @throws DeployTimeoutException if the tasks did not complete before the timeout.
+	 */
+	public void run(Collection<? extends DeploymentTask<?>> roots, long timeout, TimeUnit unit) {
+		Assert.notEmpty(roots, "roots can not be empty nor null");
+		List<DeploymentTask<?>> ordered = sort(roots);
+		synchronized (this) {
+			tasks = ordered;
+			remaining = new CountDownLatch(ordered.size());
+			for (int i = ordered.size() - 1; i >= 0; i--) {
+				DeploymentTask<?> task = ordered.get(i);
+				int rank = 0;
+				for (DeploymentTask<?> dependent : dependentsOf(task)) {
+					rank = Math.max(rank, ranks.get(dependent));
+				}
+				ranks.put(task, rank + 1);
+			}
+			List<PrioritizedRunnable> ready = new ArrayList<PrioritizedRunnable>();
+			for (DeploymentTask<?> task : ordered) {
+				if (pendingDependencies.get(task) == 0) {
+					ready.add(new PrioritizedRunnable(new TaskStarter(task), ranks.get(task),
+							sequence.getAndIncrement()));
+				}
+			}
+			// Idle threads take submitted tasks directly, so submit the critical path first
+			Collections.sort(ready);
+			for (PrioritizedRunnable task : ready) {
+				executor.execute(task);
+			}
+		}
+		try {
+			if (!remaining.await(timeout, unit)) {
+				executor.shutdownNow();
+				throw new DeployTimeoutException("Deployment did not complete within " + timeout + " " + unit);
+			}
+		}
+		catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+			throw new IllegalStateException(interruptedException.getMessage(), interruptedException);
+		}
+	}
+
+	/**
+	 * Stops the threads used to execute the tasks.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Describes the path through the graph that took the longest to execute.  The path is computed from
+	 * the measured duration of each task.
+	 * @return A human readable description of the slowest path.
+	 */
+	public synchronized String getCriticalPathReport() {
+		Map<DeploymentTask<?>, Long> finish = new HashMap<DeploymentTask<?>, Long>();
+		Map<DeploymentTask<?>, DeploymentTask<?>> predecessor = new HashMap<DeploymentTask<?>, DeploymentTask<?>>();
+		DeploymentTask<?> last = null;
+		for (DeploymentTask<?> task : tasks) {
+			long start = 0;
+			DeploymentTask<?> slowestDependency = null;
+			for (DeploymentTask<?> dependency : task.getDependencies()) {
+				if (slowestDependency == null || finish.get(dependency) > start) {
+					start = finish.get(dependency);
+					slowestDependency = dependency;
+				}
+			}
+			if (slowestDependency != null) {
+				predecessor.put(task, slowestDependency);
+			}
+			finish.put(task, start + task.getDuration());
+			if (last == null || finish.get(task) > finish.get(last)) {
+				last = task;
+			}
+		}
+		if (last == null) {
+			return "No deployment tasks were executed";
+		}
+		Deque<DeploymentTask<?>> path = new ArrayDeque<DeploymentTask<?>>();
+		for (DeploymentTask<?> task = last; task != null; task = predecessor.get(task)) {
+			path.addFirst(task);
+		}
+		StringBuilder report = new StringBuilder(String.format("Slowest deployment path took %d ms:",
+				finish.get(last)));
+		for (DeploymentTask<?> task : path) {
+			report.append(String.format("%n  %-40s %8d ms%s", task.getName(), task.getDuration(),
+					task.isSuccessful() ? "" : " (failed)"));
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Orders the tasks so that every task follows its dependencies.  Also registers the dependents of
+	 * each task and the number of dependencies each task waits on.
+	 * @param roots The tasks to order.
+	 * @return The tasks and all of their dependencies in dependency order.
+	 * @throws IllegalArgumentException if the tasks contain a cycle.
+	 */
+	private synchronized List<DeploymentTask<?>> sort(Collection<? extends DeploymentTask<?>> roots) {
+		Set<DeploymentTask<?>> all = new LinkedHashSet<DeploymentTask<?>>();
+		Deque<DeploymentTask<?>> toVisit = new ArrayDeque<DeploymentTask<?>>(roots);
+		while (!toVisit.isEmpty()) {
+			DeploymentTask<?> task = toVisit.pop();
+			if (all.add(task)) {
+				toVisit.addAll(task.getDependencies());
+			}
+		}
+		Deque<DeploymentTask<?>> ready = new ArrayDeque<DeploymentTask<?>>();
+		Map<DeploymentTask<?>, Integer> unresolved = new HashMap<DeploymentTask<?>, Integer>();
+		for (DeploymentTask<?> task : all) {
+			pendingDependencies.put(task, task.getDependencies().size());
+			unresolved.put(task, task.getDependencies().size());
+			if (task.getDependencies().isEmpty()) {
+				ready.add(task);
+			}
+			for (DeploymentTask<?> dependency : task.getDependencies()) {
+				dependentsOf(dependency).add(task);
+			}
+		}
+		List<DeploymentTask<?>> ordered = new ArrayList<DeploymentTask<?>>();
+		while (!ready.isEmpty()) {
+			DeploymentTask<?> task = ready.pop();
+			ordered.add(task);
+			for (DeploymentTask<?> dependent : dependentsOf(task)) {
+				int count = unresolved.get(dependent) - 1;
+				unresolved.put(dependent, count);
+				if (count == 0) {
+					ready.add(dependent);
+				}
+			}
+		}
+		if (ordered.size() != all.size()) {
+			throw new IllegalArgumentException("Deployment tasks contain a dependency cycle");
+		}
+		return ordered;
+	}
+
+	private List<DeploymentTask<?>> dependentsOf(DeploymentTask<?> task) {
+		List<DeploymentTask<?>> result = dependents.get(task);
+		if (result == null) {
+			result = new ArrayList<DeploymentTask<?>>();
+			dependents.put(task, result);
+		}
+		return result;
+	}
+
+	private void submit(DeploymentTask<?> task) {
+		executor.execute(new PrioritizedRunnable(new TaskStarter(task), ranks.get(task), sequence.getAndIncrement()));
+	}
+
+	/**
+	 * Starts a task and completes it once its future output is available.
+	 * @param task The task to start.
+	 * @param rank The priority of the task and of its continuations.
+	 */
+	private <T> void start(final DeploymentTask<T> task, final int rank) {
+		ListenableFuture<T> future;
+		try {
+			future = task.start(new Executor() {
+
+				@Override
+				public void execute(Runnable command) {
+					executor.execute(new PrioritizedRunnable(command, rank, sequence.getAndIncrement()));
+				}
+			});
+		}
+		catch (Error e) {
+			task.finish(null, e);
+			complete(task);
+			throw e;
+		}
+		Futures.addCallback(future, new FutureCallback<T>() {
+
+			@Override
+			public void onSuccess(T result) {
+				task.finish(result, null);
+				complete(task);
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				task.finish(null, failure);
+				complete(task);
+			}
+		});
+	}
+
+	/**
+	 * Releases the dependents of a completed task.  Dependents of a failed task are skipped, which in
+	 * turn releases their own dependents.
+	 * @param completed The task that completed.
+	 */
+	private synchronized void complete(DeploymentTask<?> completed) {
+		Deque<DeploymentTask<?>> done = new ArrayDeque<DeploymentTask<?>>();
+		done.add(completed);
+		while (!done.isEmpty()) {
+			DeploymentTask<?> task = done.pop();
+			remaining.countDown();
+			if (!task.isSuccessful()) {
+				LOGGER.warn("Deployment task " + task.getName() + " failed: " + task.getFailure());
+			}
+			for (DeploymentTask<?> dependent : dependentsOf(task)) {
+				int count = pendingDependencies.get(dependent) - 1;
+				pendingDependencies.put(dependent, count);
+				if (count > 0) {
+					continue;
+				}
+				DeploymentTask<?> failedDependency = null;
+				for (DeploymentTask<?> dependency : dependent.getDependencies()) {
+					if (!dependency.isSuccessful()) {
+						failedDependency = dependency;
+					}
+				}
+				if (failedDependency == null) {
+					submit(dependent);
+				}
+				else {
+					dependent.skip(new IllegalStateException("Skipped because " + failedDependency.getName()
+							+ " failed", failedDependency.getFailure()));
+					done.add(dependent);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts a task on the executor.
+	 */
+	private class TaskStarter implements Runnable {
+
+		private final DeploymentTask<?> task;
+
+		TaskStarter(DeploymentTask<?> task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			start(task, ranks.get(task));
+		}
+	}
+
+	/**
+	 * Runs a task or a continuation on the executor, ordered by the length of the chain of tasks that
+	 * depend on the task.
+	 */
+	private static class PrioritizedRunnable implements Runnable, Comparable<PrioritizedRunnable> {
+
+		private final Runnable runnable;
+
+		private final int rank;
+
+		private final long order;
+
+		PrioritizedRunnable(Runnable runnable, int rank, long order) {
+			this.runnable = runnable;
+			this.rank = rank;
+			this.order = order;
+		}
+
+		@Override
+		public void run() {
+			runnable.run();
+		}
+
+		@Override
+		public int compareTo(PrioritizedRunnable other) {
+			if (rank != other.rank) {
+				return rank > other.rank ? -1 : 1;
+			}
+			return order < other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+	}
+
+}
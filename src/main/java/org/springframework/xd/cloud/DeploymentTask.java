@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.cloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.springframework.util.Assert;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * A single phase of a deployment, e.g. provisioning an instance or copying a file to it.  A task
+ * declares the tasks whose results it needs as dependencies and produces a result that dependent
+ * tasks can read.  Tasks are executed by the {@link DeploymentScheduler}.
+ * <p>
+ * A task implements {@link #executeAsync()} to return a future of its result, so that no scheduler
+ * thread is held while it waits on an external event.  A task that produces its result on a
+ * scheduler thread extends {@link SyncDeploymentTask} instead.
+ *
+ * @param <T> The type of the result produced by the task.
+ */
+public abstract class DeploymentTask<T> {
+
+	private final String name;
+
+	private final List<DeploymentTask<?>> dependencies = new ArrayList<DeploymentTask<?>>();
+
+	private volatile T result;
+
+	private volatile Throwable failure;
+
+	private volatile boolean complete;
+
+	private volatile long startTime;
+
+	private volatile long endTime;
+
+	private volatile Executor executor;
+
+	private final SettableFuture<T> future = SettableFuture.create();
+
+	/**
+	 * Creates a task.
+	 * @param name The name reported in logs and in the critical path report.
+	 */
+	public DeploymentTask(String name) {
+		Assert.hasText(name, "name can not be empty nor null");
+		this.name = name;
+	}
+
+	/**
+	 * Starts the phase and returns a future of its output.  Results of the dependencies are available
+	 * through their {@link #getResult()}.
+	 * @return The future output of this phase.
+	 * @throws Exception if the phase failed to start.
+	 */
+	protected abstract ListenableFuture<T> executeAsync() throws Exception;
+
+	/**
+	 * Retrieves the executor that runs the continuations of this task on the scheduler threads, with
+	 * the priority of this task.  Only available once the task started.
+	 * @return The executor for the continuations of the task.
+	 */
+	protected Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Declares that this task can only start once the tasks specified completed successfully.
+	 * @param tasks The tasks this task depends on.
+	 * @return this task.
+	 */
+	public DeploymentTask<T> dependsOn(DeploymentTask<?>... tasks) {
+		for (DeploymentTask<?> task : tasks) {
+			Assert.notNull(task, "dependencies can not be null");
+			dependencies.add(task);
+		}
+		return this;
+	}
+
+	/**
+	 * Retrieves the output of the task.
+	 * @return The output of the task.
+	 * @throws IllegalStateException if the task did not complete successfully.
+	 */
+	public T getResult() {
+		if (!isSuccessful()) {
+			throw new IllegalStateException("Task " + name + " did not complete successfully", failure);
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieves a future that completes with the outcome of the task, including when the task is skipped.
+	 * Lets a task use the result of another task when it is available without depending on it, so that
+	 * it can fall back on something else if the other task fails.
+	 * @return The future output of the task.
+	 */
+	public ListenableFuture<T> getFuture() {
+		return future;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<DeploymentTask<?>> getDependencies() {
+		return Collections.unmodifiableList(dependencies);
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public boolean isSuccessful() {
+		return complete && failure == null;
+	}
+
+	/**
+	 * @return The exception that caused the task to fail, or null.
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return The time in millis the task took to execute.  0 if it did not execute.
+	 */
+	public long getDuration() {
+		return startTime == 0 ? 0 : endTime - startTime;
+	}
+
+	/**
+	 * Starts the task.  The outcome must be recorded with {@link #finish(Object, Throwable)} once the
+	 * returned future completes.
+	 * @param continuationExecutor The executor returned by {@link #getExecutor()}.
+	 * @return The future output of the task.
+	 */
+	ListenableFuture<T> start(Executor continuationExecutor) {
+		executor = continuationExecutor;
+		startTime = System.currentTimeMillis();
+		try {
+			return executeAsync();
+		}
+		catch (Exception e) {
+			return Futures.immediateFailedFuture(e);
+		}
+	}
+
+	/**
+	 * Records the result, failure and duration of the task.
+	 * @param taskResult The output of the task.
+	 * @param taskFailure The exception that caused the task to fail, or null.
+	 */
+	void finish(T taskResult, Throwable taskFailure) {
+		result = taskResult;
+		failure = taskFailure;
+		endTime = System.currentTimeMillis();
+		complete = true;
+		if (taskFailure == null) {
+			future.set(taskResult);
+		}
+		else {
+			future.setException(taskFailure);
+		}
+	}
+
+	/**
+	 * Marks the task as failed without executing it.
+	 * @param cause The reason the task did not execute.
+	 */
+	void skip(Throwable cause) {
+		failure = cause;
+		complete = true;
+		future.setException(cause);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.cloud;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A deployment task that produces its result on the scheduler thread that starts it, e.g. a call to
+ * the EC2 API or a command sent over ssh.
+ *
+ * @param <T> The type of the result produced by the task.
+ */
+public abstract class SyncDeploymentTask<T> extends DeploymentTask<T> {
+
+	/**
+	 * Creates a task.
+	 * @param name The name reported in logs and in the critical path report.
+	 */
+	public SyncDeploymentTask(String name) {
+		super(name);
+	}
+
+	/**
+	 * Executes the phase.  Results of the dependencies are available through their {@link #getResult()}.
+	 * @return The output of this phase.
+	 * @throws Exception if the phase failed.
+	 */
+	protected abstract T execute() throws Exception;
+
+	/**
+	 * Executes the phase with {@link #execute()} on the calling thread.
+	 * @return a future that is already complete.
+	 * @throws Exception if the phase failed.
+	 */
+	@Override
+	protected final ListenableFuture<T> executeAsync() throws Exception {
+		return Futures.immediateFuture(execute());
+	}
+
+}
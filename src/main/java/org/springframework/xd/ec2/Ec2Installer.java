@@ -16,6 +16,7 @@
 
 package org.springframework.xd.ec2;
 
+import org.jclouds.ec2.domain.RunningInstance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,15 +25,19 @@ import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PropertiesLoaderUtils;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
+import org.springframework.util.FileCopyUtils;
 import org.springframework.util.StringUtils;
-import org.springframework.xd.cloud.Deployer;
 import org.springframework.xd.cloud.Deployment;
+import org.springframework.xd.cloud.DeploymentListener;
 import org.springframework.xd.cloud.InstanceType;
 import org.springframework.xd.cloud.InvalidXDZipUrlException;
 import org.springframework.xd.ec2.cloud.AWSDeployer;
+import org.springframework.xd.ec2.cloud.AutoScaler;
+import org.springframework.xd.ec2.cloud.ContainerScaler;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -68,19 +73,219 @@ public class Ec2Installer {
 	 * Removes old artifacts if present.
 	 */
 	public void install() {
+		banner.print("banner.txt");
+		run(Operation.DEPLOY, null, 0);
+	}
+
+	/**
+	 * Displays the banner verifies that the configuration is valid and resumes a suspended cluster.  The
+	 * servers are written to the artifact file as they start, as they are when the cluster is deployed.
+	 * @param name The name of the cluster to resume, or null to resume the cluster of the configuration.
+	 */
+	public void resume(String name) {
+		banner.print("banner.txt");
+		run(Operation.RESUME, name, 0);
+	}
+
+	/**
+	 * Displays the banner verifies that the configuration is valid and resumes a deployment that was
+	 * interrupted, from the journal of the cluster.  The servers are appended to the artifact file as they
+	 * start, the servers written before the interruption are kept.
+	 * @param name The name of the cluster, or null for the cluster of the configuration.
+	 */
+	public void resumeDeployment(String name) {
+		banner.print("banner.txt");
+		run(Operation.RESUME_DEPLOYMENT, name, 0);
+	}
+
+	/**
+	 * Displays the banner verifies that the configuration is valid and adds containers to a running cluster.
+	 * The new containers are appended to the artifact file as they start.
+	 * @param name The name of the cluster, or null for the cluster of the configuration.
+	 * @param containerCount The number of containers to add.
+	 */
+	public void scaleOut(String name, int containerCount) {
+		banner.print("banner.txt");
+		run(Operation.SCALE_OUT, name, containerCount);
+	}
+
+	/**
+	 * Removes the containers with the highest indexes from a running cluster and from the artifact file.
+	 * @param name The name of the cluster, or null for the cluster of the configuration.
+	 * @param containerCount The number of containers to remove.
+	 */
+	public void scaleIn(String name, int containerCount) {
+		Assert.isTrue(containerCount > 0, "containerCount must be greater than 0");
+		banner.print("banner.txt");
+		scaleIn(name, containerCount, null);
+	}
+
+	/**
+	 * Removes containers from a running cluster and from the artifact file.
+	 * @param name The name of the cluster, or null for the cluster of the configuration.
+	 * @param containerIndexes The indexes of the containers to remove.
+	 */
+	public void scaleIn(String name, List<Integer> containerIndexes) {
+		Assert.notEmpty(containerIndexes, "containerIndexes can not be empty nor null");
+		banner.print("banner.txt");
+		scaleIn(name, 0, containerIndexes);
+	}
+
+	/**
+	 * Displays the banner verifies that the configuration is valid and adds or removes containers of a
+	 * running cluster based on their load, until the process is stopped.  Containers are added and
+	 * removed the way {@link #scaleOut(String, int)} and {@link #scaleIn(String, List)} do.
+	 * @param name The name of the cluster, or null for the cluster of the configuration.
+	 */
+	public void autoscale(final String name) {
 		try {
-			Deployer deployer;
 			banner.print("banner.txt");
+			Properties properties = getProperties();
+			if (StringUtils.hasText(name)) {
+				properties.setProperty("cluster.name", name);
+			}
+			validateConfiguration(properties);
+			new AutoScaler(properties, new ContainerScaler() {
+
+				@Override
+				public void scaleOut(int containerCount) {
+					run(Operation.SCALE_OUT, name, containerCount);
+				}
+
+				@Override
+				public void scaleIn(List<Integer> containerIndexes) {
+					Ec2Installer.this.scaleIn(name, 0, containerIndexes);
+				}
+			}).run();
+		}
+		catch (IllegalArgumentException iae) {
+			LOGGER.info(HIGHLIGHT);
+			LOGGER.error("An IllegalArgumentException has been thrown with the following message: \n"
+					+ iae.getMessage());
+			LOGGER.error("\nMake sure you updated the config/xd.ec2.properties");
+			LOGGER.info(HIGHLIGHT);
+			LOGGER.info(iae.getMessage(), iae);
+		}
+	}
+
+	private void scaleIn(String name, int containerCount, List<Integer> containerIndexes) {
+		try {
+			Properties properties = getProperties();
+			if (StringUtils.hasText(name)) {
+				properties.setProperty("cluster.name", name);
+			}
+			validateConfiguration(properties);
+			AWSDeployer deployer = new AWSDeployer(properties);
+			List<RunningInstance> removed = containerIndexes == null ? deployer.scaleIn(containerCount)
+					: deployer.scaleIn(containerIndexes);
+			removeArtifacts(removed);
+			LOGGER.info("\n\n" + HIGHLIGHT);
+			LOGGER.info("*Scale In Complete                                                     *");
+			LOGGER.info("*The following Servers have been removed from your XD Cluster         *");
+			LOGGER.info(HIGHLIGHT);
+			for (RunningInstance instance : removed) {
+				LOGGER.info(String.format(">>Container Node Instance: %s has been removed", instance.getDnsName()));
+			}
+			LOGGER.info("Done");
+			LOGGER.info(HIGHLIGHT);
+		}
+		catch (IllegalArgumentException iae) {
+			LOGGER.info(HIGHLIGHT);
+			LOGGER.error("An IllegalArgumentException has been thrown with the following message: \n"
+					+ iae.getMessage());
+			LOGGER.error("\nMake sure you updated the config/xd.ec2.properties");
+			LOGGER.info(HIGHLIGHT);
+			LOGGER.info(iae.getMessage(), iae);
+		}
+	}
+
+	/**
+	 * Deploys the cluster, resumes it or adds containers to it.
+	 * @param operation The operation applied to the cluster.
+	 * @param name The name of the cluster, or null for the cluster of the configuration.
+	 * @param containerCount The number of containers to add when scaling out.
+	 */
+	private void run(Operation operation, String name, int containerCount) {
+		try {
+			AWSDeployer deployer;
 			final Properties properties = getProperties();
+			if (StringUtils.hasText(name)) {
+				properties.setProperty("cluster.name", name);
+			}
 			validateConfiguration(properties);
-			removeArtifacts();
 			deployer = new AWSDeployer(properties);
-			final List<Deployment> result = deployer.deploy();
+			if (operation == Operation.DEPLOY && deployer.hasInterruptedDeployment()) {
+				throw new IllegalStateException("The last deployment of " + properties.getProperty("cluster.name")
+						+ " was interrupted.  Resume it with resume-xd-ec2 --interrupted, or delete its journal"
+						+ " to deploy again.");
+			}
+			boolean append = operation == Operation.SCALE_OUT || operation == Operation.RESUME_DEPLOYMENT;
+			if (!append) {
+				removeArtifacts();
+			}
+			BufferedWriter artifacts = createArtifacts(append);
+			final List<Deployment> result;
+			DeploymentListener listener = createArtifactListener(artifacts, properties);
+			try {
+				if (operation == Operation.RESUME) {
+					result = deployer.resume(listener);
+				}
+				else if (operation == Operation.RESUME_DEPLOYMENT) {
+					result = deployer.resumeDeployment(listener);
+				}
+				else if (operation == Operation.SCALE_OUT) {
+					result = deployer.scaleOut(containerCount, listener);
+				}
+				else {
+					result = deployer.deploy(listener);
+				}
+			}
+			finally {
+				closeArtifacts(artifacts);
+			}
 			LOGGER.info("\n\n" + HIGHLIGHT);
-			LOGGER.info("*Installation Complete                                                 *");
+			if (operation == Operation.RESUME || operation == Operation.RESUME_DEPLOYMENT) {
+				LOGGER.info("*Resume Complete                                                       *");
+			}
+			else if (operation == Operation.SCALE_OUT) {
+				LOGGER.info("*Scale Out Complete                                                    *");
+			}
+			else {
+				LOGGER.info("*Installation Complete                                                 *");
+			}
 			LOGGER.info("*The following Servers have been deployed to your XD Cluster           *");
 			LOGGER.info(HIGHLIGHT);
-			generateArtifacts(result, properties);
+			for (Deployment instance : result) {
+				logDeployment(instance);
+			}
+			LOGGER.info("Done");
+			LOGGER.info(HIGHLIGHT);
+		}
+		catch (InvalidXDZipUrlException zipException) {
+			LOGGER.error(zipException.getMessage());
+		}
+		catch (IllegalArgumentException iae) {
+			LOGGER.info(HIGHLIGHT);
+			LOGGER.error("An IllegalArgumentException has been thrown with the following message: \n"
+					+ iae.getMessage());
+			LOGGER.error("\nMake sure you updated the config/xd.ec2.properties");
+			LOGGER.info(HIGHLIGHT);
+			LOGGER.info(iae.getMessage(), iae);
+		}
+	}
+
+	/**
+	 * Displays the banner verifies that the configuration is valid and bakes an image where XD is installed.
+	 */
+	public void bake() {
+		try {
+			banner.print("banner.txt");
+			Properties properties = getProperties();
+			validateConfiguration(properties);
+			String imageId = new AWSDeployer(properties).bake();
+			LOGGER.info("\n\n" + HIGHLIGHT);
+			LOGGER.info("*Image " + imageId + " has been created");
+			LOGGER.info("*Deployments with baked.image=true and the same configuration will use it");
 			LOGGER.info(HIGHLIGHT);
 		}
 		catch (InvalidXDZipUrlException zipException) {
@@ -113,52 +318,146 @@ public class Ec2Installer {
 	}
 
 	/**
-	 * Creates the artifact file that will be used by other processes in a CI build.
-	 * @param deployment A list of the deployed servers.
-	 * @param properties The properties used to provision the resources and deploy the XD cluster.
+	 * Removes the lines of the removed containers from the artifact file, if it is present.
+	 * @param removed The instances of the removed containers.
 	 */
-	private void generateArtifacts(List<Deployment> deployment, Properties properties) {
+	private void removeArtifacts(List<RunningInstance> removed) {
+		File file = new File("ec2servers.csv");
+		if (!file.exists()) {
+			return;
+		}
 		try {
+			StringBuilder kept = new StringBuilder();
+			for (String line : FileCopyUtils.copyToString(new FileReader(file)).split("\n")) {
+				boolean remove = false;
+				for (RunningInstance instance : removed) {
+					remove |= line.startsWith("containerNode," + instance.getDnsName() + ",");
+				}
+				if (!remove && line.length() > 0) {
+					kept.append(line).append("\n");
+				}
+			}
+			FileCopyUtils.copy(kept.toString(), new FileWriter(file));
+		}
+		catch (IOException e) {
+			LOGGER.error(e.getMessage(), e);
+		}
+	}
 
+	/**
+	 * Creates the artifact file that will be used by other processes in a CI build.  Servers are
+	 * appended to the file as they are deployed.
+	 * @param append If true the servers are appended to the existing file, when containers are added.
+	 * @return The writer for the artifact file.
+	 */
+	private BufferedWriter createArtifacts(boolean append) {
+		try {
 			File file = new File("ec2servers.csv");
 
-			if(!file.createNewFile()){
+			if(!file.createNewFile() && !append){
 				throw new IllegalStateException("Unable to create ec2Servers.csv artifact");
 			}
+			return new BufferedWriter(new FileWriter(file.getAbsoluteFile(), append));
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
 
-			FileWriter fw = new FileWriter(file.getAbsoluteFile());
-			BufferedWriter bw = new BufferedWriter(fw);
-			String port = properties.getProperty("PORT");
-			String jmxPort = properties.getProperty("management.port");
-			for (final Deployment instance : deployment) {
-				if (instance.getType() == InstanceType.SINGLE_NODE) {
-					LOGGER.info(String.format(
-							"Single Node Instance: %s has been created",
-							instance.getAddress().getHostName()));
-					bw.write("singleNode," + instance.getAddress().getHostName() + ","
-							+ properties.getProperty("server.port") + "," + port + "," + jmxPort + "\n");
-				}
-				if (instance.getType() == InstanceType.ADMIN) {
-					LOGGER.info(String.format(
-							">Admin Node Instance: %s has been created",
-							instance.getAddress().getHostName()));
-					bw.write("adminNode," + instance.getAddress().getHostName() + ","
-							+ properties.getProperty("server.port") + "," + port + "," + jmxPort + "\n");
+	/**
+	 * Creates the listener that appends each server to the artifact file as soon as it is deployed.
+	 * @param artifacts The writer for the artifact file.
+	 * @param properties The properties used to provision the resources and deploy the XD cluster.
+	 * @return The listener passed to the deployer.
+	 */
+	DeploymentListener createArtifactListener(final BufferedWriter artifacts, final Properties properties) {
+		return new DeploymentListener() {
 
-				}
-				if (instance.getType() == InstanceType.NODE) {
-					LOGGER.info(String.format(
-							">>Container Node Instance: %s has been created",
-							instance.getAddress().getHostName()));
-					bw.write("containerNode," + instance.getAddress().getHostName() + ","
-							+ properties.getProperty("server.port") + "," + port + "," + jmxPort + "\n");
+			@Override
+			public void deploymentCompleted(Deployment deployment) {
+				writeArtifact(artifacts, deployment, properties);
+			}
 
-				}
+			@Override
+			public void clusterUsable(List<Deployment> deployments) {
+				LOGGER.info("\n\n" + HIGHLIGHT);
+				LOGGER.info("*Your XD Cluster is usable, remaining containers are still deploying  *");
+				LOGGER.info(HIGHLIGHT);
 			}
-			bw.close();
+		};
+	}
 
-			LOGGER.info("Done");
+	/**
+	 * Appends a deployed server to the artifact file and flushes it so that other processes can use
+	 * the server before the whole cluster is deployed.
+	 * @param bw The writer for the artifact file.
+	 * @param instance The deployed server.
+	 * @param properties The properties used to provision the resources and deploy the XD cluster.
+	 */
+	private void writeArtifact(BufferedWriter bw, Deployment instance, Properties properties) {
+		String port = properties.getProperty("PORT");
+		String jmxPort = properties.getProperty("management.port");
+		String prefix = null;
+		if (instance.getType() == InstanceType.SINGLE_NODE) {
+			prefix = "singleNode,";
+		}
+		if (instance.getType() == InstanceType.ADMIN) {
+			prefix = "adminNode,";
+		}
+		if (instance.getType() == InstanceType.NODE) {
+			prefix = "containerNode,";
+		}
+		try {
+			bw.write(prefix + getHostName(instance) + ","
+					+ properties.getProperty("server.port") + "," + port + "," + jmxPort + "\n");
+			bw.flush();
+		}
+		catch (IOException e) {
+			LOGGER.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Retrieves the host of a deployed server, or the id of its instance if the instance failed before it got
+	 * a host.
+	 * @param instance The deployed server.
+	 * @return The host name, the instance id, or "unknown".
+	 */
+	private static String getHostName(Deployment instance) {
+		if (instance.getAddress() != null) {
+			return instance.getAddress().getHostName();
+		}
+		return instance.getInstanceId() != null ? instance.getInstanceId() : "unknown";
+	}
 
+	private void logDeployment(Deployment instance) {
+		if (instance.getType() == InstanceType.SINGLE_NODE) {
+			LOGGER.info(String.format(
+					"Single Node Instance: %s has been created",
+					getHostName(instance)));
+		}
+		if (instance.getType() == InstanceType.ADMIN) {
+			LOGGER.info(String.format(
+					">Admin Node Instance: %s has been created",
+					getHostName(instance)));
+		}
+		if (instance.getType() == InstanceType.NODE) {
+			LOGGER.info(String.format(
+					">>Container Node Instance: %s has been created",
+					getHostName(instance)));
+		}
+	}
+
+	/**
+	 * The operations that deploy servers and write them to the artifact file.
+	 */
+	private static enum Operation {
+		DEPLOY, RESUME, RESUME_DEPLOYMENT, SCALE_OUT
+	}
+
+	private void closeArtifacts(BufferedWriter bw) {
+		try {
+			bw.close();
 		}
 		catch (IOException e) {
 			LOGGER.error(e.getMessage(), e);
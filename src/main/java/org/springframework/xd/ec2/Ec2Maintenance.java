@@ -76,6 +76,18 @@ public class Ec2Maintenance {
 		tools.shutdown(name);
 	}
 
+	/**
+	 * Stops the XD instance(s) with a specific name, so they can be resumed later.
+	 * This uses the "name" tag to determine the instance name.
+	 * @param name  The name of the cluster to suspend.
+	 */
+	public void suspend(String name) {
+		Assert.hasText(name, "name must not be empty nor null");
+		banner.print("maintenance.txt");
+		AWSTools tools = new AWSTools(getProperties());
+		tools.suspend(name);
+	}
+
 	private Properties getProperties() {
 		Resource resource = new ClassPathResource("xd-ec2.properties");
 		Properties props = null;
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2;
+
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.xd.cloud.DeployTimeoutException;
+
+/**
+ * Starts a suspended XD cluster again.  The cluster is the one of the configuration unless a
+ * --cluster-name argument is given.  With the --interrupted argument a deployment that was interrupted is
+ * resumed from its journal instead.
+ */
+public class MainResume {
+
+	public static void main(String[] args) {
+
+		@SuppressWarnings("resource")
+		AbstractApplicationContext ctx = new ClassPathXmlApplicationContext(
+				"META-INF/xdinstaller-context.xml");
+		// shutdown the context along with the VM
+		ctx.registerShutdownHook();
+		ctx.refresh();
+		// Resume all instances with this cluster name
+		Ec2Installer installer = ctx.getBean(Ec2Installer.class);
+		String name = null;
+		boolean interrupted = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--cluster-name") && i + 1 < args.length) {
+				name = args[++i];
+			}
+			else if (args[i].equals("--interrupted")) {
+				interrupted = true;
+			}
+		}
+		try {
+			if (interrupted) {
+				installer.resumeDeployment(name);
+			}
+			else {
+				installer.resume(name);
+			}
+		}
+		catch (DeployTimeoutException te) {
+			te.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+}
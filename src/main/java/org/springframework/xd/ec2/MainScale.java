@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.util.StringUtils;
+import org.springframework.xd.cloud.DeployTimeoutException;
+
+/**
+ * Adds containers to or removes containers from a running XD cluster.  The cluster is the one of the
+ * configuration unless a --cluster-name argument is given.  --add N adds N containers, --remove N removes
+ * the N containers with the highest indexes and --remove-containers 3,4 removes the containers listed.
+ */
+public class MainScale {
+
+	public static void main(String[] args) {
+		String name = null;
+		int added = 0;
+		int removed = 0;
+		List<Integer> removedContainers = new ArrayList<Integer>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--cluster-name")) {
+				name = args[i + 1];
+			}
+			else if (args[i].equals("--add")) {
+				added = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].equals("--remove")) {
+				removed = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].equals("--remove-containers")) {
+				for (String index : StringUtils.commaDelimitedListToStringArray(args[i + 1])) {
+					removedContainers.add(Integer.valueOf(index.trim()));
+				}
+			}
+		}
+		if (added == 0 && removed == 0 && removedContainers.isEmpty()) {
+			System.err.println("Usage: scale-xd-ec2 [--cluster-name <name>] --add <count> | --remove <count>"
+					+ " | --remove-containers <index,...>");
+			System.exit(1);
+		}
+
+		@SuppressWarnings("resource")
+		AbstractApplicationContext ctx = new ClassPathXmlApplicationContext(
+				"META-INF/xdinstaller-context.xml");
+		// shutdown the context along with the VM
+		ctx.registerShutdownHook();
+		ctx.refresh();
+		Ec2Installer installer = ctx.getBean(Ec2Installer.class);
+		try {
+			if (added > 0) {
+				installer.scaleOut(name, added);
+			}
+			else if (removed > 0) {
+				installer.scaleIn(name, removed);
+			}
+			else {
+				installer.scaleIn(name, removedContainers);
+			}
+		}
+		catch (DeployTimeoutException te) {
+			te.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+}
@@ -16,31 +16,32 @@
 
 package org.springframework.xd.ec2.cloud;
 
-import com.google.common.collect.ImmutableSet;
+import com.google.common.base.Function;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Iterables;
-import com.google.inject.Module;
-import org.jclouds.ContextBuilder;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.jclouds.aws.ec2.AWSEC2Api;
-import org.jclouds.compute.ComputeService;
-import org.jclouds.compute.ComputeServiceContext;
 import org.jclouds.compute.domain.ExecResponse;
-import org.jclouds.compute.options.RunScriptOptions;
 import org.jclouds.domain.Credentials;
 import org.jclouds.domain.LoginCredentials;
+import org.jclouds.ec2.domain.InstanceState;
 import org.jclouds.ec2.domain.Reservation;
 import org.jclouds.ec2.domain.RunningInstance;
-import org.jclouds.http.handlers.BackoffLimitedRetryHandler;
-import org.jclouds.io.payloads.FilePayload;
-import org.jclouds.sshj.SshjSshClient;
-import org.jclouds.sshj.config.SshjSshClientModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 import org.springframework.util.FileCopyUtils;
-import org.springframework.util.StopWatch;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.xd.cloud.*;
 import org.springframework.xd.ec2.Main;
+import org.springframework.xd.ec2.environment.NodeEvent;
 
 import java.io.File;
 import java.io.FileReader;
@@ -48,22 +49,29 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
 
-import static java.util.concurrent.TimeUnit.SECONDS;
-import static org.jclouds.compute.config.ComputeServiceProperties.TIMEOUT_PORT_OPEN;
-import static org.jclouds.compute.config.ComputeServiceProperties.TIMEOUT_SCRIPT_COMPLETE;
 import static org.springframework.xd.ec2.Ec2Installer.HIGHLIGHT;
 
 /**
@@ -73,182 +81,1800 @@ import static org.springframework.xd.ec2.Ec2Installer.HIGHLIGHT;
 
 public class AWSDeployer implements Deployer {
 
-	static final Logger LOGGER = LoggerFactory.getLogger(AWSDeployer.class);
+	static final Logger LOGGER = LoggerFactory.getLogger(AWSDeployer.class);
+
+	private static final String UBUNTU_HOME = "/home/ubuntu/";
+
+	private String clusterName;
+
+	private String privateKeyFile;
+
+	private String multiNode;
+
+	private String description;
+
+	private String userName;
+
+	private String region;
+
+	private String numberOfInstances;
+
+	private int managementPort;
+
+	private AWSEC2Api client;
+
+	private EC2RequestLimiter requestLimiter;
+
+	private InstanceTagger instanceTagger;
+
+	private AWSInstanceChecker instanceChecker;
+
+	private AWSInstanceConfigurer configurer;
+
+	private AWSInstanceProvisioner instanceProvisioner;
+
+	private InstanceStateTracker instanceStateTracker;
+
+	private PortProber portProber;
+
+	private SshSessionPool sshSessionPool;
+
+	private ConfiguratorDistributor configuratorDistributor;
+
+	private AWSImageBaker imageBaker;
+
+	private boolean useBakedImage;
+
+	private boolean treeDistribution;
+
+	private int distributionFanout;
+
+	private String hadoopVersion;
+
+	private long instanceProvisionWaitTime;
+
+	private boolean pipelined;
+
+	private long deploymentTimeout;
+
+	private int deploymentThreads;
+
+	private String minimumHealthyContainers;
+
+	private boolean bootConfiguration;
+
+	private long bootWaitTime;
+
+	private Properties nodeProperties;
+
+	private boolean nodeAgent;
+
+	private int nodeAgentPort;
+
+	private NodeEventSubscriber eventSubscriber;
+
+	private long scaleInDrainTime;
+
+	private int containerReplacements;
+
+	private int recoveryAttempts;
+
+	private RetryPolicy copyPolicy;
+
+	private RetryPolicy scriptPolicy;
+
+	private RetryPolicy serverPolicy;
+
+	private ScheduledExecutorService retryScheduler;
+
+	private DeploymentJournal journal;
+
+	private long resumeCheckTime;
+
+	/**
+	 * Initializes the state of the an instance of AWSDeployer.
+	 * @param properties The environment variables that declare how the XD-Cluster should be provisioned.
+	 */
+	public AWSDeployer(Properties properties) {
+		this(properties, new EC2RequestLimiter(properties));
+	}
+
+	private AWSDeployer(Properties properties, EC2RequestLimiter requestLimiter) {
+		this(properties, requestLimiter, requestLimiter.createClient(properties));
+	}
+
+	/**
+	 * Initializes an AWSDeployer that calls EC2 through the client specified.
+	 * @param properties The environment variables that declare how the XD-Cluster should be provisioned.
+	 * @param requestLimiter Limits the calls made to the EC2 API.
+	 * @param client The EC2 client, limited by the requestLimiter.
+	 */
+	AWSDeployer(Properties properties, EC2RequestLimiter requestLimiter, AWSEC2Api client) {
+		Assert.notNull(properties, "properties can not be null");
+		Assert.notNull(requestLimiter, "requestLimiter can not be null");
+		Assert.notNull(client, "client can not be null");
+		clusterName = properties.getProperty("cluster.name");
+		privateKeyFile = properties.getProperty("private.key.file");
+		multiNode = properties.getProperty("multi.node");
+		description = properties.getProperty("description");
+		userName = properties.getProperty("user.name");
+		region = properties.getProperty("region");
+		numberOfInstances = properties.getProperty("number.nodes");
+		hadoopVersion = properties.getProperty("XD_HADOOP_DISTRO");
+		managementPort = Integer.parseInt(properties.getProperty("management.port"));
+		instanceProvisionWaitTime = Long.valueOf(properties.getProperty("instance.provision.wait.time"));
+		pipelined = Boolean.parseBoolean(properties.getProperty("pipelined.deployment", "false"));
+		deploymentTimeout = Long.valueOf(properties.getProperty("deployment.timeout", "3600000"));
+		deploymentThreads = Integer.parseInt(properties.getProperty("deployment.threads", "8"));
+		minimumHealthyContainers = properties.getProperty("minimum.healthy.containers", "");
+		treeDistribution = properties.getProperty("configurator.distribution", "direct").equalsIgnoreCase("tree");
+		distributionFanout = Integer.parseInt(properties.getProperty("configurator.distribution.fanout", "4"));
+		useBakedImage = Boolean.parseBoolean(properties.getProperty("baked.image", "false"));
+		bootConfiguration = properties.getProperty("node.configuration", "ssh").equalsIgnoreCase("user-data");
+		bootWaitTime = Long.valueOf(properties.getProperty("boot.wait.time", "900000"));
+		nodeAgent = Boolean.parseBoolean(properties.getProperty("node.agent", "false"));
+		nodeAgentPort = Integer.parseInt(properties.getProperty("node.agent.port", "8097"));
+		scaleInDrainTime = Long.valueOf(properties.getProperty("scale.in.drain.time", "30000"));
+		copyPolicy = RetryPolicy.forPhase(RetryPolicy.Phase.COPY, properties);
+		scriptPolicy = RetryPolicy.forPhase(RetryPolicy.Phase.SCRIPT, properties);
+		serverPolicy = RetryPolicy.forPhase(RetryPolicy.Phase.SERVER, properties);
+		retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "retry-backoff");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		journal = new DeploymentJournal(new File(properties.getProperty("deployment.journal.dir", "."), clusterName
+				+ ".journal"));
+		resumeCheckTime = Long.valueOf(properties.getProperty("resume.check.time", "10000"));
+		boolean replaceFailed = properties.getProperty("container.recovery", "retry").equalsIgnoreCase("replace");
+		containerReplacements = replaceFailed ? Integer.parseInt(properties.getProperty("container.replacements",
+				"2")) : 0;
+		recoveryAttempts = replaceFailed ? Integer.parseInt(properties.getProperty("container.recovery.attempts",
+				"1")) : serverPolicy.getMaxAttempts();
+		nodeProperties = new Properties();
+		nodeProperties.putAll(properties);
+
+		this.requestLimiter = requestLimiter;
+		this.client = client;
+		instanceTagger = new InstanceTagger(client, region, Long.valueOf(properties.getProperty("tag.batch.window",
+				"500")));
+		instanceStateTracker = new InstanceStateTracker(client, region,
+				Long.valueOf(properties.getProperty("instance.state.poll.min.interval", "1000")),
+				Long.valueOf(properties.getProperty("instance.state.poll.interval", "5000")));
+		instanceStateTracker.addListener(new InstanceStateListener() {
+
+			@Override
+			public void stateChanged(RunningInstance instance, InstanceState previousState) {
+				LOGGER.info(String.format("Instance %s is %s", instance.getId(), instance.getInstanceState()));
+			}
+		});
+		portProber = new PortProber(Integer.parseInt(properties.getProperty("port.probe.threads", "2")),
+				Long.valueOf(properties.getProperty("port.probe.interval", "1000")),
+				Integer.parseInt(properties.getProperty("port.probe.connect.timeout", "1000")));
+		instanceChecker = new AWSInstanceChecker(properties, instanceStateTracker,
+				portProber);
+		eventSubscriber = new NodeEventSubscriber(Long.valueOf(properties.getProperty("port.probe.interval", "1000")));
+		sshSessionPool = new SshSessionPool(LoginCredentials.fromCredentials(new Credentials("ubuntu",
+				getPrivateKey())), 5000);
+		configuratorDistributor = new ConfiguratorDistributor(sshSessionPool, getLibraryJarLocation(),
+				Integer.parseInt(properties.getProperty("configurator.distribution.port", "8099")), deploymentTimeout);
+		instanceProvisioner = new AWSInstanceProvisioner(client, properties);
+		configurer = new AWSInstanceConfigurer(properties);
+		if (multiNode.equalsIgnoreCase("true")) {
+			configurer.setUseEmbeddedZookeeper(false);
+		}
+		imageBaker = new AWSImageBaker(client, properties, configurer, configuratorDistributor);
+		validateURLs(properties);
+	}
+
+	/**
+	 * Deploys the XD Cluster as specified by the user.  Every step of the deployment is modeled as a
+	 * {@link DeploymentTask} and the task graph is executed by the {@link DeploymentScheduler}.  The
+	 * scheduler uses a bounded number of threads, independent of the number of containers, because the
+	 * tasks that wait on instances and ports release their thread while waiting.
+	 */
+	@Override
+	public List<Deployment> deploy() {
+		return deploy(new DeploymentListener() {
+
+			@Override
+			public void deploymentCompleted(Deployment deployment) {
+			}
+
+			@Override
+			public void clusterUsable(List<Deployment> deployments) {
+			}
+		});
+	}
+
+	/**
+	 * Deploys the XD Cluster as specified by the user and reports each server to the listener as soon as
+	 * it is deployed.  Once the server and minimum.healthy.containers containers are running the cluster
+	 * is reported usable, and the deployment no longer fails if the remaining containers time out.
+	 * @param listener Receives each deployment as its instance completes.
+	 */
+	@Override
+	public List<Deployment> deploy(DeploymentListener listener) {
+		Assert.notNull(listener, "listener can not be null");
+		if (!multiNode.equalsIgnoreCase("false") && !multiNode.equalsIgnoreCase("true")) {
+			throw new IllegalArgumentException(
+					"multi-node property must either be true or false");
+		}
+		boolean isMultiNode = multiNode.equalsIgnoreCase("true");
+		int containerCount = isMultiNode ? Integer.parseInt(numberOfInstances) : 0;
+		DeploymentPublisher publisher = new DeploymentPublisher(listener, getMinimumHealthyContainers(containerCount));
+		DeploymentScheduler scheduler = new DeploymentScheduler(deploymentThreads);
+		try {
+			journal.begin();
+			if (useBakedImage) {
+				applyBakedImage();
+			}
+			NodeTasks server = createServerTasks(isMultiNode ? InstanceType.ADMIN
+					: InstanceType.SINGLE_NODE, (treeDistribution || bootConfiguration) && containerCount > 0,
+					null, null, publisher);
+			List<NodeTasks> containers = new ArrayList<NodeTasks>();
+			List<DeploymentTask<?>> roots = new ArrayList<DeploymentTask<?>>();
+			roots.add(server.start);
+			if (isMultiNode) {
+				containers = bootConfiguration ? createBootContainerTasks(server, 0, 0, containerCount, publisher)
+						: createContainerTasks(server, 0, 0, containerCount, publisher);
+				for (NodeTasks container : containers) {
+					roots.add(container.start);
+				}
+			}
+			runTasks(scheduler, roots, publisher, "deployed");
+			LOGGER.info(scheduler.getCriticalPathReport());
+			List<Deployment> result = collectDeployments(server.start, containers, publisher);
+			journal.complete();
+			return result;
+		}
+		finally {
+			scheduler.shutdown();
+			releaseResources();
+		}
+	}
+
+	/**
+	 * Starts the instances of a cluster suspended by {@link AWSTools#suspend(String)} and starts XD on them
+	 * again.  The instances come back with new addresses, so the resources of the admin are started again,
+	 * every node is configured with the new address of the admin, and every node is checked as it is when
+	 * deployed.  XD is already installed on the instances, so nothing is downloaded.
+	 * @param listener Receives each deployment as its instance completes.
+	 * @return the deployments of the cluster.
+	 */
+	public List<Deployment> resume(DeploymentListener listener) {
+		Assert.notNull(listener, "listener can not be null");
+		RunningInstance server = null;
+		InstanceType serverType = null;
+		SortedMap<Integer, RunningInstance> containerInstances = new TreeMap<Integer, RunningInstance>();
+		List<RunningInstance> instances = AWSInstanceProvisioner.findInstancesByClusterName(client, region,
+				clusterName, "pending", "running", "stopping", "stopped");
+		for (RunningInstance instance : instances) {
+			String type = instance.getTags().get("Type");
+			if (InstanceType.NODE.name().equals(type) && instance.getTags().containsKey("Container_Node")) {
+				containerInstances.put(Integer.valueOf(instance.getTags().get("Container_Node")), instance);
+			}
+			else if (InstanceType.ADMIN.name().equals(type) || InstanceType.SINGLE_NODE.name().equals(type)) {
+				server = instance;
+				serverType = InstanceType.valueOf(type);
+			}
+		}
+		if (server == null) {
+			throw new IllegalStateException("No admin or single node instance found for cluster " + clusterName);
+		}
+		LOGGER.info("\n\n" + HIGHLIGHT);
+		LOGGER.info(String.format("*Resuming cluster %s with %d containers", clusterName,
+				containerInstances.size()));
+		LOGGER.info(HIGHLIGHT);
+		startInstances(instances);
+		configurer.setBaked(true);
+		DeploymentPublisher publisher = new DeploymentPublisher(listener, getMinimumHealthyContainers(
+				containerInstances.size()));
+		DeploymentScheduler scheduler = new DeploymentScheduler(deploymentThreads);
+		try {
+			NodeTasks serverTasks = createResumeServerTasks(server, serverType, publisher);
+			List<NodeTasks> containers = new ArrayList<NodeTasks>();
+			List<DeploymentTask<?>> roots = new ArrayList<DeploymentTask<?>>();
+			roots.add(serverTasks.start);
+			for (Map.Entry<Integer, RunningInstance> container : containerInstances.entrySet()) {
+				NodeTasks containerTasks = createResumeContainerTasks(serverTasks, container.getValue(),
+						container.getKey(), containers.size(), publisher);
+				containers.add(containerTasks);
+				roots.add(containerTasks.start);
+			}
+			runTasks(scheduler, roots, publisher, "resumed");
+			LOGGER.info(scheduler.getCriticalPathReport());
+			return collectDeployments(serverTasks.start, containers, publisher);
+		}
+		finally {
+			scheduler.shutdown();
+			releaseResources();
+		}
+	}
+
+	/**
+	 * @return true if the journal of the cluster holds a deployment that was interrupted, that
+	 * {@link #resumeDeployment(DeploymentListener)} continues.
+	 */
+	public boolean hasInterruptedDeployment() {
+		return journal.isInterrupted();
+	}
+
+	/**
+	 * Resumes a deployment that was interrupted, e.g. because the deployer died.  The journal of the cluster
+	 * tells which instances were launched and the last phase each node reached.  The instances are reconciled
+	 * with EC2: a node whose instance is gone, or is tagged for another node, is launched again, the same way
+	 * as a node that was never launched.  Every other node continues on its instance from its last phase, and
+	 * a node where XD already runs is only verified.  Stopped instances are started first.
+	 * @param listener Receives each deployment as its instance completes.
+	 * @return the deployments of the cluster.
+	 */
+	public List<Deployment> resumeDeployment(DeploymentListener listener) {
+		Assert.notNull(listener, "listener can not be null");
+		boolean isMultiNode = multiNode.equalsIgnoreCase("true");
+		int containerCount = isMultiNode ? Integer.parseInt(numberOfInstances) : 0;
+		InstanceType serverType = isMultiNode ? InstanceType.ADMIN : InstanceType.SINGLE_NODE;
+		String serverRole = isMultiNode ? "admin" : "singlenode";
+		DeploymentPublisher publisher = new DeploymentPublisher(listener, getMinimumHealthyContainers(containerCount));
+		DeploymentScheduler scheduler = new DeploymentScheduler(deploymentThreads);
+		try {
+			journal.reopen();
+			Map<String, DeploymentJournal.Entry> entries = journal.read();
+			Map<String, RunningInstance> instances = reconcileJournal(entries);
+			LOGGER.info("\n\n" + HIGHLIGHT);
+			LOGGER.info(String.format("*Resuming the deployment of cluster %s, %d of %d nodes are still available",
+					clusterName, instances.size(), containerCount + 1));
+			LOGGER.info(HIGHLIGHT);
+			startInstances(new ArrayList<RunningInstance>(instances.values()));
+			if (useBakedImage) {
+				applyBakedImage();
+			}
+			NodeTasks server = createServerTasks(serverType, (treeDistribution || bootConfiguration)
+					&& containerCount > 0, instances.get(serverRole), entries.get(serverRole), publisher);
+			List<NodeTasks> containers = new ArrayList<NodeTasks>();
+			int missingFrom = -1;
+			for (int index = 0; index <= containerCount; index++) {
+				RunningInstance instance = index < containerCount ? instances.get("container " + index) : null;
+				if (index < containerCount && instance == null) {
+					missingFrom = missingFrom < 0 ? index : missingFrom;
+					continue;
+				}
+				if (missingFrom >= 0) {
+					containers.addAll(bootConfiguration ? createBootContainerTasks(server, missingFrom,
+							containers.size(), index - missingFrom, publisher) : createContainerTasks(server,
+							missingFrom, containers.size(), index - missingFrom, publisher));
+					missingFrom = -1;
+				}
+				if (instance != null) {
+					containers.add(createResumedContainerTasks(server, instance, entries.get("container " + index),
+							index, containers.size(), publisher));
+				}
+			}
+			List<DeploymentTask<?>> roots = new ArrayList<DeploymentTask<?>>();
+			roots.add(server.start);
+			for (NodeTasks container : containers) {
+				roots.add(container.start);
+			}
+			runTasks(scheduler, roots, publisher, "deployed");
+			LOGGER.info(scheduler.getCriticalPathReport());
+			List<Deployment> result = collectDeployments(server.start, containers, publisher);
+			journal.complete();
+			return result;
+		}
+		finally {
+			scheduler.shutdown();
+			releaseResources();
+		}
+	}
+
+	/**
+	 * Describes the instances recorded in the journal and keeps those that can continue the deployment of
+	 * their node.  An instance is dropped if it is terminated, or if its tags name another cluster, type or
+	 * container index than the journal does.
+	 * @param entries The latest entry of every node in the journal.
+	 * @return the instance of every node that can continue, by node.
+	 */
+	private Map<String, RunningInstance> reconcileJournal(Map<String, DeploymentJournal.Entry> entries) {
+		Map<String, RunningInstance> result = new HashMap<String, RunningInstance>();
+		Set<String> described = new HashSet<String>();
+		Map<String, DeploymentJournal.Entry> byInstance = new HashMap<String, DeploymentJournal.Entry>();
+		for (DeploymentJournal.Entry entry : entries.values()) {
+			byInstance.put(entry.getInstanceId(), entry);
+		}
+		if (byInstance.isEmpty()) {
+			return result;
+		}
+		Multimap<String, String> filter = ImmutableMultimap.<String, String> builder()
+				.putAll("instance-id", byInstance.keySet()).build();
+		for (Reservation<? extends RunningInstance> reservation : client.getInstanceApi().get()
+				.describeInstancesInRegionWithFilter(region, filter)) {
+			for (RunningInstance instance : reservation) {
+				DeploymentJournal.Entry entry = byInstance.get(instance.getId());
+				described.add(instance.getId());
+				String mismatch = getJournalMismatch(entry, instance);
+				if (mismatch == null) {
+					LOGGER.info(String.format("%s continues on instance %s from %s", entry.getNode(), instance.getId(),
+							entry.getPhase()));
+					result.put(entry.getNode(), instance);
+				}
+				else {
+					LOGGER.warn(String.format("%s is launched again, instance %s %s", entry.getNode(),
+							instance.getId(), mismatch));
+				}
+			}
+		}
+		for (DeploymentJournal.Entry entry : entries.values()) {
+			if (!described.contains(entry.getInstanceId())) {
+				LOGGER.warn(String.format("%s is launched again, instance %s no longer exists", entry.getNode(),
+						entry.getInstanceId()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Compares an instance with the node the journal recorded it for.
+	 * @param entry The journal entry of the instance.
+	 * @param instance The instance as described by EC2.
+	 * @return why the instance can not continue the deployment of the node, or null if it can.
+	 */
+	private String getJournalMismatch(DeploymentJournal.Entry entry, RunningInstance instance) {
+		if (instance.getInstanceState() == InstanceState.TERMINATED
+				|| instance.getInstanceState() == InstanceState.SHUTTING_DOWN) {
+			return "is " + instance.getInstanceState();
+		}
+		Map<String, String> tags = instance.getTags();
+		String expectedType = entry.getNode().startsWith("container ") ? InstanceType.NODE.name() : entry
+				.getNode().equals("admin") ? InstanceType.ADMIN.name() : InstanceType.SINGLE_NODE.name();
+		if (tags.containsKey("Type") && !expectedType.equals(tags.get("Type"))) {
+			return "is tagged as " + tags.get("Type");
+		}
+		if (tags.containsKey("Container_Node") && !entry.getNode().equals("container " + tags.get("Container_Node"))) {
+			return "is tagged as container " + tags.get("Container_Node");
+		}
+		if (tags.containsKey("Name") && !tags.get("Name").equals(clusterName)
+				&& !tags.get("Name").startsWith("Initializing Instance")) {
+			return "is tagged for cluster " + tags.get("Name");
+		}
+		return null;
+	}
+
+	/**
+	 * Starts the stopped instances of a cluster, waiting for the instances that are still stopping to stop
+	 * first, and tracks all of them.
+	 * @param instances The instances of the cluster.
+	 */
+	private void startInstances(List<RunningInstance> instances) {
+		instanceStateTracker.track(instances);
+		List<String> stopped = new ArrayList<String>();
+		for (RunningInstance instance : instances) {
+			if (instance.getInstanceState() == InstanceState.STOPPING
+					&& instanceStateTracker.waitForState(instance.getId(), InstanceState.STOPPED,
+							instanceProvisionWaitTime) == null) {
+				throw new ServerFailStartException("Instance " + instance.getId()
+						+ " did not stop before timeout of " + instanceProvisionWaitTime);
+			}
+			if (instance.getInstanceState() == InstanceState.STOPPING
+					|| instance.getInstanceState() == InstanceState.STOPPED) {
+				stopped.add(instance.getId());
+			}
+		}
+		if (!stopped.isEmpty()) {
+			LOGGER.info(String.format("Starting %d stopped instances", stopped.size()));
+			client.getInstanceApi().get().startInstancesInRegion(region, stopped.toArray(new String[stopped.size()]));
+		}
+	}
+
+	/**
+	 * Creates the tasks that resume the admin or single node server.  Once the instance runs again its
+	 * resources are started, then XD is configured with the new address of the instance and started.
+	 * @param server The instance of the server.
+	 * @param type The type of server, either ADMIN or SINGLE_NODE.
+	 * @param publisher Receives the deployment of the server once it started.
+	 * @return The tasks of the server.
+	 */
+	private NodeTasks createResumeServerTasks(final RunningInstance server, final InstanceType type,
+			final DeploymentPublisher publisher) {
+		String role = type == InstanceType.ADMIN ? "admin" : "single node";
+		final DeploymentTask<RunningInstance> awaitInstance = new DeploymentTask<RunningInstance>(role
+				+ " await instance") {
+
+			@Override
+			protected ListenableFuture<RunningInstance> executeAsync() {
+				return instanceChecker.awaitAWSInstance(server);
+			}
+		};
+		final DeploymentTask<RunningInstance> startResources = new SyncDeploymentTask<RunningInstance>(role
+				+ " start resources") {
+
+			@Override
+			protected RunningInstance execute() {
+				RunningInstance instance = instanceStateTracker.getInstance(server.getId());
+				String host = instance.getDnsName();
+				LOGGER.info(">>>Starting XD resources on " + host);
+				sshSessionPool.put(host, UBUNTU_HOME + "start-resources.sh",
+						SshSessionPool.stringPayload(configurer.createStartXDResourcesScript()));
+				ExecResponse resp = sshSessionPool.exec(host, "sudo bash " + UBUNTU_HOME + "start-resources.sh > "
+						+ UBUNTU_HOME + "start-resources.log 2>&1 < /dev/null");
+				if (resp.getExitStatus() != 0) {
+					throw new ServerFailStartException("Starting the resources on " + host
+							+ " exited with status " + resp.getExitStatus() + ", see " + UBUNTU_HOME
+							+ "start-resources.log");
+				}
+				return instance;
+			}
+		};
+		startResources.dependsOn(awaitInstance);
+		final DeploymentTask<RunningInstance> checkResources = new DeploymentTask<RunningInstance>(role
+				+ " check resources") {
+
+			@Override
+			protected ListenableFuture<RunningInstance> executeAsync() {
+				RunningInstance instance = startResources.getResult();
+				instanceChecker.setProperties(establishInstanceDefaultProperties(instance.getDnsName(),
+						instanceChecker.getProperties()));
+				return instanceChecker.awaitRequiredResources(instance, configurer.isUseEmbeddedZookeeper());
+			}
+		};
+		checkResources.dependsOn(startResources);
+		DeploymentTask<Void> copyConfigurator = createInstalledConfiguratorTask(role, awaitInstance);
+		DeploymentTask<Deployment> start = new DeploymentTask<Deployment>(role + " start") {
+
+			@Override
+			protected ListenableFuture<Deployment> executeAsync() {
+				RunningInstance instance = instanceStateTracker.getInstance(checkResources.getResult().getId());
+				if (nodeAgent) {
+					eventSubscriber.subscribe(instance.getIpAddress(), nodeAgentPort);
+				}
+				return startServer(instance, type, getExecutor(), publisher);
+			}
+		};
+		start.dependsOn(checkResources, copyConfigurator);
+		return new NodeTasks(awaitInstance, copyConfigurator, start);
+	}
+
+	/**
+	 * Creates the tasks that resume a container.  Once the instance runs again and the admin started, XD is
+	 * configured with the new address of the admin and started.
+	 * @param admin The tasks of the admin server.
+	 * @param container The instance of the container.
+	 * @param containerIndex The index of the container, from its Container_Node tag.
+	 * @param position The position of the container among the resumed containers.
+	 * @param publisher Receives the deployment of the container once its outcome is known.
+	 * @return The tasks of the container.
+	 */
+	private NodeTasks createResumeContainerTasks(final NodeTasks admin, final RunningInstance container,
+			final int containerIndex, final int position, final DeploymentPublisher publisher) {
+		String role = "container " + containerIndex;
+		final DeploymentTask<RunningInstance> awaitInstance = new DeploymentTask<RunningInstance>(role
+				+ " await instance") {
+
+			@Override
+			protected ListenableFuture<RunningInstance> executeAsync() {
+				return instanceChecker.awaitAWSInstance(container);
+			}
+		};
+		DeploymentTask<Void> copyConfigurator = createInstalledConfiguratorTask(role, awaitInstance);
+		DeploymentTask<Deployment> start = new DeploymentTask<Deployment>(role + " start") {
+
+			@Override
+			protected ListenableFuture<Deployment> executeAsync() {
+				return startContainer(admin, instanceStateTracker.getInstance(container.getId()), containerIndex,
+						position, 0, getExecutor(), publisher);
+			}
+		};
+		start.dependsOn(copyConfigurator, admin.start);
+		return new NodeTasks(awaitInstance, copyConfigurator, start, new AtomicReference<RunningInstance>(container));
+	}
+
+	/**
+	 * Creates the tasks that continue the deployment of a container whose instance was launched before the
+	 * deployment was interrupted.  The instance is tagged and the configurator copied unless the journal
+	 * recorded them.  If the container reached the configured phase and already runs it is only published,
+	 * else it is started the way a new container is.
+	 * @param admin The tasks of the admin server.
+	 * @param container The instance of the container.
+	 * @param resumed The last phase of the container recorded in the journal.
+	 * @param containerIndex The index of the container.
+	 * @param position The position the container is published at.
+	 * @param publisher Receives the deployment of the container once its outcome is known.
+	 * @return The tasks of the container.
+	 */
+	private NodeTasks createResumedContainerTasks(final NodeTasks admin, final RunningInstance container,
+			final DeploymentJournal.Entry resumed, final int containerIndex, final int position,
+			final DeploymentPublisher publisher) {
+		String role = "container " + containerIndex;
+		final DeploymentTask<RunningInstance> awaitInstance = new DeploymentTask<RunningInstance>(role
+				+ " await instance") {
+
+			@Override
+			protected ListenableFuture<RunningInstance> executeAsync() {
+				if (!resumed.reached(DeploymentJournal.Phase.TAGGED)) {
+					tagContainerInitialization(Collections.singletonList(container), containerIndex);
+				}
+				return instanceChecker.awaitAWSInstance(container);
+			}
+		};
+		DeploymentTask<Void> copyConfigurator = configurer.isBaked() || bootConfiguration
+				|| resumed.reached(DeploymentJournal.Phase.COPIED) ? createInstalledConfiguratorTask(role,
+				awaitInstance) : createCopyConfiguratorTask(role, awaitInstance, false);
+		DeploymentTask<Deployment> start = new DeploymentTask<Deployment>(role + " start") {
+
+			@Override
+			protected ListenableFuture<Deployment> executeAsync() {
+				final RunningInstance instance = instanceStateTracker.getInstance(container.getId());
+				final Executor executor = getExecutor();
+				if (!resumed.reached(DeploymentJournal.Phase.CONFIGURED)) {
+					return startResumedContainer(admin, instance, containerIndex, position, executor, publisher);
+				}
+				return Futures.transform(instanceChecker.awaitContainerProcess(instance, managementPort,
+						resumeCheckTime), new AsyncFunction<Boolean, Deployment>() {
+
+					@Override
+					public ListenableFuture<Deployment> apply(Boolean running) {
+						if (!running) {
+							return startResumedContainer(admin, instance, containerIndex, position, executor,
+									publisher);
+						}
+						LOGGER.info("Container " + instance.getId() + " already runs");
+						tagInstance(instance, InstanceType.NODE);
+						journal.record(instance.getId(), DeploymentJournal.Phase.STARTED);
+						Deployment deployment = createDeployment(instance, InstanceType.NODE, DeploymentStatus.SUCCESS);
+						publisher.publish(position, deployment);
+						return Futures.immediateFuture(deployment);
+					}
+				}, executor);
+			}
+		};
+		start.dependsOn(copyConfigurator, admin.start);
+		return new NodeTasks(awaitInstance, copyConfigurator, start, new AtomicReference<RunningInstance>(container));
+	}
+
+	/**
+	 * Starts a container of a resumed deployment on its instance, over ssh or by waiting for its boot.
+	 * @param admin The tasks of the admin server.
+	 * @param instance The running instance of the container.
+	 * @param containerIndex The index of the container.
+	 * @param position The position the container is published at.
+	 * @param executor Runs the next attempt or the replacement.
+	 * @param publisher Receives the deployment of the container once its outcome is known.
+	 * @return a future of the deployment of the container.
+	 */
+	private ListenableFuture<Deployment> startResumedContainer(NodeTasks admin, RunningInstance instance,
+			int containerIndex, final int position, Executor executor, final DeploymentPublisher publisher) {
+		if (!bootConfiguration) {
+			return startContainer(admin, instance, containerIndex, position, containerReplacements, executor,
+					publisher);
+		}
+		return Futures.transform(awaitBootContainer(admin, instance, containerIndex, containerReplacements,
+				executor), new Function<Deployment, Deployment>() {
+
+			@Override
+			public Deployment apply(Deployment deployment) {
+				publisher.publish(position, deployment);
+				return deployment;
+			}
+		});
+	}
+
+	/**
+	 * Adds containers to a running multi node cluster.  The admin is found by the tags of the cluster and the
+	 * new containers are deployed the way the containers of a new cluster are.  Their indexes follow the
+	 * highest Container_Node tag of the cluster, so each new container receives its container specific
+	 * properties.
+	 * @param containerCount The number of containers to add.
+	 * @param listener Receives each new container as soon as it is deployed.
+	 * @return the deployments of the new containers.
+	 */
+	public List<Deployment> scaleOut(int containerCount, DeploymentListener listener) {
+		Assert.isTrue(containerCount > 0, "containerCount must be greater than 0");
+		Assert.notNull(listener, "listener can not be null");
+		RunningInstance admin = null;
+		int firstIndex = 0;
+		for (RunningInstance instance : AWSInstanceProvisioner.findInstancesByClusterName(client, region,
+				clusterName, "pending", "running", "stopping", "stopped")) {
+			if (InstanceType.ADMIN.name().equals(instance.getTags().get("Type"))) {
+				admin = instance;
+			}
+			else if (instance.getTags().containsKey("Container_Node")) {
+				firstIndex = Math.max(firstIndex, Integer.parseInt(instance.getTags().get("Container_Node")) + 1);
+			}
+		}
+		if (admin == null || admin.getInstanceState() != InstanceState.RUNNING) {
+			throw new IllegalStateException("No running admin instance found for cluster " + clusterName);
+		}
+		LOGGER.info("\n\n" + HIGHLIGHT);
+		LOGGER.info(String.format("*Adding %d containers to cluster %s, starting at container %d", containerCount,
+				clusterName, firstIndex));
+		LOGGER.info(HIGHLIGHT);
+		DeploymentPublisher publisher = new DeploymentPublisher(listener, containerCount);
+		DeploymentScheduler scheduler = new DeploymentScheduler(deploymentThreads);
+		try {
+			if (useBakedImage) {
+				applyBakedImage();
+			}
+			NodeTasks adminTasks = createRunningAdminTasks(admin, publisher);
+			List<NodeTasks> containers = bootConfiguration ? createBootContainerTasks(adminTasks, firstIndex, 0,
+					containerCount, publisher) : createContainerTasks(adminTasks, firstIndex, 0, containerCount,
+					publisher);
+			List<DeploymentTask<?>> roots = new ArrayList<DeploymentTask<?>>();
+			roots.add(adminTasks.start);
+			for (NodeTasks container : containers) {
+				roots.add(container.start);
+			}
+			try {
+				scheduler.run(roots, deploymentTimeout, TimeUnit.MILLISECONDS);
+			}
+			catch (DeployTimeoutException timeoutException) {
+				LOGGER.warn("Not every container was added: " + timeoutException.getMessage());
+			}
+			LOGGER.info(scheduler.getCriticalPathReport());
+			return collectDeployments(adminTasks.start, containers, publisher);
+		}
+		finally {
+			scheduler.shutdown();
+			releaseResources();
+		}
+	}
+
+	/**
+	 * Creates the tasks that stand for the admin of a running cluster, so containers can be added to it.
+	 * The admin serves the configurator again if the containers pull it, and its start task only verifies
+	 * that XD still accepts connections and points the container scripts to its address.
+	 * @param admin The instance of the admin.
+	 * @param publisher Learns that the admin is running.  The admin is not published.
+	 * @return The tasks of the admin.
+	 */
+	private NodeTasks createRunningAdminTasks(final RunningInstance admin, final DeploymentPublisher publisher) {
+		final DeploymentTask<RunningInstance> awaitInstance = new DeploymentTask<RunningInstance>(
+				"admin await instance") {
+
+			@Override
+			protected ListenableFuture<RunningInstance> executeAsync() {
+				return instanceChecker.awaitAWSInstance(admin);
+			}
+		};
+		DeploymentTask<Void> copyConfigurator = configurer.isBaked() || !(treeDistribution || bootConfiguration)
+				? createInstalledConfiguratorTask("admin", awaitInstance)
+				: createCopyConfiguratorTask("admin", awaitInstance, true);
+		DeploymentTask<Deployment> start = new DeploymentTask<Deployment>("admin check") {
+
+			@Override
+			protected ListenableFuture<Deployment> executeAsync() {
+				final RunningInstance instance = instanceStateTracker.getInstance(admin.getId());
+				if (nodeAgent) {
+					eventSubscriber.subscribe(instance.getIpAddress(), nodeAgentPort);
+				}
+				configurer.setProperties(establishInstanceDefaultProperties(instance.getDnsName(),
+						configurer.getProperties()));
+				return Futures.transform(instanceChecker.awaitServerInstance(instance, 9393),
+						new Function<Boolean, Deployment>() {
+
+							@Override
+							public Deployment apply(Boolean running) {
+								if (!running) {
+									throw new ServerFailStartException("XD is not running on admin "
+											+ instance.getId());
+								}
+								publisher.serverRunning();
+								return createDeployment(instance, InstanceType.ADMIN, DeploymentStatus.SUCCESS);
+							}
+						});
+			}
+		};
+		start.dependsOn(copyConfigurator);
+		return new NodeTasks(awaitInstance, copyConfigurator, start);
+	}
+
+	/**
+	 * Removes the containers with the highest indexes from a running cluster.
+	 * @param containerCount The number of containers to remove.
+	 * @return the instances of the removed containers.
+	 * @see #scaleIn(Collection)
+	 */
+	public List<RunningInstance> scaleIn(int containerCount) {
+		Assert.isTrue(containerCount > 0, "containerCount must be greater than 0");
+		List<Integer> indexes = new ArrayList<Integer>(findContainers().keySet());
+		if (indexes.isEmpty()) {
+			throw new IllegalStateException("No running container found for cluster " + clusterName);
+		}
+		Collections.reverse(indexes);
+		return scaleIn(indexes.subList(0, Math.min(containerCount, indexes.size())));
+	}
+
+	/**
+	 * Removes containers from a running cluster.  The XD process of each container is stopped first, so the
+	 * container leaves the cluster cleanly and the admin redeploys its modules to the remaining containers.
+	 * Once every process exited, or after scale.in.drain.time millis, the instances are terminated.
+	 * @param containerIndexes The indexes of the containers to remove, from their Container_Node tag.
+	 * @return the instances of the removed containers.
+	 */
+	public List<RunningInstance> scaleIn(Collection<Integer> containerIndexes) {
+		Assert.notEmpty(containerIndexes, "containerIndexes can not be empty nor null");
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(deploymentThreads,
+				containerIndexes.size()));
+		try {
+			SortedMap<Integer, RunningInstance> containers = findContainers();
+			List<RunningInstance> result = new ArrayList<RunningInstance>();
+			for (Integer containerIndex : containerIndexes) {
+				if (!containers.containsKey(containerIndex)) {
+					throw new IllegalArgumentException("Container " + containerIndex + " is not running in cluster "
+							+ clusterName);
+				}
+				result.add(containers.get(containerIndex));
+			}
+			LOGGER.info("\n\n" + HIGHLIGHT);
+			LOGGER.info(String.format("*Removing containers %s from cluster %s", containerIndexes, clusterName));
+			LOGGER.info(HIGHLIGHT);
+			List<Future<Boolean>> drains = new ArrayList<Future<Boolean>>();
+			for (final RunningInstance container : result) {
+				drains.add(executor.submit(new Callable<Boolean>() {
+
+					@Override
+					public Boolean call() {
+						return stopContainerProcess(container);
+					}
+				}));
+			}
+			List<String> instanceIds = new ArrayList<String>();
+			for (int i = 0; i < result.size(); i++) {
+				try {
+					if (!drains.get(i).get()) {
+						LOGGER.warn("XD did not stop on " + result.get(i).getId() + " before timeout of "
+								+ scaleInDrainTime + ", terminating it");
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(e.getMessage(), e);
+				}
+				catch (ExecutionException e) {
+					LOGGER.warn("Unable to stop XD on " + result.get(i).getId() + ": " + e.getCause().getMessage());
+				}
+				instanceIds.add(result.get(i).getId());
+			}
+			client.getInstanceApi().get().terminateInstancesInRegion(region,
+					instanceIds.toArray(new String[instanceIds.size()]));
+			return result;
+		}
+		finally {
+			executor.shutdownNow();
+			releaseResources();
+		}
+	}
+
+	/**
+	 * Stops the XD process of a container and waits for it to exit, up to scale.in.drain.time millis.
+	 * @param container The instance of the container.
+	 * @return true if the process exited.
+	 */
+	private boolean stopContainerProcess(RunningInstance container) {
+		String host = container.getDnsName();
+		LOGGER.info(">>>Stopping XD on " + host);
+		// the bracket keeps pkill and pgrep from matching the shell running the command, the quotes keep the
+		// shell from expanding the bracket against the files of the working directory
+		String process = "'[C]ontainerServerApplication'";
+		ExecResponse resp = sshSessionPool.exec(host, "pkill -TERM -f " + process + "; for i in $(seq "
+				+ Math.max(1, scaleInDrainTime / 1000) + "); do pgrep -f " + process
+				+ " > /dev/null || exit 0; sleep 1; done; exit 1");
+		sshSessionPool.release(host);
+		return resp.getExitStatus() == 0;
+	}
+
+	/**
+	 * Finds the running containers of the cluster.
+	 * @return the instance of each container by its index.
+	 */
+	private SortedMap<Integer, RunningInstance> findContainers() {
+		SortedMap<Integer, RunningInstance> result = new TreeMap<Integer, RunningInstance>();
+		for (RunningInstance instance : AWSInstanceProvisioner.findInstancesByClusterName(client, region,
+				clusterName, "running")) {
+			if (InstanceType.NODE.name().equals(instance.getTags().get("Type"))
+					&& instance.getTags().containsKey("Container_Node")) {
+				result.put(Integer.valueOf(instance.getTags().get("Container_Node")), instance);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces the services the deployment talks to the instances through, e.g. with mocks.
+	 * @param provisioner Launches the instances.
+	 * @param stateTracker Tracks the state of the instances.
+	 * @param checker Waits for the instances, their resources and XD.
+	 * @param tagger Tags the instances.
+	 * @param sessionPool Copies files to and runs commands on the instances.
+	 * @param distributor Copies the configurator to the instances.
+	 * @param deploymentJournal Records the phases of the nodes.
+	 */
+	void useServices(AWSInstanceProvisioner provisioner, InstanceStateTracker stateTracker,
+			AWSInstanceChecker checker, InstanceTagger tagger, SshSessionPool sessionPool,
+			ConfiguratorDistributor distributor, DeploymentJournal deploymentJournal) {
+		instanceProvisioner = provisioner;
+		instanceStateTracker = stateTracker;
+		instanceChecker = checker;
+		instanceTagger = tagger;
+		sshSessionPool = sessionPool;
+		configuratorDistributor = distributor;
+		journal = deploymentJournal;
+	}
+
+	/**
+	 * Stops the services shared by the tasks of a deployment and logs the EC2 API usage.
+	 */
+	private void releaseResources() {
+		instanceTagger.shutdown();
+		LOGGER.info(requestLimiter.toString());
+		eventSubscriber.shutdown();
+		instanceStateTracker.shutdown();
+		portProber.shutdown();
+		sshSessionPool.shutdown();
+		// backoffs in progress still hand their retry over, so that its rejection fails the waiting future
+		retryScheduler.shutdown();
+		journal.close();
+	}
+
+	/**
+	 * Retrieves the number of containers that must be running for the cluster to be usable.
+	 * @param containerCount The number of containers deployed.
+	 * @return minimum.healthy.containers, or the number of containers if it is not set.
+	 */
+	private int getMinimumHealthyContainers(int containerCount) {
+		int minimumHealthy = minimumHealthyContainers.isEmpty() ? containerCount : Integer
+				.parseInt(minimumHealthyContainers);
+		if (minimumHealthy < 0 || minimumHealthy > containerCount) {
+			throw new IllegalArgumentException(
+					"minimum.healthy.containers must be between 0 and the number of containers");
+		}
+		return minimumHealthy;
+	}
+
+	/**
+	 * Launches an instance from the base AMI, installs the XD distribution, the third party jars and the
+	 * configurator on it and saves it as an image.  Later deployments with the same configuration and
+	 * baked.image set to true launch from that image and skip the download and install steps.  The
+	 * instance is terminated once the image is available.
+	 * @return the id of the image.
+	 */
+	public String bake() {
+		RunningInstance instance = null;
+		try {
+			LOGGER.info("\n\n" + HIGHLIGHT);
+			LOGGER.info("*Baking XD Image");
+			LOGGER.info(HIGHLIGHT);
+			instance = provisionInstance(configurer.bootstrapXDNodeScript());
+			if (!instanceChecker.waitForInstanceToBeProvisioned(instance, instanceProvisionWaitTime)) {
+				throw new ServerFailStartException("Instance " + instance.getId()
+						+ " did not get into a running state before timeout of " + instanceProvisionWaitTime);
+			}
+			addTags(instance, Collections.singletonMap("Name", "Baking XD image for " + userName));
+			instance = instanceChecker.checkAWSInstance(instance);
+			String host = instance.getDnsName();
+			LOGGER.info(">>>Installing XD");
+			// the bake runs on the calling thread, not on a deployment thread, so it may sleep between attempts
+			copyPolicy.execute(createUploadStep(host, false));
+			sshSessionPool.put(host, UBUNTU_HOME + "bake-xd.sh", SshSessionPool.stringPayload(
+					configurer.createBakeScript()));
+			ExecResponse resp = sshSessionPool.exec(host, "bash " + UBUNTU_HOME + "bake-xd.sh > " + UBUNTU_HOME
+					+ "bake-xd.log 2>&1 < /dev/null && rm " + UBUNTU_HOME + "bake-xd.sh");
+			if (resp.getExitStatus() != 0) {
+				throw new IllegalStateException("Unable to install XD on " + host + ", exit status "
+						+ resp.getExitStatus());
+			}
+			sshSessionPool.release(host);
+			String imageId = imageBaker.createImage(instance.getId());
+			imageBaker.waitForImage(imageId, deploymentTimeout);
+			return imageId;
+		}
+		finally {
+			instanceTagger.shutdown();
+			if (instance != null) {
+				client.getInstanceApi().get().terminateInstancesInRegion(region, instance.getId());
+			}
+			instanceStateTracker.shutdown();
+			portProber.shutdown();
+			sshSessionPool.shutdown();
+		}
+	}
+
+	/**
+	 * Launches the instances from the image baked for the current configuration, if there is one.
+	 */
+	private void applyBakedImage() {
+		String imageId = null;
+		try {
+			imageId = imageBaker.findImage();
+		}
+		catch (RuntimeException re) {
+			LOGGER.warn("Unable to look up the baked image: " + re.getMessage());
+		}
+		if (imageId == null) {
+			LOGGER.info("No image was baked for this configuration, XD will be installed at boot");
+			return;
+		}
+		LOGGER.info("Using baked image " + imageId);
+		instanceProvisioner.setAmi(imageId);
+		configurer.setBaked(true);
+	}
+
+	/**
+	 * Creates the tasks that deploy an admin or a single node server: provision the instance, wait
+	 * for it to run, verify its resources, copy the configurator and finally set up and start XD.
+	 * Copying the configurator and verifying the resources run concurrently.  When the nodes configure
+	 * themselves at boot the instance runs its role script from its user data, once the configurator is
+	 * copied, and the start task only waits for XD to accept connections.
+	 * <p>
+	 * When an interrupted deployment is resumed the server continues on its instance from the last phase it
+	 * reached, and if XD already runs on it the server is only verified.
+	 * @param type The type of server, either ADMIN or SINGLE_NODE.
+	 * @param serveConfigurator If true the server serves the configurator jar to the containers.
+	 * @param existing The instance of the server when a deployment is resumed, else null.
+	 * @param resumed The last phase of the server recorded in the journal, when existing is set.
+	 * @param publisher Receives the deployment of the server once it started.
+	 * @return The tasks of the server.
+	 */
+	private NodeTasks createServerTasks(final InstanceType type, boolean serveConfigurator,
+			final RunningInstance existing, final DeploymentJournal.Entry resumed,
+			final DeploymentPublisher publisher) {
+		final String role = type == InstanceType.ADMIN ? "admin" : "singlenode";
+		final DeploymentTask<RunningInstance> provision = new SyncDeploymentTask<RunningInstance>(role + " provision") {
+
+			@Override
+			protected RunningInstance execute() {
+				if (existing != null) {
+					return existing;
+				}
+				LOGGER.info("\n\n" + HIGHLIGHT);
+				LOGGER.info(type == InstanceType.ADMIN ? "*Deploying Admin Node" : "Deploying SingleNode");
+				LOGGER.info(HIGHLIGHT);
+				RunningInstance instance = bootConfiguration ? provisionBootInstance(createServerBootScript(type))
+						: provisionInstance(configurer.createStartXDResourcesScript());
+				journal.provisioned(role, instance.getId());
+				return instance;
+			}
+		};
+		final DeploymentTask<RunningInstance> awaitInstance = new DeploymentTask<RunningInstance>(role
+				+ " await instance") {
+
+			@Override
+			protected ListenableFuture<RunningInstance> executeAsync() {
+				final RunningInstance instance = provision.getResult();
+				return Futures.transform(instanceChecker.awaitInstanceToBeProvisioned(instance,
+						instanceProvisionWaitTime), new AsyncFunction<Boolean, RunningInstance>() {
+
+					@Override
+					public ListenableFuture<RunningInstance> apply(Boolean provisioned) {
+						if (!provisioned) {
+							throw new ServerFailStartException("Instance " + instance.getId()
+									+ " did not get into a running state before timeout of "
+									+ instanceProvisionWaitTime);
+						}
+						if (existing == null || !resumed.reached(DeploymentJournal.Phase.TAGGED)) {
+							tagInitialization(instance, type);
+							journal.record(instance.getId(), DeploymentJournal.Phase.TAGGED);
+						}
+						return instanceChecker.awaitAWSInstance(instance);
+					}
+				}, getExecutor());
+			}
+		};
+		awaitInstance.dependsOn(provision);
+		final DeploymentTask<RunningInstance> checkResources = new DeploymentTask<RunningInstance>(role
+				+ " check resources") {
+
+			@Override
+			protected ListenableFuture<RunningInstance> executeAsync() {
+				RunningInstance instance = instanceStateTracker.getInstance(awaitInstance.getResult().getId());
+				instanceChecker.setProperties(establishInstanceDefaultProperties(instance.getDnsName(),
+						instanceChecker.getProperties()));
+				return instanceChecker.awaitRequiredResources(instance, configurer.isUseEmbeddedZookeeper());
+			}
+		};
+		checkResources.dependsOn(awaitInstance);
+		final DeploymentTask<Void> copyConfigurator = configurer.isBaked() || (existing != null && !serveConfigurator
+				&& resumed.reached(DeploymentJournal.Phase.COPIED)) ? createInstalledConfiguratorTask(role,
+				awaitInstance) : createCopyConfiguratorTask(role, awaitInstance, serveConfigurator);
+		final DeploymentTask<Deployment> start = new DeploymentTask<Deployment>(role + " start") {
+
+			@Override
+			protected ListenableFuture<Deployment> executeAsync() {
+				final RunningInstance instance = instanceStateTracker.getInstance(checkResources.getResult().getId());
+				if (nodeAgent) {
+					eventSubscriber.subscribe(instance.getIpAddress(), nodeAgentPort);
+				}
+				if (existing != null && resumed.reached(DeploymentJournal.Phase.CONFIGURED)) {
+					return resumeServer(instance, type, getExecutor(), publisher);
+				}
+				if (bootConfiguration) {
+					return awaitServerBoot(instance, type, publisher);
+				}
+				return startServer(instance, type, getExecutor(), publisher);
+			}
+		};
+		start.dependsOn(checkResources, copyConfigurator);
+		return new NodeTasks(awaitInstance, copyConfigurator, start);
+	}
+
+	/**
+	 * Creates the tasks that deploy the container nodes.  All container instances are requested in a
+	 * single reservation.  When the deployment is pipelined the reservation is requested right away,
+	 * else it waits for the admin to start.  Each container is then prepared independently and only
+	 * its configure and start step waits on the admin.  When the configurator is distributed as a tree
+	 * each container pulls it from its parent, the admin being the root of the tree.
+	 * @param admin The tasks of the admin server.
+	 * @param firstIndex The index of the first container, the following containers have consecutive indexes.
+	 * @param firstPosition The position the first container is published at.
+	 * @param containerCount The number of containers to deploy.
+	 * @param publisher Receives the deployment of each container once its outcome is known.
+	 * @return The tasks of each container.
+	 */
+	private List<NodeTasks> createContainerTasks(final NodeTasks admin, final int firstIndex,
+			final int firstPosition, final int containerCount, final DeploymentPublisher publisher) {
+		final DeploymentTask<List<RunningInstance>> provision = new SyncDeploymentTask<List<RunningInstance>>(
+				"containers provision") {
+
+			@Override
+			protected List<RunningInstance> execute() {
+				List<RunningInstance> instances = new ArrayList<RunningInstance>(
+						provisionContainerInstances(containerCount));
+				tagContainerInitialization(instances, firstIndex);
+				return instances;
+			}
+		};
+		if (!pipelined) {
+			provision.dependsOn(admin.start);
+		}
+		List<NodeTasks> result = new ArrayList<NodeTasks>();
+		for (int i = 0; i < containerCount; i++) {
+			final int position = i;
+			final int currentInstance = firstIndex + i;
+			final String role = "container " + currentInstance;
+			final AtomicReference<RunningInstance> reserved = new AtomicReference<RunningInstance>();
+			final DeploymentTask<RunningInstance> awaitInstance = new DeploymentTask<RunningInstance>(role
+					+ " await instance") {
+
+				@Override
+				protected ListenableFuture<RunningInstance> executeAsync() {
+					List<RunningInstance> instances = provision.getResult();
+					if (position >= instances.size()) {
+						throw new ServerFailStartException("EC2 only provisioned " + instances.size()
+								+ " container instances");
+					}
+					final RunningInstance instance = instances.get(position);
+					reserved.set(instance);
+					final Executor executor = getExecutor();
+					return Futures.transform(instanceChecker.awaitInstanceToBeProvisioned(instance,
+							instanceProvisionWaitTime), new AsyncFunction<Boolean, RunningInstance>() {
+
+						@Override
+						public ListenableFuture<RunningInstance> apply(Boolean provisioned) {
+							if (!provisioned) {
+								throw new ServerFailStartException("Instance " + instance.getId()
+										+ " did not get into a running state before timeout of "
+										+ instanceProvisionWaitTime);
+							}
+							return Futures.transform(instanceChecker.awaitAWSInstance(instance),
+									new Function<RunningInstance, RunningInstance>() {
+
+										@Override
+										public RunningInstance apply(RunningInstance running) {
+											return instanceStateTracker.getInstance(instance.getId());
+										}
+									}, executor);
+						}
+					}, executor);
+				}
+			};
+			awaitInstance.dependsOn(provision);
+			DeploymentTask<Void> copyConfigurator;
+			if (configurer.isBaked()) {
+				copyConfigurator = createInstalledConfiguratorTask(role, awaitInstance);
+			}
+			else if (treeDistribution) {
+				int treePosition = position + 1;
+				int parentPosition = ConfiguratorDistributor.getParent(treePosition, distributionFanout);
+				copyConfigurator = createPullConfiguratorTask(role, awaitInstance,
+						parentPosition == 0 ? admin : result.get(parentPosition - 1),
+						ConfiguratorDistributor.hasChildren(treePosition, distributionFanout, containerCount + 1));
+			}
+			else {
+				copyConfigurator = createCopyConfiguratorTask(role, awaitInstance, false);
+			}
+			DeploymentTask<Deployment> start = new DeploymentTask<Deployment>(role + " start") {
+
+				@Override
+				protected ListenableFuture<Deployment> executeAsync() {
+					return startContainer(admin, awaitInstance.getResult(), currentInstance, firstPosition + position,
+							containerReplacements, getExecutor(), publisher);
+				}
+			};
+			start.dependsOn(copyConfigurator, admin.start);
+			result.add(new NodeTasks(awaitInstance, copyConfigurator, start, reserved));
+		}
+		return result;
+	}
+
+	/**
+	 * Configures and starts XD on an admin or single node server over ssh, once its resources are running.
+	 * @param instance The running instance of the server.
+	 * @param type The type of server, either ADMIN or SINGLE_NODE.
+	 * @param executor Runs the next attempt if the server does not start.
+	 * @param publisher Receives the deployment of the server once it started.
+	 * @return a future of the deployment, that fails with a ServerFailStartException if the server did not start.
+	 */
+	private ListenableFuture<Deployment> startServer(final RunningInstance instance, final InstanceType type,
+			Executor executor, final DeploymentPublisher publisher) {
+		LOGGER.info(type == InstanceType.ADMIN ? "*******Setting up your Administrator XD instance.*******"
+				: "*******Setting up your single XD instance.*******");
+		configurer.setProperties(establishInstanceDefaultProperties(instance.getDnsName(),
+				configurer.getProperties()));
+		String script = type == InstanceType.ADMIN ? configurer.createAdminNodeScript(instance.getIpAddress())
+				: configurer.createSingleNodeScript(instance.getIpAddress(), hadoopVersion);
+		LOGGER.info(">>>Setting up and Starting XD");
+		return Futures.transform(setupServer(script, instance, type, executor),
+				new Function<Void, Deployment>() {
+
+					@Override
+					public Deployment apply(Void input) {
+						journal.record(instance.getId(), DeploymentJournal.Phase.STARTED);
+						Deployment deployment = createDeployment(instance, type, DeploymentStatus.SUCCESS);
+						sshSessionPool.release(instance.getDnsName());
+						publisher.publish(type, deployment);
+						return deployment;
+					}
+				});
+	}
+
+	/**
+	 * Verifies if XD already runs on the server of a resumed deployment, that reached the configured phase
+	 * before the deployment was interrupted.  If it does the server is published, else it is started.
+	 * @param instance The running instance of the server.
+	 * @param type The type of server, either ADMIN or SINGLE_NODE.
+	 * @param executor Runs the start of the server if XD does not run.
+	 * @param publisher Receives the deployment of the server once it started.
+	 * @return a future of the deployment, that fails with a ServerFailStartException if the server did not start.
+	 */
+	private ListenableFuture<Deployment> resumeServer(final RunningInstance instance, final InstanceType type,
+			final Executor executor, final DeploymentPublisher publisher) {
+		return Futures.transform(instanceChecker.awaitServerInstance(instance, 9393, resumeCheckTime),
+				new AsyncFunction<Boolean, Deployment>() {
+
+					@Override
+					public ListenableFuture<Deployment> apply(Boolean running) {
+						if (!running) {
+							return bootConfiguration ? awaitServerBoot(instance, type, publisher) : startServer(
+									instance, type, executor, publisher);
+						}
+						LOGGER.info("XD already runs on " + instance.getId());
+						tagInstance(instance, type);
+						journal.record(instance.getId(), DeploymentJournal.Phase.STARTED);
+						Deployment deployment = createDeployment(instance, type, DeploymentStatus.SUCCESS);
+						publisher.publish(type, deployment);
+						return Futures.immediateFuture(deployment);
+					}
+				}, executor);
+	}
 
-	private static final String UBUNTU_HOME = "/home/ubuntu/";
+	/**
+	 * Configures and starts XD on a container over ssh, once the admin started.
+	 * @param admin The tasks of the admin server.
+	 * @param instance The running instance of the container.
+	 * @param containerIndex The index of the container, that selects its container specific properties.
+	 * @param position The position the container is published at.
+	 * @param replacements The number of times the instance may be replaced if the container does not start.
+	 * @param executor Runs the next attempt if the container does not start.
+	 * @param publisher Receives the deployment of the container once its outcome is known.
+	 * @return a future of the deployment of the container.
+	 */
+	private ListenableFuture<Deployment> startContainer(NodeTasks admin, RunningInstance instance,
+			int containerIndex, final int position, int replacements, Executor executor,
+			final DeploymentPublisher publisher) {
+		return Futures.transform(deployContainer(admin.start.getResult().getAddress().getHostAddress(), instance,
+				containerIndex, replacements, executor),
+				new Function<Deployment, Deployment>() {
 
-	private String clusterName;
+					@Override
+					public Deployment apply(Deployment deployment) {
+						publisher.publish(position, deployment);
+						return deployment;
+					}
+				});
+	}
 
-	private String privateKeyFile;
+	/**
+	 * Configures and starts XD on a container over ssh.  If the container does not start after
+	 * container.recovery.attempts attempts and replacements are left, the instance is terminated and the
+	 * container is deployed again on a new instance, under the same index.
+	 * @param adminHost The address of the admin server.
+	 * @param instance The running instance of the container.
+	 * @param containerIndex The index of the container, that selects its container specific properties.
+	 * @param replacements The number of times the instance may still be replaced.
+	 * @param executor Runs the next attempt or the replacement.
+	 * @return a future of the deployment of the container.
+	 */
+	ListenableFuture<Deployment> deployContainer(final String adminHost, final RunningInstance instance,
+			final int containerIndex, final int replacements, final Executor executor) {
+		LOGGER.info(String.format("*******Setting up your Container XD instance %d.*******", containerIndex));
+		return Futures.transform(installContainerServer(
+				configurer.createContainerNodeScript(adminHost, hadoopVersion, containerIndex), instance,
+				AWSInstanceConfigurer.getContainerNodeName(containerIndex), InstanceType.NODE, executor,
+				replacements > 0 ? recoveryAttempts : serverPolicy.getMaxAttempts()),
+				new AsyncFunction<Deployment, Deployment>() {
 
-	private String multiNode;
+					@Override
+					public ListenableFuture<Deployment> apply(Deployment deployment) {
+						sshSessionPool.release(instance.getDnsName());
+						if (replacements == 0 || (deployment != null
+								&& deployment.getStatus() == DeploymentStatus.SUCCESS)) {
+							return Futures.immediateFuture(deployment);
+						}
+						return Futures.transform(replaceContainerInstance(instance, containerIndex, null, executor),
+								new AsyncFunction<RunningInstance, Deployment>() {
 
-	private String description;
+									@Override
+									public ListenableFuture<Deployment> apply(final RunningInstance replacement) {
+										ListenableFuture<Void> copied = Futures.immediateFuture(null);
+										if (!configurer.isBaked()) {
+											copied = uploadConfigurator(replacement.getDnsName(), false, executor);
+										}
+										return Futures.transform(copied, new AsyncFunction<Void, Deployment>() {
 
-	private String userName;
+											@Override
+											public ListenableFuture<Deployment> apply(Void input) {
+												return deployContainer(adminHost, replacement, containerIndex,
+														replacements - 1, executor);
+											}
+										}, executor);
+									}
+								}, executor);
+					}
+				}, executor);
+	}
 
-	private String region;
+	/**
+	 * Terminates the instance of a container that did not start and launches a new instance for the same
+	 * container index.
+	 * @param failed The instance that did not start.
+	 * @param containerIndex The index of the container.
+	 * @param bootScript The user data of the new instance when containers configure themselves at boot, else
+	 * null.
+	 * @param executor Runs the wait for the new instance.
+	 * @return a future of the new instance once it is running and reachable.
+	 */
+	private ListenableFuture<RunningInstance> replaceContainerInstance(RunningInstance failed, int containerIndex,
+			final String bootScript, Executor executor) {
+		LOGGER.warn(String.format("Replacing instance %s of container %d", failed.getId(), containerIndex));
+		instanceStateTracker.untrack(failed.getId());
+		client.getInstanceApi().get().terminateInstancesInRegion(region, failed.getId());
+		final RunningInstance instance = Iterables.getOnlyElement(bootScript == null ? provisionContainerInstances(1)
+				: provisionBootContainerInstances(bootScript, 1));
+		tagContainerInitialization(Collections.singletonList(instance), containerIndex);
+		return Futures.transform(instanceChecker.awaitInstanceToBeProvisioned(instance, instanceProvisionWaitTime),
+				new AsyncFunction<Boolean, RunningInstance>() {
 
-	private String numberOfInstances;
+					@Override
+					public ListenableFuture<RunningInstance> apply(Boolean provisioned) {
+						if (!provisioned) {
+							throw new ServerFailStartException("Instance " + instance.getId()
+									+ " did not get into a running state before timeout of "
+									+ instanceProvisionWaitTime);
+						}
+						if (bootScript != null) {
+							return Futures.immediateFuture(instanceStateTracker.getInstance(instance.getId()));
+						}
+						return instanceChecker.awaitAWSInstance(instance);
+					}
+				}, executor);
+	}
 
-	private int managementPort;
+	/**
+	 * Creates the tasks that deploy the container nodes when the nodes configure themselves at boot.  The
+	 * reservation is requested once the private address of the admin is known, and every container
+	 * pulls the configurator from the admin, waits for the admin to start and runs its own script.  No
+	 * ssh session is opened to a container, its start task only waits for its management port.
+	 * @param admin The tasks of the admin server.
+	 * @param firstIndex The index of the first container, the following containers have consecutive indexes.
+	 * @param firstPosition The position the first container is published at.
+	 * @param containerCount The number of containers to deploy.
+	 * @param publisher Receives the deployment of each container once its outcome is known.
+	 * @return The tasks of each container.
+	 */
+	private List<NodeTasks> createBootContainerTasks(final NodeTasks admin, final int firstIndex,
+			final int firstPosition, final int containerCount, final DeploymentPublisher publisher) {
+		final DeploymentTask<List<RunningInstance>> provision = new SyncDeploymentTask<List<RunningInstance>>(
+				"containers provision") {
 
-	private AWSEC2Api client;
+			@Override
+			protected List<RunningInstance> execute() {
+				String adminAddress = instanceStateTracker.getInstance(admin.awaitInstance.getResult().getId())
+						.getPrivateIpAddress();
+				List<RunningInstance> instances = sortByLaunchIndex(provisionBootContainerInstances(
+						createContainerBootScript(adminAddress, firstIndex, containerCount), containerCount));
+				tagContainerInitialization(instances, firstIndex);
+				return instances;
+			}
+		};
+		provision.dependsOn(pipelined ? admin.awaitInstance : admin.start);
+		List<NodeTasks> result = new ArrayList<NodeTasks>();
+		for (int i = 0; i < containerCount; i++) {
+			final int position = i;
+			final int currentInstance = firstIndex + i;
+			final String role = "container " + currentInstance;
+			final AtomicReference<RunningInstance> reserved = new AtomicReference<RunningInstance>();
+			final DeploymentTask<RunningInstance> awaitInstance = new DeploymentTask<RunningInstance>(role
+					+ " await instance") {
 
-	private ComputeService computeService;
+				@Override
+				protected ListenableFuture<RunningInstance> executeAsync() {
+					List<RunningInstance> instances = provision.getResult();
+					if (position >= instances.size()) {
+						throw new ServerFailStartException("EC2 only provisioned " + instances.size()
+								+ " container instances");
+					}
+					final RunningInstance instance = instances.get(position);
+					reserved.set(instance);
+					return Futures.transform(instanceChecker.awaitInstanceToBeProvisioned(instance,
+							instanceProvisionWaitTime), new Function<Boolean, RunningInstance>() {
 
-	private AWSInstanceChecker instanceChecker;
+						@Override
+						public RunningInstance apply(Boolean provisioned) {
+							if (!provisioned) {
+								throw new ServerFailStartException("Instance " + instance.getId()
+										+ " did not get into a running state before timeout of "
+										+ instanceProvisionWaitTime);
+							}
+							return instanceStateTracker.getInstance(instance.getId());
+						}
+					}, getExecutor());
+				}
+			};
+			awaitInstance.dependsOn(provision);
+			DeploymentTask<Void> copyConfigurator = createInstalledConfiguratorTask(role, awaitInstance);
+			DeploymentTask<Deployment> start = new DeploymentTask<Deployment>(role + " start") {
 
-	private AWSInstanceConfigurer configurer;
+				@Override
+				protected ListenableFuture<Deployment> executeAsync() {
+					return Futures.transform(awaitBootContainer(admin, awaitInstance.getResult(), currentInstance,
+							containerReplacements, getExecutor()), new Function<Deployment, Deployment>() {
 
-	private AWSInstanceProvisioner instanceProvisioner;
+						@Override
+						public Deployment apply(Deployment deployment) {
+							publisher.publish(firstPosition + position, deployment);
+							return deployment;
+						}
+					});
+				}
+			};
+			start.dependsOn(copyConfigurator, admin.start);
+			result.add(new NodeTasks(awaitInstance, copyConfigurator, start, reserved));
+		}
+		return result;
+	}
 
-	private String hadoopVersion;
+	/**
+	 * Waits for a container that configures itself at boot to start.  If it does not start and replacements
+	 * are left, the instance is terminated and a new instance is launched with the user data of the container.
+	 * @param admin The tasks of the admin server.
+	 * @param instance The instance of the container.
+	 * @param containerIndex The index of the container.
+	 * @param replacements The number of times the instance may still be replaced.
+	 * @param executor Runs the replacement.
+	 * @return a future of the deployment of the container.
+	 */
+	private ListenableFuture<Deployment> awaitBootContainer(final NodeTasks admin, final RunningInstance instance,
+			final int containerIndex, final int replacements, final Executor executor) {
+		LOGGER.info(String.format("*******Awaiting your Container XD instance %d.*******", containerIndex));
+		return Futures.transform(awaitReported(AWSInstanceConfigurer.getContainerNodeName(containerIndex),
+				instanceChecker.awaitContainerProcess(instance, managementPort, bootWaitTime)),
+				new AsyncFunction<Boolean, Deployment>() {
 
-	private long instanceProvisionWaitTime;
+					@Override
+					public ListenableFuture<Deployment> apply(Boolean started) {
+						LOGGER.info("Container " + instance.getId() + (started ? " started\n" : " did not start\n"));
+						if (!started && replacements > 0) {
+							String adminAddress = instanceStateTracker.getInstance(
+									admin.awaitInstance.getResult().getId()).getPrivateIpAddress();
+							return Futures.transform(replaceContainerInstance(instance, containerIndex,
+									createContainerBootScript(adminAddress, containerIndex, 1), executor),
+									new AsyncFunction<RunningInstance, Deployment>() {
 
-	final int RETRY_COUNT = 3;
+										@Override
+										public ListenableFuture<Deployment> apply(RunningInstance replacement) {
+											return awaitBootContainer(admin, replacement, containerIndex,
+													replacements - 1, executor);
+										}
+									}, executor);
+						}
+						tagInstance(instance, InstanceType.NODE);
+						if (started) {
+							journal.record(instance.getId(), DeploymentJournal.Phase.STARTED);
+						}
+						return Futures.immediateFuture(createDeployment(instance, InstanceType.NODE,
+								started ? DeploymentStatus.SUCCESS : DeploymentStatus.FAILURE));
+					}
+				}, executor);
+	}
 
 	/**
-	 * Initializes the state of the an instance of AWSDeployer.
-	 * @param properties The environment variables that declare how the XD-Cluster should be provisioned.
+	 * Renders the user data of an admin or single node server.  The server reaches its own resources
+	 * on localhost, and unless the image is baked it waits for the configurator to be copied.
+	 * @param type The type of server, either ADMIN or SINGLE_NODE.
+	 * @return the user data script.
 	 */
-	public AWSDeployer(Properties properties) {
-		Assert.notNull(properties, "properties can not be null");
-		Iterable<Module> modules = ImmutableSet
-				.<Module> of(new SshjSshClientModule());
-		clusterName = properties.getProperty("cluster.name");
-		privateKeyFile = properties.getProperty("private.key.file");
-		multiNode = properties.getProperty("multi.node");
-		description = properties.getProperty("description");
-		userName = properties.getProperty("user.name");
-		region = properties.getProperty("region");
-		numberOfInstances = properties.getProperty("number.nodes");
-		hadoopVersion = properties.getProperty("XD_HADOOP_DISTRO");
-		managementPort = Integer.parseInt(properties.getProperty("management.port"));
-		instanceProvisionWaitTime = Long.valueOf(properties.getProperty("instance.provision.wait.time"));
+	private String createServerBootScript(InstanceType type) {
+		AWSInstanceConfigurer bootConfigurer = configurer.withProperties(establishInstanceDefaultProperties(
+				"localhost", copyNodeProperties()));
+		String script = type == InstanceType.ADMIN ? bootConfigurer.createAdminNodeScript("localhost")
+				: bootConfigurer.createSingleNodeScript("localhost", hadoopVersion);
+		List<String> preconditions = configurer.isBaked() ? Collections.<String> emptyList() : Collections
+				.singletonList(configuratorDistributor.getAwaitUploadCommand());
+		return configurer.createServerBootScript(configurer.createStartXDResourcesScript(), preconditions, script);
+	}
 
-		String awsAccessKey = properties.getProperty("aws.access.key");
-		String awsSecretKey = properties.getProperty("aws.secret.key");
-		ComputeServiceContext context = ContextBuilder.newBuilder("aws-ec2")
-				.credentials(awsAccessKey, awsSecretKey)
-				.modules(modules).overrides(getTimeoutPolicy())
-				.buildView(ComputeServiceContext.class);
-		computeService = context.getComputeService();
-
-		client = ContextBuilder.newBuilder("aws-ec2")
-				.credentials(awsAccessKey, awsSecretKey)
-				.buildApi(AWSEC2Api.class);
-		instanceChecker = new AWSInstanceChecker(properties, client,
-				computeService);
-		instanceProvisioner = new AWSInstanceProvisioner(client, properties);
-		configurer = new AWSInstanceConfigurer(properties);
-		if (multiNode.equalsIgnoreCase("true")) {
-			configurer.setUseEmbeddedZookeeper(false);
+	/**
+	 * Renders the user data shared by the container instances.  The containers reach the resources of the
+	 * admin on its private address, pull the configurator from it and wait for it to start.
+	 * @param adminAddress The private address of the admin.
+	 * @param firstIndex The index of the container launched first in the reservation.
+	 * @param containerCount The number of containers in the reservation.
+	 * @return the user data script.
+	 */
+	private String createContainerBootScript(String adminAddress, int firstIndex, int containerCount) {
+		AWSInstanceConfigurer bootConfigurer = configurer.withProperties(establishInstanceDefaultProperties(
+				adminAddress, copyNodeProperties()));
+		List<String> preconditions = new ArrayList<String>();
+		if (!configurer.isBaked()) {
+			preconditions.add("until " + configuratorDistributor.getPullCommand(adminAddress)
+					+ "; do sleep 5; done");
 		}
-		validateURLs(properties);
+		preconditions.add(AWSInstanceConfigurer.getAwaitPortCommand(adminAddress, 9393));
+		return bootConfigurer.createContainerBootScript(adminAddress, hadoopVersion, firstIndex, containerCount,
+				preconditions);
 	}
 
 	/**
-	 * Deploys the XD Cluster as specified by the user.
+	 * Waits for an admin or single node server that configures itself at boot to start.
+	 * @param instance The instance of the server.
+	 * @param type The type of server, either ADMIN or SINGLE_NODE.
+	 * @param publisher Receives the deployment of the server once it started.
+	 * @return a future of the deployment, that fails with a ServerFailStartException if the server did not start.
 	 */
-	@Override
-	public List<Deployment> deploy() {
+	private ListenableFuture<Deployment> awaitServerBoot(final RunningInstance instance, final InstanceType type,
+			final DeploymentPublisher publisher) {
+		LOGGER.info(">>>Awaiting XD to be set up and started at boot");
+		return Futures.transform(awaitReported(getServerNodeName(type),
+				instanceChecker.awaitServerInstance(instance, 9393, bootWaitTime)),
+				new Function<Boolean, Deployment>() {
 
-		ArrayList<Deployment> result = new ArrayList<Deployment>();
-		if (multiNode.equalsIgnoreCase("false")) {
-			result.add(deploySingleNode());
-		}
-		else if (multiNode.equalsIgnoreCase("true")) {
-			Deployment admin = deployAdminServer();
-			result.add(admin);
-			result.addAll(deployContainerServers(admin.getAddress()
-					.getHostAddress()));
-		}
-		else {
-			throw new IllegalArgumentException(
-					"multi-node property must either be true or false");
-		}
+					@Override
+					public Deployment apply(Boolean started) {
+						if (!started) {
+							throw new ServerFailStartException("XD did not start on " + instance.getId()
+									+ " before timeout of " + bootWaitTime);
+						}
+						tagInstance(instance, type);
+						journal.record(instance.getId(), DeploymentJournal.Phase.STARTED);
+						Deployment deployment = createDeployment(instance, type, DeploymentStatus.SUCCESS);
+						sshSessionPool.release(instance.getDnsName());
+						publisher.publish(type, deployment);
+						return deployment;
+					}
+				});
+	}
 
+	/**
+	 * Copies the properties as they were configured, before the addresses of any instance were set.
+	 * @return a new properties instance.
+	 */
+	private Properties copyNodeProperties() {
+		Properties result = new Properties();
+		result.putAll(nodeProperties);
 		return result;
 	}
 
 	/**
-	 * Deploys a single node instance of XD. 
-	 * @return The instance information for a successfully created XD-Node
+	 * Orders the instances of a reservation by their ami launch index, the index that selects the script
+	 * of each container in the shared user data.
+	 * @param reservation The reservation of the containers.
+	 * @return the instances of the reservation in launch order.
 	 */
-	private Deployment deploySingleNode() {
-		LOGGER.info("Deploying SingleNode");
-		RunningInstance instance = Iterables.getOnlyElement(instanceProvisioner
-				.runInstance(configurer.createStartXDResourcesScript(), 1));
-		if (instanceChecker.waitForInstanceToBeProvisioned(instance, instanceProvisionWaitTime)) {
-			throw new ServerFailStartException("Instance " + instance.getId()
-					+ " did not get into a running state before timeout of " + instanceProvisionWaitTime);
-		}
-		tagInitialization(instance, InstanceType.SINGLE_NODE);
-		instance = instanceProvisioner.findInstanceById(client,instance.getId());//refresh instance
-		instanceChecker.setProperties(establishInstanceDefaultProperties(instance.getDnsName(), instanceChecker.getProperties()));
-		instanceChecker.checkServerResources(instance, configurer.isUseEmbeddedZookeeper());
-		LOGGER.info("*******Setting up your single XD instance.*******");
-		instance = AWSInstanceProvisioner.findInstanceById(client,
-				instance.getId());
-		configurer.setProperties(establishInstanceDefaultProperties(instance.getDnsName(), configurer.getProperties()));
+	private static List<RunningInstance> sortByLaunchIndex(Reservation<? extends RunningInstance> reservation) {
+		List<RunningInstance> result = new ArrayList<RunningInstance>(reservation);
+		Collections.sort(result, new Comparator<RunningInstance>() {
 
-		return deploySingleServer(
-				configurer.createSingleNodeScript(instance.getIpAddress(), hadoopVersion),
-				instance, InstanceType.SINGLE_NODE);
+			@Override
+			public int compare(RunningInstance first, RunningInstance second) {
+				return Integer.valueOf(first.getAmiLaunchIndex()).compareTo(Integer.valueOf(second.getAmiLaunchIndex()));
+			}
+		});
+		return result;
 	}
 
 	/**
-	 * Deploys a Admin instance of XD.
-	 * @return The instance information for a successfully created Admin Server
+	 * Creates the task that copies the configurator jar to an instance once its ssh service is available.
+	 * @param role The name of the node the task is associated with.
+	 * @param awaitInstance The task that produces the running instance.
+	 * @param serve If true the instance serves the jar to its children in the distribution tree.
+	 * @return The copy task.
 	 */
-	private Deployment deployAdminServer() {
-		LOGGER.info("\n\n" + HIGHLIGHT);
-		LOGGER.info("*Deploying Admin Node");
-		LOGGER.info(HIGHLIGHT);
-		RunningInstance instance = Iterables.getOnlyElement(instanceProvisioner
-				.runInstance(configurer.createStartXDResourcesScript(), 1));
-		if (instanceChecker.waitForInstanceToBeProvisioned(instance, instanceProvisionWaitTime)) {
-			throw new ServerFailStartException("Instance " + instance.getId()
-					+ " did not get into a running state before timeout of " + instanceProvisionWaitTime);
-		}
-		tagInitialization(instance, InstanceType.ADMIN);
-		instance = instanceProvisioner.findInstanceById(client,instance.getId());
-		instanceChecker.setProperties(establishInstanceDefaultProperties(instance.getDnsName(), instanceChecker.getProperties()));
-
-		instanceChecker.checkServerResources(instance, false);
-		LOGGER.info("*******Setting up your Administrator XD instance.*******");
-		instance = AWSInstanceProvisioner.findInstanceById(client,
-				instance.getId());
-		configurer.setProperties(establishInstanceDefaultProperties(instance.getDnsName(),configurer.getProperties()));
-		return deploySingleServer(configurer.createAdminNodeScript(
-				instance.getIpAddress()), instance,
-				InstanceType.ADMIN);
-	}
-
-	/**
-	 * Deploys a Single Node instance of XD.
-	 * @param script - The script built by JClouds Script Builder that initializes the single node Server
-	 * @param instance the ec2 instance to apply the commands
-	 * @param type the type of xd instance
-	 * @return The instance information for a successfully created single node Server
-	 */
-	private Deployment deploySingleServer(String script, RunningInstance instance, InstanceType type) {
-		LOGGER.info(">>>Copying Configurator to Instance");
-		sshCopy(this.getLibraryJarLocation(), instance.getDnsName());
-		LOGGER.info(">>>Setting up and Starting XD");
+	private DeploymentTask<Void> createCopyConfiguratorTask(String role,
+			final DeploymentTask<RunningInstance> awaitInstance, final boolean serve) {
+		DeploymentTask<Void> copyConfigurator = new DeploymentTask<Void>(role + " copy configurator") {
+
+			@Override
+			protected ListenableFuture<Void> executeAsync() {
+				LOGGER.info(">>>Copying Configurator to Instance");
+				return recordCopied(awaitInstance.getResult(), uploadConfigurator(awaitInstance.getResult()
+						.getDnsName(), serve, getExecutor()), getExecutor());
+			}
+		};
+		copyConfigurator.dependsOn(awaitInstance);
+		return copyConfigurator;
+	}
+
+	/**
+	 * Records in the journal that the configurator jar was copied to an instance, once the copy completed.
+	 * @param instance The instance the jar is copied to.
+	 * @param copied The copy of the jar.
+	 * @param executor Records the copy.
+	 * @return a future that completes once the copy is recorded.
+	 */
+	private ListenableFuture<Void> recordCopied(final RunningInstance instance, ListenableFuture<Void> copied,
+			Executor executor) {
+		return Futures.transform(copied, new Function<Void, Void>() {
+
+			@Override
+			public Void apply(Void input) {
+				journal.record(instance.getId(), DeploymentJournal.Phase.COPIED);
+				return null;
+			}
+		}, executor);
+	}
+
+	/**
+	 * Creates the task that stands for the copy of the configurator jar on an instance launched from a
+	 * baked image, where the jar is already installed.
+	 * @param role The name of the node the task is associated with.
+	 * @param awaitInstance The task that produces the running instance.
+	 * @return The task, that does nothing.
+	 */
+	private DeploymentTask<Void> createInstalledConfiguratorTask(String role,
+			final DeploymentTask<RunningInstance> awaitInstance) {
+		DeploymentTask<Void> installedConfigurator = new SyncDeploymentTask<Void>(role + " configurator installed") {
+
+			@Override
+			protected Void execute() {
+				journal.record(awaitInstance.getResult().getId(), DeploymentJournal.Phase.COPIED);
+				return null;
+			}
+		};
+		installedConfigurator.dependsOn(awaitInstance);
+		return installedConfigurator;
+	}
+
+	/**
+	 * Creates the task that pulls the configurator jar from the parent of an instance in the distribution
+	 * tree.  The task does not depend on the parent, it waits for the parent's copy without holding a
+	 * thread.  If the parent fails to get or serve the jar, the jar is uploaded from the local machine.
+	 * @param role The name of the node the task is associated with.
+	 * @param awaitInstance The task that produces the running instance.
+	 * @param parent The tasks of the parent in the distribution tree.
+	 * @param serve If true the instance serves the jar to its own children.
+	 * @return The pull task.
+	 */
+	private DeploymentTask<Void> createPullConfiguratorTask(String role,
+			final DeploymentTask<RunningInstance> awaitInstance, final NodeTasks parent, final boolean serve) {
+		DeploymentTask<Void> pullConfigurator = new DeploymentTask<Void>(role + " pull configurator") {
+
+			@Override
+			protected ListenableFuture<Void> executeAsync() {
+				final String host = awaitInstance.getResult().getDnsName();
+				ListenableFuture<Void> pulled = Futures.transform(parent.copyConfigurator.getFuture(),
+						new Function<Void, Void>() {
+
+							@Override
+							public Void apply(Void input) {
+								String parentAddress = parent.awaitInstance.getResult().getPrivateIpAddress();
+								LOGGER.info(">>>Pulling Configurator from " + parentAddress + " to " + host);
+								configuratorDistributor.pull(host, parentAddress, serve);
+								journal.record(awaitInstance.getResult().getId(), DeploymentJournal.Phase.COPIED);
+								return null;
+							}
+						}, getExecutor());
+				return Futures.withFallback(pulled, new FutureFallback<Void>() {
+
+					@Override
+					public ListenableFuture<Void> create(Throwable failure) {
+						LOGGER.warn("Unable to pull configurator to " + host + ", copying it instead: "
+								+ failure.getMessage());
+						return recordCopied(awaitInstance.getResult(), uploadConfigurator(host, serve,
+								getExecutor()), getExecutor());
+					}
+				}, getExecutor());
+			}
+		};
+		pullConfigurator.dependsOn(awaitInstance);
+		return pullConfigurator;
+	}
+
+	/**
+	 * Runs the tasks of a deployment until they complete or the deployment times out.  A timeout only
+	 * fails the deployment if the cluster is not usable yet, the containers that did not complete are then
+	 * reported by {@link #collectDeployments(DeploymentTask, List, DeploymentPublisher)}.
+	 * @param scheduler Runs the tasks.
+	 * @param roots The tasks that complete the deployment.
+	 * @param publisher Knows whether the cluster is usable.
+	 * @param operation Describes what happens to the containers, for the log.
+	 * @throws DeployTimeoutException if the tasks did not complete in time and the cluster is not usable.
+	 */
+	void runTasks(DeploymentScheduler scheduler, List<DeploymentTask<?>> roots, DeploymentPublisher publisher,
+			String operation) {
 		try {
-			Thread.sleep(1000);
+			scheduler.run(roots, deploymentTimeout, TimeUnit.MILLISECONDS);
+		}
+		catch (DeployTimeoutException timeoutException) {
+			if (!publisher.isUsable()) {
+				throw timeoutException;
+			}
+			LOGGER.warn("Cluster is usable but not every container was " + operation + ": "
+					+ timeoutException.getMessage());
+		}
+	}
+
+	/**
+	 * Gathers the results of the executed tasks.  A failure of the admin or single node server fails
+	 * the deployment, a failed container is reported with a FAILURE status.  Containers that did not
+	 * report an outcome yet, because they failed or did not complete, are published as they are found, with
+	 * only the id of their instance if the instance never got a host.
+	 * @param server The task that starts the admin or single node server.
+	 * @param containers The tasks of each container.
+	 * @param publisher Holds the deployments published so far.
+	 * @return The list of deployments, in the order they were published.
+	 */
+	private List<Deployment> collectDeployments(DeploymentTask<Deployment> server, List<NodeTasks> containers,
+			DeploymentPublisher publisher) {
+		if (!server.isSuccessful()) {
+			if (server.getFailure() instanceof RuntimeException) {
+				throw (RuntimeException) server.getFailure();
+			}
+			throw new ServerFailStartException(server.getFailure());
 		}
-		catch (InterruptedException e) {
-			LOGGER.error(e.getMessage(), e);
+		for (int i = 0; i < containers.size(); i++) {
+			NodeTasks container = containers.get(i);
+			if (container.start.isSuccessful() || publisher.isPublished(i)) {
+				continue;
+			}
+			LOGGER.error(container.start.getName() + " failed", container.start.getFailure());
+			RunningInstance instance = container.awaitInstance.isSuccessful() ? container.awaitInstance.getResult()
+					: container.reserved.get();
+			Deployment failure = instance == null ? null : createDeployment(instance, InstanceType.NODE,
+					DeploymentStatus.FAILURE);
+			if (failure == null) {
+				// the instance has no host yet, or none was reserved, the failure is still counted
+				failure = new Deployment(null, instance == null ? null : instance.getId(), InstanceType.NODE,
+						DeploymentStatus.FAILURE);
+			}
+			publisher.publish(i, failure);
 		}
-		setupServer(script, instance, type);
+		return publisher.getDeployments();
+	}
+
+	/**
+	 * Creates the deployment result for an instance.
+	 * @param instance The ec2 instance that was deployed.
+	 * @param type The type of xd instance.
+	 * @param status The outcome of the deployment.
+	 * @return The deployment, or null if the host name of the instance can not be resolved.
+	 */
+	private Deployment createDeployment(RunningInstance instance, InstanceType type, DeploymentStatus status) {
 		Deployment result = null;
 		try {
 			InetAddress address = InetAddress.getByName(instance.getDnsName());
-			result = new Deployment(address, type, DeploymentStatus.SUCCESS);
+			result = new Deployment(address, instance.getId(), type, status);
 		}
 		catch (UnknownHostException ex) {
 			LOGGER.error(ex.getMessage());
@@ -257,185 +1883,268 @@ public class AWSDeployer implements Deployer {
 	}
 
 	/**
-	 * Executes the commands to setup a single XD server instance of XD. 
+	 * Executes the commands to setup a single XD server instance of XD.  If the server does not start the
+	 * server phase is retried per its retry policy: the setup script is started again unless it is still
+	 * running, which skips the install and configure stages that completed and restarts XD, and the server is
+	 * awaited again.
 	 * @param script The commands to execute.
 	 * @param instance The ec2 instance to apply the commands 
 	 * @param type Declares the type of xd instance.  
+	 * @param executor Runs the retries of the server phase and the check of its outcome.
+	 * @return a future that completes when the server started, or fails with a ServerFailStartException.
 	 */
-	private void setupServer(String script, RunningInstance instance,
-			InstanceType type) {
-		boolean success = false;
-		for (int retries = 0; retries < RETRY_COUNT && !success; retries++) {
-			runCommands(script, instance.getId());
-			tagInstance(instance, type);
-			try {
-				instanceChecker.checkServerInstance(instance, 9393);
-				success = true;
+	private ListenableFuture<Void> setupServer(final String script, final RunningInstance instance,
+			final InstanceType type, final Executor executor) {
+		tagInstance(instance, type);
+		return Futures.transform(serverPolicy.executeAsync(new RetryPolicy.Attempt<Boolean>() {
+
+			@Override
+			public ListenableFuture<Boolean> start(final long timeout) {
+				return Futures.transform(runCommands(script, instance.getDnsName(), executor),
+						new AsyncFunction<ExecResponse, Boolean>() {
+
+							@Override
+							public ListenableFuture<Boolean> apply(ExecResponse resp) {
+								journal.record(instance.getId(), DeploymentJournal.Phase.CONFIGURED);
+								return awaitReported(getServerNodeName(type),
+										instanceChecker.awaitServerInstance(instance, 9393, timeout));
+							}
+						}, executor);
 			}
-			catch (DeployTimeoutException te) {
-				LOGGER.warn("TIMEOUT while trying to setup server.  Retry "
-						+ retries + " of " + RETRY_COUNT);
+		}, Predicates.equalTo(Boolean.TRUE), retryScheduler, executor), new Function<Boolean, Void>() {
+
+			@Override
+			public Void apply(Boolean started) {
+				if (!started) {
+					throw new ServerFailStartException("Failed to execute commands on ec2 server after "
+							+ serverPolicy.getMaxAttempts() + " attempts.");
+				}
+				return null;
 			}
-		}
-		if (!success) {
-			throw new ServerFailStartException("Failed to execute commands on ec2 server after " + RETRY_COUNT
-					+ " attempts.");
-		}
+		}, executor);
 	}
 
 	/**
-	 * Sets up a container instance.
+	 * Sets up a container instance.  If the container does not start the server phase is retried per its
+	 * retry policy, up to maxAttempts attempts: the setup script is started again unless it is still
+	 * running, which skips the install and configure stages that completed and restarts XD, and the container
+	 * is awaited again.
 	 * @param script The script to install container on the ec2 instance.
 	 * @param instance The ec2 instance where the container will be installed.
+	 * @param node The name the container reports its events with.
 	 * @param type The type of server deployed.
-	 * @return Deployment object containing the status of the install.
-	 */
-	private Deployment installContainerServer(String script,
-			RunningInstance instance, InstanceType type) {
-		sshCopy(this.getLibraryJarLocation(), instance.getDnsName());
-		boolean isInitialized = false;
-		for (int retries = 0; retries < RETRY_COUNT && !isInitialized; retries++) {
-			boolean commandsHaveRun = false;
-			try {
-				runCommands(script, instance.getId());
-				commandsHaveRun = true;
-			}
-			catch (Exception ssre) {
-				LOGGER.warn(ssre.getLocalizedMessage());
-				commandsHaveRun = false;
-			}
-			tagInstance(instance, type);
-			try {
-				if (commandsHaveRun
-						&& instanceChecker.checkContainerProcess(instance,
-								managementPort)) {
-					isInitialized = true;
-				}
-				else {
-					LOGGER.warn("Failure to setup container.  Retry " + retries
-							+ " of " + RETRY_COUNT);
+	 * @param executor Runs the retries of the server phase and the check of its outcome.
+	 * @param maxAttempts The number of attempts made on the instance.
+	 * @return a future of the Deployment object containing the status of the install.
+	 */
+	private ListenableFuture<Deployment> installContainerServer(final String script,
+			final RunningInstance instance, final String node, final InstanceType type, final Executor executor,
+			int maxAttempts) {
+		tagInstance(instance, type);
+		return Futures.transform(serverPolicy.withMaxAttempts(maxAttempts).executeAsync(
+				new RetryPolicy.Attempt<Boolean>() {
+
+					@Override
+					public ListenableFuture<Boolean> start(final long timeout) {
+						// a script that can not be started fails the attempt, not the container
+						ListenableFuture<ExecResponse> commands = Futures.withFallback(runCommands(script,
+								instance.getDnsName(), executor), new FutureFallback<ExecResponse>() {
+
+							@Override
+							public ListenableFuture<ExecResponse> create(Throwable failure) {
+								LOGGER.warn(failure.getLocalizedMessage());
+								return Futures.immediateFuture(null);
+							}
+						}, executor);
+						return Futures.transform(commands, new AsyncFunction<ExecResponse, Boolean>() {
+
+							@Override
+							public ListenableFuture<Boolean> apply(ExecResponse resp) {
+								if (resp == null) {
+									return Futures.immediateFuture(false);
+								}
+								journal.record(instance.getId(), DeploymentJournal.Phase.CONFIGURED);
+								return awaitReported(node, instanceChecker.awaitContainerProcess(instance,
+										managementPort, timeout));
+							}
+						}, executor);
+					}
+				}, Predicates.equalTo(Boolean.TRUE), retryScheduler, executor), new Function<Boolean, Deployment>() {
+
+			@Override
+			public Deployment apply(Boolean isInitialized) {
+				if (isInitialized) {
+					LOGGER.info("Container " + instance.getId() + " started\n");
+					journal.record(instance.getId(), DeploymentJournal.Phase.STARTED);
+					return createDeployment(instance, type, DeploymentStatus.SUCCESS);
 				}
+				LOGGER.info("Container " + instance.getId() + " did not start\n");
+				return createDeployment(instance, type, DeploymentStatus.FAILURE);
 			}
-			catch (DeployTimeoutException te) {
-				LOGGER.warn("Failure to setup container because of timeout.  Retry " + retries
-						+ " of " + RETRY_COUNT);
-			}
-		}
-		if (isInitialized) {
-			LOGGER.info("Container " + instance.getId() + " started\n");
-		}
-		else {
-			LOGGER.info("Container " + instance.getId() + " did not start\n");
+		}, executor);
+	}
+
+	/**
+	 * Combines the port probe of a node with the outcome its agent reports, when node agents are enabled.
+	 * The first of the two to complete decides, so a failure reported by the agent ends the wait at once
+	 * while the probe still decides if the events of the node can not be received.
+	 * @param node The name the node reports its events with.
+	 * @param probe The port probe of the node.
+	 * @return a future containing true if the node started, false if it failed or the wait timed out.
+	 */
+	private ListenableFuture<Boolean> awaitReported(String node, ListenableFuture<Boolean> probe) {
+		if (!nodeAgent) {
+			return probe;
 		}
+		final SettableFuture<Boolean> result = SettableFuture.create();
+		Futures.addCallback(probe, new FutureCallback<Boolean>() {
 
-		Deployment result = null;
-		try {
-			InetAddress address = InetAddress.getByName(instance.getDnsName());
-			if (isInitialized) {
-				result = new Deployment(address, type, DeploymentStatus.SUCCESS);
+			@Override
+			public void onSuccess(Boolean started) {
+				result.set(started);
 			}
-			else {
-				result = new Deployment(address, type, DeploymentStatus.FAILURE);
 
+			@Override
+			public void onFailure(Throwable failure) {
+				result.setException(failure);
 			}
-		}
-		catch (UnknownHostException ex) {
-			LOGGER.error(ex.getMessage(), ex);
-		}
+		});
+		Futures.addCallback(eventSubscriber.whenReported(node), new FutureCallback<NodeEvent>() {
+
+			@Override
+			public void onSuccess(NodeEvent event) {
+				if (event != null) {
+					result.set(event.getType() == NodeEvent.Type.READY);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				// the probe decides
+			}
+		});
 		return result;
 	}
 
+	private static String getServerNodeName(InstanceType type) {
+		return type == InstanceType.ADMIN ? AWSInstanceConfigurer.ADMIN_NODE : AWSInstanceConfigurer.SINGLE_NODE;
+	}
+
 	/**
-	 * Deploys the container instances for XD.
-	 * @param hostName - The admin server this container will be associated.
-	 * @return A list of instances and whether they were successfully created or not.
+	 * Requests the container instances from EC2 and registers them with the instance state tracker.
+	 * @param instanceCount The number of container instances to request.
+	 * @return The reservation containing the container instances.
 	 */
-	private List<Deployment> deployContainerServers(final String hostName) {
+	private Reservation<? extends RunningInstance> provisionContainerInstances(int instanceCount) {
 		LOGGER.info(HIGHLIGHT);
 		LOGGER.info("*Deploying Container Nodes*");
 		LOGGER.info(HIGHLIGHT);
 
-		int instanceCount = Integer.parseInt(numberOfInstances);
 		Reservation<? extends RunningInstance> reservation = instanceProvisioner
 				.runInstance(configurer.bootstrapXDNodeScript(), instanceCount);
-		int i = 0;
-		ExecutorService executorService = Executors
-				.newFixedThreadPool(reservation.size());
-		List<Future<Deployment>> futures = new ArrayList<>();
-		StopWatch outerStopWatch = new StopWatch("Overall");
-		outerStopWatch.start();
-		for (final RunningInstance instance : reservation) {
-			final int currentInstance = i++;
-			Callable<Deployment> task = new Callable<Deployment>() {
+		instanceStateTracker.track(reservation);
+		return reservation;
+	}
 
-				@Override
-				public Deployment call() {
-					StopWatch inner = new StopWatch("instance "
-							+ currentInstance);
-					inner.start("checkAWSInstance");
-					instanceChecker.waitForInstanceToBeProvisioned(instance, instanceProvisionWaitTime);
-					tagInitialization(instance, InstanceType.NODE);
-					instanceChecker.checkAWSInstance(instance);
-					inner.stop();
-					LOGGER.info(String
-							.format("*******Setting up your Container XD instance %d.*******",
-									currentInstance));
-					RunningInstance refreshed = AWSInstanceProvisioner
-							.findInstanceById(client, instance.getId());
-					addTags(refreshed,
-							Collections.singletonMap("Container_Node", ""
-									+ currentInstance));
-					inner.start("installContainerServer");
-					Deployment deployment = installContainerServer(
-							configurer.createContainerNodeScript(hostName, hadoopVersion, currentInstance),
-							refreshed, InstanceType.NODE);
-					inner.stop();
-					LOGGER.debug(inner.prettyPrint());
-					return deployment;
-				}
-			};
-			futures.add(executorService.submit(task));
-		}
-		try {
-			executorService.shutdown();
-			executorService.awaitTermination(((RETRY_COUNT + 1) * 300) + 5, SECONDS);
-			executorService.shutdownNow();
-			outerStopWatch.stop();
-			LOGGER.debug(outerStopWatch.prettyPrint());
-			List<Deployment> result = new ArrayList<>();
-			for (Future<Deployment> future : futures) {
-				result.add(future.get(0, SECONDS));
-			}
-			return result;
-		}
-		catch (InterruptedException interruptedException) {
-			throw new IllegalStateException(interruptedException.getMessage(), interruptedException);
-		}
-		catch (ExecutionException executionException) {
-			throw new IllegalStateException(executionException.getMessage(), executionException);
-		}
-		catch (TimeoutException timeoutException) {
-			throw new DeployTimeoutException(timeoutException.getMessage(), timeoutException);
-		}
+	/**
+	 * Requests the container instances with the compressed script as user data and registers them with
+	 * the instance state tracker.
+	 * @param script The script that configures and starts the containers at boot.
+	 * @param instanceCount The number of container instances to request.
+	 * @return The reservation containing the container instances.
+	 */
+	private Reservation<? extends RunningInstance> provisionBootContainerInstances(String script,
+			int instanceCount) {
+		LOGGER.info(HIGHLIGHT);
+		LOGGER.info("*Deploying Container Nodes*");
+		LOGGER.info(HIGHLIGHT);
+
+		Reservation<? extends RunningInstance> reservation = instanceProvisioner.runCompressedInstance(script,
+				instanceCount);
+		instanceStateTracker.track(reservation);
+		return reservation;
+	}
+
+	/**
+	 * Provisions a single instance with the compressed script as user data and registers it with the
+	 * instance state tracker.
+	 * @param script The script that configures and starts the instance at boot.
+	 * @return The newly created instance.
+	 */
+	private RunningInstance provisionBootInstance(String script) {
+		Reservation<? extends RunningInstance> reservation = instanceProvisioner.runCompressedInstance(script, 1);
+		instanceStateTracker.track(reservation);
+		return Iterables.getOnlyElement(reservation);
+	}
 
+	/**
+	 * Provisions a single instance and registers it with the instance state tracker.
+	 * @param script The script passed to the instance as user data.
+	 * @return The newly created instance.
+	 */
+	private RunningInstance provisionInstance(String script) {
+		Reservation<? extends RunningInstance> reservation = instanceProvisioner.runInstance(script, 1);
+		instanceStateTracker.track(reservation);
+		return Iterables.getOnlyElement(reservation);
 	}
 
 	/**
-	 * Executes the XD setup commands on a specified node id.
+	 * Executes the XD setup commands on a specified host.  The script is copied and started in the
+	 * background over the pooled ssh session of the host, without waiting for it to complete.  The copy and
+	 * the start are retried per the script retry policy, each attempt runs on the executor and no thread is
+	 * held during the backoff.  The script is neither replaced nor started while it is still running from an
+	 * earlier attempt, so retrying the start does not run it twice.
 	 * @param script JCloud Builder script that initializes XD.
-	 * @param nodeId The node ID of the instance to execute the commands
+	 * @param host The host of the instance to execute the commands
+	 * @param executor Runs the attempts.
+	 * @return a future of the response of the command that started the script.
+	 */
+	private ListenableFuture<ExecResponse> runCommands(final String script, final String host,
+			Executor executor) {
+		return scriptPolicy.executeAsync(new Callable<ExecResponse>() {
+
+			@Override
+			public ExecResponse call() {
+				sshSessionPool.put(host, UBUNTU_HOME + "setup-xd.sh.new", SshSessionPool.stringPayload(script));
+				ExecResponse resp = sshSessionPool.exec(host, "pgrep -f \"bash " + UBUNTU_HOME
+						+ "[s]etup-xd.sh\" > /dev/null || (mv " + UBUNTU_HOME + "setup-xd.sh.new " + UBUNTU_HOME
+						+ "setup-xd.sh && nohup bash " + UBUNTU_HOME + "setup-xd.sh > " + UBUNTU_HOME
+						+ "setup-xd.log 2>&1 < /dev/null &)");
+				LOGGER.debug(resp.getOutput());
+				LOGGER.debug(resp.getError());
+				LOGGER.debug("ExitStatus is " + resp.getExitStatus());
+				return resp;
+			}
+		}, retryScheduler, executor);
+	}
+
+	/**
+	 * Copies the configurator jar to an instance, retrying the copy per the copy retry policy.  Each attempt
+	 * runs on the executor and no thread is held during the backoff.
+	 * @param host The public host of the instance.
+	 * @param serve If true the instance serves the jar to its children in the distribution tree.
+	 * @param executor Runs the attempts.
+	 * @return a future that completes once the jar is copied.
+	 */
+	private ListenableFuture<Void> uploadConfigurator(String host, boolean serve, Executor executor) {
+		return copyPolicy.executeAsync(createUploadStep(host, serve), retryScheduler, executor);
+	}
+
+	/**
+	 * Creates the step that copies the configurator jar to an instance.
+	 * @param host The public host of the instance.
+	 * @param serve If true the instance serves the jar to its children in the distribution tree.
+	 * @return the copy step.
 	 */
-	private void runCommands(String script, String nodeId) {
+	private Callable<Void> createUploadStep(final String host, final boolean serve) {
+		return new Callable<Void>() {
 
-		RunScriptOptions options = RunScriptOptions.Builder
-				.blockOnComplete(false).overrideLoginUser("ubuntu")
-				.overrideLoginPrivateKey(getPrivateKey());
-		options.runAsRoot(false);
-		ExecResponse resp = computeService.runScriptOnNode(nodeId, script,
-				options);
-		LOGGER.debug(resp.getOutput());
-		LOGGER.debug(resp.getError());
-		LOGGER.debug("ExitStatus is " + resp.getExitStatus());
+			@Override
+			public Void call() {
+				configuratorDistributor.upload(host, serve);
+				return null;
+			}
+		};
 	}
 
 	/**
@@ -472,13 +2181,36 @@ public class AWSDeployer implements Deployer {
 	 * @param tags A map containing the tag name (key) and the tag value.
 	 */
 	private void addTags(RunningInstance instance, Map<String, String> tags) {
-		ArrayList<String> list = new ArrayList<String>();
-		list.add(instance.getId());
-		client.getTagApiForRegion(region).get().applyToResources(tags, list);
+		instanceTagger.tag(instance, tags);
+	}
+
+	/**
+	 * Tags all the container instances of a reservation as being configured for xd, along with the index of
+	 * each container.  The tags shared by the containers are applied in one call.  The instances are recorded
+	 * in the journal as they are tagged.
+	 * @param instances The container instances, in the order of their index.
+	 * @param firstIndex The index of the first container.
+	 */
+	private void tagContainerInitialization(List<RunningInstance> instances, int firstIndex) {
+		List<String> instanceIds = new ArrayList<String>();
+		for (int i = 0; i < instances.size(); i++) {
+			journal.provisioned("container " + (firstIndex + i), instances.get(i).getId());
+			instanceIds.add(instances.get(i).getId());
+			instanceTagger.tag(Collections.singleton(instances.get(i).getId()),
+					Collections.singletonMap("Container_Node", "" + (firstIndex + i)));
+		}
+		Map<String, String> tags = new HashMap<String, String>();
+		tags.put("Name", "Initializing Instance for " + userName);
+		tags.put("Type", InstanceType.NODE.name());
+		instanceTagger.tag(instanceIds, tags);
+		for (String instanceId : instanceIds) {
+			journal.record(instanceId, DeploymentJournal.Phase.TAGGED);
+		}
 	}
 
 	/**
-	 * Retrieves the private key required for running OS commands.
+	 * Retrieves the private key required for running OS commands.  Only read once, when the ssh
+	 * session pool is created.
 	 * @return The contents of the private key file
 	 */
 	private String getPrivateKey() {
@@ -502,39 +2234,6 @@ public class AWSDeployer implements Deployer {
 		return buildFile;
 	}
 
-	/**
-	 * Copies the local file to a remote server via SSH
-	 * @param file The file to be copied.
-	 * @param host The host of the remote server.
-	 */
-	private void sshCopy(File file, String host) {
-		final LoginCredentials credential = LoginCredentials
-				.fromCredentials(new Credentials("ubuntu", getPrivateKey()));
-		final com.google.common.net.HostAndPort socket = com.google.common.net.HostAndPort
-				.fromParts(host, 22);
-		final SshjSshClient client = new SshjSshClient(
-				new BackoffLimitedRetryHandler(), socket, credential, 5000);
-		final FilePayload payload = new FilePayload(file);
-		client.put(UBUNTU_HOME + "deploy.jar", payload);
-	}
-
-	/**
-	 * Sets the timeouts for the deployment.
-	 * @return Properties object with the timeout policy.
-	 */
-	private Properties getTimeoutPolicy() {
-		Properties properties = new Properties();
-		long scriptTimeout = TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES);
-		properties.setProperty("jclouds.ssh.max-retries", "100");
-		properties.setProperty("jclouds.max-retries", "1000");
-		properties.setProperty("jclouds.request-timeout", "18000");
-		properties.setProperty("jclouds.connection-timeout", "18000");
-
-		properties.setProperty(TIMEOUT_PORT_OPEN, scriptTimeout + "");
-		properties.setProperty(TIMEOUT_SCRIPT_COMPLETE, scriptTimeout + "");
-		return properties;
-	}
-
 	/**
 	 * Verifies that the URL with the XD Distro is valid.
 	 * @param properties the configuration properties for the deployment.
@@ -590,4 +2289,109 @@ public class AWSDeployer implements Deployer {
 		}
 		return properties;
 	}
+
+	/**
+	 * Forwards each deployment to the listener as soon as it is known, and reports the cluster usable
+	 * once the server and the minimum number of healthy containers are running.
+	 */
+	static class DeploymentPublisher {
+
+		private final DeploymentListener listener;
+
+		private final int minimumHealthy;
+
+		private final List<Deployment> deployments = new ArrayList<Deployment>();
+
+		private final Set<Object> published = new HashSet<Object>();
+
+		private int healthyContainers;
+
+		private boolean serverStarted;
+
+		private boolean usable;
+
+		DeploymentPublisher(DeploymentListener listener, int minimumHealthy) {
+			this.listener = listener;
+			this.minimumHealthy = minimumHealthy;
+		}
+
+		/**
+		 * Publishes the outcome of a server.  Only the first outcome of a server is published.
+		 * @param server Identifies the server, e.g. its container index.
+		 * @param deployment The outcome, ignored if null.
+		 */
+		synchronized void publish(Object server, Deployment deployment) {
+			if (deployment == null || !published.add(server)) {
+				return;
+			}
+			deployments.add(deployment);
+			if (deployment.getStatus() == DeploymentStatus.SUCCESS) {
+				if (deployment.getType() == InstanceType.NODE) {
+					healthyContainers++;
+				}
+				else {
+					serverStarted = true;
+				}
+			}
+			try {
+				listener.deploymentCompleted(deployment);
+				if (!usable && serverStarted && healthyContainers >= minimumHealthy) {
+					usable = true;
+					LOGGER.info(String.format("Cluster is usable with %d healthy containers", healthyContainers));
+					listener.clusterUsable(new ArrayList<Deployment>(deployments));
+				}
+			}
+			catch (RuntimeException re) {
+				LOGGER.warn("Deployment listener failed: " + re.getMessage(), re);
+			}
+		}
+
+		/**
+		 * Records that the server is running without publishing it, when containers are added to a
+		 * running cluster.
+		 */
+		synchronized void serverRunning() {
+			serverStarted = true;
+		}
+
+		synchronized boolean isPublished(Object server) {
+			return published.contains(server);
+		}
+
+		synchronized boolean isUsable() {
+			return usable;
+		}
+
+		synchronized List<Deployment> getDeployments() {
+			return new ArrayList<Deployment>(deployments);
+		}
+	}
+
+	/**
+	 * The tasks of a node deployment that are needed to report its outcome and to distribute the
+	 * configurator from it, and the instance reserved for the node, known before the instance runs.
+	 */
+	private static class NodeTasks {
+
+		private final DeploymentTask<RunningInstance> awaitInstance;
+
+		private final DeploymentTask<Void> copyConfigurator;
+
+		private final DeploymentTask<Deployment> start;
+
+		private final AtomicReference<RunningInstance> reserved;
+
+		NodeTasks(DeploymentTask<RunningInstance> awaitInstance, DeploymentTask<Void> copyConfigurator,
+				DeploymentTask<Deployment> start) {
+			this(awaitInstance, copyConfigurator, start, new AtomicReference<RunningInstance>());
+		}
+
+		NodeTasks(DeploymentTask<RunningInstance> awaitInstance, DeploymentTask<Void> copyConfigurator,
+				DeploymentTask<Deployment> start, AtomicReference<RunningInstance> reserved) {
+			this.awaitInstance = awaitInstance;
+			this.copyConfigurator = copyConfigurator;
+			this.start = start;
+			this.reserved = reserved;
+		}
+	}
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.jclouds.ec2.options.DescribeImagesOptions.Builder.imageIds;
+import static org.jclouds.ec2.options.DescribeImagesOptions.Builder.ownedBy;
+
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.ec2.domain.Image;
+import org.jclouds.ec2.options.CreateImageOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.springframework.xd.cloud.DeployTimeoutException;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Saves an instance where XD is installed as an AMI, and finds that AMI for later deployments.  Every
+ * image is tagged with a fingerprint of what was installed: the base AMI, the urls of the XD distribution
+ * and third party jars, and the checksum of the configurator jar.  A deployment only uses an image whose
+ * fingerprint matches its own configuration, so changing any of those falls back to the base AMI until a
+ * new image is baked.
+ */
+public class AWSImageBaker {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AWSImageBaker.class);
+
+	static final String FINGERPRINT_TAG = "XD_Bake";
+
+	private final AWSEC2Api client;
+
+	private final String region;
+
+	private final String baseAmi;
+
+	private final long pollInterval;
+
+	private final AWSInstanceConfigurer configurer;
+
+	private final ConfiguratorDistributor configuratorDistributor;
+
+	/**
+	 * Initializes the baker.
+	 * @param client The AWS client used to create and describe the images.
+	 * @param properties The properties that declare the base AMI and the region.
+	 * @param configurer The configurer that declares the artifacts installed on the image.
+	 * @param configuratorDistributor The distributor of the configurator jar installed on the image.
+	 */
+	public AWSImageBaker(AWSEC2Api client, Properties properties, AWSInstanceConfigurer configurer,
+			ConfiguratorDistributor configuratorDistributor) {
+		Assert.notNull(client, "client can not be null");
+		Assert.notNull(properties, "properties can not be null");
+		Assert.notNull(configurer, "configurer can not be null");
+		Assert.notNull(configuratorDistributor, "configuratorDistributor can not be null");
+		this.client = client;
+		this.region = properties.getProperty("region");
+		this.baseAmi = properties.getProperty("ami");
+		this.pollInterval = Long.valueOf(properties.getProperty("instance.state.poll.interval", "5000"));
+		this.configurer = configurer;
+		this.configuratorDistributor = configuratorDistributor;
+	}
+
+	/**
+	 * Computes the fingerprint of the current configuration.
+	 * @return the SHA-256 of the base AMI, the artifact urls and the configurator checksum.
+	 */
+	public String getFingerprint() {
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putString(baseAmi + "\n", Charsets.UTF_8);
+		for (String url : configurer.getArtifactUrls()) {
+			hasher.putString(url + "\n", Charsets.UTF_8);
+		}
+		hasher.putString(configuratorDistributor.getChecksum(), Charsets.UTF_8);
+		return hasher.hash().toString();
+	}
+
+	/**
+	 * Finds the most recent available image baked for the current configuration.
+	 * @return the id of the image, or null if none was baked.
+	 */
+	public String findImage() {
+		Set<? extends Image> images = client.getAMIApiForRegion(region).get().describeImagesInRegionWithFilter(
+				region, ImmutableMultimap.of("tag:" + FINGERPRINT_TAG, getFingerprint(), "state", "available"),
+				ownedBy("self"));
+		Image latest = null;
+		for (Image image : images) {
+			if (latest == null || image.getName().compareTo(latest.getName()) > 0) {
+				latest = image;
+			}
+		}
+		return latest == null ? null : latest.getId();
+	}
+
+	/**
+	 * Saves the instance as a new image named after the fingerprint and the current time, and tags it
+	 * with the fingerprint.  The instance is rebooted so the file systems are consistent.
+	 * @param instanceId The id of the instance where XD is installed.
+	 * @return the id of the new image.
+	 */
+	public String createImage(String instanceId) {
+		Assert.hasText(instanceId, "instanceId can not be empty nor null");
+		String fingerprint = getFingerprint();
+		String name = "spring-xd-ec2-" + fingerprint.substring(0, 12) + "-"
+				+ new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+		String imageId = client.getAMIApiForRegion(region).get().createImageInRegion(region, name, instanceId,
+				CreateImageOptions.Builder.withDescription("XD installed from " + configurer.getFileName()));
+		Map<String, String> tags = new HashMap<String, String>();
+		tags.put("Name", name);
+		tags.put(FINGERPRINT_TAG, fingerprint);
+		client.getTagApiForRegion(region).get().applyToResources(tags, Collections.singleton(imageId));
+		LOGGER.info("Creating image " + name + " (" + imageId + ")");
+		return imageId;
+	}
+
+	/**
+	 * Blocks until the image is available.
+	 * @param imageId The id of the image.
+	 * @param waitTime The max time in millis to wait.
+	 */
+	public void waitForImage(String imageId, long waitTime) {
+		Assert.hasText(imageId, "imageId can not be empty nor null");
+		long deadline = System.currentTimeMillis() + waitTime;
+		while (System.currentTimeMillis() < deadline) {
+			Image image = Iterables.getOnlyElement(client.getAMIApiForRegion(region).get()
+					.describeImagesInRegion(region, imageIds(imageId)), null);
+			if (image != null && image.getImageState() == Image.ImageState.AVAILABLE) {
+				return;
+			}
+			if (image != null && "failed".equals(image.getRawState())) {
+				throw new IllegalStateException("Image " + imageId + " failed to be created");
+			}
+			try {
+				Thread.sleep(pollInterval);
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(ie.getMessage(), ie);
+			}
+		}
+		throw new DeployTimeoutException("Image " + imageId + " was not available before timeout of " + waitTime);
+	}
+
+}
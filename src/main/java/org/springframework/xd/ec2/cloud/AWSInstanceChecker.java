@@ -16,27 +16,36 @@
 
 package org.springframework.xd.ec2.cloud;
 
-import com.google.common.base.Predicate;
+import com.google.common.base.Function;
 import com.google.common.net.HostAndPort;
-import org.jclouds.aws.ec2.AWSEC2Api;
-import org.jclouds.compute.ComputeService;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.jclouds.ec2.domain.InstanceState;
 import org.jclouds.ec2.domain.RunningInstance;
-import org.jclouds.ec2.predicates.InstanceStateRunning;
-import org.jclouds.predicates.SocketOpen;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 import org.springframework.xd.cloud.DeployTimeoutException;
-
+import org.springframework.xd.cloud.ServerFailStartException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.concurrent.TimeUnit;
-
-import static org.jclouds.util.Predicates2.retry;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 
 /**
- * Verifies services are available.  
+ * Verifies services are available.  Every check is available as a future so that callers can wait
+ * for many instances without holding a thread per instance.
  */
 public class AWSInstanceChecker {
 
@@ -49,21 +58,35 @@ public class AWSInstanceChecker {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(AWSDeployer.class);
 
-	private AWSEC2Api client;
+	private InstanceStateTracker instanceStateTracker;
 
-	private ComputeService computeService;
+	private PortProber portProber;
 
 	private Properties properties;
 
-	public AWSInstanceChecker(Properties properties, AWSEC2Api client,
-			ComputeService computeService) {
+	private boolean protocolProbes;
+
+	private long serverWaitTime;
+
+	private long resourceWaitTime;
+
+	private long instanceWaitTime;
+
+	private long sshWaitTime;
+
+	public AWSInstanceChecker(Properties properties, InstanceStateTracker instanceStateTracker,
+			PortProber portProber) {
 		Assert.notNull(properties, "properties can not be null");
-		Assert.notNull(client, "client can not be null");
-		Assert.notNull(computeService, "computeService can not be null");
-		this.client = client;
-		this.computeService = computeService;
+		Assert.notNull(instanceStateTracker, "instanceStateTracker can not be null");
+		Assert.notNull(portProber, "portProber can not be null");
+		this.instanceStateTracker = instanceStateTracker;
+		this.portProber = portProber;
 		this.properties = properties;
-
+		this.protocolProbes = Boolean.parseBoolean(properties.getProperty("protocol.probes", "true"));
+		this.serverWaitTime = RetryPolicy.forPhase(RetryPolicy.Phase.SERVER, properties).getTimeout();
+		this.resourceWaitTime = RetryPolicy.forPhase(RetryPolicy.Phase.RESOURCE, properties).getTimeout();
+		this.instanceWaitTime = RetryPolicy.forPhase(RetryPolicy.Phase.PROVISION, properties).getTimeout();
+		this.sshWaitTime = RetryPolicy.forPhase(RetryPolicy.Phase.SSH, properties).getTimeout();
 	}
 
 	/**
@@ -72,21 +95,36 @@ public class AWSInstanceChecker {
 	 * @param port the port to monitor.
 	 */
 	public void checkServerInstance(RunningInstance instance, final int port) {
-		Assert.notNull(instance, "instance can not be null");
-		RunningInstance localInstance = AWSInstanceProvisioner.findInstanceById(client,
-				instance.getId());
-		final SocketOpen socketOpen = computeService.getContext().utils().injector()
-				.getInstance(SocketOpen.class);
-		final Predicate<HostAndPort> socketTester = retry(socketOpen, 300, 1,
-				TimeUnit.SECONDS);
-		LOGGER.info(String.format("Awaiting XD server to start"));
-		if (!socketTester.apply(HostAndPort.fromParts(localInstance.getIpAddress(),
-				port))) {
+		if (!getResult(awaitServerInstance(instance, port))) {
 			throw new DeployTimeoutException("timeout waiting for server to start: "
-					+ localInstance.getIpAddress());
+					+ instanceStateTracker.getInstance(instance.getId()).getIpAddress());
 		}
-		LOGGER.info(String.format("Server started%n"));
+	}
 
+	/**
+	 * Waits for XD admin or single node to be up and running.
+	 * @param instance The instance where the XD server is deployed
+	 * @param port the port to monitor.
+	 * @return a future containing true if the server started, false if the wait timed out.
+	 */
+	public ListenableFuture<Boolean> awaitServerInstance(RunningInstance instance, final int port) {
+		return awaitServerInstance(instance, port, serverWaitTime);
+	}
+
+	/**
+	 * Waits for XD admin or single node to be up and running or until the wait time expires.
+	 * @param instance The instance where the XD server is deployed
+	 * @param port the port to monitor.
+	 * @param waitTime The max time in millis to wait.
+	 * @return a future containing true if the server started, false if the wait timed out.
+	 */
+	public ListenableFuture<Boolean> awaitServerInstance(RunningInstance instance, final int port, long waitTime) {
+		Assert.notNull(instance, "instance can not be null");
+		RunningInstance localInstance = instanceStateTracker.getInstance(instance.getId());
+		LOGGER.info(String.format("Awaiting XD server to start"));
+		return logOutcome(portProber.whenReady(HostAndPort.fromParts(localInstance.getIpAddress(), port),
+				getReadinessProbe(ReadinessProbes.http("/")), waitTime), String.format("Server started%n"),
+				"timeout waiting for server to start: " + localInstance.getIpAddress());
 	}
 
 	/**
@@ -96,109 +134,225 @@ public class AWSInstanceChecker {
 	 * @return check
 	 */
 	public RunningInstance checkServerResources(RunningInstance instanceParam, boolean isEmbeddedZookeeper) {
-		Assert.notNull(instanceParam, "instanceParam can not be null");
-		RunningInstance instance = checkAWSInstance(instanceParam);
-		LOGGER.info("*******Verifying Required XD Resources.*******");
-
-		SocketOpen socketOpen = computeService.getContext().utils().injector()
-				.getInstance(SocketOpen.class);
-		Predicate<HostAndPort> socketTester = retry(socketOpen, 300, 1,
-				TimeUnit.SECONDS);
-
-		LOGGER.info(String.format("Awaiting Redis service to start at " + properties.getProperty(REDIS_ADDRESS)));
-		if (!verifyResourceAddress(properties.getProperty(REDIS_ADDRESS))) {
-			throw new DeployTimeoutException("timeout waiting for Redis to start: "
-					+ properties.getProperty(REDIS_ADDRESS));
-		}
-		LOGGER.info(String.format("Redis service started"));
+		return getResult(awaitRequiredResources(instanceParam, isEmbeddedZookeeper));
+	}
 
-		LOGGER.info(String.format("Awaiting Rabbit service to start at " + properties.getProperty(RABBIT_ADDRESSES)));
-		if (!verifyResourceAddress(properties.getProperty(RABBIT_ADDRESSES))) {
-			throw new DeployTimeoutException("timeout waiting for Rabbit to start: "
-					+ properties.getProperty(RABBIT_ADDRESSES));
-		}
-		LOGGER.info(String.format("Rabbit service started"));
+	/**
+	 * Waits for the EC2 instance to run, then for redis, rabbit and zookeeper to answer requests.
+	 * @param instanceParam The instance that the xd is deployed.
+	 * @param isEmbeddedZookeeper if false it waits for zookeeper, if true it does not.
+	 * @return a future containing the running instance, or failing with a ServerFailStartException if a
+	 * resource can not start or a DeployTimeoutException if the resources did not start in time.
+	 */
+	public ListenableFuture<RunningInstance> awaitRequiredResources(RunningInstance instanceParam,
+			final boolean isEmbeddedZookeeper) {
+		Assert.notNull(instanceParam, "instanceParam can not be null");
+		return Futures.transform(awaitAWSInstance(instanceParam), new AsyncFunction<RunningInstance, RunningInstance>() {
+
+			@Override
+			public ListenableFuture<RunningInstance> apply(final RunningInstance instance) {
+				LOGGER.info("*******Verifying Required XD Resources.*******");
+				return Futures.transform(awaitServerResources(instance, isEmbeddedZookeeper),
+						new Function<ResourceReadinessReport, RunningInstance>() {
+
+							@Override
+							public RunningInstance apply(ResourceReadinessReport report) {
+								LOGGER.info(report.toString());
+								if (report.isHardFailure()) {
+									throw new ServerFailStartException("XD resources can not start: "
+											+ report.getFailureSummary());
+								}
+								if (!report.isReady()) {
+									throw new DeployTimeoutException("timeout waiting for XD resources to start: "
+											+ report.getFailureSummary());
+								}
+								LOGGER.info("*******EC2 Instance and required XD Resources have started.*******");
+
+								LOGGER.info(String.format("instance %s ready", instance.getId()));
+								LOGGER.info(String.format("ip address: %s", instance.getIpAddress()));
+								LOGGER.info(String.format("dns name: %s%n", instance.getDnsName()));
+								return instance;
+							}
+						});
+			}
+		});
+	}
 
+	/**
+	 * Waits for redis, rabbit, zookeeper and kafka to answer requests.  The resources are probed
+	 * concurrently under one shared deadline.  The wait ends as soon as one resource fails, or the
+	 * instance is terminated, and the probes of the other resources are cancelled.  If an address is
+	 * invalid no resource is probed.
+	 * @param instance The instance that the xd is deployed.
+	 * @param isEmbeddedZookeeper if false it waits for zookeeper, if true it does not.
+	 * @return a future containing the readiness of every resource.
+	 */
+	public ListenableFuture<ResourceReadinessReport> awaitServerResources(final RunningInstance instance,
+			boolean isEmbeddedZookeeper) {
+		Assert.notNull(instance, "instance can not be null");
+		Map<String, String> resources = new LinkedHashMap<String, String>();
+		Map<String, ReadinessProbe> readinessProbes = new HashMap<String, ReadinessProbe>();
+		resources.put("Redis", properties.getProperty(REDIS_ADDRESS));
+		readinessProbes.put("Redis", ReadinessProbes.REDIS);
+		resources.put("Rabbit", properties.getProperty(RABBIT_ADDRESSES));
+		readinessProbes.put("Rabbit", ReadinessProbes.AMQP);
 		if (!isEmbeddedZookeeper) {
-			LOGGER.info(String.format("Awaiting ZooKeeper service to start at " + properties.getProperty(ZOOKEEPER_ADDRESSES)));
-			if (!verifyResourceAddress(properties.getProperty(ZOOKEEPER_ADDRESSES))) {
-				throw new DeployTimeoutException("timeout waiting for zookeeper to start: "
-						+ properties.getProperty(ZOOKEEPER_ADDRESSES));
+			resources.put("ZooKeeper", properties.getProperty(ZOOKEEPER_ADDRESSES));
+			readinessProbes.put("ZooKeeper", ReadinessProbes.ZOOKEEPER);
+		}
+		resources.put("Kafka ZooKeeper", properties.getProperty(KAFKA_ZK_ADDRESSES));
+		readinessProbes.put("Kafka ZooKeeper", ReadinessProbes.ZOOKEEPER);
+		resources.put("Kafka Broker", properties.getProperty(KAFKA_BROKER_ADDRESSES));
+		readinessProbes.put("Kafka Broker", ReadinessProbes.KAFKA);
+
+		final ResourceReadinessReport report = new ResourceReadinessReport(instance.getId());
+		final SettableFuture<ResourceReadinessReport> result = SettableFuture.create();
+		final List<ListenableFuture<Boolean>> probes = new CopyOnWriteArrayList<ListenableFuture<Boolean>>();
+		final InstanceStateListener listener = new InstanceStateListener() {
+
+			@Override
+			public void stateChanged(RunningInstance changed, InstanceState previousState) {
+				InstanceState state = changed.getInstanceState();
+				if (changed.getId().equals(instance.getId())
+						&& (state == InstanceState.TERMINATED || state == InstanceState.SHUTTING_DOWN)) {
+					report.fail("Instance " + instance.getId() + " is " + changed.getInstanceState());
+					completeResourceWait(report, probes, this, result);
+				}
+			}
+		};
+		Map<ResourceReadinessReport.Resource, List<HostAndPort>> targets = new LinkedHashMap<ResourceReadinessReport.Resource, List<HostAndPort>>();
+		for (Entry<String, String> resource : resources.entrySet()) {
+			ResourceReadinessReport.Resource entry = report.add(resource.getKey(), resource.getValue());
+			try {
+				targets.put(entry, parseAddresses(resource.getValue()));
+			}
+			catch (IllegalArgumentException iae) {
+				entry.complete(ResourceReadinessReport.Status.FAILED, iae.getMessage());
 			}
-			LOGGER.info(String.format("Zoo Keeper service started%n"));
 		}
-
-		LOGGER.info(String.format("Awaiting Kafka Zookeeper service to start at " + properties.getProperty(KAFKA_ZK_ADDRESSES)));
-		if (!verifyResourceAddress(properties.getProperty(KAFKA_ZK_ADDRESSES))) {
-			throw new DeployTimeoutException("timeout waiting for kafka Zookeeper to start: "
-					+ properties.getProperty(KAFKA_ZK_ADDRESSES));
+		if (report.isComplete()) {
+			completeResourceWait(report, probes, listener, result);
+			return result;
 		}
-		LOGGER.info(String.format("Kafka ZK service started%n"));
-
-		LOGGER.info(String.format("Awaiting Kafka Broker service to start at " + properties.getProperty(KAFKA_BROKER_ADDRESSES)));
-		if (!verifyResourceAddress(properties.getProperty(KAFKA_BROKER_ADDRESSES))) {
-			throw new DeployTimeoutException("timeout waiting for kafka broker to start: "
-					+ properties.getProperty(KAFKA_BROKER_ADDRESSES));
+		instanceStateTracker.addListener(listener);
+		for (Entry<ResourceReadinessReport.Resource, List<HostAndPort>> target : targets.entrySet()) {
+			final ResourceReadinessReport.Resource entry = target.getKey();
+			LOGGER.info("Awaiting " + entry.getName() + " service to start at " + entry.getAddresses());
+			ListenableFuture<Boolean> probe = portProber.whenAnyReady(target.getValue(),
+					getReadinessProbe(readinessProbes.get(entry.getName())), resourceWaitTime);
+			probes.add(probe);
+			Futures.addCallback(probe, new FutureCallback<Boolean>() {
+
+				@Override
+				public void onSuccess(Boolean open) {
+					entry.complete(open ? ResourceReadinessReport.Status.READY
+							: ResourceReadinessReport.Status.TIMED_OUT, null);
+					if (report.isComplete()) {
+						completeResourceWait(report, probes, listener, result);
+					}
+				}
+
+				@Override
+				public void onFailure(Throwable failure) {
+					entry.complete(failure instanceof CancellationException ? ResourceReadinessReport.Status.CANCELLED
+							: ResourceReadinessReport.Status.FAILED, failure.getMessage());
+					if (report.isComplete()) {
+						completeResourceWait(report, probes, listener, result);
+					}
+				}
+			});
 		}
-		LOGGER.info(String.format("Kafka Broker service started%n"));
+		return result;
+	}
 
-		LOGGER.info("*******EC2 Instance and required XD Resources have started.*******");
+	/**
+	 * Cancels the probes that are still pending, marking their resources cancelled, and completes the wait.
+	 */
+	private void completeResourceWait(ResourceReadinessReport report, List<ListenableFuture<Boolean>> probes,
+			InstanceStateListener listener, SettableFuture<ResourceReadinessReport> result) {
+		instanceStateTracker.removeListener(listener);
+		for (ListenableFuture<Boolean> probe : probes) {
+			probe.cancel(false);
+		}
+		for (ResourceReadinessReport.Resource resource : report.getResources()) {
+			resource.complete(ResourceReadinessReport.Status.CANCELLED, null);
+		}
+		result.set(report);
+	}
 
-		LOGGER.info(String.format("instance %s ready", instance.getId()));
-		LOGGER.info(String.format("ip address: %s", instance.getIpAddress()));
-		LOGGER.info(String.format("dns name: %s%n", instance.getDnsName()));
-		return instance;
+	/**
+	 * Retrieves the probe to use for a service, a plain connection if protocol.probes is false.
+	 * @param readinessProbe The probe of the service protocol.
+	 * @return the probe to use.
+	 */
+	private ReadinessProbe getReadinessProbe(ReadinessProbe readinessProbe) {
+		return protocolProbes ? readinessProbe : ReadinessProbes.TCP;
 	}
 
-	private boolean verifyResourceAddress(String addresses){
-		SocketOpen socketOpen = computeService.getContext().utils().injector()
-				.getInstance(SocketOpen.class);
-		Predicate<HostAndPort> socketTester = retry(socketOpen, 180, 1,
-				TimeUnit.SECONDS);
-		boolean result = false;
-		String[] addressList = StringUtils.commaDelimitedListToStringArray(addresses);
-		for(String address:addressList){
-			String[] tokens = StringUtils.delimitedListToStringArray(address,":");
-			if (socketTester.apply(HostAndPort.fromParts(tokens[0],
-					Integer.valueOf(tokens[1])))){
-				result = true;
-				break;
+	/**
+	 * Reads a comma delimited list of host:port addresses.
+	 * @param addresses The addresses to read.
+	 * @return the hosts and ports.
+	 */
+	private static List<HostAndPort> parseAddresses(String addresses) {
+		List<HostAndPort> result = new ArrayList<HostAndPort>();
+		for (String address : StringUtils.commaDelimitedListToStringArray(addresses)) {
+			HostAndPort target = HostAndPort.fromString(address.trim());
+			if (!target.hasPort()) {
+				throw new IllegalArgumentException("Address has no port: " + address);
 			}
-
+			result.add(target);
+		}
+		if (result.isEmpty()) {
+			throw new IllegalArgumentException("No address is configured");
 		}
 		return result;
 	}
+
 	/**
 	 * Verfies that the EC2 instance is running.  Also verfies ssh service is running
 	 * @param instanceParam The instance to be monitored.
 	 * @return  RunningInstance object.
 	 */
 	public RunningInstance checkAWSInstance(RunningInstance instanceParam) {
-		Assert.notNull(instanceParam, "instanceParam can not be null");
-		Predicate<RunningInstance> runningTester = retry(
-				new InstanceStateRunning(client), 180, 1, TimeUnit.SECONDS);
+		return getResult(awaitAWSInstance(instanceParam));
+	}
 
+	/**
+	 * Waits for the EC2 instance to run and for its ssh service to start.
+	 * @param instanceParam The instance to be monitored.
+	 * @return a future containing the running instance, or failing with a DeployTimeoutException.
+	 */
+	public ListenableFuture<RunningInstance> awaitAWSInstance(RunningInstance instanceParam) {
+		Assert.notNull(instanceParam, "instanceParam can not be null");
+		final String instanceId = instanceParam.getId();
 		LOGGER.info("*******Verifying EC2 Instance*******");
-		LOGGER.info(String.format("Awaiting instance to run"));
-
-		if (!runningTester.apply(instanceParam))
-			throw new DeployTimeoutException("timeout waiting for instance to run: "
-					+ instanceParam.getId());
-
-		RunningInstance instance = AWSInstanceProvisioner.findInstanceById(client,
-				instanceParam.getId());
-		SocketOpen socketOpen = computeService.getContext().utils().injector()
-				.getInstance(SocketOpen.class);
-		Predicate<HostAndPort> socketTester = retry(socketOpen, 300, 1,
-				TimeUnit.SECONDS);
-		LOGGER.info(String.format("Awaiting ssh service to start"));
-		if (!socketTester.apply(HostAndPort.fromParts(instance.getIpAddress(),
-				22)))
-			throw new DeployTimeoutException("timeout waiting for ssh to start: "
-					+ instance.getIpAddress());
-
-		LOGGER.info(String.format("ssh service started%n"));
-		return instance;
+		LOGGER.info(String.format("Awaiting instance %s to run", instanceId));
+		return Futures.transform(instanceStateTracker.whenState(instanceId, InstanceState.RUNNING, instanceWaitTime),
+				new AsyncFunction<RunningInstance, RunningInstance>() {
+
+					@Override
+					public ListenableFuture<RunningInstance> apply(final RunningInstance instance) {
+						if (instance == null) {
+							throw new DeployTimeoutException("timeout waiting for instance to run: " + instanceId);
+						}
+						LOGGER.info(String.format("Awaiting ssh service to start on %s", instanceId));
+						return Futures.transform(
+								portProber.whenOpen(HostAndPort.fromParts(instance.getIpAddress(), 22), sshWaitTime),
+								new Function<Boolean, RunningInstance>() {
+
+									@Override
+									public RunningInstance apply(Boolean open) {
+										if (!open) {
+											throw new DeployTimeoutException("timeout waiting for ssh to start: "
+													+ instance.getIpAddress());
+										}
+										LOGGER.info(String.format("ssh service started on %s%n", instanceId));
+										return instance;
+									}
+								});
+					}
+				});
 	}
 
 	/**
@@ -213,46 +367,71 @@ public class AWSInstanceChecker {
 	 * @return
 	 */
 	public boolean checkContainerProcess(RunningInstance instance, int managementPort) {
+		return getResult(awaitContainerProcess(instance, managementPort));
+	}
+
+	/**
+	 * Waits for the container process to accept connections on its management port.
+	 * @param instance The running instance you want to examine.
+	 * @param managementPort the jmx port.
+	 * @return a future containing true if the container started, false if the wait timed out.
+	 */
+	public ListenableFuture<Boolean> awaitContainerProcess(RunningInstance instance, int managementPort) {
+		return awaitContainerProcess(instance, managementPort, serverWaitTime);
+	}
+
+	/**
+	 * Waits for the container process to accept connections on its management port or until the wait time expires.
+	 * @param instance The running instance you want to examine.
+	 * @param managementPort the jmx port.
+	 * @param waitTime The max time in millis to wait.
+	 * @return a future containing true if the container started, false if the wait timed out.
+	 */
+	public ListenableFuture<Boolean> awaitContainerProcess(RunningInstance instance, int managementPort,
+			long waitTime) {
 		Assert.notNull(instance, "instance can not be null");
-		boolean result = true;
-		RunningInstance localInstance = AWSInstanceProvisioner.findInstanceById(client,
-				instance.getId());
-		final SocketOpen socketOpen = computeService.getContext().utils().injector()
-				.getInstance(SocketOpen.class);
-		final Predicate<HostAndPort> socketTester = retry(socketOpen, 300, 1,
-				TimeUnit.SECONDS);
+		RunningInstance localInstance = instanceStateTracker.getInstance(instance.getId());
 		LOGGER.info(String.format("Awaiting XD container to start %n"));
-		if (!socketTester.apply(HostAndPort.fromParts(localInstance.getIpAddress(),
-				managementPort))) {
-			result = false;
-			LOGGER.warn("timeout waiting for container to start: "
-					+ localInstance.getIpAddress());
-			return result;
-		}
-		LOGGER.info(String.format("Container started%n"));
-		return result;
+		return logOutcome(portProber.whenOpen(HostAndPort.fromParts(localInstance.getIpAddress(), managementPort),
+				waitTime), String.format("Container started%n"),
+				"timeout waiting for container to start: " + localInstance.getIpAddress());
 	}
 
 	/**
-	 * Awaits for a AWS Instance to be provisioned or until the wait time expires.
+	 * Awaits for a AWS Instance to be provisioned or until the wait time expires.  Returns as soon as
+	 * the instance state tracker observes the instance running, or fails fast if it is terminated.
 	 * @param instance The aws instance to monitor
 	 * @param waitTime The max time in millis to wait
 	 * @return true if the instance was provisioned, false if it was not.
 	 */
 	public boolean waitForInstanceToBeProvisioned(RunningInstance instance, long waitTime) {
-		boolean result = instance.getInstanceState().equals(InstanceState.RUNNING);
-		long timeout = System.currentTimeMillis() + waitTime;
-		while (!result && System.currentTimeMillis() < timeout) {
-			try {
-				Thread.sleep(1000);
-				result = instance.getInstanceState().equals(InstanceState.RUNNING);
-			}
-			catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				throw new IllegalStateException(e.getMessage(), e);
-			}
-		}
-		return result;
+		return getResult(awaitInstanceToBeProvisioned(instance, waitTime));
+	}
+
+	/**
+	 * Waits for a AWS Instance to be provisioned or until the wait time expires.
+	 * @param instance The aws instance to monitor
+	 * @param waitTime The max time in millis to wait
+	 * @return a future containing true if the instance was provisioned, false if it was not.
+	 */
+	public ListenableFuture<Boolean> awaitInstanceToBeProvisioned(final RunningInstance instance, final long waitTime) {
+		Assert.notNull(instance, "instance can not be null");
+		final long start = System.currentTimeMillis();
+		return Futures.transform(instanceStateTracker.whenState(instance.getId(), InstanceState.RUNNING, waitTime),
+				new Function<RunningInstance, Boolean>() {
+
+					@Override
+					public Boolean apply(RunningInstance running) {
+						if (running != null) {
+							LOGGER.info(String.format("Instance %s provisioned in %d ms", instance.getId(),
+									System.currentTimeMillis() - start));
+							return true;
+						}
+						LOGGER.warn(String.format("Instance %s was not provisioned within %d ms", instance.getId(),
+								waitTime));
+						return false;
+					}
+				});
 	}
 
 	public Properties getProperties() {
@@ -263,4 +442,42 @@ public class AWSInstanceChecker {
 		this.properties = properties;
 	}
 
+	private ListenableFuture<Boolean> logOutcome(ListenableFuture<Boolean> probe, final String success,
+			final String failure) {
+		return Futures.transform(probe, new Function<Boolean, Boolean>() {
+
+			@Override
+			public Boolean apply(Boolean open) {
+				if (open) {
+					LOGGER.info(success);
+				}
+				else {
+					LOGGER.warn(failure);
+				}
+				return open;
+			}
+		});
+	}
+
+	/**
+	 * Blocks until the future completes.  Runtime exceptions that failed the future are rethrown as is.
+	 * @param future The future to wait on.
+	 * @return The value of the future.
+	 */
+	private static <T> T getResult(ListenableFuture<T> future) {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
 }
@@ -16,6 +16,8 @@
 
 package org.springframework.xd.ec2.cloud;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
 import org.jclouds.scriptbuilder.ScriptBuilder;
 import org.jclouds.scriptbuilder.domain.OsFamily;
 import org.jclouds.scriptbuilder.domain.Statement;
@@ -42,6 +44,16 @@ import static org.jclouds.scriptbuilder.domain.Statements.exec;
 
 public class AWSInstanceConfigurer implements InstanceConfigurer {
 
+	/**
+	 * The name the admin reports its events with.
+	 */
+	public static final String ADMIN_NODE = "admin";
+
+	/**
+	 * The name the single node reports its events with.
+	 */
+	public static final String SINGLE_NODE = "singlenode";
+
 	private String xdDistUrl;
 
 	private String xdRelease;
@@ -50,6 +62,20 @@ public class AWSInstanceConfigurer implements InstanceConfigurer {
 
 	private boolean useEmbeddedZookeeper = true;
 
+	private boolean artifactCache;
+
+	private int artifactCachePort;
+
+	private int fetchParallelism;
+
+	private boolean nodeAgent;
+
+	private int nodeAgentPort;
+
+	private long nodeAgentTimeout;
+
+	private boolean baked;
+
 	private Properties properties;
 
 	private static final String RABBIT_ADDRESSES = "spring_rabbitmq_addresses";
@@ -74,11 +100,36 @@ public class AWSInstanceConfigurer implements InstanceConfigurer {
 
 	private static final String UBUNTU_HOME = "/home/ubuntu/";
 
+	private static final String ARTIFACT_CACHE_DIRECTORY = UBUNTU_HOME + "artifact-cache/";
+
+	private static final String FETCH_FAILED_MARKER = UBUNTU_HOME + "artifact-fetch.failed";
+
+	private static final String BOOT_SCRIPT_DELIMITER = "XD_BOOT_EOF";
+
+	private static final String INSTALL_DONE_MARKER = UBUNTU_HOME + "xd-install.done";
+
+	private static final String ADMIN_PROCESS = "'[A]dminServerApplication'";
+
+	private static final String SINGLE_NODE_PROCESS = "'[S]ingleNodeApplication'";
+
+	private static final String CONTAINER_PROCESS = "'[C]ontainerServerApplication'";
+
+	private static final String NODE_AGENT_PROCESS = "'[N]odeAgent'";
+
+	private static final String EVENT_COLLECTOR_PROCESS = "'[E]ventCollector'";
+
 	public AWSInstanceConfigurer(Properties properties) {
 		Assert.notNull(properties, "properties can not be null");
 		xdDistUrl = properties.getProperty("xd.dist.url");
 		xdRelease = properties.getProperty("xd.release");
 		xdThirdPartyJars = getThirdPartyUrls(properties);
+		artifactCache = Boolean.parseBoolean(properties.getProperty("artifact.cache", "false"));
+		artifactCachePort = Integer.parseInt(properties.getProperty("artifact.cache.port", "8098"));
+		fetchParallelism = Integer.parseInt(properties.getProperty("artifact.fetch.parallelism", "4"));
+		Assert.isTrue(fetchParallelism > 0, "artifact.fetch.parallelism must be greater than 0");
+		nodeAgent = Boolean.parseBoolean(properties.getProperty("node.agent", "false"));
+		nodeAgentPort = Integer.parseInt(properties.getProperty("node.agent.port", "8097"));
+		nodeAgentTimeout = Long.parseLong(properties.getProperty("node.agent.timeout", "300000"));
 		if (properties.containsKey(USE_EMBEDDED_ZOOKEEPER)) {
 			useEmbeddedZookeeper = Boolean.parseBoolean(properties
 					.getProperty(USE_EMBEDDED_ZOOKEEPER));
@@ -104,6 +155,90 @@ public class AWSInstanceConfigurer implements InstanceConfigurer {
 		return renderStatement(bootstrapNodeStatement());
 	}
 
+	/**
+	 * Generate the command script that installs the XD distribution and the third party jars on an
+	 * instance that will be saved as an image.
+	 * @return String containing the install script.
+	 */
+	public String createBakeScript() {
+		return renderStatement(addGetResourceStatements(new ArrayList<Statement>()));
+	}
+
+	/**
+	 * Generate the user data script that configures and starts an admin or single node server at boot,
+	 * so no ssh session is needed to run its role script.  The resources script runs as root, then the
+	 * preconditions and the role script run as the ubuntu user.
+	 * @param resourcesScript The script that starts the resources of the server.
+	 * @param preconditions The commands that must complete before the role script runs.
+	 * @param roleScript The admin or single node script.
+	 * @return String containing the user data script.
+	 */
+	public String createServerBootScript(String resourcesScript, List<String> preconditions, String roleScript) {
+		Assert.hasText(resourcesScript, "resourcesScript can not be empty nor null");
+		Assert.hasText(roleScript, "roleScript can not be empty nor null");
+		return renderBootScript(resourcesScript, preconditions, Collections.singletonMap(roleScript, "*"));
+	}
+
+	/**
+	 * Generate the user data script that configures and starts the containers of a reservation at boot.
+	 * Every instance selects the script of its container from its ami launch index, so the containers
+	 * share one reservation even if some of them have container specific properties.
+	 * @param adminAddress The private address of the admin.
+	 * @param hadoopVersion The version of hadoop the containers will execute against.
+	 * @param containerCount The number of containers in the reservation.
+	 * @param preconditions The commands that must complete before the container script runs.
+	 * @return String containing the user data script.
+	 */
+	public String createContainerBootScript(String adminAddress, String hadoopVersion, int containerCount,
+			List<String> preconditions) {
+		return createContainerBootScript(adminAddress, hadoopVersion, 0, containerCount, preconditions);
+	}
+
+	/**
+	 * Generate the user data script that configures and starts the containers of a reservation at boot,
+	 * where the container launched first has the index specified.  Used to add containers to a running
+	 * cluster.
+	 * @param adminAddress The private address of the admin.
+	 * @param hadoopVersion The version of hadoop the containers will execute against.
+	 * @param firstIndex The index of the container with ami launch index 0.
+	 * @param containerCount The number of containers in the reservation.
+	 * @param preconditions The commands that must complete before the container script runs.
+	 * @return String containing the user data script.
+	 */
+	public String createContainerBootScript(String adminAddress, String hadoopVersion, int firstIndex,
+			int containerCount, List<String> preconditions) {
+		Assert.isTrue(firstIndex >= 0, "firstIndex must not be negative");
+		Assert.isTrue(containerCount > 0, "containerCount must be greater than 0");
+		Map<String, String> roleScripts = new LinkedHashMap<String, String>();
+		for (int i = 0; i < containerCount; i++) {
+			String script = createContainerNodeScript(adminAddress, hadoopVersion, firstIndex + i);
+			roleScripts.put(script, roleScripts.containsKey(script) ? roleScripts.get(script) + "|" + i : "" + i);
+		}
+		return renderBootScript(null, preconditions, roleScripts);
+	}
+
+	/**
+	 * Creates a command that blocks until a port accepts connections.
+	 * @param host The host to connect to.
+	 * @param port The port to connect to.
+	 * @return the wait command.
+	 */
+	public static String getAwaitPortCommand(String host, int port) {
+		return "until (exec 3<>/dev/tcp/" + host + "/" + port + ") 2>/dev/null; do sleep 5; done";
+	}
+
+	/**
+	 * Creates a configurer with the same settings that renders its scripts from other properties.
+	 * @param properties The properties to render the scripts from.
+	 * @return the new configurer.
+	 */
+	public AWSInstanceConfigurer withProperties(Properties properties) {
+		AWSInstanceConfigurer result = new AWSInstanceConfigurer(properties);
+		result.setUseEmbeddedZookeeper(useEmbeddedZookeeper);
+		result.setBaked(baked);
+		return result;
+	}
+
 	/**
 	 * Generate the command script that will install and setup a single node
 	 * 
@@ -178,6 +313,80 @@ public class AWSInstanceConfigurer implements InstanceConfigurer {
 		this.useEmbeddedZookeeper = useEmbeddedZookeeper;
 	}
 
+	/**
+	 * Retrieves whether the instances are launched from an image where XD is already installed.
+	 * @return true if the scripts skip the download and install of XD.
+	 */
+	public boolean isBaked() {
+		return baked;
+	}
+
+	/**
+	 * Establishes if the instances are launched from an image created by {@link #createBakeScript()}.
+	 * @param baked True if the scripts should only configure and start XD.
+	 */
+	public void setBaked(boolean baked) {
+		this.baked = baked;
+	}
+
+	/**
+	 * Retrieves the urls of the artifacts installed on every instance.
+	 * @return the url of the XD distribution, if downloaded, followed by the third party jar urls.
+	 */
+	List<String> getArtifactUrls() {
+		List<String> urls = new ArrayList<String>();
+		if (properties.getProperty("spring.xd.get.dist", "true").equalsIgnoreCase("true")) {
+			urls.add(xdDistUrl);
+		}
+		urls.addAll(xdThirdPartyJars);
+		return urls;
+	}
+
+	/**
+	 * Writes each script to the home of the ubuntu user and runs the role script that matches the ami
+	 * launch index of the instance.
+	 * @param resourcesScript The script run as root first, or null.
+	 * @param preconditions The commands run as the ubuntu user before the role script.
+	 * @param roleScripts Each role script with the launch index case pattern it applies to.
+	 * @return the user data script.
+	 */
+	private String renderBootScript(String resourcesScript, List<String> preconditions,
+			Map<String, String> roleScripts) {
+		StringBuilder result = new StringBuilder("#!/bin/bash\n");
+		if (resourcesScript != null) {
+			appendFile(result, UBUNTU_HOME + "start-resources.sh", resourcesScript);
+			result.append("bash " + UBUNTU_HOME + "start-resources.sh > " + UBUNTU_HOME
+					+ "start-resources.log 2>&1\n");
+		}
+		StringBuilder await = new StringBuilder();
+		for (String precondition : preconditions) {
+			await.append(precondition).append("\n");
+		}
+		appendFile(result, UBUNTU_HOME + "await-xd.sh", await.toString());
+		StringBuilder selection = new StringBuilder(
+				"case \"$(curl -s http://169.254.169.254/latest/meta-data/ami-launch-index)\" in\n");
+		int i = 0;
+		for (Entry<String, String> roleScript : roleScripts.entrySet()) {
+			String fileName = "setup-xd-" + i++ + ".sh";
+			appendFile(result, UBUNTU_HOME + fileName, roleScript.getKey());
+			selection.append(roleScript.getValue() + ") SETUP=" + fileName + " ;;\n");
+		}
+		result.append(selection).append("esac\n");
+		result.append("chown ubuntu:ubuntu " + UBUNTU_HOME + "*.sh\n");
+		result.append("su - ubuntu -c \"bash " + UBUNTU_HOME + "await-xd.sh && nohup bash " + UBUNTU_HOME
+				+ "$SETUP > " + UBUNTU_HOME + "setup-xd.log 2>&1 < /dev/null\"\n");
+		return result.toString();
+	}
+
+	private void appendFile(StringBuilder script, String path, String content) {
+		script.append("cat > " + path + " <<'" + BOOT_SCRIPT_DELIMITER + "'\n");
+		script.append(content);
+		if (!content.endsWith("\n")) {
+			script.append("\n");
+		}
+		script.append(BOOT_SCRIPT_DELIMITER + "\n");
+	}
+
 	/**
 	 * Takes the statements and converts them to a string which will be written
 	 * as a configuration script on the Instance OS.
@@ -212,9 +421,18 @@ public class AWSInstanceConfigurer implements InstanceConfigurer {
 	 */
 	private List<Statement> deploySingleNodeXDStatement(String hostName, String hadoopVersion) {
 		List<Statement> result = initializeEnvironmentStatements(hostName);
-		result = addGetResourceStatements(result);
-		result.add(exec(constructConfigurationCommand(hostName)));
-		result.add(exec(getBinDirectory() + "xd-singlenode " + getHadoopVersion(hadoopVersion) + " &"));
+		if (!baked) {
+			result.addAll(installStage(addGetResourceStatements(new ArrayList<Statement>())));
+		}
+		result.addAll(configureStage(constructConfigurationCommand(hostName)));
+		if (nodeAgent) {
+			result.add(exec(getEventCollectorCommand()));
+		}
+		result.addAll(startStage(SINGLE_NODE_PROCESS, getBinDirectory() + "xd-singlenode "
+				+ getHadoopVersion(hadoopVersion) + " &"));
+		if (nodeAgent) {
+			result.add(exec(getNodeAgentCommand(SINGLE_NODE, 9393, "localhost")));
+		}
 		return result;
 	}
 
@@ -229,9 +447,21 @@ public class AWSInstanceConfigurer implements InstanceConfigurer {
 	 */
 	private List<Statement> deployAdminNodeXDStatement(String hostName) {
 		List<Statement> result = initializeEnvironmentStatements(hostName);
-		result = addGetResourceStatements(result);
-		result.add(exec(constructConfigurationCommand(hostName)));
-		result.add(exec(getBinDirectory() + "xd-admin &"));
+		if (!baked && artifactCache) {
+			result.add(exec(getArtifactCacheServerCommand()));
+			result.addAll(installStage(addGetResourceStatements(cacheArtifactStatements(), "localhost")));
+		}
+		else if (!baked) {
+			result.addAll(installStage(addGetResourceStatements(new ArrayList<Statement>())));
+		}
+		result.addAll(configureStage(constructConfigurationCommand(hostName)));
+		if (nodeAgent) {
+			result.add(exec(getEventCollectorCommand()));
+		}
+		result.addAll(startStage(ADMIN_PROCESS, getBinDirectory() + "xd-admin &"));
+		if (nodeAgent) {
+			result.add(exec(getNodeAgentCommand(ADMIN_NODE, 9393, "localhost")));
+		}
 		return result;
 	}
 
@@ -250,12 +480,54 @@ public class AWSInstanceConfigurer implements InstanceConfigurer {
 
 		List<Statement> result = initializeEnvironmentStatements(hostName, instanceIndex);
 		result.add(exec("export XD_HOME=" + getInstalledDirectory() + "/xd"));
-		result = addGetResourceStatements(result);
-		result.add(exec(constructConfigurationCommand(hostName, instanceIndex)));
-		result.add(exec(getBinDirectory() + "xd-container " + getHadoopVersion(hadoopVersion) + " &"));
+		if (!baked) {
+			result.addAll(installStage(addGetResourceStatements(new ArrayList<Statement>(),
+					artifactCache ? hostName : null)));
+		}
+		result.addAll(configureStage(constructConfigurationCommand(hostName, instanceIndex)));
+		result.addAll(startStage(CONTAINER_PROCESS, getBinDirectory() + "xd-container "
+				+ getHadoopVersion(hadoopVersion) + " &"));
+		if (nodeAgent) {
+			result.add(exec(getNodeAgentCommand(getContainerNodeName(instanceIndex),
+					Integer.parseInt(properties.getProperty("management.port")), hostName)));
+		}
 		return result;
 	}
 
+	/**
+	 * Creates the command that starts the collector of the node events on the admin or single node.
+	 * @return the command.
+	 */
+	private String getEventCollectorCommand() {
+		return "pgrep -f " + EVENT_COLLECTOR_PROCESS + " > /dev/null || nohup java -cp " + UBUNTU_HOME
+				+ "deploy.jar org.springframework.xd.ec2.environment.EventCollector"
+				+ " --port=" + nodeAgentPort + " > " + UBUNTU_HOME + "event-collector.log 2>&1 < /dev/null &";
+	}
+
+	/**
+	 * Creates the command that starts the agent that reports the outcome of the XD process just started.
+	 * @param node The name the node reports its events with.
+	 * @param port The port XD accepts connections on once started.
+	 * @param collectorHost The host of the event collector.
+	 * @return the command.
+	 */
+	private String getNodeAgentCommand(String node, int port, String collectorHost) {
+		return "pkill -f " + NODE_AGENT_PROCESS + "; nohup java -cp " + UBUNTU_HOME
+				+ "deploy.jar org.springframework.xd.ec2.environment.NodeAgent"
+				+ " --node=" + node + " --port=" + port + " --pid=$! --collector=" + collectorHost + ":"
+				+ nodeAgentPort + " --timeout=" + nodeAgentTimeout + " > " + UBUNTU_HOME
+				+ "node-agent.log 2>&1 < /dev/null &";
+	}
+
+	/**
+	 * Retrieves the name a container reports its events with.
+	 * @param instanceIndex The index of the container.
+	 * @return the name of the container.
+	 */
+	public static String getContainerNodeName(int instanceIndex) {
+		return "container-" + instanceIndex;
+	}
+
 	private String getHadoopVersion(String hadoopVersion) {
 		final String BASE_HADOOP_VERSION_PREFIX = "--hadoopDistro ";
 		String result = "";
@@ -466,21 +738,233 @@ public class AWSInstanceConfigurer implements InstanceConfigurer {
 	}
 
 	List<Statement> addGetResourceStatements(List<Statement> statements) {
+		return addGetResourceStatements(statements, null);
+	}
+
+	/**
+	 * Adds the statements that download the XD distribution and the third party jars, and install them.
+	 * The artifacts are downloaded concurrently, up to artifact.fetch.parallelism at a time, and each one
+	 * is verified once it landed.  If bsdtar is available the distribution is extracted while it downloads.
+	 * @param statements The statements to add to.
+	 * @param cacheHost The host serving the artifact cache.  If null, or if the artifact is not in the cache,
+	 * the artifact is downloaded from its url.
+	 * @return A new list containing the statements.
+	 */
+	List<Statement> addGetResourceStatements(List<Statement> statements, String cacheHost) {
 		statements = new ArrayList<Statement>(statements);
+		List<String> jobs = new ArrayList<String>();
 		String xdGetDist= properties.getProperty("spring.xd.get.dist", "true");
 		if(xdGetDist.equalsIgnoreCase("true")) {
-			statements.add(exec("wget -P " + UBUNTU_HOME + " " + xdDistUrl));
+			jobs.add(getDistributionFetchCommand(cacheHost) + " && "
+					+ getVerifyCommand(UBUNTU_HOME, xdDistUrl, cacheHost));
+		}
+		else {
+			statements.add(exec("unzip " + UBUNTU_HOME + getFileName() + " -d "
+					+ UBUNTU_HOME));
 		}
-		statements.add(exec("unzip " + UBUNTU_HOME + getFileName() + " -d "
-				+ UBUNTU_HOME));
 		//Add jars to xd/lib
 		Iterator<String> urlIter = xdThirdPartyJars.iterator();
 		while (urlIter.hasNext()) {
-			statements.add(exec("wget -P " + getLibDirectory() + " " + urlIter.next()));
+			String url = urlIter.next();
+			jobs.add(getDownloadCommand(getLibDirectory(), url, cacheHost) + " && "
+					+ getVerifyCommand(getLibDirectory(), url, cacheHost));
 		}
+		addFetchJobs(statements, jobs);
 		return statements;
 	}
 
+	/**
+	 * Generates the statements that fetch every artifact once into the artifact cache of the admin.
+	 * Artifacts are stored under the hash of their url along with their checksum, an artifact that is
+	 * already in the cache and matches its checksum is not downloaded again.
+	 * @return the statements that populate the cache.
+	 */
+	private List<Statement> cacheArtifactStatements() {
+		List<Statement> result = new ArrayList<Statement>();
+		List<String> jobs = new ArrayList<String>();
+		for (String url : getArtifactUrls()) {
+			String directory = ARTIFACT_CACHE_DIRECTORY + getCacheKey(url);
+			String name = new File(url).getName();
+			result.add(exec("mkdir -p " + directory));
+			jobs.add("(cd " + directory + " && sha256sum -c --status " + name + ".sha256 2>/dev/null) || "
+					+ "(" + getFetchCommand(url, directory + "/" + name) + " && "
+					+ getVerifyCommand(directory + "/", url, null) + " && (cd " + directory + " && sha256sum "
+					+ name + " > " + name + ".sha256))");
+		}
+		addFetchJobs(result, jobs);
+		return result;
+	}
+
+	/**
+	 * Creates the command that serves the artifact cache over http, unless it is already served.  An artifact
+	 * that is not in the cache yet is not found, so the containers fall back to its url.
+	 * @return the command.
+	 */
+	private String getArtifactCacheServerCommand() {
+		return "pgrep -f \"[h]ttp.server " + artifactCachePort + "\" > /dev/null || (mkdir -p "
+				+ ARTIFACT_CACHE_DIRECTORY + " && cd " + ARTIFACT_CACHE_DIRECTORY + " && nohup python3 -m http.server "
+				+ artifactCachePort + " > /dev/null 2>&1 < /dev/null &)";
+	}
+
+	/**
+	 * Guards the statements that install XD, so they are skipped once they completed.  A retry of the script,
+	 * e.g. when XD did not start, does not download and unpack the artifacts again.
+	 * @param statements The statements that install XD.
+	 * @return the guarded statements.
+	 */
+	private List<Statement> installStage(List<Statement> statements) {
+		return stage(INSTALL_DONE_MARKER, statements);
+	}
+
+	/**
+	 * Guards the configuration command, so it is skipped once it completed with the same settings.  The
+	 * marker is keyed by the command, a node that is configured with other settings, e.g. the address of a
+	 * new admin, is configured again.
+	 * @param command The command that configures XD.
+	 * @return the guarded statements.
+	 */
+	private List<Statement> configureStage(String command) {
+		List<Statement> statements = new ArrayList<Statement>();
+		statements.add(exec(command));
+		return stage(UBUNTU_HOME + "xd-configure-" + Integer.toHexString(command.hashCode()) + ".done", statements);
+	}
+
+	/**
+	 * Creates the statements that start XD.  An XD process left by an earlier run of the script is stopped
+	 * first, so a retry of the script restarts XD.
+	 * @param process The pattern of the XD process, bracketed so pkill and pgrep do not match themselves and
+	 * quoted so the shell does not expand the bracket against the files of the working directory.
+	 * @param command The command that starts XD in the background.
+	 * @return the statements.
+	 */
+	private List<Statement> startStage(String process, String command) {
+		List<Statement> result = new ArrayList<Statement>();
+		result.add(exec("pkill -TERM -f " + process + "; for i in $(seq 30); do pgrep -f " + process
+				+ " > /dev/null || break; sleep 1; done; pkill -KILL -f " + process));
+		result.add(exec(command));
+		return result;
+	}
+
+	/**
+	 * Runs the statements only if the marker does not exist, and creates the marker once they completed.
+	 * The statements exit the script on a failure, so the marker is left out and they run again on a retry.
+	 * @param marker The file that marks the stage as done.
+	 * @param statements The statements of the stage.
+	 * @return the guarded statements.
+	 */
+	private static List<Statement> stage(String marker, List<Statement> statements) {
+		List<Statement> result = new ArrayList<Statement>();
+		result.add(exec("if [ ! -e " + marker + " ]; then"));
+		result.addAll(statements);
+		result.add(exec("touch " + marker));
+		result.add(exec("fi"));
+		return result;
+	}
+
+	/**
+	 * Adds the statements that run the commands as background jobs, with at most artifact.fetch.parallelism
+	 * running at a time, then wait for all of them.  The script exits if any of the commands failed.
+	 * @param statements The statements to add to.
+	 * @param commands The commands to run concurrently.
+	 */
+	private void addFetchJobs(List<Statement> statements, List<String> commands) {
+		if (commands.isEmpty()) {
+			return;
+		}
+		statements.add(exec("rm -f " + FETCH_FAILED_MARKER));
+		for (String command : commands) {
+			statements.add(exec("while [ $(jobs -rp | wc -l) -ge " + fetchParallelism + " ]; do wait -n; done"));
+			statements.add(exec("(" + command + " || touch " + FETCH_FAILED_MARKER + ") &"));
+		}
+		statements.add(exec("wait"));
+		statements.add(exec("if [ -e " + FETCH_FAILED_MARKER
+				+ " ]; then echo \"Unable to fetch the XD artifacts\" >&2; exit 1; fi"));
+	}
+
+	/**
+	 * Creates the command that downloads the XD distribution and extracts it.  If bsdtar is installed the
+	 * zip is extracted from the download stream while a copy is written to disk for verification, else
+	 * it is unzipped once downloaded.
+	 * @param cacheHost The host serving the artifact cache, or null to download from the origin.
+	 * @return the command.
+	 */
+	private String getDistributionFetchCommand(String cacheHost) {
+		String source = xdDistUrl;
+		if (cacheHost != null) {
+			String cacheUrl = getCacheUrl(cacheHost, xdDistUrl);
+			source = "$(wget -q --spider " + cacheUrl + " && echo " + cacheUrl + " || echo " + xdDistUrl + ")";
+		}
+		// a stream does not carry the file modes of the central directory, so restore the scripts' exec bit
+		String path = UBUNTU_HOME + getFileName();
+		return "if command -v bsdtar > /dev/null; then (set -o pipefail; wget -q -O - " + source + " | tee "
+				+ path + ".part | bsdtar -xf - -C " + UBUNTU_HOME + ") && mv " + path + ".part " + path + " && find "
+				+ getInstalledDirectory() + " -path '*/bin/*' -type f -exec chmod +x {} +; else "
+				+ getDownloadCommand(UBUNTU_HOME, xdDistUrl, cacheHost) + " && unzip " + UBUNTU_HOME + getFileName()
+				+ " -d " + UBUNTU_HOME + "; fi";
+	}
+
+	/**
+	 * Creates the command that verifies an artifact.  The artifact must be a valid zip and, if a checksum
+	 * is published for it, by the cache as SHA-256 or next to its url as SHA-1, it must match it.
+	 * @param directory The directory the artifact was downloaded to.
+	 * @param url The origin url of the artifact.
+	 * @param cacheHost The host serving the artifact cache, or null if the cache is not used.
+	 * @return the verify command.
+	 */
+	private String getVerifyCommand(String directory, String url, String cacheHost) {
+		String name = new File(url).getName();
+		String sha1 = "/tmp/" + name + ".sha1";
+		String checksum = "if wget -q -O " + sha1 + " " + url + ".sha1; then echo \"$(head -c 40 " + sha1 + ")  " + name
+				+ "\" | sha1sum -c --status; fi";
+		if (cacheHost != null) {
+			String sha256 = "/tmp/" + name + ".sha256";
+			checksum = "if wget -q -O " + sha256 + " " + getCacheUrl(cacheHost, url) + ".sha256; then sha256sum -c --status "
+					+ sha256 + "; else " + checksum + "; fi";
+		}
+		return "unzip -tqq " + directory + name + " > /dev/null && (cd " + directory + " && " + checksum + ")";
+	}
+
+	/**
+	 * Creates the command that downloads an artifact into a directory, from the cache if available.
+	 * @param directory The directory to download the artifact to.
+	 * @param url The origin url of the artifact.
+	 * @param cacheHost The host serving the artifact cache, or null to download from the origin.
+	 * @return the download command.
+	 */
+	private String getDownloadCommand(String directory, String url, String cacheHost) {
+		String path = directory + new File(url).getName();
+		String command = getFetchCommand(url, path);
+		if (cacheHost == null) {
+			return command;
+		}
+		return "(" + getFetchCommand(getCacheUrl(cacheHost, url), path) + ") || (" + command + ")";
+	}
+
+	/**
+	 * Creates the command that downloads a url to a file.  The download is written next to the file and only
+	 * moved in place once complete, so a retry overwrites what a failed attempt left and never finds a
+	 * truncated file in place.
+	 * @param url The url to download.
+	 * @param path The path of the file.
+	 * @return the fetch command.
+	 */
+	private static String getFetchCommand(String url, String path) {
+		return "wget -q -O " + path + ".part " + url + " && mv " + path + ".part " + path;
+	}
+
+	private String getCacheUrl(String cacheHost, String url) {
+		return "http://" + cacheHost + ":" + artifactCachePort + "/" + getCacheKey(url) + "/" + new File(url).getName();
+	}
+
+	/**
+	 * Computes the directory of an artifact in the cache.
+	 * @param url The origin url of the artifact.
+	 * @return the SHA-256 of the url.
+	 */
+	String getCacheKey(String url) {
+		return Hashing.sha256().hashString(url, Charsets.UTF_8).toString();
+	}
+
 	public Properties getProperties() {
 		return properties;
 	}
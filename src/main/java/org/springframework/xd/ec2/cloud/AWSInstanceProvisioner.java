@@ -16,17 +16,25 @@
 
 package org.springframework.xd.ec2.cloud;
 
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Multimap;
 import org.jclouds.aws.ec2.AWSEC2Api;
 import org.jclouds.ec2.domain.Reservation;
 import org.jclouds.ec2.domain.RunningInstance;
+import org.jclouds.ec2.options.RunInstancesOptions;
 import org.springframework.util.Assert;
 import org.springframework.xd.cloud.InstanceProvisioner;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
-
-import static org.jclouds.ec2.options.RunInstancesOptions.Builder.asType;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Provisions all necessary AWS resources for XD.
@@ -37,6 +45,11 @@ import static org.jclouds.ec2.options.RunInstancesOptions.Builder.asType;
 
 public class AWSInstanceProvisioner implements InstanceProvisioner {
 
+	/**
+	 * The max size in bytes of the user data EC2 accepts for an instance.
+	 */
+	public static final int MAX_USER_DATA_SIZE = 16384;
+
 	private String ami;
 
 	private String machineSize;
@@ -51,6 +64,8 @@ public class AWSInstanceProvisioner implements InstanceProvisioner {
 
 	private AWSEC2Api client;
 
+	private RetryPolicy provisionPolicy;
+
 	public AWSInstanceProvisioner(AWSEC2Api client, Properties properties) {
 		Assert.notNull(client, "client can not be null");
 		Assert.notNull(properties, "properties can not be null");
@@ -63,6 +78,16 @@ public class AWSInstanceProvisioner implements InstanceProvisioner {
 		if(properties.containsKey("zone")) {
 			this.zone = properties.getProperty("zone");
 		}
+		this.provisionPolicy = RetryPolicy.forPhase(RetryPolicy.Phase.PROVISION, properties);
+	}
+
+	/**
+	 * Establishes the AMI the instances are launched from.
+	 * @param ami The id of the AMI.
+	 */
+	public void setAmi(String ami) {
+		Assert.hasText(ami, "ami can not be empty nor null");
+		this.ami = ami;
 	}
 
 	/**
@@ -76,15 +101,99 @@ public class AWSInstanceProvisioner implements InstanceProvisioner {
 	public Reservation<? extends RunningInstance> runInstance(String script,
 			int numberOfInstances) {
 		Assert.hasText(script, "script can not be empty nor null");
-		Reservation<? extends RunningInstance> reservation = client.getInstanceApi().get().
-				runInstancesInRegion(region, zone,
-						ami, // XD Basic Image.
-						1, // minimum instances
-						numberOfInstances, // maximum instances
-						asType(machineSize).withKeyName(publicKeyName)
-								.withSecurityGroup(securityGroup)
-								.withUserData(script.getBytes()));
-		return reservation;
+		return runInstances(script.getBytes(), numberOfInstances);
+	}
+
+	/**
+	 * Creates an AWS Instance whose user data is the gzip compressed script.  Cloud-init
+	 * decompresses the user data before it runs the script, so scripts larger than the user
+	 * data limit can be used.
+	 *
+	 * @param script The script that configures and starts the instance.
+	 * @param numberOfInstances How many instances you need.
+	 * @return A list of created instances.
+	 */
+	public Reservation<? extends RunningInstance> runCompressedInstance(String script,
+			int numberOfInstances) {
+		Assert.hasText(script, "script can not be empty nor null");
+		byte[] userData = compress(script);
+		if (userData.length > MAX_USER_DATA_SIZE) {
+			throw new IllegalArgumentException("The compressed script is " + userData.length
+					+ " bytes, the user data can not exceed " + MAX_USER_DATA_SIZE + " bytes");
+		}
+		return runInstances(userData, numberOfInstances);
+	}
+
+	/**
+	 * Launches the instances, retrying the request per the provision retry policy.  Every attempt carries
+	 * the same client token, so EC2 returns the instances of an earlier attempt that did launch instead of
+	 * launching them again.
+	 * @param userData The user data of the instances.
+	 * @param numberOfInstances How many instances you need.
+	 * @return A list of created instances.
+	 */
+	private Reservation<? extends RunningInstance> runInstances(final byte[] userData,
+			final int numberOfInstances) {
+		final RunInstancesOptions options = new IdempotentRunInstancesOptions(UUID.randomUUID().toString())
+				.asType(machineSize).withKeyName(publicKeyName)
+				.withSecurityGroup(securityGroup)
+				.withUserData(userData);
+		return provisionPolicy.execute(new Callable<Reservation<? extends RunningInstance>>() {
+
+			@Override
+			public Reservation<? extends RunningInstance> call() {
+				return client.getInstanceApi().get().
+						runInstancesInRegion(region, zone,
+								ami, // XD Basic Image.
+								1, // minimum instances
+								numberOfInstances, // maximum instances
+								options);
+			}
+		});
+	}
+
+	/**
+	 * Gzip compresses a script.
+	 * @param script The script to compress.
+	 * @return the compressed script.
+	 */
+	static byte[] compress(String script) {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try {
+			GZIPOutputStream gzip = new GZIPOutputStream(result);
+			gzip.write(script.getBytes());
+			gzip.close();
+		}
+		catch (IOException ioe) {
+			throw new IllegalStateException(ioe.getMessage(), ioe);
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * Retrieves the instances of a cluster.  EC2 filters the instances by their Name tag and state, so only
+	 * the instances of the cluster are described.
+	 * @param client AWS Client that describes the instances.
+	 * @param region The region where the cluster is deployed.
+	 * @param clusterName The name of the cluster.
+	 * @param states The states of the instances to retrieve, e.g. running or stopped.
+	 * @return the instances of the cluster in one of the states.
+	 */
+	public static List<RunningInstance> findInstancesByClusterName(AWSEC2Api client, String region,
+			String clusterName, String... states) {
+		Assert.notNull(client, "client can not be null");
+		Assert.hasText(clusterName, "clusterName can not be empty nor null");
+		Assert.notEmpty(states, "states can not be empty nor null");
+		Multimap<String, String> filter = ImmutableMultimap.<String, String> builder()
+				.put("tag:Name", clusterName)
+				.putAll("instance-state-name", states)
+				.build();
+		List<RunningInstance> result = new ArrayList<RunningInstance>();
+		for (Reservation<? extends RunningInstance> reservation : client.getInstanceApi().get()
+				.describeInstancesInRegionWithFilter(region, filter)) {
+			result.addAll(reservation);
+		}
+		return result;
 	}
 
 	/**
@@ -104,4 +213,14 @@ public class AWSInstanceProvisioner implements InstanceProvisioner {
 		return Iterables.getOnlyElement(Iterables.getOnlyElement(reservations));
 	}
 
+	/**
+	 * Run instances options that carry a client token, which makes the request idempotent.
+	 */
+	static class IdempotentRunInstancesOptions extends RunInstancesOptions {
+
+		IdempotentRunInstancesOptions(String clientToken) {
+			formParameters.put("ClientToken", clientToken);
+		}
+	}
+
 }
@@ -17,14 +17,14 @@
 package org.springframework.xd.ec2.cloud;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
-import org.jclouds.ContextBuilder;
 import org.jclouds.aws.ec2.AWSEC2Api;
 import org.jclouds.aws.ec2.domain.AWSRunningInstance;
+import org.jclouds.ec2.domain.InstanceState;
 import org.jclouds.ec2.domain.Reservation;
 import org.jclouds.ec2.domain.RunningInstance;
 import org.slf4j.Logger;
@@ -32,7 +32,7 @@ import org.slf4j.LoggerFactory;
 
 import org.springframework.util.Assert;
 
-import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 /**
  * 
@@ -43,56 +43,123 @@ public class AWSTools {
 
 	static final Logger LOGGER = LoggerFactory.getLogger(AWSTools.class);
 
-	private String awsAccessKey;
-
-	private String awsSecretKey;
-
 	private String region;
 
 	private AWSEC2Api client;
 
+	private int batchSize;
+
+	private boolean waitForState;
+
+	private long waitTime;
+
+	private long pollInterval;
+
 	public AWSTools(Properties properties) {
+		this(new EC2RequestLimiter(properties).createClient(properties), properties);
+	}
+
+	AWSTools(AWSEC2Api client, Properties properties) {
+		Assert.notNull(client, "client can not be null");
 		Assert.notNull(properties, "properties can not be null");
-		awsAccessKey = properties.getProperty("aws.access.key");
-		awsSecretKey = properties.getProperty("aws.secret.key");
+		this.client = client;
 		region = properties.getProperty("region");
-		client = ContextBuilder.newBuilder("aws-ec2")
-				.credentials(awsAccessKey, awsSecretKey)
-				.buildApi(AWSEC2Api.class);
+		batchSize = Integer.parseInt(properties.getProperty("shutdown.batch.size", "100"));
+		waitForState = Boolean.parseBoolean(properties.getProperty("shutdown.wait", "false"));
+		waitTime = Long.valueOf(properties.getProperty("shutdown.wait.time", "300000"));
+		pollInterval = Long.valueOf(properties.getProperty("shutdown.poll.interval", "2000"));
+		Assert.isTrue(batchSize > 0, "shutdown.batch.size must be greater than 0");
 	}
 
 	/**
-	 * Iterates over all EC2 instances that have a "name" tag that has the value in the name param.
+	 * Terminates all EC2 instances that have a "name" tag that has the value in the name param.  The
+	 * instances are terminated with one call per shutdown.batch.size instances.  If shutdown.wait is true
+	 * the call returns once every instance is terminated.
 	 * @param name The name of the cluster to shutdown.
 	 */
 	public void shutdown(String name) {
 		Assert.hasText(name, "name can not be empty nor null");
-		Iterator<String> iter = getInstanceIdsByClusterName(name).iterator();
-		while (iter.hasNext()) {
-			String id = iter.next();
+		List<String> instanceIds = getInstanceIdsByClusterName(name, "pending", "running", "stopping", "stopped");
+		LOGGER.info(String.format("Terminating %d instances of cluster %s", instanceIds.size(), name));
+		for (List<String> batch : Lists.partition(instanceIds, batchSize)) {
+			client.getInstanceApi().get()
+					.terminateInstancesInRegion(region, batch.toArray(new String[batch.size()]));
+		}
+		if (waitForState && !instanceIds.isEmpty()) {
+			awaitState(instanceIds, InstanceState.TERMINATED);
+		}
+	}
+
+	/**
+	 * Stops all running EC2 instances of a cluster, so the cluster can be resumed later without being
+	 * deployed again.  The instances are stopped with one call per shutdown.batch.size instances.  If
+	 * shutdown.wait is true the call returns once every instance is stopped.
+	 * @param name The name of the cluster to suspend.
+	 */
+	public void suspend(String name) {
+		Assert.hasText(name, "name can not be empty nor null");
+		List<String> instanceIds = getInstanceIdsByClusterName(name, "pending", "running");
+		LOGGER.info(String.format("Stopping %d instances of cluster %s", instanceIds.size(), name));
+		for (List<String> batch : Lists.partition(instanceIds, batchSize)) {
 			client.getInstanceApi().get()
-					.terminateInstancesInRegion(region, id);
+					.stopInstancesInRegion(region, false, batch.toArray(new String[batch.size()]));
+		}
+		if (waitForState && !instanceIds.isEmpty()) {
+			awaitState(instanceIds, InstanceState.STOPPED);
 		}
 	}
 
-	private List<String> getInstanceIdsByClusterName(String name) {
-		ArrayList<String> instanceList = new ArrayList<String>();
-
-		Set<? extends Reservation<? extends AWSRunningInstance>> reservations = client
-				.getInstanceApi().get().describeInstancesInRegion(region);
-		int instanceCount = reservations.size();
-		for (int x = 0; x < instanceCount; x++) {
-			Reservation<? extends AWSRunningInstance> instances = Iterables
-					.get(reservations, x);
-			int groupCount = instances.size();
-			for (int y = 0; y < groupCount; y++) {
-				RunningInstance ri = Iterables.get(instances, y);
-				if (ri.getTags().containsKey("Name")) {
-					if (ri.getTags().get("Name").equals(name)) {
-						instanceList.add(ri.getId());
+	/**
+	 * Blocks until all the instances reach a state, describing the instances that did not reach it yet
+	 * once per poll interval.
+	 * @param instanceIds The ids of the instances.
+	 * @param state The state the instances are expected to reach.
+	 */
+	private void awaitState(List<String> instanceIds, InstanceState state) {
+		Set<String> remaining = new HashSet<String>(instanceIds);
+		long deadline = System.currentTimeMillis() + waitTime;
+		while (true) {
+			for (List<String> batch : Lists.partition(new ArrayList<String>(remaining), batchSize)) {
+				for (Reservation<? extends AWSRunningInstance> reservation : client.getInstanceApi().get()
+						.describeInstancesInRegion(region, batch.toArray(new String[batch.size()]))) {
+					for (RunningInstance instance : reservation) {
+						if (instance.getInstanceState() == state) {
+							remaining.remove(instance.getId());
+						}
 					}
 				}
 			}
+			if (remaining.isEmpty()) {
+				LOGGER.info(String.format("%d instances %s", instanceIds.size(), state.value()));
+				return;
+			}
+			if (System.currentTimeMillis() + pollInterval > deadline) {
+				throw new IllegalStateException(String.format("%d instances were not %s before timeout of "
+						+ "%d: %s", remaining.size(), state.value(), waitTime, remaining));
+			}
+			LOGGER.info(String.format("Waiting for %d of %d instances to be %s", remaining.size(),
+					instanceIds.size(), state.value()));
+			try {
+				Thread.sleep(pollInterval);
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(ie.getMessage(), ie);
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the ids of the instances of a cluster that are in one of the states.
+	 * @param name The name of the cluster.
+	 * @param states The states of the instances, e.g. running or stopped.
+	 * @return the ids of the instances.
+	 */
+	List<String> getInstanceIdsByClusterName(String name, String... states) {
+		List<String> instanceList = new ArrayList<String>();
+		for (RunningInstance instance : AWSInstanceProvisioner.findInstancesByClusterName(client, region, name,
+				states)) {
+			instanceList.add(instance.getId());
 		}
 		return instanceList;
 	}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClientException;
+import org.springframework.xd.cloud.InstanceType;
+
+/**
+ * Adds and removes the containers of a running cluster based on their load.  At every interval the
+ * CPU load, the heap usage and optionally the depth of the queues of each container are read from its
+ * Jolokia endpoint on the management port and averaged over the containers.  If any average is above
+ * its scale out threshold containers are added, and if every average is below its scale in threshold
+ * containers are removed, within the min and max number of containers.  A scale out is not repeated
+ * before the scale out cooldown expires, and a scale in waits for the scale in cooldown after any change.
+ */
+public class AutoScaler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AutoScaler.class);
+
+	private static final JolokiaClient.Read CPU_LOAD = new JolokiaClient.Read("java.lang:type=OperatingSystem",
+			"ProcessCpuLoad", null);
+
+	private static final JolokiaClient.Read HEAP_USED = new JolokiaClient.Read("java.lang:type=Memory",
+			"HeapMemoryUsage", "used");
+
+	private static final JolokiaClient.Read HEAP_MAX = new JolokiaClient.Read("java.lang:type=Memory",
+			"HeapMemoryUsage", "max");
+
+	/**
+	 * The outcome of an evaluation.
+	 */
+	public enum Action {
+		SCALE_OUT, SCALE_IN, NONE
+	}
+
+	private final AWSEC2Api client;
+
+	private final ContainerScaler scaler;
+
+	private final JolokiaClient jolokia;
+
+	private final List<JolokiaClient.Read> reads = new ArrayList<JolokiaClient.Read>();
+
+	private String region;
+
+	private String clusterName;
+
+	private int managementPort;
+
+	private long interval;
+
+	private int minContainers;
+
+	private int maxContainers;
+
+	private int outStep;
+
+	private int inStep;
+
+	private long outCooldown;
+
+	private long inCooldown;
+
+	private double cpuOut;
+
+	private double cpuIn;
+
+	private double heapOut;
+
+	private double heapIn;
+
+	private boolean queueEnabled;
+
+	private double queueOut;
+
+	private double queueIn;
+
+	private long lastScaleOut;
+
+	private long lastScaling;
+
+	private volatile boolean running;
+
+	/**
+	 * Creates an autoscaler for the cluster of the properties.
+	 * @param properties The properties the cluster was deployed with, along with the autoscale settings.
+	 * @param scaler Adds and removes the containers.
+	 */
+	public AutoScaler(Properties properties, ContainerScaler scaler) {
+		this(new EC2RequestLimiter(properties).createClient(properties), properties, scaler);
+	}
+
+	AutoScaler(AWSEC2Api client, Properties properties, ContainerScaler scaler) {
+		Assert.notNull(client, "client can not be null");
+		Assert.notNull(properties, "properties can not be null");
+		Assert.notNull(scaler, "scaler can not be null");
+		this.client = client;
+		this.scaler = scaler;
+		region = properties.getProperty("region");
+		clusterName = properties.getProperty("cluster.name");
+		managementPort = Integer.parseInt(properties.getProperty("management.port"));
+		interval = Long.valueOf(properties.getProperty("autoscale.interval", "30000"));
+		minContainers = Integer.parseInt(properties.getProperty("autoscale.min.containers", "1"));
+		maxContainers = Integer.parseInt(properties.getProperty("autoscale.max.containers", "10"));
+		outStep = Integer.parseInt(properties.getProperty("autoscale.out.step", "1"));
+		inStep = Integer.parseInt(properties.getProperty("autoscale.in.step", "1"));
+		outCooldown = Long.valueOf(properties.getProperty("autoscale.out.cooldown", "300000"));
+		inCooldown = Long.valueOf(properties.getProperty("autoscale.in.cooldown", "600000"));
+		cpuOut = Double.parseDouble(properties.getProperty("autoscale.cpu.out", "0.75"));
+		cpuIn = Double.parseDouble(properties.getProperty("autoscale.cpu.in", "0.25"));
+		heapOut = Double.parseDouble(properties.getProperty("autoscale.heap.out", "0.85"));
+		heapIn = Double.parseDouble(properties.getProperty("autoscale.heap.in", "0.5"));
+		queueOut = Double.parseDouble(properties.getProperty("autoscale.queue.out", "1000"));
+		queueIn = Double.parseDouble(properties.getProperty("autoscale.queue.in", "10"));
+		Assert.isTrue(minContainers >= 0, "autoscale.min.containers must not be negative");
+		Assert.isTrue(maxContainers >= minContainers,
+				"autoscale.max.containers must not be less than autoscale.min.containers");
+		Assert.isTrue(outStep > 0 && inStep > 0, "autoscale.out.step and autoscale.in.step must be greater than 0");
+		reads.add(CPU_LOAD);
+		reads.add(HEAP_USED);
+		reads.add(HEAP_MAX);
+		String queueMBean = properties.getProperty("autoscale.queue.mbean", "");
+		queueEnabled = StringUtils.hasText(queueMBean);
+		if (queueEnabled) {
+			reads.add(new JolokiaClient.Read(queueMBean, properties.getProperty("autoscale.queue.attribute"), null));
+		}
+		jolokia = new JolokiaClient(properties.getProperty("autoscale.jolokia.path", "/management/jolokia"),
+				Integer.parseInt(properties.getProperty("autoscale.jolokia.timeout", "5000")));
+	}
+
+	/**
+	 * Evaluates the load of the cluster every autoscale.interval millis until {@link #stop()} is called or
+	 * the thread is interrupted.
+	 */
+	public void run() {
+		running = true;
+		LOGGER.info(String.format("Autoscaling cluster %s between %d and %d containers", clusterName,
+				minContainers, maxContainers));
+		while (running) {
+			try {
+				evaluate();
+			}
+			catch (RuntimeException re) {
+				LOGGER.warn("Unable to evaluate the load of the cluster: " + re.getMessage(), re);
+			}
+			try {
+				Thread.sleep(interval);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stops evaluating the load once the current evaluation completes.
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Reads the load of the containers and adds or removes containers if a policy requires it.
+	 * @return the action taken.
+	 */
+	Action evaluate() {
+		SortedMap<Integer, RunningInstance> containers = findContainers();
+		int containerCount = containers.size();
+		long now = System.currentTimeMillis();
+		if (containerCount < minContainers) {
+			return scaleOut(Math.min(outStep, minContainers - containerCount), now);
+		}
+		List<List<Double>> samples = new ArrayList<List<Double>>();
+		for (RunningInstance container : containers.values()) {
+			if (!StringUtils.hasText(container.getDnsName())) {
+				continue;
+			}
+			try {
+				samples.add(jolokia.read(container.getDnsName(), managementPort, reads));
+			}
+			catch (RestClientException rce) {
+				LOGGER.debug("Unable to read the metrics of " + container.getId() + ": " + rce.getMessage());
+			}
+		}
+		if (samples.isEmpty()) {
+			LOGGER.warn("No metrics could be read from the containers of cluster " + clusterName);
+			return Action.NONE;
+		}
+		double cpu = average(samples, 0, -1);
+		double heap = average(samples, 1, 2);
+		double queue = queueEnabled ? average(samples, 3, -1) : Double.NaN;
+		LOGGER.info(String.format("%d containers, %d reporting: cpu %.2f, heap %.2f, queue %.1f", containerCount,
+				samples.size(), cpu, heap, queue));
+		if (cpu > cpuOut || heap > heapOut || (queueEnabled && queue > queueOut)) {
+			if (containerCount >= maxContainers) {
+				LOGGER.info("Cluster is loaded but already has autoscale.max.containers containers");
+				return Action.NONE;
+			}
+			return scaleOut(Math.min(outStep, maxContainers - containerCount), now);
+		}
+		if (cpu < cpuIn && heap < heapIn && (!queueEnabled || queue < queueIn) && containerCount > minContainers) {
+			if (now - lastScaling < inCooldown) {
+				return Action.NONE;
+			}
+			List<Integer> indexes = new ArrayList<Integer>(containers.keySet());
+			Collections.reverse(indexes);
+			indexes = new ArrayList<Integer>(indexes.subList(0, Math.min(inStep, containerCount - minContainers)));
+			LOGGER.info("Removing containers " + indexes + " from cluster " + clusterName);
+			scaler.scaleIn(indexes);
+			lastScaling = System.currentTimeMillis();
+			return Action.SCALE_IN;
+		}
+		return Action.NONE;
+	}
+
+	private Action scaleOut(int containerCount, long now) {
+		if (now - lastScaleOut < outCooldown) {
+			return Action.NONE;
+		}
+		LOGGER.info(String.format("Adding %d containers to cluster %s", containerCount, clusterName));
+		scaler.scaleOut(containerCount);
+		lastScaleOut = System.currentTimeMillis();
+		lastScaling = lastScaleOut;
+		return Action.SCALE_OUT;
+	}
+
+	/**
+	 * Averages a metric over the containers that reported it.
+	 * @param samples The values read from each container.
+	 * @param index The index of the value, or of the numerator of a ratio.
+	 * @param divisor The index of the denominator of a ratio, or -1 if the value is not a ratio.
+	 * @return the average, or NaN if no container reported the metric.
+	 */
+	private static double average(List<List<Double>> samples, int index, int divisor) {
+		double total = 0;
+		int count = 0;
+		for (List<Double> sample : samples) {
+			double value = divisor < 0 ? sample.get(index) : sample.get(index) / sample.get(divisor);
+			if (!Double.isNaN(value) && !Double.isInfinite(value) && value >= 0) {
+				total += value;
+				count++;
+			}
+		}
+		return count == 0 ? Double.NaN : total / count;
+	}
+
+	/**
+	 * Finds the pending and running containers of the cluster.
+	 * @return the instance of each container by its index.
+	 */
+	private SortedMap<Integer, RunningInstance> findContainers() {
+		SortedMap<Integer, RunningInstance> result = new TreeMap<Integer, RunningInstance>();
+		for (RunningInstance instance : AWSInstanceProvisioner.findInstancesByClusterName(client, region,
+				clusterName, "pending", "running")) {
+			Map<String, String> tags = instance.getTags();
+			if (InstanceType.NODE.name().equals(tags.get("Type")) && tags.containsKey("Container_Node")) {
+				result.put(Integer.valueOf(tags.get("Container_Node")), instance);
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2.cloud;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jclouds.compute.domain.ExecResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Distributes the configurator jar (deploy.jar) to the instances of a cluster.  The jar is uploaded
+ * once from the local machine to the root of a tree, usually the admin.  Every other instance pulls
+ * the jar over http from its parent in the tree using its private address, verifies its SHA-256
+ * checksum and then serves it to its own children.  Positions in the tree start at 0 for the root,
+ * each position has up to fanout children.
+ */
+public class ConfiguratorDistributor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConfiguratorDistributor.class);
+
+	private static final String UBUNTU_HOME = "/home/ubuntu/";
+
+	private static final String DISTRIBUTION_DIRECTORY = UBUNTU_HOME + "distribution/";
+
+	private static final String JAR_NAME = "deploy.jar";
+
+	private final SshSessionPool sshSessionPool;
+
+	private final File jar;
+
+	private final int port;
+
+	private final long serveTime;
+
+	private String checksum;
+
+	/**
+	 * Creates a distributor.
+	 * @param sshSessionPool The ssh sessions used to reach the instances.
+	 * @param jar The local configurator jar.
+	 * @param port The port each parent serves the jar on.
+	 * @param serveTime The time in millis a parent keeps serving the jar.
+	 */
+	public ConfiguratorDistributor(SshSessionPool sshSessionPool, File jar, int port, long serveTime) {
+		Assert.notNull(sshSessionPool, "sshSessionPool can not be null");
+		Assert.notNull(jar, "jar can not be null");
+		this.sshSessionPool = sshSessionPool;
+		this.jar = jar;
+		this.port = port;
+		this.serveTime = serveTime;
+	}
+
+	/**
+	 * Computes the position of the parent of a position in the tree.
+	 * @param position The position of the child, must be greater than 0.
+	 * @param fanout The max number of children of a position.
+	 * @return The position of the parent.
+	 */
+	public static int getParent(int position, int fanout) {
+		Assert.isTrue(position > 0, "the root of the tree has no parent");
+		Assert.isTrue(fanout > 0, "fanout must be greater than 0");
+		return (position - 1) / fanout;
+	}
+
+	/**
+	 * Determines if a position in the tree has children, i.e. if it has to serve the jar.
+	 * @param position The position in the tree.
+	 * @param fanout The max number of children of a position.
+	 * @param size The number of positions in the tree.
+	 * @return true if the position has at least one child.
+	 */
+	public static boolean hasChildren(int position, int fanout, int size) {
+		return (long) position * fanout + 1 < size;
+	}
+
+	/**
+	 * Uploads the jar from the local machine.
+	 * @param host The public host of the instance.
+	 * @param serve If true the instance serves the jar to its children once uploaded.
+	 */
+	public void upload(String host, boolean serve) {
+		sshSessionPool.put(host, UBUNTU_HOME + JAR_NAME, SshSessionPool.filePayload(jar));
+		if (serve) {
+			serve(host);
+		}
+	}
+
+	/**
+	 * Pulls the jar from the parent of the instance and verifies its checksum.
+	 * @param host The public host of the instance.
+	 * @param parentAddress The private address of the parent that serves the jar.
+	 * @param serve If true the instance serves the jar to its children once pulled.
+	 * @throws IllegalStateException if the jar could not be pulled or its checksum does not match.
+	 */
+	public void pull(String host, String parentAddress, boolean serve) {
+		Assert.hasText(parentAddress, "parentAddress can not be empty nor null");
+		ExecResponse response = sshSessionPool.exec(host, getPullCommand(parentAddress));
+		if (response.getExitStatus() != 0) {
+			throw new IllegalStateException("Unable to pull " + JAR_NAME + " from " + parentAddress + " to " + host
+					+ ": " + response.getError());
+		}
+		LOGGER.debug("Pulled " + JAR_NAME + " from " + parentAddress + " to " + host);
+		if (serve) {
+			serve(host);
+		}
+	}
+
+	/**
+	 * Creates the command that pulls the jar from an instance that serves it and verifies its checksum.
+	 * The jar is only moved in place once verified.
+	 * @param parentAddress The private address of the instance that serves the jar.
+	 * @return the pull command.
+	 */
+	public String getPullCommand(String parentAddress) {
+		Assert.hasText(parentAddress, "parentAddress can not be empty nor null");
+		String partial = UBUNTU_HOME + JAR_NAME + ".part";
+		return "wget -q -O " + partial + " http://" + parentAddress + ":" + port + "/" + JAR_NAME + " && echo \""
+				+ getChecksum() + "  " + partial + "\" | sha256sum -c --status && mv " + partial + " "
+				+ UBUNTU_HOME + JAR_NAME;
+	}
+
+	/**
+	 * Creates the command that blocks until the jar uploaded to the instance is complete, i.e. until it
+	 * matches the checksum of the local jar.
+	 * @return the wait command.
+	 */
+	public String getAwaitUploadCommand() {
+		return "until echo \"" + getChecksum() + "  " + UBUNTU_HOME + JAR_NAME
+				+ "\" | sha256sum -c --status 2>/dev/null; do sleep 2; done";
+	}
+
+	/**
+	 * Starts serving the jar, and only the jar, from the instance for the configured time.
+	 * @param host The public host of the instance.
+	 */
+	private void serve(String host) {
+		ExecResponse response = sshSessionPool.exec(host, "mkdir -p " + DISTRIBUTION_DIRECTORY + " && cp "
+				+ UBUNTU_HOME + JAR_NAME + " " + DISTRIBUTION_DIRECTORY + " && cd " + DISTRIBUTION_DIRECTORY
+				+ " && (nohup timeout " + Math.max(1, serveTime / 1000) + " python3 -m http.server " + port
+				+ " > /dev/null 2>&1 < /dev/null &)");
+		if (response.getExitStatus() != 0) {
+			throw new IllegalStateException("Unable to serve " + JAR_NAME + " from " + host + ": "
+					+ response.getError());
+		}
+	}
+
+	/**
+	 * @return The SHA-256 checksum of the local jar, computed once.
+	 */
+	synchronized String getChecksum() {
+		if (checksum == null) {
+			try {
+				checksum = Files.hash(jar, Hashing.sha256()).toString();
+			}
+			catch (IOException ioException) {
+				throw new IllegalStateException(ioException.getMessage(), ioException);
+			}
+		}
+		return checksum;
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.util.List;
+
+/**
+ * Adds containers to or removes containers from a running cluster on behalf of the {@link AutoScaler}.
+ */
+public interface ContainerScaler {
+
+	/**
+	 * Adds containers to the cluster and returns once they are deployed.
+	 * @param containerCount The number of containers to add.
+	 */
+	void scaleOut(int containerCount);
+
+	/**
+	 * Removes containers from the cluster and returns once they are terminated.
+	 * @param containerIndexes The indexes of the containers to remove.
+	 */
+	void scaleIn(List<Integer> containerIndexes);
+
+}
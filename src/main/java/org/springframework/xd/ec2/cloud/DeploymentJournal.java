@@ -0,0 +1,309 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+import com.google.common.io.Files;
+
+/**
+ * An append-only local record of the phases each instance of a deployment went through.  Every record is
+ * synced to disk before the deployment goes on, so if the deployer dies the journal tells which instances
+ * were launched and how far each node got, and the deployment can be resumed instead of launching the
+ * instances again.
+ * <p>
+ * Each line holds the time of the record, the node, e.g. admin or container 3, the id of its instance and
+ * the phase the node reached.  A line that was only partly written when the deployer died is ignored.  The
+ * last line of a deployment that finished is COMPLETED.
+ */
+public class DeploymentJournal {
+
+	private static final String COMPLETED = "COMPLETED";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The phases of a node, in the order it goes through them.
+	 */
+	public enum Phase {
+		PROVISIONED, TAGGED, COPIED, CONFIGURED, STARTED
+	}
+
+	private final File file;
+
+	private final Map<String, String> nodeByInstance = new HashMap<String, String>();
+
+	private FileOutputStream output;
+
+	/**
+	 * Initializes the journal.  The file is not written until the journal is begun or reopened.
+	 * @param file The file of the journal.
+	 */
+	public DeploymentJournal(File file) {
+		Assert.notNull(file, "file can not be null");
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Starts the journal of a new deployment, replacing the journal of a deployment that completed.
+	 * @throws IllegalStateException if the journal holds a deployment that was interrupted.
+	 */
+	public synchronized void begin() {
+		if (isInterrupted()) {
+			throw new IllegalStateException("The deployment recorded in " + file
+					+ " was interrupted.  Resume it, or delete the journal to deploy again.");
+		}
+		nodeByInstance.clear();
+		open(false);
+	}
+
+	/**
+	 * Opens the journal of an interrupted deployment to record the phases of the resumed deployment.
+	 * @throws IllegalStateException if the journal does not hold a deployment that was interrupted.
+	 */
+	public synchronized void reopen() {
+		if (!isInterrupted()) {
+			throw new IllegalStateException("No interrupted deployment is recorded in " + file);
+		}
+		nodeByInstance.clear();
+		for (Entry entry : read().values()) {
+			nodeByInstance.put(entry.getInstanceId(), entry.getNode());
+		}
+		open(true);
+		if (!endsWithNewLine()) {
+			write("");
+		}
+	}
+
+	/**
+	 * Records that the instance of a node was launched.  Later phases of the node are recorded by instance.
+	 * @param node The node the instance is launched for.
+	 * @param instanceId The id of the instance.
+	 */
+	public synchronized void provisioned(String node, String instanceId) {
+		Assert.hasText(node, "node can not be empty nor null");
+		Assert.hasText(instanceId, "instanceId can not be empty nor null");
+		if (output == null) {
+			return;
+		}
+		nodeByInstance.put(instanceId, node);
+		write(System.currentTimeMillis() + "," + node + "," + instanceId + "," + Phase.PROVISIONED);
+	}
+
+	/**
+	 * Records that the node of an instance reached a phase.  Nothing is recorded if the journal is not open
+	 * or the instance was not launched by the deployment, e.g. when containers are added to a cluster.
+	 * @param instanceId The id of the instance.
+	 * @param phase The phase the node reached.
+	 */
+	public synchronized void record(String instanceId, Phase phase) {
+		Assert.notNull(phase, "phase can not be null");
+		String node = nodeByInstance.get(instanceId);
+		if (output == null || node == null) {
+			return;
+		}
+		write(System.currentTimeMillis() + "," + node + "," + instanceId + "," + phase);
+	}
+
+	/**
+	 * Records that the deployment finished and closes the journal.
+	 */
+	public synchronized void complete() {
+		if (output == null) {
+			return;
+		}
+		write(System.currentTimeMillis() + "," + COMPLETED);
+		close();
+	}
+
+	/**
+	 * Closes the journal.  The deployment stays resumable unless it was completed.
+	 */
+	public synchronized void close() {
+		if (output == null) {
+			return;
+		}
+		try {
+			output.close();
+		}
+		catch (IOException ioe) {
+			throw new IllegalStateException(ioe.getMessage(), ioe);
+		}
+		finally {
+			output = null;
+		}
+	}
+
+	/**
+	 * @return true if the journal holds a deployment that did not complete.
+	 */
+	public boolean isInterrupted() {
+		List<String> lines = readLines();
+		for (int i = lines.size() - 1; i >= 0; i--) {
+			String[] fields = lines.get(i).split(",");
+			if (fields.length == 2 && COMPLETED.equals(fields[1])) {
+				return false;
+			}
+		}
+		return !read().isEmpty();
+	}
+
+	/**
+	 * Reads the latest phase of every node.  If a node was launched more than once, e.g. when its instance
+	 * was replaced, only its last instance is kept.
+	 * @return the latest entry of every node, by node, in the order the nodes were launched.
+	 */
+	public Map<String, Entry> read() {
+		Map<String, Entry> result = new LinkedHashMap<String, Entry>();
+		for (String line : readLines()) {
+			String[] fields = line.split(",");
+			if (fields.length != 4) {
+				continue;
+			}
+			Phase phase;
+			try {
+				phase = Phase.valueOf(fields[3]);
+			}
+			catch (IllegalArgumentException iae) {
+				continue;
+			}
+			Entry entry = result.get(fields[1]);
+			if (phase == Phase.PROVISIONED) {
+				result.put(fields[1], new Entry(fields[1], fields[2], phase));
+			}
+			else if (entry != null && entry.getInstanceId().equals(fields[2])
+					&& phase.ordinal() > entry.getPhase().ordinal()) {
+				result.put(fields[1], new Entry(fields[1], fields[2], phase));
+			}
+		}
+		return result;
+	}
+
+	private List<String> readLines() {
+		if (!file.exists()) {
+			return Collections.emptyList();
+		}
+		try {
+			return Files.readLines(file, UTF_8);
+		}
+		catch (IOException ioe) {
+			throw new IllegalStateException(ioe.getMessage(), ioe);
+		}
+	}
+
+	private boolean endsWithNewLine() {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				if (raf.length() == 0) {
+					return true;
+				}
+				raf.seek(raf.length() - 1);
+				return raf.read() == '\n';
+			}
+			finally {
+				raf.close();
+			}
+		}
+		catch (IOException ioe) {
+			throw new IllegalStateException(ioe.getMessage(), ioe);
+		}
+	}
+
+	private void open(boolean append) {
+		close();
+		try {
+			output = new FileOutputStream(file, append);
+		}
+		catch (IOException ioe) {
+			throw new IllegalStateException(ioe.getMessage(), ioe);
+		}
+	}
+
+	/**
+	 * Appends a line and syncs it to disk.
+	 */
+	private void write(String line) {
+		try {
+			output.write((line + "\n").getBytes(UTF_8));
+			output.getFD().sync();
+		}
+		catch (IOException ioe) {
+			throw new IllegalStateException("Unable to write to " + file + ": " + ioe.getMessage(), ioe);
+		}
+	}
+
+	/**
+	 * The latest phase a node reached.
+	 */
+	public static class Entry {
+
+		private final String node;
+
+		private final String instanceId;
+
+		private final Phase phase;
+
+		Entry(String node, String instanceId, Phase phase) {
+			this.node = node;
+			this.instanceId = instanceId;
+			this.phase = phase;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		public String getInstanceId() {
+			return instanceId;
+		}
+
+		public Phase getPhase() {
+			return phase;
+		}
+
+		/**
+		 * @param other A phase of the node.
+		 * @return true if the node reached the phase.
+		 */
+		public boolean reached(Phase other) {
+			return phase.ordinal() >= other.ordinal();
+		}
+
+		@Override
+		public String toString() {
+			return node + " " + instanceId + " " + phase;
+		}
+	}
+
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jclouds.Constants;
+import org.jclouds.ContextBuilder;
+import org.jclouds.aws.AWSResponseException;
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+
+/**
+ * Limits the rate of the calls made to the EC2 API by all the threads of a deployment, so a large
+ * deployment stays within the request limits of the account instead of every thread backing off on its
+ * own.  Each {@link Category} of calls has its own token bucket.  When EC2 answers a call with
+ * RequestLimitExceeded, the rate of its category is halved and the call is retried once a token is
+ * available.  Every successful call raises the rate again, by a twentieth of the configured rate, up to
+ * the configured rate.
+ * <p>
+ * The limiter is applied to a client with {@link #limit(AWSEC2Api)}.  The counters of each category are
+ * available from {@link #getMetrics(Category)} and summarized by {@link #toString()}.
+ */
+public class EC2RequestLimiter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EC2RequestLimiter.class);
+
+	private static final String REQUEST_LIMIT_EXCEEDED = "RequestLimitExceeded";
+
+	private static final int RECOVERY_STEPS = 20;
+
+	/**
+	 * The kinds of calls that have a separate request budget.
+	 */
+	public enum Category {
+		DESCRIBE("20", "50"), TAG("5", "20"), RUN("2", "5"), TERMINATE("5", "10"), OTHER("5", "10");
+
+		private final String defaultRate;
+
+		private final String defaultBurst;
+
+		private Category(String defaultRate, String defaultBurst) {
+			this.defaultRate = defaultRate;
+			this.defaultBurst = defaultBurst;
+		}
+
+		/**
+		 * Retrieves the category of an EC2 API call.
+		 * @param methodName The name of the method called on the API.
+		 * @return the category of the call.
+		 */
+		public static Category of(String methodName) {
+			if (methodName.startsWith("describe") || methodName.startsWith("get") || methodName.startsWith("list")) {
+				return DESCRIBE;
+			}
+			if (methodName.equals("applyToResources") || methodName.equals("deleteFromResources")
+					|| methodName.endsWith("Tags")) {
+				return TAG;
+			}
+			if (methodName.startsWith("run")) {
+				return RUN;
+			}
+			if (methodName.startsWith("terminate")) {
+				return TERMINATE;
+			}
+			return OTHER;
+		}
+
+		private String getKey() {
+			return name().toLowerCase();
+		}
+	}
+
+	private final Map<Category, Bucket> buckets = new EnumMap<Category, Bucket>(Category.class);
+
+	private final int maxThrottleRetries;
+
+	/**
+	 * Initializes the limiter from the ec2.api.* properties.  ec2.api.rate.&lt;category&gt; is the max number
+	 * of calls per second and ec2.api.burst.&lt;category&gt; the number of calls that can be made at once after
+	 * a quiet period.  ec2.api.throttle.retries is the number of times a throttled call is retried.
+	 * @param properties The deployment properties.
+	 */
+	public EC2RequestLimiter(Properties properties) {
+		Assert.notNull(properties, "properties can not be null");
+		for (Category category : Category.values()) {
+			double rate = Double.parseDouble(properties.getProperty("ec2.api.rate." + category.getKey(),
+					category.defaultRate));
+			double burst = Double.parseDouble(properties.getProperty("ec2.api.burst." + category.getKey(),
+					category.defaultBurst));
+			Assert.isTrue(rate > 0, "ec2.api.rate." + category.getKey() + " must be greater than 0");
+			Assert.isTrue(burst >= 1, "ec2.api.burst." + category.getKey() + " must be at least 1");
+			buckets.put(category, new Bucket(rate, burst));
+		}
+		maxThrottleRetries = Integer.parseInt(properties.getProperty("ec2.api.throttle.retries", "10"));
+	}
+
+	/**
+	 * Builds a client with the credentials of the deployment and limits it.  The client retries a throttled
+	 * call itself only ec2.api.client.retries times, so the limiter learns about the request limit of the
+	 * account promptly and slows down every thread at once.
+	 * @param properties The deployment properties.
+	 * @return a client that shares this limiter.
+	 */
+	public AWSEC2Api createClient(Properties properties) {
+		Assert.notNull(properties, "properties can not be null");
+		Properties overrides = new Properties();
+		overrides.setProperty(Constants.PROPERTY_MAX_RETRIES, properties.getProperty("ec2.api.client.retries", "2"));
+		return limit(ContextBuilder.newBuilder("aws-ec2")
+				.credentials(properties.getProperty("aws.access.key"), properties.getProperty("aws.secret.key"))
+				.overrides(overrides)
+				.buildApi(AWSEC2Api.class));
+	}
+
+	/**
+	 * Wraps a client so every call made through the feature APIs it returns is limited.
+	 * @param client The client to be limited.
+	 * @return a client that shares this limiter.
+	 */
+	public AWSEC2Api limit(AWSEC2Api client) {
+		Assert.notNull(client, "client can not be null");
+		return (AWSEC2Api) Proxy.newProxyInstance(AWSEC2Api.class.getClassLoader(),
+				new Class<?>[] { AWSEC2Api.class }, new ClientHandler(client));
+	}
+
+	/**
+	 * Blocks until a call of the category can be made.
+	 * @param category The category of the call.
+	 */
+	public void acquire(Category category) {
+		long wait = buckets.get(category).reserve();
+		if (wait <= 0) {
+			return;
+		}
+		try {
+			TimeUnit.MILLISECONDS.sleep(wait);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ie.getMessage(), ie);
+		}
+	}
+
+	/**
+	 * Records that EC2 throttled a call, halving the rate of its category.
+	 * @param category The category of the call.
+	 */
+	public void throttled(Category category) {
+		double rate = buckets.get(category).decrease();
+		LOGGER.info(String.format("EC2 throttled a %s call, limiting %s calls to %.2f per second", category,
+				category, rate));
+	}
+
+	/**
+	 * Records that a call succeeded, raising the rate of its category if it was lowered.
+	 * @param category The category of the call.
+	 */
+	public void succeeded(Category category) {
+		buckets.get(category).increase();
+	}
+
+	/**
+	 * Retrieves the counters of a category.
+	 * @param category The category of calls.
+	 * @return the counters since the limiter was created.
+	 */
+	public Metrics getMetrics(Category category) {
+		return buckets.get(category).metrics;
+	}
+
+	/**
+	 * Summarizes the counters of every category that was called.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("EC2 API calls:");
+		for (Category category : Category.values()) {
+			Metrics metrics = getMetrics(category);
+			if (metrics.getCalls() == 0) {
+				continue;
+			}
+			builder.append(String.format("%n  %-9s calls: %d, throttled: %d, waited: %dms (max %dms), rate: %.2f/s",
+					category, metrics.getCalls(), metrics.getThrottled(), metrics.getWaitTime(),
+					metrics.getMaxWaitTime(), metrics.getRate()));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Makes a call within the budget of its category, retrying it while it is throttled.
+	 */
+	Object call(Object target, Method method, Object[] args) throws Throwable {
+		Category category = Category.of(method.getName());
+		for (int attempt = 0;; attempt++) {
+			acquire(category);
+			try {
+				Object result = method.invoke(target, args);
+				succeeded(category);
+				return result;
+			}
+			catch (InvocationTargetException ite) {
+				if (!isThrottled(ite.getCause()) || attempt >= maxThrottleRetries) {
+					throw ite.getCause();
+				}
+				throttled(category);
+			}
+		}
+	}
+
+	/**
+	 * Determines if an exception thrown by the EC2 API is caused by the request limit of the account.
+	 * @param throwable The exception thrown by a call.
+	 * @return true if the call was throttled.
+	 */
+	static boolean isThrottled(Throwable throwable) {
+		for (Throwable cause : Throwables.getCausalChain(throwable)) {
+			if (cause instanceof AWSResponseException) {
+				AWSResponseException exception = (AWSResponseException) cause;
+				if (exception.getError() != null && REQUEST_LIMIT_EXCEEDED.equals(exception.getError().getCode())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The counters of a category of calls.
+	 */
+	public static class Metrics {
+
+		private final AtomicLong calls = new AtomicLong();
+
+		private final AtomicLong throttled = new AtomicLong();
+
+		private final AtomicLong waitTime = new AtomicLong();
+
+		private final AtomicLong maxWaitTime = new AtomicLong();
+
+		private volatile double rate;
+
+		/**
+		 * @return the number of calls made, including the retries of throttled calls.
+		 */
+		public long getCalls() {
+			return calls.get();
+		}
+
+		/**
+		 * @return the number of calls EC2 throttled.
+		 */
+		public long getThrottled() {
+			return throttled.get();
+		}
+
+		/**
+		 * @return the total time in millis the calls waited for the limiter.
+		 */
+		public long getWaitTime() {
+			return waitTime.get();
+		}
+
+		/**
+		 * @return the longest time in millis a call waited for the limiter.
+		 */
+		public long getMaxWaitTime() {
+			return maxWaitTime.get();
+		}
+
+		/**
+		 * @return the current number of calls allowed per second.
+		 */
+		public double getRate() {
+			return rate;
+		}
+
+		private void waited(long wait) {
+			calls.incrementAndGet();
+			waitTime.addAndGet(wait);
+			long max = maxWaitTime.get();
+			while (wait > max && !maxWaitTime.compareAndSet(max, wait)) {
+				max = maxWaitTime.get();
+			}
+		}
+	}
+
+	/**
+	 * A token bucket whose rate is halved on every throttled call and recovers on successful calls.
+	 */
+	private static class Bucket {
+
+		private final double maxRate;
+
+		private final double minRate;
+
+		private final double burst;
+
+		private final Metrics metrics = new Metrics();
+
+		private double rate;
+
+		private double tokens;
+
+		private long lastRefill = System.nanoTime();
+
+		Bucket(double maxRate, double burst) {
+			this.maxRate = maxRate;
+			this.minRate = maxRate / RECOVERY_STEPS;
+			this.burst = burst;
+			this.rate = maxRate;
+			this.tokens = burst;
+			metrics.rate = rate;
+		}
+
+		/**
+		 * Takes a token, going into debt if none is left so the callers are served in order.
+		 * @return the time in millis the caller has to wait before it makes its call.
+		 */
+		synchronized long reserve() {
+			refill();
+			tokens--;
+			long wait = tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000 / rate);
+			metrics.waited(wait);
+			return wait;
+		}
+
+		synchronized double decrease() {
+			refill();
+			rate = Math.max(minRate, rate / 2);
+			// the calls that are already waiting have to space out at the new rate as well
+			tokens = Math.min(tokens, 0);
+			metrics.throttled.incrementAndGet();
+			metrics.rate = rate;
+			return rate;
+		}
+
+		synchronized void increase() {
+			if (rate < maxRate) {
+				refill();
+				rate = Math.min(maxRate, rate + maxRate / RECOVERY_STEPS);
+				metrics.rate = rate;
+			}
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			tokens = Math.min(burst, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+			lastRefill = now;
+		}
+	}
+
+	/**
+	 * Wraps the feature APIs returned by the client.
+	 */
+	private class ClientHandler implements InvocationHandler {
+
+		private final AWSEC2Api client;
+
+		ClientHandler(AWSEC2Api client) {
+			this.client = client;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result;
+			try {
+				result = method.invoke(client, args);
+			}
+			catch (InvocationTargetException ite) {
+				throw ite.getCause();
+			}
+			if (result instanceof Optional && ((Optional<?>) result).isPresent()) {
+				Object api = ((Optional<?>) result).get();
+				return Optional.of(Proxy.newProxyInstance(api.getClass().getClassLoader(),
+						ClassUtils.getAllInterfaces(api), new ApiHandler(api)));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Limits the calls made to a feature API.
+	 */
+	private class ApiHandler implements InvocationHandler {
+
+		private final Object api;
+
+		ApiHandler(Object api) {
+			this.api = api;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				try {
+					return method.invoke(api, args);
+				}
+				catch (InvocationTargetException ite) {
+					throw ite.getCause();
+				}
+			}
+			return call(api, method, args);
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2.cloud;
+
+import org.jclouds.ec2.domain.InstanceState;
+import org.jclouds.ec2.domain.RunningInstance;
+
+/**
+ * Receives notifications from the {@link InstanceStateTracker} when a tracked instance changes state.
+ */
+public interface InstanceStateListener {
+
+	/**
+	 * Called on the tracker's polling thread when a tracked instance changes state.
+	 * @param instance The refreshed instance.
+	 * @param previousState The state of the instance before the refresh.
+	 */
+	public void stateChanged(RunningInstance instance, InstanceState previousState);
+}
@@ -0,0 +1,514 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2.cloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jclouds.aws.AWSResponseException;
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.ec2.domain.InstanceState;
+import org.jclouds.ec2.domain.Reservation;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.jclouds.rest.ResourceNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Keeps the latest known state of every EC2 instance that is part of a deployment.  A single
+ * DescribeInstances call is issued per poll interval for all tracked instances, instead of one
+ * call per instance per check.  Callers read the cached instance or block until the instance
+ * reaches a state.
+ * <p>
+ * The poll interval adapts to the tracked instances: while any instance is pending the tracker polls
+ * at the minimum interval, afterwards the interval doubles on every poll up to the maximum interval.
+ */
+public class InstanceStateTracker {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(InstanceStateTracker.class);
+
+	private static final Pattern INSTANCE_ID = Pattern.compile("i-[0-9a-f]+");
+
+	private final AWSEC2Api client;
+
+	private final String region;
+
+	private final long minPollInterval;
+
+	private final long maxPollInterval;
+
+	private final Map<String, RunningInstance> instances = new ConcurrentHashMap<String, RunningInstance>();
+
+	private final List<InstanceStateListener> listeners = new CopyOnWriteArrayList<InstanceStateListener>();
+
+	private final List<StateWaiter> waiters = new CopyOnWriteArrayList<StateWaiter>();
+
+	private ScheduledExecutorService scheduler;
+
+	private boolean stopped;
+
+	private volatile long pollInterval;
+
+	/**
+	 * Initializes the tracker.  Polling does not start until the first instance is tracked.
+	 * @param client The AWS client used to describe the instances.
+	 * @param region The region where the instances are provisioned.
+	 * @param minPollInterval The time in millis between DescribeInstances calls while an instance is pending.
+	 * @param maxPollInterval The upper bound in millis the poll interval backs off to once no instance is pending.
+	 */
+	public InstanceStateTracker(AWSEC2Api client, String region, long minPollInterval, long maxPollInterval) {
+		Assert.notNull(client, "client can not be null");
+		Assert.isTrue(minPollInterval > 0, "minPollInterval must be greater than 0");
+		Assert.isTrue(maxPollInterval >= minPollInterval, "maxPollInterval must not be less than minPollInterval");
+		this.client = client;
+		this.region = region;
+		this.minPollInterval = minPollInterval;
+		this.maxPollInterval = maxPollInterval;
+		this.pollInterval = minPollInterval;
+	}
+
+	/**
+	 * Registers a listener that is notified every time a tracked instance changes state.
+	 * @param listener The listener to be notified.
+	 */
+	public void addListener(InstanceStateListener listener) {
+		Assert.notNull(listener, "listener can not be null");
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener registered with {@link #addListener(InstanceStateListener)}.
+	 * @param listener The listener to be removed.
+	 */
+	public void removeListener(InstanceStateListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Adds the instances to the set of instances refreshed on every poll.
+	 * @param instancesToTrack The instances to be tracked.
+	 */
+	public void track(Iterable<? extends RunningInstance> instancesToTrack) {
+		Assert.notNull(instancesToTrack, "instancesToTrack can not be null");
+		for (RunningInstance instance : instancesToTrack) {
+			if (!instances.containsKey(instance.getId())) {
+				instances.put(instance.getId(), instance);
+			}
+		}
+		pollInterval = minPollInterval;
+		start();
+	}
+
+	/**
+	 * Stops refreshing the instance with the id specified.
+	 * @param instanceId The id of the instance.
+	 */
+	public void untrack(String instanceId) {
+		instances.remove(instanceId);
+	}
+
+	/**
+	 * Retrieves the latest known state of a tracked instance.  If the instance is not tracked it
+	 * is described immediately and tracked from then on.
+	 * @param instanceId The id of the instance.
+	 * @return The latest RunningInstance for the id.
+	 */
+	public RunningInstance getInstance(String instanceId) {
+		Assert.hasText(instanceId, "instanceId can not be empty nor null");
+		RunningInstance instance = instances.get(instanceId);
+		if (instance == null) {
+			instance = AWSInstanceProvisioner.findInstanceById(client, instanceId);
+			track(Collections.singleton(instance));
+		}
+		return instance;
+	}
+
+	/**
+	 * Blocks until the instance reaches the state specified or until the wait time expires.  The
+	 * wait ends early if the instance is terminated or is shutting down.
+	 * @param instanceId The id of the instance to monitor.
+	 * @param state The state the instance is expected to reach.
+	 * @param waitTime The max time in millis to wait.
+	 * @return the latest RunningInstance if it reached the state, else null.
+	 */
+	public RunningInstance waitForState(String instanceId, InstanceState state, long waitTime) {
+		try {
+			return whenState(instanceId, state, waitTime).get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException(e.getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Returns a future that completes when the instance reaches the state specified or when the wait
+	 * time expires.  No thread is held while waiting, the future is completed by the polling thread.  Once
+	 * the tracker is shut down the future completes with a null instance right away.
+	 * @param instanceId The id of the instance to monitor.
+	 * @param state The state the instance is expected to reach.
+	 * @param waitTime The max time in millis to wait.
+	 * @return a future containing the latest RunningInstance if it reached the state, else null.
+	 */
+	public ListenableFuture<RunningInstance> whenState(String instanceId, InstanceState state, long waitTime) {
+		Assert.hasText(instanceId, "instanceId can not be empty nor null");
+		Assert.notNull(state, "state can not be null");
+		final StateWaiter waiter = new StateWaiter(instanceId, state);
+		if (isStopped()) {
+			waiter.complete(null);
+			return waiter.result;
+		}
+		if (waiter.check(getInstance(instanceId))) {
+			return waiter.result;
+		}
+		waiters.add(waiter);
+		synchronized (this) {
+			if (stopped || scheduler == null) {
+				waiters.remove(waiter);
+				waiter.complete(null);
+				return waiter.result;
+			}
+			waiter.setTimeout(scheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					waiters.remove(waiter);
+					waiter.complete(null);
+				}
+			}, waitTime, TimeUnit.MILLISECONDS));
+		}
+		// the instance may have changed between the first check and the registration
+		if (waiter.check(getInstance(instanceId))) {
+			waiters.remove(waiter);
+		}
+		return waiter.result;
+	}
+
+	/**
+	 * Stops polling for instance state.  Pending waits complete with a null instance.
+	 */
+	public synchronized void shutdown() {
+		stopped = true;
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		for (StateWaiter waiter : waiters) {
+			waiter.complete(null);
+		}
+		waiters.clear();
+	}
+
+	private synchronized boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Describes all tracked instances in one call, notifies the listeners of any state change and
+	 * completes the waits on a state change.
+	 */
+	void poll() {
+		List<String> ids = new ArrayList<String>(instances.keySet());
+		if (ids.isEmpty()) {
+			return;
+		}
+		List<RunningInstance> changed = new ArrayList<RunningInstance>();
+		List<InstanceState> previousStates = new ArrayList<InstanceState>();
+		for (RunningInstance instance : describe(ids)) {
+			RunningInstance previous = instances.get(instance.getId());
+			if (previous == null) {
+				continue;
+			}
+			instances.put(instance.getId(), instance);
+			if (previous.getInstanceState() != instance.getInstanceState()) {
+				changed.add(instance);
+				previousStates.add(previous.getInstanceState());
+			}
+		}
+		for (StateWaiter waiter : waiters) {
+			if (waiter.check(instances.get(waiter.instanceId))) {
+				waiters.remove(waiter);
+			}
+		}
+		for (int i = 0; i < changed.size(); i++) {
+			fireStateChanged(changed.get(i), previousStates.get(i));
+		}
+		pollInterval = isAnyInstancePending() ? minPollInterval : Math.min(pollInterval * 2, maxPollInterval);
+	}
+
+	/**
+	 * Describes the instances in as few calls as possible.  EC2 rejects the whole call if one of the ids
+	 * is not found, e.g. an instance that was just launched and is not visible yet.  The ids that are not
+	 * found are then left out of the call, or, if they can not be told from the error, every instance is
+	 * described on its own.  The instances that are not found keep their cached state until the next poll.
+	 * @param ids The ids of the instances.
+	 * @return the instances that were described.
+	 */
+	private List<RunningInstance> describe(List<String> ids) {
+		List<String> remaining = new ArrayList<String>(ids);
+		while (!remaining.isEmpty()) {
+			try {
+				List<RunningInstance> result = describeInstances(remaining);
+				if (result.isEmpty() && remaining.size() > 1) {
+					// the client answers a call rejected as not found with no instance
+					return describeEach(remaining);
+				}
+				return result;
+			}
+			catch (RuntimeException re) {
+				if (!isNotFound(re)) {
+					LOGGER.debug("Unable to describe tracked instances: " + re.getMessage());
+					return Collections.emptyList();
+				}
+				Set<String> missing = findInstanceIds(re, remaining);
+				if (missing.isEmpty()) {
+					return describeEach(remaining);
+				}
+				LOGGER.warn("Tracked instances not found, describing the others: " + missing);
+				remaining.removeAll(missing);
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Describes every instance in its own call.
+	 * @param ids The ids of the instances.
+	 * @return the instances that were described.
+	 */
+	private List<RunningInstance> describeEach(List<String> ids) {
+		List<RunningInstance> result = new ArrayList<RunningInstance>();
+		for (String id : ids) {
+			try {
+				List<RunningInstance> described = describeInstances(Collections.singletonList(id));
+				if (described.isEmpty()) {
+					LOGGER.warn("Tracked instance not found: " + id);
+				}
+				result.addAll(described);
+			}
+			catch (RuntimeException re) {
+				if (isNotFound(re)) {
+					LOGGER.warn("Tracked instance not found: " + id);
+				}
+				else {
+					LOGGER.debug("Unable to describe tracked instance " + id + ": " + re.getMessage());
+				}
+			}
+		}
+		return result;
+	}
+
+	private List<RunningInstance> describeInstances(List<String> ids) {
+		List<RunningInstance> result = new ArrayList<RunningInstance>();
+		Set<? extends Reservation<? extends RunningInstance>> reservations = client.getInstanceApi().get()
+				.describeInstancesInRegion(region, ids.toArray(new String[ids.size()]));
+		for (Reservation<? extends RunningInstance> reservation : reservations) {
+			for (RunningInstance instance : reservation) {
+				result.add(instance);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Checks if EC2 rejected a call because an instance does not exist.
+	 * @param re The exception thrown by the call.
+	 * @return true if an instance was not found.
+	 */
+	private static boolean isNotFound(RuntimeException re) {
+		for (Throwable cause = re; cause != null; cause = cause.getCause()) {
+			if (cause instanceof ResourceNotFoundException) {
+				return true;
+			}
+			if (cause instanceof AWSResponseException && ((AWSResponseException) cause).getError() != null
+					&& String.valueOf(((AWSResponseException) cause).getError().getCode()).endsWith(".NotFound")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the ids an error of EC2 names, e.g. "The instance ID 'i-1234' does not exist".
+	 * @param re The exception thrown by the call.
+	 * @param ids The ids of the call.
+	 * @return the ids of the call named by the error.
+	 */
+	private static Set<String> findInstanceIds(RuntimeException re, List<String> ids) {
+		Set<String> result = new HashSet<String>();
+		for (Throwable cause = re; cause != null; cause = cause.getCause()) {
+			if (cause.getMessage() == null) {
+				continue;
+			}
+			Matcher matcher = INSTANCE_ID.matcher(cause.getMessage());
+			while (matcher.find()) {
+				if (ids.contains(matcher.group())) {
+					result.add(matcher.group());
+				}
+			}
+		}
+		return result;
+	}
+
+	private void fireStateChanged(RunningInstance instance, InstanceState previousState) {
+		LOGGER.debug(String.format("Instance %s changed from %s to %s", instance.getId(), previousState,
+				instance.getInstanceState()));
+		for (InstanceStateListener listener : listeners) {
+			try {
+				listener.stateChanged(instance, previousState);
+			}
+			catch (RuntimeException re) {
+				LOGGER.warn("Instance state listener failed: " + re.getMessage(), re);
+			}
+		}
+	}
+
+	private boolean isAnyInstancePending() {
+		for (RunningInstance instance : instances.values()) {
+			if (instance.getInstanceState() == InstanceState.PENDING) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isTerminal(InstanceState state) {
+		return state == InstanceState.TERMINATED || state == InstanceState.SHUTTING_DOWN;
+	}
+
+	private synchronized void start() {
+		if (scheduler != null || stopped) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "instance-state-tracker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		schedulePoll(0);
+	}
+
+	/**
+	 * Schedules the next poll.  Every poll reschedules itself using the current adaptive interval.
+	 * @param delay The time in millis before the poll executes.
+	 */
+	private synchronized void schedulePoll(long delay) {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					poll();
+				}
+				finally {
+					schedulePoll(pollInterval);
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * A pending wait for an instance to reach a state.
+	 */
+	private static class StateWaiter {
+
+		private final String instanceId;
+
+		private final InstanceState state;
+
+		private final SettableFuture<RunningInstance> result = SettableFuture.create();
+
+		private volatile ScheduledFuture<?> timeout;
+
+		StateWaiter(String instanceId, InstanceState state) {
+			this.instanceId = instanceId;
+			this.state = state;
+		}
+
+		/**
+		 * Keeps the timeout of the wait, so it is cancelled once the wait completes.
+		 * @param timeout The scheduled completion of the wait.
+		 */
+		void setTimeout(ScheduledFuture<?> timeout) {
+			this.timeout = timeout;
+			if (result.isDone()) {
+				timeout.cancel(false);
+			}
+		}
+
+		/**
+		 * Completes the wait, unless it completed already, and cancels its timeout.
+		 * @param instance The instance that reached the state, or null.
+		 */
+		void complete(RunningInstance instance) {
+			result.set(instance);
+			ScheduledFuture<?> scheduled = timeout;
+			if (scheduled != null) {
+				scheduled.cancel(false);
+			}
+		}
+
+		/**
+		 * Completes the wait if the instance reached the expected state or a terminal state.
+		 * @param instance The latest known instance.
+		 * @return true if the wait is complete.
+		 */
+		boolean check(RunningInstance instance) {
+			if (instance == null) {
+				return false;
+			}
+			if (state.equals(instance.getInstanceState())) {
+				complete(instance);
+				return true;
+			}
+			if (isTerminal(instance.getInstanceState())) {
+				complete(null);
+				return true;
+			}
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Applies tags to EC2 instances in as few CreateTags calls as possible.  Tags requested within the batch
+ * window are collected, the instances that receive the same tag are grouped, and the tags that go to the
+ * same group of instances are sent in one call.  A tag is not sent again if the instance already has it
+ * with the same value.  If a call fails its tags are requested again in the next batch, up to three times,
+ * since a newly launched instance may not be visible to the tag api yet.
+ */
+public class InstanceTagger {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(InstanceTagger.class);
+
+	private static final int MAX_ATTEMPTS = 3;
+
+	private static final long SHUTDOWN_RETRY_DELAY = 1000;
+
+	private final AWSEC2Api client;
+
+	private final String region;
+
+	private final long batchWindow;
+
+	private final Map<String, Map<String, String>> applied = new HashMap<String, Map<String, String>>();
+
+	private final Map<String, Map<String, String>> pending = new LinkedHashMap<String, Map<String, String>>();
+
+	private final Map<String, Integer> failures = new HashMap<String, Integer>();
+
+	private final ScheduledExecutorService scheduler;
+
+	private boolean flushScheduled;
+
+	/**
+	 * Initializes the tagger.
+	 * @param client The AWS client used to tag the instances.
+	 * @param region The region where the instances are provisioned.
+	 * @param batchWindow The time in millis tags are collected before they are applied.
+	 */
+	public InstanceTagger(AWSEC2Api client, String region, long batchWindow) {
+		Assert.notNull(client, "client can not be null");
+		Assert.isTrue(batchWindow >= 0, "batchWindow must not be negative");
+		this.client = client;
+		this.region = region;
+		this.batchWindow = batchWindow;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "instance-tagger");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Requests tags for an instance.  The tags the instance was described with are not applied again.
+	 * @param instance The instance that the tags will be applied.
+	 * @param tags A map containing the tag name (key) and the tag value.
+	 */
+	public void tag(RunningInstance instance, Map<String, String> tags) {
+		Assert.notNull(instance, "instance can not be null");
+		synchronized (this) {
+			Map<String, String> known = getApplied(instance.getId());
+			for (Map.Entry<String, String> tag : instance.getTags().entrySet()) {
+				if (!known.containsKey(tag.getKey())) {
+					known.put(tag.getKey(), tag.getValue());
+				}
+			}
+		}
+		tag(Collections.singleton(instance.getId()), tags);
+	}
+
+	/**
+	 * Requests the same tags for several instances, typically all the instances of a reservation.
+	 * @param instanceIds The ids of the instances that the tags will be applied.
+	 * @param tags A map containing the tag name (key) and the tag value.
+	 */
+	public synchronized void tag(Collection<String> instanceIds, Map<String, String> tags) {
+		Assert.notNull(instanceIds, "instanceIds can not be null");
+		Assert.notNull(tags, "tags can not be null");
+		for (String instanceId : instanceIds) {
+			Map<String, String> known = getApplied(instanceId);
+			for (Map.Entry<String, String> tag : tags.entrySet()) {
+				Map<String, String> changes = pending.get(instanceId);
+				if (changes == null && tag.getValue().equals(known.get(tag.getKey()))) {
+					continue;
+				}
+				if (changes == null) {
+					changes = new LinkedHashMap<String, String>();
+					pending.put(instanceId, changes);
+				}
+				changes.put(tag.getKey(), tag.getValue());
+			}
+		}
+		scheduleFlush(batchWindow);
+	}
+
+	/**
+	 * Applies the requested tags now.  Tags that were already applied are left out, and the instances that
+	 * receive the same tags are tagged with a single call.
+	 */
+	public void flush() {
+		Map<String, Map<String, String>> batch;
+		synchronized (this) {
+			flushScheduled = false;
+			batch = new LinkedHashMap<String, Map<String, String>>(pending);
+			pending.clear();
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		Map<Map.Entry<String, String>, Set<String>> instancesByTag = new LinkedHashMap<Map.Entry<String, String>, Set<String>>();
+		for (Map.Entry<String, Map<String, String>> changes : batch.entrySet()) {
+			Map<String, String> known = getAppliedCopy(changes.getKey());
+			for (Map.Entry<String, String> tag : changes.getValue().entrySet()) {
+				if (tag.getValue().equals(known.get(tag.getKey()))) {
+					continue;
+				}
+				Map.Entry<String, String> key = new SimpleImmutableEntry<String, String>(tag);
+				Set<String> instanceIds = instancesByTag.get(key);
+				if (instanceIds == null) {
+					instanceIds = new TreeSet<String>();
+					instancesByTag.put(key, instanceIds);
+				}
+				instanceIds.add(changes.getKey());
+			}
+		}
+		Map<Set<String>, Map<String, String>> calls = new LinkedHashMap<Set<String>, Map<String, String>>();
+		for (Map.Entry<Map.Entry<String, String>, Set<String>> group : instancesByTag.entrySet()) {
+			Map<String, String> tags = calls.get(group.getValue());
+			if (tags == null) {
+				tags = new LinkedHashMap<String, String>();
+				calls.put(group.getValue(), tags);
+			}
+			tags.put(group.getKey().getKey(), group.getKey().getValue());
+		}
+		for (Map.Entry<Set<String>, Map<String, String>> call : calls.entrySet()) {
+			apply(call.getKey(), call.getValue());
+		}
+	}
+
+	/**
+	 * Stops the batching thread and applies the pending tags.  The tags of a failed call are applied again
+	 * until none is pending or they were attempted three times, the tags left then are abandoned.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+		for (int round = 1;; round++) {
+			flush();
+			Map<String, Map<String, String>> abandoned = null;
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					return;
+				}
+				if (round >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+					abandoned = new LinkedHashMap<String, Map<String, String>>(pending);
+					pending.clear();
+				}
+			}
+			if (abandoned != null) {
+				for (Map.Entry<String, Map<String, String>> tags : abandoned.entrySet()) {
+					LOGGER.warn(String.format("Abandoned tags %s of %s", tags.getValue(), tags.getKey()));
+				}
+				return;
+			}
+			try {
+				Thread.sleep(SHUTDOWN_RETRY_DELAY);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void apply(Set<String> instanceIds, Map<String, String> tags) {
+		try {
+			client.getTagApiForRegion(region).get().applyToResources(tags, instanceIds);
+			synchronized (this) {
+				for (String instanceId : instanceIds) {
+					getApplied(instanceId).putAll(tags);
+					failures.remove(instanceId);
+				}
+			}
+			LOGGER.debug(String.format("Tagged %s with %s", instanceIds, tags));
+		}
+		catch (RuntimeException re) {
+			synchronized (this) {
+				for (String instanceId : instanceIds) {
+					Integer attempts = failures.get(instanceId);
+					attempts = attempts == null ? 1 : attempts + 1;
+					failures.put(instanceId, attempts);
+					if (attempts >= MAX_ATTEMPTS) {
+						LOGGER.warn(String.format("Unable to tag %s with %s: %s", instanceId, tags, re.getMessage()));
+						continue;
+					}
+					Map<String, String> retry = new LinkedHashMap<String, String>(tags);
+					Map<String, String> changes = pending.get(instanceId);
+					if (changes != null) {
+						retry.putAll(changes);
+					}
+					pending.put(instanceId, retry);
+				}
+				scheduleFlush(Math.max(batchWindow, 1000));
+			}
+		}
+	}
+
+	/**
+	 * Schedules a flush of the pending tags, unless one is already scheduled.  Called with the lock held.
+	 * @param delay The time in millis before the flush executes.
+	 */
+	private void scheduleFlush(long delay) {
+		if (pending.isEmpty() || flushScheduled || scheduler.isShutdown()) {
+			return;
+		}
+		flushScheduled = true;
+		scheduler.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				flush();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized Map<String, String> getAppliedCopy(String instanceId) {
+		return new HashMap<String, String>(getApplied(instanceId));
+	}
+
+	private Map<String, String> getApplied(String instanceId) {
+		Map<String, String> result = applied.get(instanceId);
+		if (result == null) {
+			result = new HashMap<String, String>();
+			applied.put(instanceId, result);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestTemplate;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Reads MBean attributes from the Jolokia endpoint of an XD server.  All the attributes of a server are
+ * read with one bulk request.  An MBean may be a pattern, in which case the numbers of every matching
+ * MBean are added up.
+ */
+public class JolokiaClient {
+
+	private final String path;
+
+	private final RestTemplate template;
+
+	/**
+	 * Creates a client.
+	 * @param path The path of the Jolokia endpoint on the management port, e.g. /management/jolokia.
+	 * @param timeout The connect and read timeout of a request in millis.
+	 */
+	public JolokiaClient(String path, int timeout) {
+		Assert.hasText(path, "path can not be empty nor null");
+		this.path = path.startsWith("/") ? path : "/" + path;
+		SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+		requestFactory.setConnectTimeout(timeout);
+		requestFactory.setReadTimeout(timeout);
+		template = new RestTemplate(requestFactory);
+	}
+
+	/**
+	 * Reads attributes of a server.
+	 * @param host The host of the server.
+	 * @param port The management port of the server.
+	 * @param reads The attributes to read.
+	 * @return the value of each read in order, NaN for a read Jolokia could not answer.
+	 * @throws org.springframework.web.client.RestClientException if the endpoint can not be reached.
+	 */
+	public List<Double> read(String host, int port, List<Read> reads) {
+		Assert.hasText(host, "host can not be empty nor null");
+		Assert.notEmpty(reads, "reads can not be empty nor null");
+		JsonArray requests = new JsonArray();
+		for (Read read : reads) {
+			requests.add(read.toJson());
+		}
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		String body = template.postForObject("http://" + host + ":" + port + path, new HttpEntity<String>(
+				requests.toString(), headers), String.class);
+		JsonArray responses = new JsonParser().parse(body).getAsJsonArray();
+		List<Double> result = new ArrayList<Double>();
+		for (int i = 0; i < reads.size(); i++) {
+			JsonObject response = i < responses.size() ? responses.get(i).getAsJsonObject() : null;
+			if (response == null || !response.has("status") || response.get("status").getAsInt() != 200) {
+				result.add(Double.NaN);
+			}
+			else {
+				result.add(sum(response.get("value")));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds up the numbers of a value, which is a number, or for a pattern or a composite attribute an
+	 * object containing numbers.
+	 */
+	static double sum(JsonElement value) {
+		if (value == null || value.isJsonNull()) {
+			return 0;
+		}
+		if (value.isJsonPrimitive()) {
+			return value.getAsJsonPrimitive().isNumber() ? value.getAsDouble() : 0;
+		}
+		double result = 0;
+		if (value.isJsonArray()) {
+			for (JsonElement element : value.getAsJsonArray()) {
+				result += sum(element);
+			}
+		}
+		else {
+			for (Map.Entry<String, JsonElement> entry : value.getAsJsonObject().entrySet()) {
+				result += sum(entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * An attribute to read.
+	 */
+	public static class Read {
+
+		private final String mbean;
+
+		private final String attribute;
+
+		private final String path;
+
+		/**
+		 * @param mbean The name or pattern of the MBean.
+		 * @param attribute The attribute to read.
+		 * @param path The path inside a composite attribute, or null to read the whole attribute.
+		 */
+		public Read(String mbean, String attribute, String path) {
+			Assert.hasText(mbean, "mbean can not be empty nor null");
+			Assert.hasText(attribute, "attribute can not be empty nor null");
+			this.mbean = mbean;
+			this.attribute = attribute;
+			this.path = path;
+		}
+
+		JsonObject toJson() {
+			JsonObject result = new JsonObject();
+			result.addProperty("type", "read");
+			result.addProperty("mbean", mbean);
+			result.addProperty("attribute", attribute);
+			if (StringUtils.hasText(path)) {
+				result.addProperty("path", path);
+			}
+			return result;
+		}
+	}
+
+}
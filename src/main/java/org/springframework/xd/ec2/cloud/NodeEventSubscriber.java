@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.util.Assert;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.xd.ec2.environment.NodeEvent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Receives the events the node agents push to the event collector on the admin.  A single thread
+ * holds a request open on the collector, so each event is dispatched as soon as it is reported
+ * instead of being discovered by polling the ports of the nodes.
+ */
+public class NodeEventSubscriber {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NodeEventSubscriber.class);
+
+	private static final long REQUEST_WAIT_TIME = 20000;
+
+	private final long retryInterval;
+
+	private final RestTemplate template;
+
+	private final Map<String, Queue<NodeEvent>> outcomes = new HashMap<String, Queue<NodeEvent>>();
+
+	private final Map<String, Queue<SettableFuture<NodeEvent>>> waiters = new HashMap<String, Queue<SettableFuture<NodeEvent>>>();
+
+	private Thread subscription;
+
+	private volatile boolean running;
+
+	/**
+	 * Creates a subscriber.  Nothing is received until {@link #subscribe(String, int)} is called.
+	 * @param retryInterval The time in millis before a request is sent again when the collector is not available.
+	 */
+	public NodeEventSubscriber(long retryInterval) {
+		Assert.isTrue(retryInterval > 0, "retryInterval must be greater than 0");
+		this.retryInterval = retryInterval;
+		SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+		requestFactory.setConnectTimeout(5000);
+		requestFactory.setReadTimeout((int) REQUEST_WAIT_TIME + 10000);
+		template = new RestTemplate(requestFactory);
+	}
+
+	/**
+	 * Starts receiving the events of the collector.  Only the first call has an effect.
+	 * @param host The host of the event collector.
+	 * @param port The port of the event collector.
+	 */
+	public synchronized void subscribe(final String host, final int port) {
+		Assert.hasText(host, "host can not be empty nor null");
+		if (subscription != null) {
+			return;
+		}
+		running = true;
+		subscription = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				receive("http://" + host + ":" + port + "/events?wait=" + REQUEST_WAIT_TIME + "&from=");
+			}
+		}, "node-event-subscriber");
+		subscription.setDaemon(true);
+		subscription.start();
+	}
+
+	/**
+	 * Returns a future of the next outcome reported by a node, READY or FAILED.  An outcome received
+	 * before the call and not yet returned is returned first.
+	 * @param node The name of the node.
+	 * @return a future containing the event, or null if the subscriber was shut down first.
+	 */
+	public synchronized ListenableFuture<NodeEvent> whenReported(String node) {
+		Assert.hasText(node, "node can not be empty nor null");
+		SettableFuture<NodeEvent> result = SettableFuture.create();
+		NodeEvent outcome = poll(outcomes, node);
+		if (outcome != null) {
+			result.set(outcome);
+		}
+		else if (!running && subscription != null) {
+			result.set(null);
+		}
+		else {
+			queue(waiters, node).add(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Stops receiving events.  Pending futures complete with null.
+	 */
+	public synchronized void shutdown() {
+		running = false;
+		if (subscription != null) {
+			subscription.interrupt();
+		}
+		for (Queue<SettableFuture<NodeEvent>> pending : waiters.values()) {
+			for (SettableFuture<NodeEvent> waiter : pending) {
+				waiter.set(null);
+			}
+		}
+		waiters.clear();
+	}
+
+	/**
+	 * Logs the event and completes the oldest wait on the outcome of its node, if the event is an outcome.
+	 * @param event The event received.
+	 */
+	synchronized void dispatch(NodeEvent event) {
+		if (event.getType() == NodeEvent.Type.FAILED) {
+			LOGGER.error(event.toString());
+		}
+		else {
+			LOGGER.info(event.getNode() + " " + event.getType());
+			LOGGER.debug(event.getDetail());
+		}
+		if (!event.isOutcome()) {
+			return;
+		}
+		SettableFuture<NodeEvent> waiter = poll(waiters, event.getNode());
+		if (waiter != null) {
+			waiter.set(event);
+		}
+		else {
+			queue(outcomes, event.getNode()).add(event);
+		}
+	}
+
+	private void receive(String url) {
+		int received = 0;
+		while (running) {
+			try {
+				String body = template.getForObject(url + received, String.class);
+				if (body == null) {
+					continue;
+				}
+				for (String line : body.split("\n")) {
+					if (line.trim().length() == 0) {
+						continue;
+					}
+					received++;
+					try {
+						dispatch(NodeEvent.fromLine(line));
+					}
+					catch (IllegalArgumentException iae) {
+						LOGGER.warn("Ignoring invalid node event: " + iae.getMessage());
+					}
+				}
+			}
+			catch (RestClientException rce) {
+				LOGGER.debug("Unable to receive node events: " + rce.getMessage());
+				try {
+					Thread.sleep(retryInterval);
+				}
+				catch (InterruptedException ie) {
+					return;
+				}
+			}
+		}
+	}
+
+	private static <T> T poll(Map<String, Queue<T>> queues, String node) {
+		Queue<T> queue = queues.get(node);
+		return queue == null ? null : queue.poll();
+	}
+
+	private static <T> Queue<T> queue(Map<String, Queue<T>> queues, String node) {
+		Queue<T> result = queues.get(node);
+		if (result == null) {
+			result = new LinkedList<T>();
+			queues.put(node, result);
+		}
+		return result;
+	}
+}
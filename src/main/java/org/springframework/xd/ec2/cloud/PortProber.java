@@ -0,0 +1,530 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Waits for ports to accept connections.  Every wait is a future completed by a single selector
+ * thread that multiplexes non-blocking connect attempts to every target under watch, so thousands of
+ * targets are probed without a thread per target.  A failed attempt is retried after the probe
+ * interval, which doubles after every failed attempt up to four times its initial value.  A
+ * {@link ReadinessProbe} can be given to also require the service behind the port to answer a
+ * request; that exchange runs on a small, fixed pool of threads once the connection is established.
+ */
+public class PortProber {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PortProber.class);
+
+	private static final int MAX_BACKOFF_FACTOR = 4;
+
+	private final Selector selector;
+
+	private final Thread selectorThread;
+
+	private final ExecutorService handshakeExecutor;
+
+	private final long probeInterval;
+
+	private final int connectTimeout;
+
+	private final Queue<Probe> submitted = new ConcurrentLinkedQueue<Probe>();
+
+	private final Queue<Attempt> failedHandshakes = new ConcurrentLinkedQueue<Attempt>();
+
+	private final PriorityQueue<Probe> scheduled = new PriorityQueue<Probe>(16, new Comparator<Probe>() {
+
+		@Override
+		public int compare(Probe first, Probe second) {
+			return Long.valueOf(first.nextAttempt).compareTo(Long.valueOf(second.nextAttempt));
+		}
+	});
+
+	private volatile boolean running = true;
+
+	private volatile long selectCount;
+
+	/**
+	 * Creates a prober.
+	 * @param threads The number of threads used to exchange the requests of the readiness probes.
+	 * @param probeInterval The time in millis between two attempts on the same target.
+	 * @param connectTimeout The max time in millis a single connection attempt or request may take.
+	 */
+	public PortProber(int threads, long probeInterval, int connectTimeout) {
+		Assert.isTrue(threads > 0, "threads must be greater than 0");
+		Assert.isTrue(probeInterval > 0, "probeInterval must be greater than 0");
+		Assert.isTrue(connectTimeout > 0, "connectTimeout must be greater than 0");
+		this.probeInterval = probeInterval;
+		this.connectTimeout = connectTimeout;
+		try {
+			selector = Selector.open();
+		}
+		catch (IOException ioe) {
+			throw new IllegalStateException(ioe.getMessage(), ioe);
+		}
+		final AtomicInteger count = new AtomicInteger();
+		handshakeExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "port-prober-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		selectorThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				select();
+			}
+		}, "port-prober-selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**
+	 * Returns a future that completes when the port accepts a connection or when the wait time expires.
+	 * @param target The host and port to probe.
+	 * @param waitTime The max time in millis to wait.
+	 * @return a future containing true if the port is open, false if the wait time expired.
+	 */
+	public ListenableFuture<Boolean> whenOpen(HostAndPort target, long waitTime) {
+		Assert.notNull(target, "target can not be null");
+		return whenAnyOpen(Collections.singletonList(target), waitTime);
+	}
+
+	/**
+	 * Returns a future that completes when any of the ports accepts a connection or when the wait time expires.
+	 * @param targets The hosts and ports to probe.
+	 * @param waitTime The max time in millis to wait.
+	 * @return a future containing true if a port is open, false if the wait time expired.
+	 */
+	public ListenableFuture<Boolean> whenAnyOpen(List<HostAndPort> targets, long waitTime) {
+		return whenAnyReady(targets, ReadinessProbes.TCP, waitTime);
+	}
+
+	/**
+	 * Returns a future that completes when the service behind the port is ready or when the wait time expires.
+	 * @param target The host and port to probe.
+	 * @param readinessProbe The request exchanged with the service once connected.
+	 * @param waitTime The max time in millis to wait.
+	 * @return a future containing true if the service is ready, false if the wait time expired.
+	 */
+	public ListenableFuture<Boolean> whenReady(HostAndPort target, ReadinessProbe readinessProbe, long waitTime) {
+		Assert.notNull(target, "target can not be null");
+		return whenAnyReady(Collections.singletonList(target), readinessProbe, waitTime);
+	}
+
+	/**
+	 * Returns a future that completes when the service behind any of the ports is ready or when the wait time expires.
+	 * @param targets The hosts and ports to probe.
+	 * @param readinessProbe The request exchanged with the service once connected.
+	 * @param waitTime The max time in millis to wait.
+	 * @return a future containing true if a service is ready, false if the wait time expired.
+	 */
+	public ListenableFuture<Boolean> whenAnyReady(List<HostAndPort> targets, ReadinessProbe readinessProbe,
+			long waitTime) {
+		Assert.notEmpty(targets, "targets can not be empty nor null");
+		Assert.notNull(readinessProbe, "readinessProbe can not be null");
+		Probe probe = new Probe(targets, readinessProbe, System.currentTimeMillis() + waitTime);
+		if (!running) {
+			probe.result.set(false);
+			return probe.result;
+		}
+		submitted.add(probe);
+		selector.wakeup();
+		return probe.result;
+	}
+
+	/**
+	 * Stops probing.  Pending waits complete with false.
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+		handshakeExecutor.shutdownNow();
+		try {
+			selectorThread.join(connectTimeout);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The loop of the selector thread: starts the attempts that are due, expires the connections that
+	 * take too long and processes the established connections, until the prober is shut down.
+	 */
+	private void select() {
+		try {
+			while (running) {
+				long now = System.currentTimeMillis();
+				for (Probe probe = submitted.poll(); probe != null; probe = submitted.poll()) {
+					probe.nextAttempt = now;
+					scheduled.add(probe);
+				}
+				for (Attempt attempt = failedHandshakes.poll(); attempt != null; attempt = failedHandshakes.poll()) {
+					attemptFailed(attempt, now);
+				}
+				while (!scheduled.isEmpty() && scheduled.peek().nextAttempt <= now) {
+					startAttempt(scheduled.poll(), now);
+				}
+				long timeout = expireAttempts(now);
+				if (!scheduled.isEmpty()) {
+					timeout = Math.min(timeout, scheduled.peek().nextAttempt - now);
+				}
+				selectCount++;
+				if (!selector.selectedKeys().isEmpty()) {
+					selector.selectNow();
+				}
+				else if (timeout == Long.MAX_VALUE) {
+					// nothing to expire nor to start, a new probe or a failed handshake wakes the selector
+					selector.select();
+				}
+				else {
+					selector.select(Math.max(timeout, 1));
+				}
+				processSelectedKeys();
+			}
+		}
+		catch (IOException ioe) {
+			LOGGER.error("Port prober stopped: " + ioe.getMessage(), ioe);
+		}
+		catch (ClosedSelectorException cse) {
+			LOGGER.debug("Port prober selector closed");
+		}
+		finally {
+			running = false;
+			close();
+		}
+	}
+
+	/**
+	 * Opens a non-blocking connection to every target of the probe, or completes the probe if its
+	 * deadline passed.
+	 */
+	private void startAttempt(Probe probe, long now) {
+		if (probe.result.isDone()) {
+			return;
+		}
+		if (now >= probe.deadline) {
+			probe.result.set(false);
+			return;
+		}
+		List<Attempt> connected = new ArrayList<Attempt>();
+		for (HostAndPort target : probe.targets) {
+			SocketChannel channel = null;
+			try {
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				Attempt attempt = new Attempt(probe, target, channel, Math.min(now + connectTimeout, probe.deadline));
+				if (channel.connect(new InetSocketAddress(target.getHostText(), target.getPort()))) {
+					connected.add(attempt);
+				}
+				else {
+					channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+				}
+				probe.pending++;
+			}
+			catch (IOException ioe) {
+				closeQuietly(channel);
+			}
+			catch (RuntimeException re) {
+				// unresolved host or invalid address, the attempt failed
+				closeQuietly(channel);
+			}
+		}
+		for (Attempt attempt : connected) {
+			connected(attempt);
+		}
+		if (probe.pending == 0 && !probe.result.isDone()) {
+			reschedule(probe, now);
+		}
+	}
+
+	/**
+	 * Fails the connections that did not complete within the connect timeout and closes those whose
+	 * probe already completed.
+	 * @return the time in millis until the next connect deadline, Long.MAX_VALUE if there is none.
+	 */
+	private long expireAttempts(long now) {
+		long timeout = Long.MAX_VALUE;
+		for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+			if (!key.isValid()) {
+				continue;
+			}
+			Attempt attempt = (Attempt) key.attachment();
+			if (attempt.probe.result.isDone()) {
+				key.cancel();
+				closeQuietly(attempt.channel);
+			}
+			else if (attempt.connectDeadline <= now) {
+				key.cancel();
+				closeQuietly(attempt.channel);
+				attemptFailed(attempt, now);
+			}
+			else {
+				timeout = Math.min(timeout, attempt.connectDeadline - now);
+			}
+		}
+		return timeout;
+	}
+
+	/**
+	 * @return the number of times the selector thread selected, to verify it blocks while idle.
+	 */
+	long getSelectCount() {
+		return selectCount;
+	}
+
+	private void processSelectedKeys() throws IOException {
+		List<Attempt> handshakes = new ArrayList<Attempt>();
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			if (!key.isValid() || !key.isConnectable()) {
+				continue;
+			}
+			Attempt attempt = (Attempt) key.attachment();
+			try {
+				if (!attempt.channel.finishConnect()) {
+					continue;
+				}
+				key.cancel();
+				if (attempt.probe.readinessProbe == ReadinessProbes.TCP) {
+					connected(attempt);
+				}
+				else {
+					handshakes.add(attempt);
+				}
+			}
+			catch (IOException ioe) {
+				key.cancel();
+				closeQuietly(attempt.channel);
+				attemptFailed(attempt, System.currentTimeMillis());
+			}
+		}
+		if (!handshakes.isEmpty()) {
+			// deregisters the cancelled keys so the channels can be switched to blocking mode
+			selector.selectNow();
+			for (Attempt attempt : handshakes) {
+				connected(attempt);
+			}
+		}
+	}
+
+	/**
+	 * Completes the probe of an established connection, or hands the connection to the handshake
+	 * threads if the probe requires the service to answer a request.
+	 */
+	private void connected(final Attempt attempt) {
+		if (attempt.probe.result.isDone()) {
+			closeQuietly(attempt.channel);
+			return;
+		}
+		if (attempt.probe.readinessProbe == ReadinessProbes.TCP) {
+			closeQuietly(attempt.channel);
+			attempt.probe.result.set(true);
+			return;
+		}
+		try {
+			attempt.channel.configureBlocking(true);
+			handshakeExecutor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					handshake(attempt);
+				}
+			});
+		}
+		catch (IOException ioe) {
+			closeQuietly(attempt.channel);
+			attemptFailed(attempt, System.currentTimeMillis());
+		}
+		catch (RejectedExecutionException ree) {
+			closeQuietly(attempt.channel);
+			attempt.probe.result.set(false);
+		}
+	}
+
+	/**
+	 * Exchanges the request of the readiness probe on an established connection.  Runs on a handshake thread.
+	 */
+	private void handshake(Attempt attempt) {
+		boolean ready = false;
+		try {
+			Socket socket = attempt.channel.socket();
+			socket.setSoTimeout(connectTimeout);
+			ready = attempt.probe.readinessProbe.isReady(socket, attempt.target);
+		}
+		catch (IOException ioe) {
+			LOGGER.debug(attempt.target + " is not ready: " + ioe.getMessage());
+		}
+		finally {
+			closeQuietly(attempt.channel);
+		}
+		if (ready) {
+			attempt.probe.result.set(true);
+		}
+		else {
+			failedHandshakes.add(attempt);
+			selector.wakeup();
+		}
+	}
+
+	private void attemptFailed(Attempt attempt, long now) {
+		Probe probe = attempt.probe;
+		probe.pending--;
+		if (probe.pending == 0 && !probe.result.isDone()) {
+			reschedule(probe, now);
+		}
+	}
+
+	/**
+	 * Schedules the next attempt of a probe after its current interval and doubles the interval,
+	 * or completes the probe if its deadline passed.
+	 */
+	private void reschedule(Probe probe, long now) {
+		if (now >= probe.deadline) {
+			probe.result.set(false);
+			return;
+		}
+		probe.nextAttempt = Math.min(now + probe.interval, probe.deadline);
+		probe.interval = Math.min(probe.interval * 2, probeInterval * MAX_BACKOFF_FACTOR);
+		scheduled.add(probe);
+	}
+
+	/**
+	 * Closes every connection and completes every pending wait with false.
+	 */
+	private void close() {
+		try {
+			for (SelectionKey key : selector.keys()) {
+				Attempt attempt = (Attempt) key.attachment();
+				closeQuietly(attempt.channel);
+				attempt.probe.result.set(false);
+			}
+			selector.close();
+		}
+		catch (IOException ioe) {
+			LOGGER.debug("Unable to close selector: " + ioe.getMessage());
+		}
+		catch (ClosedSelectorException cse) {
+			// already closed
+		}
+		for (Probe probe : scheduled) {
+			probe.result.set(false);
+		}
+		scheduled.clear();
+		for (Probe probe = submitted.poll(); probe != null; probe = submitted.poll()) {
+			probe.result.set(false);
+		}
+		for (Attempt attempt = failedHandshakes.poll(); attempt != null; attempt = failedHandshakes.poll()) {
+			attempt.probe.result.set(false);
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		}
+		catch (IOException ioe) {
+			// nothing to do, the attempt outcome is already known
+		}
+	}
+
+	/**
+	 * A wait for any of the targets to be ready.  Only accessed by the selector thread, except for its result.
+	 */
+	private class Probe {
+
+		private final List<HostAndPort> targets;
+
+		private final ReadinessProbe readinessProbe;
+
+		private final long deadline;
+
+		private final SettableFuture<Boolean> result = SettableFuture.create();
+
+		private long interval = probeInterval;
+
+		private long nextAttempt;
+
+		private int pending;
+
+		Probe(List<HostAndPort> targets, ReadinessProbe readinessProbe, long deadline) {
+			this.targets = targets;
+			this.readinessProbe = readinessProbe;
+			this.deadline = deadline;
+		}
+	}
+
+	/**
+	 * A connection attempt to one target of a probe.
+	 */
+	private static class Attempt {
+
+		private final Probe probe;
+
+		private final HostAndPort target;
+
+		private final SocketChannel channel;
+
+		private final long connectDeadline;
+
+		Attempt(Probe probe, HostAndPort target, SocketChannel channel, long connectDeadline) {
+			this.probe = probe;
+			this.target = target;
+			this.channel = channel;
+			this.connectDeadline = connectDeadline;
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import com.google.common.net.HostAndPort;
+
+/**
+ * Decides if the service behind an open port can be used.  A port may accept connections before the
+ * service is able to serve requests, so a probe exchanges a minimal request with the service.
+ * @see ReadinessProbes
+ */
+public interface ReadinessProbe {
+
+	/**
+	 * Exchanges a request with the service on a connected socket.  The socket is closed by the caller.
+	 * @param socket The socket connected to the service, with a read timeout set.
+	 * @param target The host and port the socket is connected to.
+	 * @return true if the service is ready to be used.
+	 * @throws IOException if the exchange failed, the service is then considered not ready.
+	 */
+	public boolean isReady(Socket socket, HostAndPort target) throws IOException;
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+import org.springframework.util.Assert;
+
+import com.google.common.net.HostAndPort;
+
+/**
+ * The readiness probes of the services XD depends on.  Every probe uses a plain socket and sends the
+ * smallest request its service answers only once it is able to serve clients.
+ */
+public final class ReadinessProbes {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * Ready as soon as the port accepts connections.
+	 */
+	public static final ReadinessProbe TCP = new ReadinessProbe() {
+
+		@Override
+		public boolean isReady(Socket socket, HostAndPort target) {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "tcp";
+		}
+	};
+
+	/**
+	 * Sends a PING, ready if redis answers PONG, or asks for authentication.  A redis that is still
+	 * loading its data set answers with an error.
+	 */
+	public static final ReadinessProbe REDIS = new ReadinessProbe() {
+
+		@Override
+		public boolean isReady(Socket socket, HostAndPort target) throws IOException {
+			write(socket, "*1\r\n$4\r\nPING\r\n".getBytes(ASCII));
+			String reply = readLine(socket);
+			return reply != null && (reply.startsWith("+PONG") || reply.startsWith("-NOAUTH"));
+		}
+
+		@Override
+		public String toString() {
+			return "redis";
+		}
+	};
+
+	/**
+	 * Sends the AMQP 0-9-1 protocol header, ready if the broker answers with the Connection.Start method.
+	 */
+	public static final ReadinessProbe AMQP = new ReadinessProbe() {
+
+		@Override
+		public boolean isReady(Socket socket, HostAndPort target) throws IOException {
+			write(socket, new byte[] { 'A', 'M', 'Q', 'P', 0, 0, 9, 1 });
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			int frameType = in.readUnsignedByte();
+			int channel = in.readUnsignedShort();
+			in.readInt(); // frame size
+			int classId = in.readUnsignedShort();
+			int methodId = in.readUnsignedShort();
+			return frameType == 1 && channel == 0 && classId == 10 && methodId == 10;
+		}
+
+		@Override
+		public String toString() {
+			return "amqp";
+		}
+	};
+
+	/**
+	 * Sends the ruok command, ready if zookeeper answers imok.  A zookeeper that does not allow the
+	 * command answers that it is not in the whitelist, which also shows it is serving.
+	 */
+	public static final ReadinessProbe ZOOKEEPER = new ReadinessProbe() {
+
+		@Override
+		public boolean isReady(Socket socket, HostAndPort target) throws IOException {
+			write(socket, "ruok".getBytes(ASCII));
+			String reply = readLine(socket);
+			return reply != null && (reply.startsWith("imok") || reply.contains("whitelist"));
+		}
+
+		@Override
+		public String toString() {
+			return "zookeeper";
+		}
+	};
+
+	/**
+	 * Sends a metadata request for all topics, ready if the broker answers with at least one broker,
+	 * i.e. once it registered itself.
+	 */
+	public static final ReadinessProbe KAFKA = new ReadinessProbe() {
+
+		private static final int CORRELATION_ID = 0x58440001;
+
+		@Override
+		public boolean isReady(Socket socket, HostAndPort target) throws IOException {
+			byte[] clientId = "xd-ec2".getBytes(ASCII);
+			ByteArrayOutputStream request = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(request);
+			out.writeShort(3); // metadata api key
+			out.writeShort(0); // api version
+			out.writeInt(CORRELATION_ID);
+			out.writeShort(clientId.length);
+			out.write(clientId);
+			out.writeInt(0); // no topic, all topics
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			DataOutputStream frameOut = new DataOutputStream(frame);
+			frameOut.writeInt(request.size());
+			request.writeTo(frameOut);
+			write(socket, frame.toByteArray());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			in.readInt(); // response size
+			int correlationId = in.readInt();
+			int brokers = in.readInt();
+			return correlationId == CORRELATION_ID && brokers > 0;
+		}
+
+		@Override
+		public String toString() {
+			return "kafka";
+		}
+	};
+
+	private ReadinessProbes() {
+	}
+
+	/**
+	 * Creates a probe that sends an HTTP GET, ready if the server answers with a status below 500.
+	 * @param path The path to request.
+	 * @return the probe.
+	 */
+	public static ReadinessProbe http(final String path) {
+		Assert.isTrue(path != null && path.startsWith("/"), "path must start with /");
+		return new ReadinessProbe() {
+
+			@Override
+			public boolean isReady(Socket socket, HostAndPort target) throws IOException {
+				write(socket, ("GET " + path + " HTTP/1.0\r\nHost: " + target.getHostText() + "\r\n"
+						+ "Connection: close\r\n\r\n").getBytes(ASCII));
+				String statusLine = readLine(socket);
+				if (statusLine == null || !statusLine.startsWith("HTTP/")) {
+					return false;
+				}
+				String[] tokens = statusLine.split(" ");
+				try {
+					return tokens.length > 1 && Integer.parseInt(tokens[1]) < 500;
+				}
+				catch (NumberFormatException nfe) {
+					return false;
+				}
+			}
+
+			@Override
+			public String toString() {
+				return "http " + path;
+			}
+		};
+	}
+
+	private static void write(Socket socket, byte[] request) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(request);
+		out.flush();
+	}
+
+	private static String readLine(Socket socket) throws IOException {
+		return new BufferedReader(new InputStreamReader(socket.getInputStream(), ASCII)).readLine();
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+/**
+ * The outcome of waiting for the resources of a node: for every resource whether it became ready,
+ * and how long it took.  The resources are awaited concurrently under one deadline, so the report
+ * shows which resource the node actually waited on.
+ */
+public class ResourceReadinessReport {
+
+	/**
+	 * The state of a resource in the report.
+	 */
+	public enum Status {
+		/**
+		 * The resource is still awaited.
+		 */
+		PENDING,
+		/**
+		 * The resource accepts connections.
+		 */
+		READY,
+		/**
+		 * The resource did not accept connections before the deadline.
+		 */
+		TIMED_OUT,
+		/**
+		 * The resource can not become ready, e.g. its address is invalid.
+		 */
+		FAILED,
+		/**
+		 * The wait was cancelled because another resource failed first.
+		 */
+		CANCELLED
+	}
+
+	private final String instanceId;
+
+	private final long startTime;
+
+	private final List<Resource> resources = new ArrayList<Resource>();
+
+	private String failure;
+
+	/**
+	 * Creates an empty report.  The time to ready of every resource is measured from the creation of the report.
+	 * @param instanceId The id of the instance whose resources are awaited.
+	 */
+	public ResourceReadinessReport(String instanceId) {
+		this.instanceId = instanceId;
+		this.startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Adds a pending resource to the report.
+	 * @param name The name of the resource.
+	 * @param addresses The addresses the resource is awaited on.
+	 * @return the resource.
+	 */
+	public synchronized Resource add(String name, String addresses) {
+		Assert.hasText(name, "name can not be empty nor null");
+		Resource resource = new Resource(name, addresses);
+		resources.add(resource);
+		return resource;
+	}
+
+	/**
+	 * Records a failure that is not specific to a resource, e.g. the instance was terminated.
+	 * @param failure The description of the failure.
+	 */
+	public synchronized void fail(String failure) {
+		if (this.failure == null) {
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * @return true if every resource is ready.
+	 */
+	public synchronized boolean isReady() {
+		if (failure != null) {
+			return false;
+		}
+		for (Resource resource : resources) {
+			if (resource.status != Status.READY) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the resources are all ready or one of them can no longer become ready.
+	 */
+	public synchronized boolean isComplete() {
+		if (failure != null) {
+			return true;
+		}
+		boolean pending = false;
+		for (Resource resource : resources) {
+			if (resource.status == Status.FAILED || resource.status == Status.TIMED_OUT) {
+				return true;
+			}
+			pending |= resource.status == Status.PENDING;
+		}
+		return !pending;
+	}
+
+	/**
+	 * @return true if a resource failed for another reason than the deadline.
+	 */
+	public synchronized boolean isHardFailure() {
+		if (failure != null) {
+			return true;
+		}
+		for (Resource resource : resources) {
+			if (resource.status == Status.FAILED) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the resources in the order they were added.
+	 */
+	public synchronized List<Resource> getResources() {
+		return Collections.unmodifiableList(new ArrayList<Resource>(resources));
+	}
+
+	/**
+	 * @return a single line describing every resource that is not ready.
+	 */
+	public synchronized String getFailureSummary() {
+		StringBuilder result = new StringBuilder(failure == null ? "" : failure);
+		for (Resource resource : resources) {
+			if (resource.status == Status.READY || resource.status == Status.CANCELLED) {
+				continue;
+			}
+			if (result.length() > 0) {
+				result.append("; ");
+			}
+			result.append(resource.name + " " + resource.status + " at " + resource.addresses
+					+ (resource.detail == null ? "" : " (" + resource.detail + ")"));
+		}
+		return result.toString();
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder result = new StringBuilder(String.format("Resource readiness of %s:%n", instanceId));
+		for (Resource resource : resources) {
+			result.append(String.format("  %-16s %-40s %s%n", resource.name, resource.addresses, resource.describe()));
+		}
+		if (failure != null) {
+			result.append(String.format("  %s%n", failure));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * A resource awaited by the node.
+	 */
+	public class Resource {
+
+		private final String name;
+
+		private final String addresses;
+
+		private Status status = Status.PENDING;
+
+		private long elapsedTime;
+
+		private String detail;
+
+		Resource(String name, String addresses) {
+			this.name = name;
+			this.addresses = addresses;
+		}
+
+		/**
+		 * Completes the wait on the resource, unless it already completed.
+		 * @param status The outcome of the wait.
+		 * @param detail The reason of a failure, may be null.
+		 */
+		public void complete(Status status, String detail) {
+			Assert.isTrue(status != Status.PENDING, "status can not be PENDING");
+			synchronized (ResourceReadinessReport.this) {
+				if (this.status != Status.PENDING) {
+					return;
+				}
+				this.status = status;
+				this.detail = detail;
+				this.elapsedTime = System.currentTimeMillis() - startTime;
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getAddresses() {
+			return addresses;
+		}
+
+		public Status getStatus() {
+			synchronized (ResourceReadinessReport.this) {
+				return status;
+			}
+		}
+
+		/**
+		 * @return the time in millis from the start of the wait to the outcome, 0 while pending.
+		 */
+		public long getElapsedTime() {
+			synchronized (ResourceReadinessReport.this) {
+				return elapsedTime;
+			}
+		}
+
+		private String describe() {
+			switch (status) {
+			case READY:
+				return "ready in " + elapsedTime + " ms";
+			case PENDING:
+				return "pending";
+			default:
+				return status + " after " + elapsedTime + " ms" + (detail == null ? "" : ": " + detail);
+			}
+		}
+	}
+}
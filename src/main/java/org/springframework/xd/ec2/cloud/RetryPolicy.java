@@ -0,0 +1,373 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Decides how the step of a deployment phase is retried: the max number of attempts, the backoff between
+ * attempts and the total time budget of the phase.  The backoff doubles after every failed attempt up to
+ * its max, less a random part of up to jitter times its value, so the instances of a large deployment do
+ * not retry in lockstep.  No attempt starts once the budget is spent.  Only the step of the phase is
+ * retried, so every step run through a policy must be safe to run again.
+ * <p>
+ * Each {@link Phase} is configured with retry.&lt;phase&gt;.attempts, .backoff, .max.backoff, .jitter,
+ * .timeout and .budget, in millis.  The timeout is the time a single attempt of a phase that waits for
+ * something, such as a port, may take.
+ */
+public class RetryPolicy {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RetryPolicy.class);
+
+	private static final Random RANDOM = new Random();
+
+	/**
+	 * The phases of a deployment that are retried separately.
+	 */
+	public enum Phase {
+		PROVISION("3", "5000", "60000", "180000", "600000"),
+		SSH("3", "2000", "20000", "300000", "900000"),
+		COPY("3", "1000", "10000", "0", "300000"),
+		SCRIPT("3", "1000", "10000", "0", "300000"),
+		RESOURCE("1", "5000", "30000", "180000", "600000"),
+		SERVER("3", "0", "0", "300000", "900000");
+
+		private final String attempts;
+
+		private final String backoff;
+
+		private final String maxBackoff;
+
+		private final String timeout;
+
+		private final String budget;
+
+		private Phase(String attempts, String backoff, String maxBackoff, String timeout, String budget) {
+			this.attempts = attempts;
+			this.backoff = backoff;
+			this.maxBackoff = maxBackoff;
+			this.timeout = timeout;
+			this.budget = budget;
+		}
+
+		/**
+		 * @return the name of the phase in the retry properties.
+		 */
+		public String getKey() {
+			return name().toLowerCase();
+		}
+	}
+
+	/**
+	 * One attempt of a step that completes asynchronously.
+	 */
+	public interface Attempt<T> {
+
+		/**
+		 * Starts the attempt.
+		 * @param timeout The time in millis the attempt may take, within the budget of the phase.
+		 * @return a future of the outcome of the attempt.
+		 */
+		ListenableFuture<T> start(long timeout);
+	}
+
+	private final String name;
+
+	private final int maxAttempts;
+
+	private final long backoff;
+
+	private final long maxBackoff;
+
+	private final double jitter;
+
+	private final long timeout;
+
+	private final long budget;
+
+	/**
+	 * Creates a policy.
+	 * @param name The name the policy logs its retries with.
+	 * @param maxAttempts The max number of attempts, at least 1.
+	 * @param backoff The time in millis before the first retry.
+	 * @param maxBackoff The upper bound in millis of the backoff.
+	 * @param jitter The part of the backoff, between 0 and 1, that is randomly removed.
+	 * @param timeout The time in millis a single attempt may take, 0 if the attempts do not wait.
+	 * @param budget The time in millis after which no attempt starts.
+	 */
+	public RetryPolicy(String name, int maxAttempts, long backoff, long maxBackoff, double jitter, long timeout,
+			long budget) {
+		Assert.hasText(name, "name can not be empty nor null");
+		Assert.isTrue(maxAttempts > 0, "maxAttempts must be greater than 0");
+		Assert.isTrue(backoff >= 0 && maxBackoff >= backoff, "backoff must be between 0 and maxBackoff");
+		Assert.isTrue(jitter >= 0 && jitter <= 1, "jitter must be between 0 and 1");
+		Assert.isTrue(budget > 0, "budget must be greater than 0");
+		this.name = name;
+		this.maxAttempts = maxAttempts;
+		this.backoff = backoff;
+		this.maxBackoff = maxBackoff;
+		this.jitter = jitter;
+		this.timeout = timeout;
+		this.budget = budget;
+	}
+
+	/**
+	 * Creates the policy of a phase from the retry.&lt;phase&gt; properties.
+	 * @param phase The phase of the deployment.
+	 * @param properties The deployment properties.
+	 * @return the policy of the phase.
+	 */
+	public static RetryPolicy forPhase(Phase phase, Properties properties) {
+		Assert.notNull(phase, "phase can not be null");
+		Assert.notNull(properties, "properties can not be null");
+		String prefix = "retry." + phase.getKey() + ".";
+		return new RetryPolicy(phase.getKey(),
+				Integer.parseInt(properties.getProperty(prefix + "attempts", phase.attempts)),
+				Long.valueOf(properties.getProperty(prefix + "backoff", phase.backoff)),
+				Long.valueOf(properties.getProperty(prefix + "max.backoff", phase.maxBackoff)),
+				Double.parseDouble(properties.getProperty(prefix + "jitter", "0.5")),
+				Long.valueOf(properties.getProperty(prefix + "timeout", phase.timeout)),
+				Long.valueOf(properties.getProperty(prefix + "budget", phase.budget)));
+	}
+
+	/**
+	 * Creates a copy of this policy with another max number of attempts.
+	 * @param attempts The max number of attempts.
+	 * @return the new policy.
+	 */
+	public RetryPolicy withMaxAttempts(int attempts) {
+		return new RetryPolicy(name, attempts, backoff, maxBackoff, jitter, timeout, budget);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Computes the time to wait before a retry.
+	 * @param failedAttempts The number of attempts that failed so far, at least 1.
+	 * @return the backoff in millis, with jitter.
+	 */
+	public long getBackoff(int failedAttempts) {
+		long delay = backoff;
+		for (int i = 1; i < failedAttempts && delay < maxBackoff; i++) {
+			delay *= 2;
+		}
+		delay = Math.min(delay, maxBackoff);
+		return delay - (long) (delay * jitter * RANDOM.nextDouble());
+	}
+
+	/**
+	 * Runs a step until it succeeds, retrying it on any exception but an IllegalArgumentException.
+	 * @param step The step to run.
+	 * @return the result of the step.
+	 * @see #execute(Callable, Predicate)
+	 */
+	public <T> T execute(Callable<T> step) {
+		return execute(step, Predicates.not(Predicates.instanceOf(IllegalArgumentException.class)));
+	}
+
+	/**
+	 * Runs a step until it succeeds, the attempts are exhausted, the budget is spent or it fails with an
+	 * exception that is not retryable.  The calling thread sleeps during the backoff.
+	 * @param step The step to run.
+	 * @param retryable Decides if an exception of the step is worth another attempt.
+	 * @return the result of the step.
+	 * @throws RuntimeException the last exception of the step if it did not succeed.
+	 */
+	public <T> T execute(Callable<T> step, Predicate<? super RuntimeException> retryable) {
+		Assert.notNull(step, "step can not be null");
+		Assert.notNull(retryable, "retryable can not be null");
+		long start = System.currentTimeMillis();
+		for (int attempt = 1;; attempt++) {
+			try {
+				return step.call();
+			}
+			catch (RuntimeException re) {
+				long delay = getBackoff(attempt);
+				if (!retryable.apply(re) || !canRetry(attempt, start, delay)) {
+					throw re;
+				}
+				LOGGER.warn(String.format("%s attempt %d of %d failed, retrying in %d ms: %s", name, attempt,
+						maxAttempts, delay, re.getMessage()));
+				sleep(delay);
+			}
+			catch (Exception e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Runs a step that completes asynchronously until its outcome is accepted, the attempts are exhausted
+	 * or the budget is spent.  A failed attempt is retried too.  No thread is held during the backoff.
+	 * @param attempt Starts an attempt of the step.
+	 * @param accepted Decides if the outcome of an attempt is final, e.g. true for a port that opened.
+	 * @param scheduler Times the backoff.  It only hands the retries to the executor, so it never blocks.
+	 * @param executor Starts the retries, which may block, e.g. on a command sent over ssh.
+	 * @return a future of the outcome of the last attempt.
+	 */
+	public <T> ListenableFuture<T> executeAsync(Attempt<T> attempt, Predicate<? super T> accepted,
+			ScheduledExecutorService scheduler, Executor executor) {
+		Assert.notNull(attempt, "attempt can not be null");
+		Assert.notNull(accepted, "accepted can not be null");
+		Assert.notNull(scheduler, "scheduler can not be null");
+		Assert.notNull(executor, "executor can not be null");
+		SettableFuture<T> result = SettableFuture.create();
+		startAttempt(attempt, accepted, scheduler, executor, result, 1, System.currentTimeMillis());
+		return result;
+	}
+
+	/**
+	 * Runs a blocking step until it succeeds, the attempts are exhausted or the budget is spent.  Every
+	 * attempt runs on the executor, so neither the caller nor a thread during the backoff is held.
+	 * @param step The step to run, e.g. a copy over ssh.
+	 * @param scheduler Times the backoff.
+	 * @param executor Runs the attempts.
+	 * @return a future of the result of the step, or of the failure of its last attempt.
+	 * @see #executeAsync(Attempt, Predicate, ScheduledExecutorService, Executor)
+	 */
+	public <T> ListenableFuture<T> executeAsync(final Callable<T> step, ScheduledExecutorService scheduler,
+			final Executor executor) {
+		Assert.notNull(step, "step can not be null");
+		return executeAsync(new Attempt<T>() {
+
+			@Override
+			public ListenableFuture<T> start(long timeout) {
+				ListenableFutureTask<T> task = ListenableFutureTask.create(step);
+				executor.execute(task);
+				return task;
+			}
+		}, Predicates.alwaysTrue(), scheduler, executor);
+	}
+
+	private <T> void startAttempt(final Attempt<T> attempt, final Predicate<? super T> accepted,
+			final ScheduledExecutorService scheduler, final Executor executor, final SettableFuture<T> result,
+			final int number, final long start) {
+		ListenableFuture<T> outcome;
+		try {
+			outcome = attempt.start(timeout > 0 ? Math.max(1, Math.min(timeout,
+					budget - (System.currentTimeMillis() - start))) : timeout);
+		}
+		catch (RuntimeException re) {
+			outcome = Futures.immediateFailedFuture(re);
+		}
+		Futures.addCallback(outcome, new FutureCallback<T>() {
+
+			@Override
+			public void onSuccess(T value) {
+				if (accepted.apply(value) || !retry("did not succeed")) {
+					result.set(value);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				if (!retry(failure.getMessage())) {
+					result.setException(failure);
+				}
+			}
+
+			/**
+			 * Schedules the next attempt.
+			 * @return false if the attempt is not retried and the result is still to be set.
+			 */
+			private boolean retry(String reason) {
+				long delay = getBackoff(number);
+				if (result.isCancelled() || !canRetry(number, start, delay)) {
+					return false;
+				}
+				LOGGER.warn(String.format("%s attempt %d of %d %s, retrying in %d ms", name, number, maxAttempts,
+						reason, delay));
+				try {
+					scheduler.schedule(new Runnable() {
+
+						@Override
+						public void run() {
+							try {
+								executor.execute(new Runnable() {
+
+									@Override
+									public void run() {
+										startAttempt(attempt, accepted, scheduler, executor, result, number + 1,
+												start);
+									}
+								});
+							}
+							catch (RuntimeException re) {
+								result.setException(re);
+							}
+						}
+					}, delay, TimeUnit.MILLISECONDS);
+				}
+				catch (RejectedExecutionException ree) {
+					// the scheduler was shut down, e.g. once the deployment released its resources
+					result.setException(ree);
+				}
+				return true;
+			}
+		});
+	}
+
+	private boolean canRetry(int attempts, long start, long delay) {
+		return attempts < maxAttempts && System.currentTimeMillis() - start + delay < budget;
+	}
+
+	private static void sleep(long delay) {
+		try {
+			Thread.sleep(delay);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d attempts, backoff %d to %d ms, jitter %.2f, timeout %d ms, budget %d ms", name,
+				maxAttempts, backoff, maxBackoff, jitter, timeout, budget);
+	}
+
+}
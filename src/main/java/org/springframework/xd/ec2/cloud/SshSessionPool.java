@@ -0,0 +1,226 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2.cloud;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jclouds.compute.domain.ExecResponse;
+import org.jclouds.domain.LoginCredentials;
+import org.jclouds.http.handlers.BackoffLimitedRetryHandler;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
+import org.jclouds.ssh.SshClient;
+import org.jclouds.sshj.SshjSshClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+import com.google.common.net.HostAndPort;
+
+/**
+ * Keeps one live SSH connection per host.  File copies and command executions on a host are opened
+ * as channels of the same connection, so each host is authenticated once and retries reuse the
+ * session.  A connection that fails is dropped and re-established by the next call.
+ */
+public class SshSessionPool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SshSessionPool.class);
+
+	private final LoginCredentials credentials;
+
+	private final int connectTimeout;
+
+	private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+	/**
+	 * Creates a pool.
+	 * @param credentials The user and private key used for every host.
+	 * @param connectTimeout The max time in millis to establish a connection.
+	 */
+	public SshSessionPool(LoginCredentials credentials, int connectTimeout) {
+		Assert.notNull(credentials, "credentials can not be null");
+		this.credentials = credentials;
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Creates a payload that copies the text as a UTF-8 file.
+	 * @param content The content of the file.
+	 * @return The payload, with its length set as required by the copy.
+	 */
+	public static Payload stringPayload(String content) {
+		Assert.notNull(content, "content can not be null");
+		byte[] bytes = content.getBytes(Charsets.UTF_8);
+		Payload payload = Payloads.newByteSourcePayload(ByteSource.wrap(bytes));
+		payload.getContentMetadata().setContentLength((long) bytes.length);
+		return payload;
+	}
+
+	/**
+	 * Creates a payload that copies a local file.
+	 * @param file The local file.
+	 * @return The payload, with its length set as required by the copy.
+	 */
+	public static Payload filePayload(File file) {
+		Assert.notNull(file, "file can not be null");
+		Payload payload = Payloads.newByteSourcePayload(Files.asByteSource(file));
+		payload.getContentMetadata().setContentLength(file.length());
+		return payload;
+	}
+
+	/**
+	 * Copies the payload to the host.
+	 * @param host The host to copy the payload to.
+	 * @param path The remote path of the file.
+	 * @param payload The content of the file.
+	 */
+	public void put(String host, String path, Payload payload) {
+		Assert.hasText(path, "path can not be empty nor null");
+		Assert.notNull(payload, "payload can not be null");
+		Session session = acquire(host);
+		try {
+			synchronized (session) {
+				session.client.put(path, payload);
+			}
+		}
+		catch (RuntimeException re) {
+			evict(host, session);
+			throw re;
+		}
+	}
+
+	/**
+	 * Executes the command on the host and waits for it to complete.
+	 * @param host The host to execute the command on.
+	 * @param command The command to execute.
+	 * @return The output and exit status of the command.
+	 */
+	public ExecResponse exec(String host, String command) {
+		Assert.hasText(command, "command can not be empty nor null");
+		Session session = acquire(host);
+		try {
+			synchronized (session) {
+				return session.client.exec(command);
+			}
+		}
+		catch (RuntimeException re) {
+			evict(host, session);
+			throw re;
+		}
+	}
+
+	/**
+	 * Closes the connection to a host that is no longer used.
+	 * @param host The host to disconnect from.
+	 */
+	public void release(String host) {
+		Session session = sessions.remove(host);
+		if (session != null) {
+			disconnect(session);
+		}
+	}
+
+	/**
+	 * Closes all connections.
+	 */
+	public void shutdown() {
+		List<String> hosts = new ArrayList<String>(sessions.keySet());
+		for (String host : hosts) {
+			release(host);
+		}
+	}
+
+	/**
+	 * Creates an unconnected client for the host.
+	 * @param host The host and ssh port to connect to.
+	 * @param loginCredentials The user and private key.
+	 * @param timeout The max time in millis to establish a connection.
+	 * @return The client.
+	 */
+	protected SshClient createClient(HostAndPort host, LoginCredentials loginCredentials, int timeout) {
+		return new SshjSshClient(new BackoffLimitedRetryHandler(), host, loginCredentials, timeout);
+	}
+
+	/**
+	 * Retrieves the session of a host, connecting it if needed.  Hosts connect independently of each other.
+	 * @param host The host to connect to.
+	 * @return The connected session.
+	 */
+	private Session acquire(String host) {
+		Assert.hasText(host, "host can not be empty nor null");
+		Session session = sessions.get(host);
+		if (session == null) {
+			Session created = new Session(createClient(HostAndPort.fromParts(host, 22), credentials,
+					connectTimeout));
+			session = sessions.putIfAbsent(host, created);
+			if (session == null) {
+				session = created;
+			}
+		}
+		try {
+			synchronized (session) {
+				if (!session.connected) {
+					session.client.connect();
+					session.connected = true;
+				}
+			}
+		}
+		catch (RuntimeException re) {
+			evict(host, session);
+			throw re;
+		}
+		return session;
+	}
+
+	private void evict(String host, Session session) {
+		if (sessions.remove(host, session)) {
+			LOGGER.debug("Dropping ssh session to " + host);
+		}
+		disconnect(session);
+	}
+
+	private void disconnect(Session session) {
+		try {
+			session.client.disconnect();
+		}
+		catch (RuntimeException re) {
+			LOGGER.debug("Unable to close ssh session: " + re.getMessage());
+		}
+	}
+
+	/**
+	 * The client of a host and whether it is connected.
+	 */
+	private static class Session {
+
+		private final SshClient client;
+
+		private boolean connected;
+
+		Session(SshClient client) {
+			this.client = client;
+		}
+	}
+
+}
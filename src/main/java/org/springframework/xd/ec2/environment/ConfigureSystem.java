@@ -52,6 +52,7 @@ public class ConfigureSystem {
 		    out.close();
 		} catch (IOException e) {
 		   e.printStackTrace();
+		   System.exit(1);
 		}
 		System.out.println("Complete");
 
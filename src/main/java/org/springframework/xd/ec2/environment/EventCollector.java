@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.environment;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Collects the events reported by the node agents of a cluster.  It runs on the admin.  The agents
+ * POST their events to /events, and the deployer reads them with GET /events?from=n, a request that
+ * is held until an event after the first n events is available, so each event reaches the deployer
+ * as soon as it is reported.
+ */
+public class EventCollector {
+
+	private static final long MAX_WAIT_TIME = 30000;
+
+	private final List<String> events = new ArrayList<String>();
+
+	private final HttpServer server;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	/**
+	 * Creates a collector.
+	 * @param port The port the collector listens on, 0 to use any free port.
+	 * @throws IOException if the port can not be bound.
+	 */
+	public EventCollector(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/events", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					if ("POST".equals(exchange.getRequestMethod())) {
+						receive(exchange);
+					}
+					else {
+						send(exchange);
+					}
+				}
+				catch (IllegalArgumentException iae) {
+					respond(exchange, 400, iae.getMessage());
+				}
+				finally {
+					exchange.close();
+				}
+			}
+		});
+		server.setExecutor(executor);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = 8097;
+		for (String arg : args) {
+			if (arg.startsWith("--port=")) {
+				port = Integer.parseInt(arg.substring("--port=".length()));
+			}
+		}
+		new EventCollector(port).start();
+		System.out.println("Collecting node events on port " + port);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Retrieves the events reported after the first events, waiting for one if there is none yet.
+	 * @param from The number of events already read.
+	 * @param waitTime The max time in millis to wait for an event.
+	 * @return the events, empty if none was reported before the wait time expired.
+	 */
+	synchronized List<String> getEvents(int from, long waitTime) {
+		long deadline = System.currentTimeMillis() + waitTime;
+		long remaining = waitTime;
+		while (events.size() <= from && remaining > 0) {
+			try {
+				wait(remaining);
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return events.size() <= from ? new ArrayList<String>() : new ArrayList<String>(events.subList(
+				Math.max(from, 0), events.size()));
+	}
+
+	synchronized void add(NodeEvent event) {
+		System.out.println(event);
+		events.add(event.toLine());
+		notifyAll();
+	}
+
+	private void receive(HttpExchange exchange) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.trim().length() > 0) {
+				add(NodeEvent.fromLine(line));
+			}
+		}
+		respond(exchange, 200, "");
+	}
+
+	private void send(HttpExchange exchange) throws IOException {
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+		try {
+			int from = query.containsKey("from") ? Integer.parseInt(query.get("from")) : 0;
+			long waitTime = query.containsKey("wait") ? Math.min(Long.parseLong(query.get("wait")),
+					MAX_WAIT_TIME) : 0;
+			StringBuilder body = new StringBuilder();
+			for (String event : getEvents(from, waitTime)) {
+				body.append(event).append('\n');
+			}
+			respond(exchange, 200, body.toString());
+		}
+		catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Invalid query: " + exchange.getRequestURI().getRawQuery());
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] content = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, content.length == 0 ? -1 : content.length);
+		if (content.length > 0) {
+			OutputStream out = exchange.getResponseBody();
+			out.write(content);
+			out.close();
+		}
+	}
+
+	private Map<String, String> parseQuery(String query) {
+		Map<String, String> result = new HashMap<String, String>();
+		if (query == null) {
+			return result;
+		}
+		for (String parameter : query.split("&")) {
+			int separator = parameter.indexOf('=');
+			if (separator > 0) {
+				result.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+			}
+		}
+		return result;
+	}
+}
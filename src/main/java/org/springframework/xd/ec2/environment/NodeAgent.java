@@ -0,0 +1,249 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.environment;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.LinkedList;
+
+/**
+ * Watches XD start on a node and pushes the outcome to the event collector on the admin.  The agent
+ * is started by the setup script right after XD.  It first reports whether the node was configured,
+ * with the output of the configurator, then reports READY once XD accepts connections, or FAILED as
+ * soon as the XD process exits or the wait time expires.
+ */
+public class NodeAgent {
+
+	private static final int MAX_DETAIL_LENGTH = 4096;
+
+	private static final int REPORT_ATTEMPTS = 5;
+
+	private static final long CHECK_INTERVAL = 1000;
+
+	private String node;
+
+	private int port;
+
+	private String pid;
+
+	private String collector;
+
+	private long waitTime = 300000;
+
+	private String home = "/home/ubuntu/";
+
+	public static void main(String[] args) {
+		NodeAgent agent = new NodeAgent();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0) {
+				continue;
+			}
+			agent.setArgument(arg.substring(2, separator), arg.substring(separator + 1));
+		}
+		System.exit(agent.run() ? 0 : 1);
+	}
+
+	/**
+	 * Reports the configuration of the node then waits for XD to start and reports the outcome.
+	 * @return true if XD started.
+	 */
+	public boolean run() {
+		if (node == null || collector == null || port <= 0) {
+			throw new IllegalArgumentException("--node, --collector and --port are required");
+		}
+		String output = read(new File(home, "config.txt"));
+		String error = read(new File(home, "configError.txt"));
+		if (!output.contains("Complete")) {
+			report(new NodeEvent(node, NodeEvent.Type.FAILED, "Configuration failed: " + output + error));
+			return false;
+		}
+		report(new NodeEvent(node, NodeEvent.Type.CONFIGURED, output + error));
+		long deadline = System.currentTimeMillis() + waitTime;
+		while (true) {
+			if (isOpen()) {
+				report(new NodeEvent(node, NodeEvent.Type.READY, ""));
+				return true;
+			}
+			if (pid != null && !new File("/proc/" + pid).exists()) {
+				report(new NodeEvent(node, NodeEvent.Type.FAILED, "XD exited before accepting connections on port "
+						+ port + ": " + tail(new File(home, "setup-xd.log"))));
+				return false;
+			}
+			if (System.currentTimeMillis() > deadline) {
+				report(new NodeEvent(node, NodeEvent.Type.FAILED, "XD did not accept connections on port " + port
+						+ " within " + waitTime + " millis: " + tail(new File(home, "setup-xd.log"))));
+				return false;
+			}
+			try {
+				Thread.sleep(CHECK_INTERVAL);
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Posts an event to the collector.  The post is attempted again if the collector is not available yet.
+	 * @param event The event to post.
+	 * @return true if the collector received the event.
+	 */
+	boolean report(NodeEvent event) {
+		System.out.println(event);
+		for (int attempt = 0; attempt < REPORT_ATTEMPTS; attempt++) {
+			try {
+				HttpURLConnection connection = (HttpURLConnection) new URL("http://" + collector + "/events")
+						.openConnection();
+				connection.setRequestMethod("POST");
+				connection.setDoOutput(true);
+				connection.setConnectTimeout(5000);
+				connection.setReadTimeout(5000);
+				OutputStream out = connection.getOutputStream();
+				out.write((event.toLine() + "\n").getBytes("UTF-8"));
+				out.close();
+				int status = connection.getResponseCode();
+				connection.disconnect();
+				if (status == HttpURLConnection.HTTP_OK) {
+					return true;
+				}
+				System.out.println("Collector rejected the event with status " + status);
+				return false;
+			}
+			catch (IOException ioe) {
+				System.out.println("Unable to report event: " + ioe.getMessage());
+			}
+			try {
+				Thread.sleep(2000);
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sets one of the arguments of the agent: node, port, pid, collector, timeout or home.
+	 * @param key The name of the argument.
+	 * @param value The value of the argument.
+	 */
+	public void setArgument(String key, String value) {
+		if (key.equals("node")) {
+			node = value;
+		}
+		else if (key.equals("port")) {
+			port = Integer.parseInt(value);
+		}
+		else if (key.equals("pid")) {
+			pid = value.length() == 0 ? null : value;
+		}
+		else if (key.equals("collector")) {
+			collector = value;
+		}
+		else if (key.equals("timeout")) {
+			waitTime = Long.parseLong(value);
+		}
+		else if (key.equals("home")) {
+			home = value;
+		}
+	}
+
+	private boolean isOpen() {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress("localhost", port), 1000);
+			return true;
+		}
+		catch (IOException ioe) {
+			return false;
+		}
+		finally {
+			try {
+				socket.close();
+			}
+			catch (IOException ioe) {
+				// nothing to do, the check result is already known
+			}
+		}
+	}
+
+	/**
+	 * Reads a file, up to the max detail length.
+	 * @param file The file to read.
+	 * @return the content of the file, empty if it does not exist.
+	 */
+	private static String read(File file) {
+		StringBuilder result = new StringBuilder();
+		for (String line : readLines(file)) {
+			result.append(line).append('\n');
+		}
+		return truncate(result.toString());
+	}
+
+	/**
+	 * Reads the last lines of a file.
+	 * @param file The file to read.
+	 * @return the last lines, empty if the file does not exist.
+	 */
+	private static String tail(File file) {
+		LinkedList<String> lines = readLines(file);
+		StringBuilder result = new StringBuilder();
+		for (String line : lines.subList(Math.max(lines.size() - 20, 0), lines.size())) {
+			result.append(line).append('\n');
+		}
+		return truncate(result.toString());
+	}
+
+	private static LinkedList<String> readLines(File file) {
+		LinkedList<String> result = new LinkedList<String>();
+		if (!file.exists()) {
+			return result;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					result.add(line);
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (IOException ioe) {
+			result.add("Unable to read " + file + ": " + ioe.getMessage());
+		}
+		return result;
+	}
+
+	private static String truncate(String value) {
+		return value.length() > MAX_DETAIL_LENGTH ? value.substring(value.length() - MAX_DETAIL_LENGTH) : value;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.environment;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An event reported by the agent of a node about the configuration and the start of XD.  An event
+ * is written as a single line of url encoded fields, so it can be exchanged with nothing but the JDK
+ * on the node.
+ */
+public class NodeEvent {
+
+	/**
+	 * The kinds of event a node reports.
+	 */
+	public enum Type {
+		/**
+		 * The node was configured, XD is starting.
+		 */
+		CONFIGURED,
+		/**
+		 * XD accepts connections on the node.
+		 */
+		READY,
+		/**
+		 * The node could not be configured or XD did not start.
+		 */
+		FAILED
+	}
+
+	private static final String ENCODING = "UTF-8";
+
+	private final String node;
+
+	private final Type type;
+
+	private final String detail;
+
+	/**
+	 * Creates an event.
+	 * @param node The name of the node that reports the event.
+	 * @param type The kind of event.
+	 * @param detail The output that explains the event, may be empty.
+	 */
+	public NodeEvent(String node, Type type, String detail) {
+		if (node == null || node.length() == 0) {
+			throw new IllegalArgumentException("node can not be empty nor null");
+		}
+		if (type == null) {
+			throw new IllegalArgumentException("type can not be null");
+		}
+		this.node = node;
+		this.type = type;
+		this.detail = detail == null ? "" : detail;
+	}
+
+	/**
+	 * Reads an event written by {@link #toLine()}.
+	 * @param line The line to read.
+	 * @return the event.
+	 */
+	public static NodeEvent fromLine(String line) {
+		Map<String, String> fields = new HashMap<String, String>();
+		for (String field : line.trim().split("&")) {
+			int separator = field.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Invalid event field: " + field);
+			}
+			fields.put(field.substring(0, separator), decode(field.substring(separator + 1)));
+		}
+		if (!fields.containsKey("type")) {
+			throw new IllegalArgumentException("Event has no type: " + line);
+		}
+		return new NodeEvent(fields.get("node"), Type.valueOf(fields.get("type")), fields.get("detail"));
+	}
+
+	/**
+	 * Writes the event as a single line.
+	 * @return the line, without line separator.
+	 */
+	public String toLine() {
+		return "node=" + encode(node) + "&type=" + type.name() + "&detail=" + encode(detail);
+	}
+
+	/**
+	 * @return true if the event is the outcome of the start of XD, either READY or FAILED.
+	 */
+	public boolean isOutcome() {
+		return type != Type.CONFIGURED;
+	}
+
+	public String getNode() {
+		return node;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getDetail() {
+		return detail;
+	}
+
+	@Override
+	public String toString() {
+		return node + " " + type + (detail.length() == 0 ? "" : ": " + detail);
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, ENCODING);
+		}
+		catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee.getMessage(), uee);
+		}
+	}
+
+	private static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, ENCODING);
+		}
+		catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee.getMessage(), uee);
+		}
+	}
+}
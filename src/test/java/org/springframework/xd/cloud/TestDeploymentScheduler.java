@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class TestDeploymentScheduler {
+
+	private DeploymentScheduler scheduler;
+
+	private List<String> executed;
+
+	@Before
+	public void setUp() {
+		scheduler = new DeploymentScheduler(1);
+		executed = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdown();
+	}
+
+	/**
+	 * Verifies that a task only runs after its dependencies and can read their results.
+	 */
+	@Test
+	public void testDependencyResultsAreAvailable() {
+		final DeploymentTask<Integer> provision = task("provision", 20);
+		DeploymentTask<Integer> start = new SyncDeploymentTask<Integer>("start") {
+
+			@Override
+			protected Integer execute() {
+				executed.add(getName());
+				return provision.getResult() + 1;
+			}
+		};
+		start.dependsOn(provision);
+		scheduler.run(Collections.singleton(start), 5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("provision", "start"), executed);
+		assertEquals(Integer.valueOf(21), start.getResult());
+	}
+
+	/**
+	 * Verifies that, with a single thread, the ready task with the longest chain of dependents runs first.
+	 */
+	@Test
+	public void testCriticalPathRunsFirst() {
+		DeploymentTask<Integer> shortPath = task("short", 1);
+		DeploymentTask<Integer> longPath = task("long", 1);
+		DeploymentTask<Integer> longPathNext = task("long next", 1);
+		longPathNext.dependsOn(longPath);
+		scheduler.run(Arrays.asList(shortPath, longPathNext), 5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("long", "short", "long next"), executed);
+	}
+
+	/**
+	 * Verifies that the dependents of a failed task are skipped while independent tasks complete.
+	 */
+	@Test
+	public void testFailureSkipsDependents() {
+		DeploymentTask<Integer> failing = new SyncDeploymentTask<Integer>("failing") {
+
+			@Override
+			protected Integer execute() {
+				throw new ServerFailStartException("boom");
+			}
+		};
+		DeploymentTask<Integer> dependent = task("dependent", 1);
+		dependent.dependsOn(failing);
+		DeploymentTask<Integer> independent = task("independent", 1);
+		scheduler.run(Arrays.asList(dependent, independent), 5, TimeUnit.SECONDS);
+		assertFalse(failing.isSuccessful());
+		assertFalse(dependent.isSuccessful());
+		assertTrue(dependent.getFailure().getCause() instanceof ServerFailStartException);
+		assertTrue(independent.isSuccessful());
+		assertEquals(Arrays.asList("independent"), executed);
+	}
+
+	/**
+	 * Verifies that a dependency cycle is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testCycleIsRejected() {
+		DeploymentTask<Integer> first = task("first", 1);
+		DeploymentTask<Integer> second = task("second", 1);
+		first.dependsOn(second);
+		second.dependsOn(first);
+		scheduler.run(Collections.singleton(first), 5, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Verifies that the report names the slowest path.
+	 */
+	@Test
+	public void testCriticalPathReport() {
+		DeploymentTask<Integer> slow = task("slow", 50);
+		DeploymentTask<Integer> fast = task("fast", 1);
+		DeploymentTask<Integer> join = task("join", 1);
+		join.dependsOn(slow, fast);
+		scheduler.run(Collections.singleton(join), 5, TimeUnit.SECONDS);
+		String report = scheduler.getCriticalPathReport();
+		assertTrue(report, report.contains("slow"));
+		assertTrue(report, report.contains("join"));
+		assertFalse(report, report.contains("fast"));
+	}
+
+	/**
+	 * Verifies that a task waiting on a pending future does not hold a thread, so that with a single
+	 * thread the task that completes the future can still run.
+	 */
+	@Test
+	public void testPendingFutureReleasesThread() {
+		final SettableFuture<Integer> event = SettableFuture.create();
+		DeploymentTask<Integer> await = new DeploymentTask<Integer>("await") {
+
+			@Override
+			protected ListenableFuture<Integer> executeAsync() {
+				executed.add(getName());
+				return Futures.transform(event, new Function<Integer, Integer>() {
+
+					@Override
+					public Integer apply(Integer input) {
+						executed.add("continuation");
+						return input + 1;
+					}
+				}, getExecutor());
+			}
+		};
+		DeploymentTask<Integer> signal = new SyncDeploymentTask<Integer>("signal") {
+
+			@Override
+			protected Integer execute() {
+				executed.add(getName());
+				event.set(41);
+				return 0;
+			}
+		};
+		DeploymentTask<Integer> before = task("before", 1);
+		signal.dependsOn(before);
+		scheduler.run(Arrays.asList(await, signal), 5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("before", "await", "signal", "continuation"), executed);
+		assertEquals(Integer.valueOf(42), await.getResult());
+	}
+
+	private DeploymentTask<Integer> task(String name, final int sleep) {
+		return new SyncDeploymentTask<Integer>(name) {
+
+			@Override
+			protected Integer execute() throws InterruptedException {
+				Thread.sleep(sleep);
+				executed.add(getName());
+				return sleep;
+			}
+		};
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.xd.cloud.Deployment;
+import org.springframework.xd.cloud.DeploymentListener;
+import org.springframework.xd.cloud.DeploymentStatus;
+import org.springframework.xd.cloud.InstanceType;
+
+/**
+ * Verifies that each deployed server is written to the artifact file as soon as it is deployed.
+ */
+public class TestEc2Installer {
+
+	private File artifactFile;
+
+	private BufferedWriter artifacts;
+
+	private Properties properties;
+
+	@Before
+	public void setUp() throws Exception {
+		artifactFile = File.createTempFile("ec2servers", ".csv");
+		artifacts = new BufferedWriter(new FileWriter(artifactFile));
+		properties = new Properties();
+		properties.setProperty("server.port", "9393");
+		properties.setProperty("PORT", "9000");
+		properties.setProperty("management.port", "9394");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		artifacts.close();
+		artifactFile.delete();
+	}
+
+	@Test
+	public void testEachDeploymentIsFlushed() throws Exception {
+		DeploymentListener listener = new Ec2Installer().createArtifactListener(artifacts, properties);
+
+		listener.deploymentCompleted(new Deployment(address("xd-admin", 1), InstanceType.ADMIN,
+				DeploymentStatus.SUCCESS));
+		assertEquals(Arrays.asList("adminNode,xd-admin,9393,9000,9394"), readArtifacts());
+
+		listener.deploymentCompleted(new Deployment(address("xd-container", 2), InstanceType.NODE,
+				DeploymentStatus.SUCCESS));
+		assertEquals(Arrays.asList("adminNode,xd-admin,9393,9000,9394", "containerNode,xd-container,9393,9000,9394"),
+				readArtifacts());
+	}
+
+	@Test
+	public void testClusterUsableWritesNothing() throws Exception {
+		DeploymentListener listener = new Ec2Installer().createArtifactListener(artifacts, properties);
+		Deployment node = new Deployment(address("xd-single", 1), InstanceType.SINGLE_NODE,
+				DeploymentStatus.SUCCESS);
+		listener.deploymentCompleted(node);
+		listener.clusterUsable(Arrays.asList(node));
+		assertEquals(Arrays.asList("singleNode,xd-single,9393,9000,9394"), readArtifacts());
+	}
+
+	private static InetAddress address(String host, int last) throws Exception {
+		return InetAddress.getByAddress(host, new byte[] { 10, 0, 0, (byte) last });
+	}
+
+	@Test
+	public void testFailureWithoutHostIsWritten() throws Exception {
+		DeploymentListener listener = new Ec2Installer().createArtifactListener(artifacts, properties);
+		listener.deploymentCompleted(new Deployment(null, "i-1", InstanceType.NODE, DeploymentStatus.FAILURE));
+		listener.deploymentCompleted(new Deployment(null, null, InstanceType.NODE, DeploymentStatus.FAILURE));
+		assertEquals(Arrays.asList("containerNode,i-1,9393,9000,9394", "containerNode,unknown,9393,9000,9394"),
+				readArtifacts());
+	}
+
+	/**
+	 * Reads the artifact file while its writer is still open, as another process would.
+	 */
+	private List<String> readArtifacts() throws Exception {
+		return Files.readAllLines(artifactFile.toPath(), Charset.forName("UTF-8"));
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Measures the time and threads the {@link PortProber} takes to watch a large number of targets.
+ * Half of the targets are closed ports that time out, the other half is a port that only opens after
+ * a delay.  Run with the number of targets as the first argument, 2000 by default.
+ */
+public class PortProberBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int targets = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		long openDelay = 2000;
+		ServerSocket closed = new ServerSocket(0);
+		int closedPort = closed.getLocalPort();
+		closed.close();
+		ServerSocket reserved = new ServerSocket(0);
+		int openPort = reserved.getLocalPort();
+		reserved.close();
+
+		int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+		PortProber portProber = new PortProber(2, 250, 1000);
+		long start = System.currentTimeMillis();
+		List<ListenableFuture<Boolean>> open = new ArrayList<ListenableFuture<Boolean>>();
+		List<ListenableFuture<Boolean>> timedOut = new ArrayList<ListenableFuture<Boolean>>();
+		for (int i = 0; i < targets / 2; i++) {
+			open.add(portProber.whenOpen(HostAndPort.fromParts("127.0.0.1", openPort), 30000));
+			timedOut.add(portProber.whenOpen(HostAndPort.fromParts("127.0.0.1", closedPort), openDelay + 1000));
+		}
+		Thread.sleep(openDelay);
+		int peakThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+		ServerSocket server = new ServerSocket(openPort, targets);
+		try {
+			int opened = count(Futures.allAsList(open).get(60, TimeUnit.SECONDS), true);
+			long openElapsed = System.currentTimeMillis() - start;
+			int expired = count(Futures.allAsList(timedOut).get(60, TimeUnit.SECONDS), false);
+			long elapsed = System.currentTimeMillis() - start;
+			System.out.println(String.format("targets: %d, opened: %d in %dms (port opened after %dms), "
+					+ "timed out: %d in %dms, prober threads: %d", targets, opened, openElapsed, openDelay,
+					expired, elapsed, peakThreads - threadsBefore));
+		}
+		finally {
+			server.close();
+			portProber.shutdown();
+		}
+	}
+
+	private static int count(List<Boolean> results, boolean value) {
+		int count = 0;
+		for (Boolean result : results) {
+			if (result == value) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+}
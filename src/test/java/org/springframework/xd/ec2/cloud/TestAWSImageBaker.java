@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.aws.ec2.features.AWSAMIApi;
+import org.jclouds.ec2.domain.Image;
+import org.jclouds.ec2.options.DescribeImagesOptions;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Multimap;
+
+public class TestAWSImageBaker {
+
+	private AWSEC2Api client;
+
+	private AWSAMIApi amiApi;
+
+	private ConfiguratorDistributor distributor;
+
+	private Properties properties;
+
+	@Before
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void setUp() throws Exception {
+		File jar = File.createTempFile("deploy", ".jar");
+		jar.deleteOnExit();
+		FileWriter writer = new FileWriter(jar);
+		writer.write("hello");
+		writer.close();
+		distributor = new ConfiguratorDistributor(mock(SshSessionPool.class), jar, 8099, 60000);
+		client = mock(AWSEC2Api.class);
+		amiApi = mock(AWSAMIApi.class);
+		when(client.getAMIApiForRegion("us-east-1")).thenReturn((Optional) Optional.of(amiApi));
+		properties = new Properties();
+		properties.setProperty("region", "us-east-1");
+		properties.setProperty("ami", "ami-base");
+		properties.setProperty("xd.dist.url", "http://repo/spring-xd-1.0.0.RELEASE-dist.zip");
+	}
+
+	@Test
+	public void testFingerprintFollowsConfiguration() {
+		String fingerprint = createBaker().getFingerprint();
+		assertEquals(fingerprint, createBaker().getFingerprint());
+		properties.setProperty("xd.third.party.jar.urls", "http://repo/driver.jar");
+		String withJar = createBaker().getFingerprint();
+		assertFalse(fingerprint.equals(withJar));
+		properties.setProperty("ami", "ami-other");
+		assertFalse(withJar.equals(createBaker().getFingerprint()));
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void testFindLatestImage() {
+		Set images = new HashSet();
+		images.add(image("ami-old", "spring-xd-ec2-abc-20150101000000"));
+		images.add(image("ami-new", "spring-xd-ec2-abc-20150201000000"));
+		when(amiApi.describeImagesInRegionWithFilter(anyString(), any(Multimap.class),
+				any(DescribeImagesOptions.class))).thenReturn(images);
+		assertEquals("ami-new", createBaker().findImage());
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void testNoImageBaked() {
+		when(amiApi.describeImagesInRegionWithFilter(anyString(), any(Multimap.class),
+				any(DescribeImagesOptions.class))).thenReturn((Set) Collections.emptySet());
+		assertNull(createBaker().findImage());
+	}
+
+	private AWSImageBaker createBaker() {
+		return new AWSImageBaker(client, properties, new AWSInstanceConfigurer(properties), distributor);
+	}
+
+	private Image image(String id, String name) {
+		Image image = mock(Image.class);
+		when(image.getId()).thenReturn(id);
+		when(image.getName()).thenReturn(name);
+		return image;
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.net.ServerSocket;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.ec2.domain.InstanceState;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.jclouds.ec2.domain.RootDeviceType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestAWSInstanceChecker {
+
+	private PortProber portProber;
+
+	private ServerSocket redis;
+
+	private ServerSocket rabbit;
+
+	private Properties properties;
+
+	private AWSInstanceChecker checker;
+
+	private RunningInstance instance;
+
+	@Before
+	public void setUp() throws Exception {
+		portProber = new PortProber(2, 20, 200);
+		redis = new ServerSocket(0);
+		rabbit = new ServerSocket(0);
+		properties = new Properties();
+		properties.setProperty("protocol.probes", "false");
+		properties.setProperty("spring.redis.address", "127.0.0.1:" + redis.getLocalPort());
+		properties.setProperty("spring.rabbitmq.addresses", "127.0.0.1:" + rabbit.getLocalPort());
+		properties.setProperty("xd.messagebus.kafka.zkAddress", "127.0.0.1:" + redis.getLocalPort());
+		properties.setProperty("xd.messagebus.kafka.brokers", "127.0.0.1:" + rabbit.getLocalPort());
+		checker = new AWSInstanceChecker(properties, mock(InstanceStateTracker.class), portProber);
+		instance = RunningInstance.builder().region("us-east-1").instanceId("i-1")
+				.instanceState(InstanceState.RUNNING).rawState("running").imageId("ami-1").instanceType("m3.large")
+				.dnsName("ec2-host").rootDeviceType(RootDeviceType.EBS).build();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		portProber.shutdown();
+		redis.close();
+		rabbit.close();
+	}
+
+	@Test
+	public void testResourcesAreReady() throws Exception {
+		ResourceReadinessReport report = checker.awaitServerResources(instance, true).get(5, TimeUnit.SECONDS);
+		assertTrue(report.toString(), report.isReady());
+		assertEquals(4, report.getResources().size());
+		for (ResourceReadinessReport.Resource resource : report.getResources()) {
+			assertEquals(ResourceReadinessReport.Status.READY, resource.getStatus());
+		}
+	}
+
+	@Test
+	public void testInvalidAddressFailsWithoutWaiting() throws Exception {
+		int closedPort = closedPort();
+		properties.setProperty("spring.redis.address", "127.0.0.1:" + closedPort);
+		properties.setProperty("spring.rabbitmq.addresses", "127.0.0.1:" + closedPort);
+		properties.setProperty("spring.zookeeper.addresses", "zookeeper-without-port");
+		long start = System.currentTimeMillis();
+		ResourceReadinessReport report = checker.awaitServerResources(instance, false).get(5, TimeUnit.SECONDS);
+		assertTrue("The wait did not end at the first failure", System.currentTimeMillis() - start < 2000);
+		assertFalse(report.isReady());
+		assertTrue(report.isHardFailure());
+		assertEquals(ResourceReadinessReport.Status.CANCELLED, report.getResources().get(0).getStatus());
+		assertEquals(ResourceReadinessReport.Status.FAILED, report.getResources().get(2).getStatus());
+		assertTrue(report.getFailureSummary().contains("ZooKeeper FAILED"));
+	}
+
+	private static int closedPort() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		return port;
+	}
+}
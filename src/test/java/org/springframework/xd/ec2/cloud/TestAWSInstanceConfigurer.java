@@ -25,8 +25,12 @@ import org.springframework.beans.factory.config.PropertiesFactoryBean;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Properties;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -38,7 +42,12 @@ public class TestAWSInstanceConfigurer {
 
 	private static final String XD_HOME_VALUE = "export XD_HOME=\"/home/ubuntu/spring-xd-X.X.X.BUILD-SNAPSHOT\"";
 
-	private static final String WGET_COMMAND = "wget -P /home/ubuntu/ http://repo.springsource.org/libs-snapshot-local/org/springframework/xd/spring-xd/X.X.X.BUILD-SNAPSHOT/spring-xd-1.0.0.XXXX-20131024.235055-1.zip";
+	private static final String DIST_URL = "http://repo.springsource.org/libs-snapshot-local/org/springframework/xd/spring-xd/X.X.X.BUILD-SNAPSHOT/spring-xd-1.0.0.XXXX-20131024.235055-1.zip";
+
+	private static final String DIST_FILE = "/home/ubuntu/spring-xd-1.0.0.XXXX-20131024.235055-1.zip";
+
+	private static final String WGET_COMMAND = "wget -q -O " + DIST_FILE + ".part " + DIST_URL + " && mv " + DIST_FILE
+			+ ".part " + DIST_FILE;
 
 	private static final String REDIS_INIT_VALUE = "/etc/init.d/redis-server start";
 
@@ -128,5 +137,105 @@ public class TestAWSInstanceConfigurer {
 
 	}
 
+	/**
+	 * Verifies that the artifacts are fetched as bounded background jobs, verified, and that the script stops if one failed.
+	 */
+	@Test
+	public void testFetchArtifactsConcurrently() {
+		String result = configurer.createContainerNodeScript("MYHOST", "hadoop22", 1);
+		assertTrue("Was not able to find the fetch job limit", result.indexOf("-ge 4 ]; do wait -n; done") > -1);
+		assertTrue("Was not able to find the streaming extract", result.indexOf("| tee " + DIST_FILE
+				+ ".part | bsdtar -xf - -C /home/ubuntu/) && mv " + DIST_FILE + ".part " + DIST_FILE) > -1);
+		assertTrue("Was not able to find the integrity check", result.indexOf("unzip -tqq /home/ubuntu/spring-xd-1.0.0.XXXX-20131024.235055-1.zip") > -1);
+		assertTrue("Was not able to find the failure check", result.indexOf("if [ -e /home/ubuntu/artifact-fetch.failed ]") > -1);
+	}
+
+	/**
+	 * Verifies that the install and configure stages are skipped once done and that XD is restarted.
+	 */
+	@Test
+	public void testScriptStages() {
+		String result = configurer.createAdminNodeScript("MYHOST");
+		int install = result.indexOf("if [ ! -e /home/ubuntu/xd-install.done ]; then");
+		int configure = result.indexOf("if [ ! -e /home/ubuntu/xd-configure-");
+		int stop = result.indexOf("pkill -TERM -f '[A]dminServerApplication'");
+		int start = result.indexOf("xd-admin &");
+		assertTrue("Was not able to find the install stage", install > -1);
+		assertTrue("The distribution should be fetched in the install stage", result.indexOf(WGET_COMMAND) > install
+				&& result.indexOf("touch /home/ubuntu/xd-install.done") > result.indexOf(WGET_COMMAND));
+		assertTrue("Was not able to find the configure stage", configure > install);
+		assertTrue("XD should be stopped after the configure stage", stop > configure);
+		assertTrue("XD should be started once stopped", start > stop);
+		assertFalse("The configure stage should be keyed by the settings", getConfigureMarker(
+				configurer.createContainerNodeScript("MYHOST", "hadoop22", 1)).equals(getConfigureMarker(
+						configurer.createContainerNodeScript("MYHOST", "hadoop22", 12))));
+	}
+
+	private static String getConfigureMarker(String script) {
+		int start = script.indexOf("xd-configure-");
+		return script.substring(start, script.indexOf(".done", start));
+	}
+
+	/**
+	 * Verifies that the artifacts are installed by the bake script and not by the scripts of a baked instance.
+	 */
+	@Test
+	public void testBakedInstanceOnlyConfigures() {
+		assertTrue("Was not able to find wget command ", configurer.createBakeScript().indexOf(WGET_COMMAND) > -1);
+		configurer.setBaked(true);
+		String result = configurer.createContainerNodeScript("MYHOST", "hadoop22", 1);
+		assertTrue("The container script should not download XD", result.indexOf(WGET_COMMAND) == -1);
+		assertTrue("The container script should not unzip XD", result.indexOf(UNZIP_COMMAND) == -1);
+		assertTrue("Was not able to find the redis port configuration.", result.indexOf(REDIS_CONFIG) > -1);
+	}
+
+	/**
+	 * Verifies that containers download the artifacts from the admin cache before falling back to the origin url.
+	 */
+	@Test
+	public void testDeployContainerFromArtifactCache() throws IOException {
+		Properties properties = new Properties();
+		properties.putAll(myProperties.getObject());
+		properties.setProperty("artifact.cache", "true");
+		configurer = new AWSInstanceConfigurer(properties);
+		String result = configurer.createContainerNodeScript("MYHOST", "hadoop22", 1);
+		assertTrue("Was not able to find the cache download command", result.indexOf("(wget -q -O " + DIST_FILE
+				+ ".part http://MYHOST:8098/" + configurer.getCacheKey(DIST_URL) + "/" + new File(DIST_URL).getName()
+				+ " && mv " + DIST_FILE + ".part " + DIST_FILE + ") || (" + WGET_COMMAND + ")") > -1);
+		assertFalse("A download must not depend on the files left by a failed attempt", result.contains("wget -P"));
+		assertTrue("XD was not unzipped to the correct location ", result.indexOf(UNZIP_COMMAND) > -1);
+	}
+
+	/**
+	 * Verifies that the containers of a reservation select their script from their launch index at boot
+	 * and that containers with the same settings share a script.
+	 */
+	@Test
+	public void testContainerBootScript() {
+		String await = AWSInstanceConfigurer.getAwaitPortCommand("10.0.0.1", 9393);
+		String result = configurer.createContainerBootScript("10.0.0.1", "hadoop22", 4,
+				Collections.singletonList(await));
+		assertTrue("Was not able to find the await command", result.indexOf(await) > -1);
+		assertTrue("Was not able to find the script of container 0", result.indexOf("0) SETUP=setup-xd-0.sh ;;") > -1);
+		assertTrue("Was not able to find the script of container 1", result.indexOf("1) SETUP=setup-xd-1.sh ;;") > -1);
+		assertTrue("Containers 2 and 3 should share a script", result.indexOf("2|3) SETUP=setup-xd-2.sh ;;") > -1);
+		assertTrue("Was not able to find the XD_CONTAINER_GROUP=GROUP0.", result.indexOf("GROUP0") > -1);
+		assertTrue("Was not able to find the XD_CONTAINER_GROUP=AABBCCDDEE.", result.indexOf("AABBCCDDEE") > -1);
+		assertTrue("The script should run as the ubuntu user", result.indexOf("su - ubuntu -c") > -1);
+	}
+
+	/**
+	 * Verifies that the containers added to a running cluster are selected by their launch index while
+	 * their scripts are rendered for the index that follows the existing containers.
+	 */
+	@Test
+	public void testContainerBootScriptFromIndex() {
+		String result = configurer.createContainerBootScript("10.0.0.1", "hadoop22", 1, 2,
+				Collections.<String> emptyList());
+		assertTrue("Was not able to find the script of container 1", result.indexOf("0) SETUP=setup-xd-0.sh ;;") > -1);
+		assertTrue("Was not able to find the script of container 2", result.indexOf("1) SETUP=setup-xd-1.sh ;;") > -1);
+		assertTrue("Was not able to find the XD_CONTAINER_GROUP=AABBCCDDEE.", result.indexOf("AABBCCDDEE") > -1);
+		assertTrue("Container 0 should not be rendered", result.indexOf("GROUP0") == -1);
+	}
 
 }
@@ -4,6 +4,14 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestAWSInstanceProvisioner {
 
@@ -24,4 +32,16 @@ public class TestAWSInstanceProvisioner {
 
 	}
 
+	@Test
+	public void testCompressUserData() throws Exception {
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			script.append("export XD_CONTAINER_GROUPS=GROUP").append(i % 10).append("\n");
+		}
+		byte[] compressed = AWSInstanceProvisioner.compress(script.toString());
+		assertTrue("The script was not compressed", compressed.length < script.length());
+		GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed));
+		assertEquals(script.toString(), FileCopyUtils.copyToString(new InputStreamReader(gzip)));
+	}
+
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.aws.ec2.features.AWSInstanceApi;
+import org.jclouds.ec2.domain.InstanceState;
+import org.jclouds.ec2.domain.Reservation;
+import org.jclouds.ec2.domain.RootDeviceType;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Multimap;
+
+public class TestAWSTools {
+
+	private static final String REGION = "us-east-1";
+
+	private AWSEC2Api client;
+
+	private AWSInstanceApi instanceApi;
+
+	private Properties properties;
+
+	@Before
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void setUp() {
+		client = mock(AWSEC2Api.class);
+		instanceApi = mock(AWSInstanceApi.class);
+		when(client.getInstanceApi()).thenReturn((Optional) Optional.of(instanceApi));
+		properties = new Properties();
+		properties.setProperty("region", REGION);
+		properties.setProperty("shutdown.batch.size", "2");
+		properties.setProperty("shutdown.poll.interval", "10");
+		Multimap<String, String> filter = ImmutableMultimap.<String, String> builder().put("tag:Name", "xd")
+				.putAll("instance-state-name", "pending", "running", "stopping", "stopped").build();
+		when(instanceApi.describeInstancesInRegionWithFilter(REGION, filter)).thenReturn(
+				(Set) reservations(InstanceState.RUNNING, "i-1", "i-2", "i-3"));
+	}
+
+	@Test
+	public void testClusterIsTerminatedInBatches() {
+		new AWSTools(client, properties).shutdown("xd");
+
+		verify(instanceApi).terminateInstancesInRegion(REGION, "i-1", "i-2");
+		verify(instanceApi).terminateInstancesInRegion(REGION, "i-3");
+		verify(instanceApi, times(0)).describeInstancesInRegion(anyString(), (String[]) anyVararg());
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void testShutdownWaitsForTermination() {
+		properties.setProperty("shutdown.wait", "true");
+		when(instanceApi.describeInstancesInRegion(anyString(), (String[]) anyVararg())).thenReturn(
+				(Set) reservations(InstanceState.SHUTTING_DOWN, "i-1", "i-2"),
+				(Set) reservations(InstanceState.TERMINATED, "i-3"),
+				(Set) reservations(InstanceState.TERMINATED, "i-1", "i-2"));
+		new AWSTools(client, properties).shutdown("xd");
+
+		verify(instanceApi, times(3)).describeInstancesInRegion(anyString(), (String[]) anyVararg());
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void testShutdownWaitTimesOut() {
+		properties.setProperty("shutdown.wait", "true");
+		properties.setProperty("shutdown.wait.time", "50");
+		when(instanceApi.describeInstancesInRegion(anyString(), (String[]) anyVararg())).thenReturn(
+				(Set) reservations(InstanceState.SHUTTING_DOWN, "i-1", "i-2"));
+		try {
+			new AWSTools(client, properties).shutdown("xd");
+			fail("The wait should have timed out");
+		}
+		catch (IllegalStateException expected) {
+			assertEquals(true, expected.getMessage().contains("i-3"));
+		}
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void testSuspendStopsRunningInstances() {
+		Multimap<String, String> filter = ImmutableMultimap.<String, String> builder().put("tag:Name", "xd")
+				.putAll("instance-state-name", "pending", "running").build();
+		when(instanceApi.describeInstancesInRegionWithFilter(REGION, filter)).thenReturn(
+				(Set) reservations(InstanceState.RUNNING, "i-1", "i-2", "i-3"));
+		new AWSTools(client, properties).suspend("xd");
+
+		verify(instanceApi).stopInstancesInRegion(REGION, false, "i-1", "i-2");
+		verify(instanceApi).stopInstancesInRegion(REGION, false, "i-3");
+		verify(instanceApi, times(0)).terminateInstancesInRegion(anyString(), (String[]) anyVararg());
+	}
+
+	private Set<Reservation<RunningInstance>> reservations(InstanceState state, String... ids) {
+		List<RunningInstance> instances = new ArrayList<RunningInstance>();
+		for (String id : ids) {
+			instances.add(RunningInstance.builder().region(REGION).instanceId(id).instanceState(state)
+					.rawState(state.value()).imageId("ami-1").instanceType("m3.large").dnsName("ec2-host")
+					.rootDeviceType(RootDeviceType.EBS).build());
+		}
+		return Collections.singleton(new Reservation<RunningInstance>(REGION, Collections.<String> emptySet(),
+				instances, "owner", null, "r-1"));
+	}
+
+}
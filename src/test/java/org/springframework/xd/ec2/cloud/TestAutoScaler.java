@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.aws.ec2.features.AWSInstanceApi;
+import org.jclouds.ec2.domain.InstanceState;
+import org.jclouds.ec2.domain.Reservation;
+import org.jclouds.ec2.domain.RootDeviceType;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestAutoScaler {
+
+	private static final String REGION = "us-east-1";
+
+	private HttpServer jolokia;
+
+	private Map<String, String> values = new ConcurrentHashMap<String, String>();
+
+	private AWSInstanceApi instanceApi;
+
+	private AWSEC2Api client;
+
+	private Properties properties;
+
+	private RecordingScaler scaler = new RecordingScaler();
+
+	@Before
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void setUp() throws Exception {
+		jolokia = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		jolokia.createContext("/management/jolokia", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				JsonArray requests = new JsonParser().parse(FileCopyUtils.copyToString(new InputStreamReader(
+						exchange.getRequestBody(), "UTF-8"))).getAsJsonArray();
+				JsonArray responses = new JsonArray();
+				for (JsonElement element : requests) {
+					JsonObject request = element.getAsJsonObject();
+					String key = request.get("mbean").getAsString() + "/" + request.get("attribute").getAsString()
+							+ (request.has("path") ? "/" + request.get("path").getAsString() : "");
+					responses.add(new JsonParser().parse(values.containsKey(key) ? "{\"status\":200,\"value\":"
+							+ values.get(key) + "}" : "{\"status\":404}"));
+				}
+				byte[] body = responses.toString().getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		jolokia.start();
+		load(0.5, 50);
+
+		client = mock(AWSEC2Api.class);
+		instanceApi = mock(AWSInstanceApi.class);
+		when(client.getInstanceApi()).thenReturn((Optional) Optional.of(instanceApi));
+		when(instanceApi.describeInstancesInRegionWithFilter(anyString(), any(Multimap.class))).thenReturn(
+				(Set) containers(3));
+		properties = new Properties();
+		properties.setProperty("region", REGION);
+		properties.setProperty("cluster.name", "xd");
+		properties.setProperty("management.port", "" + jolokia.getAddress().getPort());
+		properties.setProperty("autoscale.min.containers", "1");
+		properties.setProperty("autoscale.max.containers", "4");
+	}
+
+	@After
+	public void tearDown() {
+		jolokia.stop(0);
+	}
+
+	@Test
+	public void testHighCpuScalesOutOnceWithinCooldown() {
+		load(0.9, 50);
+		AutoScaler autoScaler = new AutoScaler(client, properties, scaler);
+		assertEquals(AutoScaler.Action.SCALE_OUT, autoScaler.evaluate());
+		assertEquals(AutoScaler.Action.NONE, autoScaler.evaluate());
+		assertEquals(Arrays.asList(1), scaler.added);
+	}
+
+	@Test
+	public void testIdleClusterScalesInHighestContainers() {
+		load(0.1, 20);
+		properties.setProperty("autoscale.in.step", "5");
+		assertEquals(AutoScaler.Action.SCALE_IN, new AutoScaler(client, properties, scaler).evaluate());
+		assertEquals(Collections.singletonList(Arrays.asList(2, 1)), scaler.removed);
+	}
+
+	@Test
+	public void testQueueDepthOfMatchingMBeansIsAdded() {
+		load(0.1, 20);
+		properties.setProperty("autoscale.queue.mbean", "xd.*:component=MessageChannel,*");
+		properties.setProperty("autoscale.queue.attribute", "QueueSize");
+		values.put("xd.*:component=MessageChannel,*/QueueSize",
+				"{\"xd.a:component=MessageChannel,name=input\":{\"QueueSize\":600},"
+						+ "\"xd.b:component=MessageChannel,name=input\":{\"QueueSize\":700}}");
+		assertEquals(AutoScaler.Action.SCALE_OUT, new AutoScaler(client, properties, scaler).evaluate());
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void testBoundsAndUnreachableContainers() {
+		load(0.9, 50);
+		when(instanceApi.describeInstancesInRegionWithFilter(anyString(), any(Multimap.class))).thenReturn(
+				(Set) containers(4));
+		assertEquals(AutoScaler.Action.NONE, new AutoScaler(client, properties, scaler).evaluate());
+
+		load(0.1, 20);
+		jolokia.stop(0);
+		assertEquals(AutoScaler.Action.NONE, new AutoScaler(client, properties, scaler).evaluate());
+		assertEquals(0, scaler.added.size() + scaler.removed.size());
+	}
+
+	private void load(double cpu, int heapUsed) {
+		values.put("java.lang:type=OperatingSystem/ProcessCpuLoad", "" + cpu);
+		values.put("java.lang:type=Memory/HeapMemoryUsage/used", "" + heapUsed);
+		values.put("java.lang:type=Memory/HeapMemoryUsage/max", "100");
+	}
+
+	private Set<Reservation<RunningInstance>> containers(int count) {
+		List<RunningInstance> instances = new ArrayList<RunningInstance>();
+		for (int i = 0; i < count; i++) {
+			instances.add(RunningInstance.builder().region(REGION).instanceId("i-" + i)
+					.instanceState(InstanceState.RUNNING).rawState("running").imageId("ami-1")
+					.instanceType("m3.large").dnsName("localhost").rootDeviceType(RootDeviceType.EBS)
+					.tags(ImmutableMap.of("Name", "xd", "Type", "NODE", "Container_Node", "" + i)).build());
+		}
+		return Collections.singleton(new Reservation<RunningInstance>(REGION, Collections.<String> emptySet(),
+				instances, "owner", null, "r-1"));
+	}
+
+	private static class RecordingScaler implements ContainerScaler {
+
+		private final List<Integer> added = new ArrayList<Integer>();
+
+		private final List<List<Integer>> removed = new ArrayList<List<Integer>>();
+
+		@Override
+		public void scaleOut(int containerCount) {
+			added.add(containerCount);
+		}
+
+		@Override
+		public void scaleIn(List<Integer> containerIndexes) {
+			removed.add(containerIndexes);
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.jclouds.compute.domain.ExecResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestConfiguratorDistributor {
+
+	private static final String HELLO_SHA256 = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+	private SshSessionPool sshSessionPool;
+
+	private ConfiguratorDistributor distributor;
+
+	@Before
+	public void setUp() throws Exception {
+		File jar = File.createTempFile("deploy", ".jar");
+		jar.deleteOnExit();
+		FileWriter writer = new FileWriter(jar);
+		writer.write("hello");
+		writer.close();
+		sshSessionPool = mock(SshSessionPool.class);
+		distributor = new ConfiguratorDistributor(sshSessionPool, jar, 8099, 60000);
+	}
+
+	@Test
+	public void testTreeShape() {
+		assertEquals(0, ConfiguratorDistributor.getParent(1, 2));
+		assertEquals(0, ConfiguratorDistributor.getParent(2, 2));
+		assertEquals(1, ConfiguratorDistributor.getParent(3, 2));
+		assertEquals(2, ConfiguratorDistributor.getParent(6, 2));
+		assertTrue(ConfiguratorDistributor.hasChildren(0, 2, 2));
+		assertTrue(ConfiguratorDistributor.hasChildren(1, 2, 4));
+		assertFalse(ConfiguratorDistributor.hasChildren(1, 2, 3));
+	}
+
+	@Test
+	public void testPullVerifiesChecksum() {
+		when(sshSessionPool.exec(anyString(), anyString())).thenReturn(new ExecResponse("", "", 0));
+		distributor.pull("container-host", "10.0.0.1", false);
+		verify(sshSessionPool).exec(anyString(), contains("http://10.0.0.1:8099/deploy.jar"));
+		verify(sshSessionPool).exec(anyString(), contains(HELLO_SHA256));
+		verify(sshSessionPool, never()).exec(anyString(), contains("http.server"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFailedPullIsReported() {
+		when(sshSessionPool.exec(anyString(), anyString())).thenReturn(new ExecResponse("", "checksum mismatch", 1));
+		distributor.pull("container-host", "10.0.0.1", true);
+	}
+
+}
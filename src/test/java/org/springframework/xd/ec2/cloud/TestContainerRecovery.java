@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.aws.ec2.features.AWSInstanceApi;
+import org.jclouds.compute.domain.ExecResponse;
+import org.jclouds.ec2.domain.InstanceState;
+import org.jclouds.ec2.domain.Reservation;
+import org.jclouds.ec2.domain.RootDeviceType;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.jclouds.io.Payload;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.xd.cloud.Deployment;
+import org.springframework.xd.cloud.DeploymentStatus;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Verifies that a container that does not start is deployed again on a new instance when container.recovery
+ * is set to replace.
+ */
+public class TestContainerRecovery {
+
+	private static final int CONTAINER_INDEX = 12;
+
+	private static final String SCRIPT_PATH = "/home/ubuntu/setup-xd.sh.new";
+
+	private File keyFile;
+
+	private File journalFile;
+
+	private Properties properties;
+
+	private AWSInstanceApi instanceApi;
+
+	private AWSInstanceProvisioner provisioner;
+
+	private AWSInstanceChecker checker;
+
+	private InstanceTagger tagger;
+
+	private SshSessionPool sessionPool;
+
+	private DeploymentJournal journal;
+
+	private final Set<String> startingInstances = new HashSet<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		keyFile = File.createTempFile("xd-key-pair", ".pem");
+		FileWriter writer = new FileWriter(keyFile);
+		writer.write("key");
+		writer.close();
+		journalFile = File.createTempFile("cluster", ".journal");
+		journalFile.delete();
+		properties = PropertiesLoaderUtils.loadProperties(new ClassPathResource("test-xd-ec2.properties"));
+		properties.setProperty("private.key.file", keyFile.getAbsolutePath());
+		properties.setProperty("spring.xd.get.dist", "false");
+		properties.setProperty("multi.node", "true");
+		properties.setProperty("management.port", "9393");
+		properties.setProperty("instance.provision.wait.time", "1000");
+		properties.setProperty("XD_HADOOP_DISTRO", "hadoop22");
+		properties.setProperty("container.recovery", "replace");
+		properties.setProperty("container.recovery.attempts", "1");
+
+		instanceApi = mock(AWSInstanceApi.class);
+		provisioner = mock(AWSInstanceProvisioner.class);
+		checker = mock(AWSInstanceChecker.class);
+		tagger = mock(InstanceTagger.class);
+		sessionPool = mock(SshSessionPool.class);
+		when(sessionPool.exec(anyString(), anyString())).thenReturn(new ExecResponse("", "", 0));
+		when(checker.awaitInstanceToBeProvisioned(any(RunningInstance.class), anyLong())).thenReturn(
+				Futures.immediateFuture(true));
+		when(checker.awaitAWSInstance(any(RunningInstance.class))).thenAnswer(
+				new Answer<ListenableFuture<RunningInstance>>() {
+
+					@Override
+					public ListenableFuture<RunningInstance> answer(InvocationOnMock invocation) {
+						return Futures.immediateFuture((RunningInstance) invocation.getArguments()[0]);
+					}
+				});
+		when(checker.awaitContainerProcess(any(RunningInstance.class), anyInt(), anyLong())).thenAnswer(
+				new Answer<ListenableFuture<Boolean>>() {
+
+					@Override
+					public ListenableFuture<Boolean> answer(InvocationOnMock invocation) {
+						RunningInstance instance = (RunningInstance) invocation.getArguments()[0];
+						return Futures.immediateFuture(startingInstances.contains(instance.getId()));
+					}
+				});
+		journal = new DeploymentJournal(journalFile);
+		journal.begin();
+		journal.provisioned("container " + CONTAINER_INDEX, "i-1");
+	}
+
+	@After
+	public void tearDown() {
+		journal.close();
+		journalFile.delete();
+		keyFile.delete();
+	}
+
+	@Test
+	public void testFailedContainerIsReplacedUnderItsIndex() throws Exception {
+		properties.setProperty("container.replacements", "2");
+		launches(instance("i-2", "127.0.0.2"));
+		startingInstances.add("i-2");
+
+		Deployment deployment = deployContainer(2);
+
+		assertEquals(DeploymentStatus.SUCCESS, deployment.getStatus());
+		assertEquals("127.0.0.2", deployment.getAddress().getHostAddress());
+		verify(instanceApi).terminateInstancesInRegion("us-east-1", "i-1");
+		verify(tagger).tag(Collections.singleton("i-2"), Collections.singletonMap("Container_Node",
+				"" + CONTAINER_INDEX));
+		ArgumentCaptor<Payload> script = ArgumentCaptor.forClass(Payload.class);
+		verify(sessionPool).put(eq("127.0.0.2"), eq(SCRIPT_PATH), script.capture());
+		assertTrue("The replacement should keep the settings of its index",
+				new String(ByteStreams.toByteArray(script.getValue().openStream()), Charsets.UTF_8).contains(
+						"GROUP12"));
+
+		Map<String, DeploymentJournal.Entry> entries = new DeploymentJournal(journalFile).read();
+		DeploymentJournal.Entry entry = entries.get("container " + CONTAINER_INDEX);
+		assertEquals("i-2", entry.getInstanceId());
+		assertEquals(DeploymentJournal.Phase.STARTED, entry.getPhase());
+	}
+
+	@Test
+	public void testReplacementsAreLimited() throws Exception {
+		properties.setProperty("container.replacements", "1");
+		launches(instance("i-2", "127.0.0.2"), instance("i-3", "127.0.0.3"));
+
+		Deployment deployment = deployContainer(1);
+
+		assertEquals(DeploymentStatus.FAILURE, deployment.getStatus());
+		verify(provisioner, times(1)).runInstance(anyString(), eq(1));
+		verify(instanceApi).terminateInstancesInRegion("us-east-1", "i-1");
+		verify(instanceApi, never()).terminateInstancesInRegion("us-east-1", "i-2");
+		assertEquals("i-2", new DeploymentJournal(journalFile).read().get("container " + CONTAINER_INDEX)
+				.getInstanceId());
+	}
+
+	@Test
+	public void testNoReplacementByDefault() throws Exception {
+		properties.setProperty("container.recovery", "retry");
+
+		Deployment deployment = deployContainer(0);
+
+		assertEquals(DeploymentStatus.FAILURE, deployment.getStatus());
+		verify(provisioner, never()).runInstance(anyString(), anyInt());
+		verify(instanceApi, never()).terminateInstancesInRegion(anyString(), (String[]) any());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Deployment deployContainer(int replacements) throws Exception {
+		AWSEC2Api client = mock(AWSEC2Api.class);
+		when(client.getInstanceApi()).thenReturn((Optional) Optional.of(instanceApi));
+		AWSDeployer deployer = new AWSDeployer(properties, new EC2RequestLimiter(properties), client);
+		deployer.useServices(provisioner, mock(InstanceStateTracker.class), checker, tagger, sessionPool,
+				mock(ConfiguratorDistributor.class), journal);
+		return deployer.deployContainer("10.0.0.1", instance("i-1", "127.0.0.1"), CONTAINER_INDEX, replacements,
+				MoreExecutors.sameThreadExecutor()).get(30, TimeUnit.SECONDS);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void launches(RunningInstance... instances) {
+		Reservation[] reservations = new Reservation[instances.length];
+		for (int i = 0; i < instances.length; i++) {
+			reservations[i] = reservation(instances[i]);
+		}
+		when(provisioner.runInstance(anyString(), eq(1))).thenReturn(reservations[0],
+				Arrays.copyOfRange(reservations, 1, reservations.length));
+	}
+
+	private static Reservation<RunningInstance> reservation(RunningInstance instance) {
+		return new Reservation<RunningInstance>("us-east-1", Collections.<String> emptySet(),
+				Collections.singleton(instance), "owner", null, "r-" + instance.getId());
+	}
+
+	private static RunningInstance instance(String id, String host) {
+		return RunningInstance.builder().region("us-east-1").instanceId(id).instanceState(InstanceState.RUNNING)
+				.rawState("running").imageId("ami-1").instanceType("m3.large").dnsName(host).ipAddress(host)
+				.rootDeviceType(RootDeviceType.EBS).build();
+	}
+
+}
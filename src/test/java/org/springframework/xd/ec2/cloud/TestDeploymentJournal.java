@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestDeploymentJournal {
+
+	private File file;
+
+	private DeploymentJournal journal;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("cluster", ".journal");
+		file.delete();
+		journal = new DeploymentJournal(file);
+	}
+
+	@After
+	public void tearDown() {
+		journal.close();
+		file.delete();
+	}
+
+	@Test
+	public void testLatestPhaseOfEveryNodeIsRead() {
+		journal.begin();
+		journal.provisioned("admin", "i-1");
+		journal.record("i-1", DeploymentJournal.Phase.TAGGED);
+		journal.provisioned("container 0", "i-2");
+		journal.record("i-1", DeploymentJournal.Phase.COPIED);
+		journal.record("i-2", DeploymentJournal.Phase.TAGGED);
+		journal.close();
+		Map<String, DeploymentJournal.Entry> entries = new DeploymentJournal(file).read();
+		assertEquals(2, entries.size());
+		assertEquals("i-1", entries.get("admin").getInstanceId());
+		assertEquals(DeploymentJournal.Phase.COPIED, entries.get("admin").getPhase());
+		assertEquals(DeploymentJournal.Phase.TAGGED, entries.get("container 0").getPhase());
+		assertTrue(journal.isInterrupted());
+	}
+
+	@Test
+	public void testReplacedInstanceIsDropped() {
+		journal.begin();
+		journal.provisioned("container 0", "i-1");
+		journal.record("i-1", DeploymentJournal.Phase.CONFIGURED);
+		journal.provisioned("container 0", "i-2");
+		journal.record("i-1", DeploymentJournal.Phase.STARTED);
+		DeploymentJournal.Entry entry = journal.read().get("container 0");
+		assertEquals("i-2", entry.getInstanceId());
+		assertEquals(DeploymentJournal.Phase.PROVISIONED, entry.getPhase());
+	}
+
+	@Test
+	public void testPartlyWrittenLineIsIgnored() throws Exception {
+		journal.begin();
+		journal.provisioned("admin", "i-1");
+		journal.close();
+		FileWriter writer = new FileWriter(file, true);
+		writer.write("1420070400000,admin,i-1,STA");
+		writer.close();
+		assertEquals(DeploymentJournal.Phase.PROVISIONED, journal.read().get("admin").getPhase());
+		journal.reopen();
+		journal.record("i-1", DeploymentJournal.Phase.TAGGED);
+		assertEquals(DeploymentJournal.Phase.TAGGED, journal.read().get("admin").getPhase());
+	}
+
+	@Test
+	public void testInterruptedDeploymentIsNotReplaced() {
+		journal.begin();
+		journal.provisioned("admin", "i-1");
+		journal.close();
+		try {
+			journal.begin();
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException ise) {
+			assertEquals("i-1", journal.read().get("admin").getInstanceId());
+		}
+	}
+
+	@Test
+	public void testCompletedDeploymentIsReplaced() {
+		journal.begin();
+		journal.provisioned("admin", "i-1");
+		journal.complete();
+		assertFalse(journal.isInterrupted());
+		try {
+			journal.reopen();
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException ise) {
+			// expected
+		}
+		journal.begin();
+		assertTrue(journal.read().isEmpty());
+	}
+
+	@Test
+	public void testNothingIsRecordedUntilBegun() {
+		journal.provisioned("admin", "i-1");
+		journal.record("i-1", DeploymentJournal.Phase.TAGGED);
+		assertFalse(file.exists());
+	}
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.xd.cloud.DeployTimeoutException;
+import org.springframework.xd.cloud.Deployment;
+import org.springframework.xd.cloud.DeploymentListener;
+import org.springframework.xd.cloud.DeploymentScheduler;
+import org.springframework.xd.cloud.DeploymentStatus;
+import org.springframework.xd.cloud.DeploymentTask;
+import org.springframework.xd.cloud.InstanceType;
+import org.springframework.xd.cloud.SyncDeploymentTask;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Verifies that deployments are forwarded to the listener as they complete and that the cluster is reported
+ * usable once the server and the minimum number of healthy containers run.
+ */
+public class TestDeploymentPublisher {
+
+	private final List<Deployment> completed = new ArrayList<Deployment>();
+
+	private final List<List<Deployment>> usable = new ArrayList<List<Deployment>>();
+
+	private DeploymentListener listener;
+
+	private DeploymentScheduler scheduler;
+
+	private File keyFile;
+
+	@Before
+	public void setUp() throws Exception {
+		listener = new DeploymentListener() {
+
+			@Override
+			public void deploymentCompleted(Deployment deployment) {
+				completed.add(deployment);
+			}
+
+			@Override
+			public void clusterUsable(List<Deployment> deployments) {
+				usable.add(deployments);
+			}
+		};
+		scheduler = new DeploymentScheduler(2);
+		keyFile = File.createTempFile("xd-key-pair", ".pem");
+		FileWriter writer = new FileWriter(keyFile);
+		writer.write("key");
+		writer.close();
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdown();
+		keyFile.delete();
+	}
+
+	@Test
+	public void testDeploymentsArePublishedInOrder() throws Exception {
+		AWSDeployer.DeploymentPublisher publisher = new AWSDeployer.DeploymentPublisher(listener, 2);
+		Deployment second = deployment("127.0.0.2", InstanceType.NODE, DeploymentStatus.SUCCESS);
+		Deployment admin = deployment("127.0.0.1", InstanceType.ADMIN, DeploymentStatus.SUCCESS);
+		Deployment first = deployment("127.0.0.3", InstanceType.NODE, DeploymentStatus.FAILURE);
+
+		publisher.publish(1, second);
+		publisher.publish("admin", admin);
+		publisher.publish(0, first);
+		publisher.publish(1, deployment("127.0.0.4", InstanceType.NODE, DeploymentStatus.FAILURE));
+		publisher.publish(2, null);
+
+		assertEquals(Arrays.asList(second, admin, first), completed);
+		assertEquals(Arrays.asList(second, admin, first), publisher.getDeployments());
+		assertTrue(publisher.isPublished(1));
+		assertFalse(publisher.isPublished(2));
+	}
+
+	@Test
+	public void testUsableOnceServerAndMinimumContainersRun() throws Exception {
+		AWSDeployer.DeploymentPublisher publisher = new AWSDeployer.DeploymentPublisher(listener, 2);
+		publisher.publish(0, deployment("127.0.0.2", InstanceType.NODE, DeploymentStatus.SUCCESS));
+		publisher.publish(1, deployment("127.0.0.3", InstanceType.NODE, DeploymentStatus.FAILURE));
+		publisher.publish(2, deployment("127.0.0.4", InstanceType.NODE, DeploymentStatus.SUCCESS));
+		assertFalse("The cluster is not usable before the admin runs", publisher.isUsable());
+		assertTrue(usable.isEmpty());
+
+		publisher.publish("admin", deployment("127.0.0.1", InstanceType.ADMIN, DeploymentStatus.SUCCESS));
+		assertTrue(publisher.isUsable());
+		assertEquals(1, usable.size());
+		assertEquals(4, usable.get(0).size());
+
+		publisher.publish(3, deployment("127.0.0.5", InstanceType.NODE, DeploymentStatus.SUCCESS));
+		assertEquals("The cluster is only reported usable once", 1, usable.size());
+		assertEquals(5, completed.size());
+	}
+
+	@Test
+	public void testFailedContainersDoNotMakeTheClusterUsable() throws Exception {
+		AWSDeployer.DeploymentPublisher publisher = new AWSDeployer.DeploymentPublisher(listener, 1);
+		publisher.serverRunning();
+		publisher.publish(0, deployment("127.0.0.2", InstanceType.NODE, DeploymentStatus.FAILURE));
+		assertFalse(publisher.isUsable());
+
+		publisher.publish(1, deployment("127.0.0.3", InstanceType.NODE, DeploymentStatus.SUCCESS));
+		assertTrue("A running server counts without being published", publisher.isUsable());
+		assertEquals(2, usable.get(0).size());
+	}
+
+	@Test
+	public void testFailureWithoutHostIsPublished() throws Exception {
+		AWSDeployer.DeploymentPublisher publisher = new AWSDeployer.DeploymentPublisher(listener, 1);
+		publisher.publish("admin", deployment("127.0.0.1", InstanceType.ADMIN, DeploymentStatus.SUCCESS));
+		Deployment failure = new Deployment(null, "i-1", InstanceType.NODE, DeploymentStatus.FAILURE);
+		publisher.publish(0, failure);
+		assertEquals(failure, completed.get(1));
+		assertFalse("A failed container is not healthy", publisher.isUsable());
+	}
+
+	@Test
+	public void testTimeoutAfterTheClusterIsUsable() throws Exception {
+		AWSDeployer.DeploymentPublisher publisher = new AWSDeployer.DeploymentPublisher(listener, 1);
+		publisher.publish("admin", deployment("127.0.0.1", InstanceType.ADMIN, DeploymentStatus.SUCCESS));
+		publisher.publish(0, deployment("127.0.0.2", InstanceType.NODE, DeploymentStatus.SUCCESS));
+
+		createDeployer().runTasks(scheduler, pendingTasks(), publisher, "deployed");
+
+		assertEquals(2, publisher.getDeployments().size());
+	}
+
+	@Test(expected = DeployTimeoutException.class)
+	public void testTimeoutBeforeTheClusterIsUsable() throws Exception {
+		AWSDeployer.DeploymentPublisher publisher = new AWSDeployer.DeploymentPublisher(listener, 2);
+		publisher.publish("admin", deployment("127.0.0.1", InstanceType.ADMIN, DeploymentStatus.SUCCESS));
+		publisher.publish(0, deployment("127.0.0.2", InstanceType.NODE, DeploymentStatus.SUCCESS));
+
+		createDeployer().runTasks(scheduler, pendingTasks(), publisher, "deployed");
+	}
+
+	private AWSDeployer createDeployer() throws Exception {
+		Properties properties = PropertiesLoaderUtils.loadProperties(new ClassPathResource("test-xd-ec2.properties"));
+		properties.setProperty("private.key.file", keyFile.getAbsolutePath());
+		properties.setProperty("spring.xd.get.dist", "false");
+		properties.setProperty("multi.node", "true");
+		properties.setProperty("management.port", "9393");
+		properties.setProperty("instance.provision.wait.time", "1000");
+		properties.setProperty("deployment.timeout", "200");
+		return new AWSDeployer(properties, new EC2RequestLimiter(properties), mock(AWSEC2Api.class));
+	}
+
+	/**
+	 * Creates a completed task and a task that never completes, as a container that does not start.
+	 */
+	private List<DeploymentTask<?>> pendingTasks() {
+		DeploymentTask<Void> done = new SyncDeploymentTask<Void>("admin") {
+
+			@Override
+			protected Void execute() {
+				return null;
+			}
+		};
+		DeploymentTask<Void> pending = new DeploymentTask<Void>("container 1") {
+
+			@Override
+			protected ListenableFuture<Void> executeAsync() {
+				return SettableFuture.create();
+			}
+		};
+		return new ArrayList<DeploymentTask<?>>(Arrays.asList(done, pending));
+	}
+
+	private static Deployment deployment(String host, InstanceType type, DeploymentStatus status)
+			throws Exception {
+		return new Deployment(InetAddress.getByName(host), type, status);
+	}
+
+}
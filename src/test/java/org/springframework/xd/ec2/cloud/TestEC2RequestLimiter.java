@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+
+import org.jclouds.aws.AWSResponseException;
+import org.jclouds.aws.domain.AWSError;
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.aws.ec2.features.AWSInstanceApi;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.xd.ec2.cloud.EC2RequestLimiter.Category;
+
+import com.google.common.base.Optional;
+
+public class TestEC2RequestLimiter {
+
+	private static final String REGION = "us-east-1";
+
+	private AWSInstanceApi instanceApi;
+
+	private AWSEC2Api client;
+
+	private Properties properties;
+
+	@Before
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void setUp() {
+		client = mock(AWSEC2Api.class);
+		instanceApi = mock(AWSInstanceApi.class);
+		when(client.getInstanceApi()).thenReturn((Optional) Optional.of(instanceApi));
+		properties = new Properties();
+	}
+
+	@Test
+	public void testCategories() {
+		assertEquals(Category.DESCRIBE, Category.of("describeInstancesInRegion"));
+		assertEquals(Category.TAG, Category.of("applyToResources"));
+		assertEquals(Category.RUN, Category.of("runInstancesInRegion"));
+		assertEquals(Category.TERMINATE, Category.of("terminateInstancesInRegion"));
+		assertEquals(Category.OTHER, Category.of("createImageInRegion"));
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void testThrottledCallIsRetriedAtLowerRate() {
+		Set result = Collections.emptySet();
+		when(instanceApi.terminateInstancesInRegion(REGION, "i-1")).thenThrow(throttled()).thenReturn(result);
+		EC2RequestLimiter limiter = new EC2RequestLimiter(properties);
+
+		assertEquals(result, limiter.limit(client).getInstanceApi().get().terminateInstancesInRegion(REGION, "i-1"));
+		verify(instanceApi, times(2)).terminateInstancesInRegion(REGION, "i-1");
+		EC2RequestLimiter.Metrics metrics = limiter.getMetrics(Category.TERMINATE);
+		assertEquals(2, metrics.getCalls());
+		assertEquals(1, metrics.getThrottled());
+		assertTrue(metrics.getRate() < 5);
+		assertEquals(0, limiter.getMetrics(Category.DESCRIBE).getCalls());
+	}
+
+	@Test
+	public void testOtherErrorsAreNotRetried() {
+		when(instanceApi.terminateInstancesInRegion(REGION, "i-1")).thenThrow(new IllegalStateException("failed"));
+		EC2RequestLimiter limiter = new EC2RequestLimiter(properties);
+		try {
+			limiter.limit(client).getInstanceApi().get().terminateInstancesInRegion(REGION, "i-1");
+			fail("The call should have failed");
+		}
+		catch (IllegalStateException expected) {
+			assertEquals("failed", expected.getMessage());
+		}
+		verify(instanceApi, times(1)).terminateInstancesInRegion(REGION, "i-1");
+		assertEquals(0, limiter.getMetrics(Category.TERMINATE).getThrottled());
+	}
+
+	@Test
+	public void testCallsAreSpacedOutOnceTheBurstIsUsed() {
+		properties.setProperty("ec2.api.rate.describe", "20");
+		properties.setProperty("ec2.api.burst.describe", "1");
+		EC2RequestLimiter limiter = new EC2RequestLimiter(properties);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			limiter.acquire(Category.DESCRIBE);
+		}
+		assertTrue(System.currentTimeMillis() - start >= 180);
+		assertTrue(limiter.getMetrics(Category.DESCRIBE).getMaxWaitTime() > 0);
+		assertFalse(EC2RequestLimiter.isThrottled(new IllegalStateException()));
+	}
+
+	private AWSResponseException throttled() {
+		AWSError error = new AWSError();
+		error.setCode("RequestLimitExceeded");
+		return new AWSResponseException("Request limit exceeded.", null, null, error);
+	}
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.aws.ec2.features.AWSInstanceApi;
+import org.jclouds.ec2.domain.InstanceState;
+import org.jclouds.ec2.domain.Reservation;
+import org.jclouds.ec2.domain.RootDeviceType;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.jclouds.rest.ResourceNotFoundException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class TestInstanceStateTracker {
+
+	private static final String INSTANCE_ID = "i-1234";
+
+	private static final String OTHER_INSTANCE_ID = "i-5678";
+
+	private AWSInstanceApi instanceApi;
+
+	private InstanceStateTracker tracker;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Before
+	public void setUp() {
+		AWSEC2Api client = mock(AWSEC2Api.class);
+		instanceApi = mock(AWSInstanceApi.class);
+		when(client.getInstanceApi()).thenReturn((Optional) Optional.of(instanceApi));
+		tracker = new InstanceStateTracker(client, "us-east-1", 10, 50);
+	}
+
+	@After
+	public void tearDown() {
+		tracker.shutdown();
+	}
+
+	/**
+	 * Verifies that a waiter is released and the listeners are notified once a poll observes the instance running.
+	 */
+	@Test
+	public void testWaitForRunningState() throws InterruptedException {
+		describeReturns(InstanceState.RUNNING);
+		final CountDownLatch latch = new CountDownLatch(1);
+		tracker.addListener(new InstanceStateListener() {
+
+			@Override
+			public void stateChanged(RunningInstance instance, InstanceState previousState) {
+				assertEquals(InstanceState.PENDING, previousState);
+				latch.countDown();
+			}
+		});
+		tracker.track(Collections.singleton(instance(InstanceState.PENDING)));
+		RunningInstance result = tracker.waitForState(INSTANCE_ID, InstanceState.RUNNING, 5000);
+		assertNotNull("Instance should have reached the running state", result);
+		assertEquals("ec2-host", result.getDnsName());
+		assertTrue("Listener was not notified", latch.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Verifies that the wait ends before the deadline if the instance is terminated.
+	 */
+	@Test
+	public void testWaitEndsWhenTerminated() {
+		describeReturns(InstanceState.TERMINATED);
+		tracker.track(Collections.singleton(instance(InstanceState.PENDING)));
+		long start = System.currentTimeMillis();
+		assertNull(tracker.waitForState(INSTANCE_ID, InstanceState.RUNNING, 30000));
+		assertTrue("Wait should end when the instance is terminated", System.currentTimeMillis() - start < 30000);
+	}
+
+	/**
+	 * Verifies that a wait registered once the tracker is shut down completes right away.
+	 */
+	@Test
+	public void testWaitAfterShutdownCompletes() throws Exception {
+		describeReturns(InstanceState.PENDING);
+		tracker.track(Collections.singleton(instance(InstanceState.PENDING)));
+		tracker.shutdown();
+		ListenableFuture<RunningInstance> result = tracker.whenState(INSTANCE_ID, InstanceState.RUNNING, 30000);
+		assertTrue("The wait should complete once the tracker is shut down", result.isDone());
+		assertNull(result.get());
+		assertNull(tracker.waitForState(INSTANCE_ID, InstanceState.RUNNING, 30000));
+	}
+
+	/**
+	 * Verifies that all tracked instances are described in one call.
+	 */
+	@Test
+	public void testInstancesAreDescribedInOneCall() {
+		final List<Integer> batchSizes = new CopyOnWriteArrayList<Integer>();
+		describeAnswers(new Answer<Set<Reservation<RunningInstance>>>() {
+
+			@Override
+			public Set<Reservation<RunningInstance>> answer(InvocationOnMock invocation) {
+				List<String> ids = ids(invocation);
+				batchSizes.add(ids.size());
+				return reservations(ids, InstanceState.RUNNING);
+			}
+		});
+		tracker.track(Arrays.asList(instance(INSTANCE_ID, InstanceState.PENDING),
+				instance(OTHER_INSTANCE_ID, InstanceState.PENDING)));
+		assertNotNull(tracker.waitForState(INSTANCE_ID, InstanceState.RUNNING, 5000));
+		assertNotNull(tracker.waitForState(OTHER_INSTANCE_ID, InstanceState.RUNNING, 5000));
+		assertFalse(batchSizes.isEmpty());
+		for (Integer batchSize : batchSizes) {
+			assertEquals(2, batchSize.intValue());
+		}
+	}
+
+	/**
+	 * Verifies that an instance that is not found is left out of the call instead of failing the whole batch.
+	 */
+	@Test
+	public void testNotFoundInstanceIsLeftOutOfTheBatch() {
+		describeAnswers(new Answer<Set<Reservation<RunningInstance>>>() {
+
+			@Override
+			public Set<Reservation<RunningInstance>> answer(InvocationOnMock invocation) {
+				List<String> ids = ids(invocation);
+				if (ids.contains(OTHER_INSTANCE_ID)) {
+					throw new ResourceNotFoundException("The instance ID '" + OTHER_INSTANCE_ID + "' does not exist");
+				}
+				return reservations(ids, InstanceState.RUNNING);
+			}
+		});
+		tracker.track(Arrays.asList(instance(INSTANCE_ID, InstanceState.PENDING),
+				instance(OTHER_INSTANCE_ID, InstanceState.PENDING)));
+		assertNotNull("The instance that exists should be described",
+				tracker.waitForState(INSTANCE_ID, InstanceState.RUNNING, 5000));
+		assertEquals(InstanceState.PENDING, tracker.getInstance(OTHER_INSTANCE_ID).getInstanceState());
+	}
+
+	/**
+	 * Verifies that the instances are described one by one when a batch is answered with no instance, as the
+	 * client does when EC2 rejects the call as not found.
+	 */
+	@Test
+	public void testEmptyBatchIsDescribedPerInstance() {
+		final AtomicInteger singleCalls = new AtomicInteger();
+		describeAnswers(new Answer<Set<Reservation<RunningInstance>>>() {
+
+			@Override
+			public Set<Reservation<RunningInstance>> answer(InvocationOnMock invocation) {
+				List<String> ids = ids(invocation);
+				if (ids.size() == 1) {
+					singleCalls.incrementAndGet();
+				}
+				if (ids.contains(OTHER_INSTANCE_ID)) {
+					return Collections.emptySet();
+				}
+				return reservations(ids, InstanceState.RUNNING);
+			}
+		});
+		tracker.track(Arrays.asList(instance(INSTANCE_ID, InstanceState.PENDING),
+				instance(OTHER_INSTANCE_ID, InstanceState.PENDING)));
+		assertNotNull("The instance that exists should be described",
+				tracker.waitForState(INSTANCE_ID, InstanceState.RUNNING, 5000));
+		assertTrue(singleCalls.get() >= 2);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void describeAnswers(Answer<Set<Reservation<RunningInstance>>> answer) {
+		when(instanceApi.describeInstancesInRegion(anyString(), (String[]) anyVararg())).thenAnswer((Answer) answer);
+	}
+
+	private static List<String> ids(InvocationOnMock invocation) {
+		List<String> result = new ArrayList<String>();
+		Object[] arguments = invocation.getArguments();
+		for (int i = 1; i < arguments.length; i++) {
+			if (arguments[i] instanceof String[]) {
+				result.addAll(Arrays.asList((String[]) arguments[i]));
+			}
+			else {
+				result.add((String) arguments[i]);
+			}
+		}
+		return result;
+	}
+
+	private Set<Reservation<RunningInstance>> reservations(List<String> ids, InstanceState state) {
+		List<RunningInstance> described = new ArrayList<RunningInstance>();
+		for (String id : ids) {
+			described.add(instance(id, state));
+		}
+		return Collections.singleton(new Reservation<RunningInstance>("us-east-1", Collections.<String> emptySet(),
+				described, "owner", null, "r-1"));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void describeReturns(InstanceState state) {
+		Set reservations = Collections.singleton(new Reservation<RunningInstance>("us-east-1",
+				Collections.<String> emptySet(), Collections.singleton(instance(state)), "owner", null, "r-1"));
+		when(instanceApi.describeInstancesInRegion(anyString(), (String[]) anyVararg())).thenReturn(reservations);
+	}
+
+	private RunningInstance instance(InstanceState state) {
+		return instance(INSTANCE_ID, state);
+	}
+
+	private RunningInstance instance(String id, InstanceState state) {
+		return RunningInstance.builder().region("us-east-1").instanceId(id).instanceState(state)
+				.rawState(state.value()).imageId("ami-1").instanceType("m3.large").dnsName("ec2-host")
+				.rootDeviceType(RootDeviceType.EBS).build();
+	}
+}
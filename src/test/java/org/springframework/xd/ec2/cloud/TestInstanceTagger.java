@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.jclouds.aws.ec2.AWSEC2Api;
+import org.jclouds.ec2.domain.InstanceState;
+import org.jclouds.ec2.domain.RootDeviceType;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.jclouds.ec2.features.TagApi;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+public class TestInstanceTagger {
+
+	private static final String REGION = "us-east-1";
+
+	private TagApi tagApi;
+
+	private InstanceTagger tagger;
+
+	@Before
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void setUp() {
+		AWSEC2Api client = mock(AWSEC2Api.class);
+		tagApi = mock(TagApi.class);
+		when(client.getTagApiForRegion(REGION)).thenReturn((Optional) Optional.of(tagApi));
+		tagger = new InstanceTagger(client, REGION, 60000);
+	}
+
+	@After
+	public void tearDown() {
+		tagger.shutdown();
+	}
+
+	@Test
+	public void testSharedTagsAreAppliedInOneCall() {
+		Map<String, String> shared = new HashMap<String, String>();
+		shared.put("Name", "cluster");
+		shared.put("Type", "NODE");
+		tagger.tag(Arrays.asList("i-1", "i-2", "i-3"), shared);
+		tagger.tag(Collections.singleton("i-1"), Collections.singletonMap("Container_Node", "0"));
+		tagger.tag(Collections.singleton("i-2"), Collections.singletonMap("Container_Node", "1"));
+		tagger.flush();
+
+		verify(tagApi).applyToResources(shared, new TreeSet<String>(Arrays.asList("i-1", "i-2", "i-3")));
+		verify(tagApi).applyToResources(Collections.singletonMap("Container_Node", "0"), Collections.singleton("i-1"));
+		verify(tagApi).applyToResources(Collections.singletonMap("Container_Node", "1"), Collections.singleton("i-2"));
+		verifyNoMoreInteractions(tagApi);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testUnchangedTagsAreNotAppliedAgain() {
+		tagger.tag(Collections.singleton("i-1"), Collections.singletonMap("Name", "cluster"));
+		tagger.flush();
+		tagger.tag(Collections.singleton("i-1"), Collections.singletonMap("Name", "cluster"));
+		tagger.tag(instance("i-2", Collections.singletonMap("Name", "cluster")),
+				Collections.singletonMap("Name", "cluster"));
+		tagger.flush();
+
+		verify(tagApi, times(1)).applyToResources(anyMap(), any(Iterable.class));
+	}
+
+	@Test
+	public void testFailedTagsAreRetried() {
+		doThrow(new IllegalStateException("InvalidInstanceID.NotFound")).doNothing().when(tagApi)
+				.applyToResources(Collections.singletonMap("Name", "cluster"), Collections.singleton("i-1"));
+		tagger.tag(Collections.singleton("i-1"), Collections.singletonMap("Name", "cluster"));
+		tagger.flush();
+		tagger.flush();
+		tagger.flush();
+
+		verify(tagApi, times(2)).applyToResources(Collections.singletonMap("Name", "cluster"),
+				Collections.singleton("i-1"));
+	}
+
+	@Test
+	public void testShutdownRetriesFailedTags() {
+		doThrow(new IllegalStateException("InvalidInstanceID.NotFound")).doNothing().when(tagApi)
+				.applyToResources(Collections.singletonMap("Name", "cluster"), Collections.singleton("i-1"));
+		tagger.tag(Collections.singleton("i-1"), Collections.singletonMap("Name", "cluster"));
+		tagger.shutdown();
+
+		verify(tagApi, times(2)).applyToResources(Collections.singletonMap("Name", "cluster"),
+				Collections.singleton("i-1"));
+	}
+
+	@Test
+	public void testShutdownAbandonsTagsOnceAttemptsAreExhausted() {
+		doThrow(new IllegalStateException("InvalidInstanceID.NotFound")).when(tagApi)
+				.applyToResources(Collections.singletonMap("Name", "cluster"), Collections.singleton("i-1"));
+		tagger.tag(Collections.singleton("i-1"), Collections.singletonMap("Name", "cluster"));
+		tagger.shutdown();
+
+		verify(tagApi, times(3)).applyToResources(Collections.singletonMap("Name", "cluster"),
+				Collections.singleton("i-1"));
+	}
+
+	private RunningInstance instance(String id, Map<String, String> tags) {
+		return RunningInstance.builder().region(REGION).instanceId(id).imageId("ami-1")
+				.instanceType("m1.small").instanceState(InstanceState.RUNNING).rawState("running")
+				.rootDeviceType(RootDeviceType.EBS).tags(tags).build();
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.xd.ec2.environment.EventCollector;
+import org.springframework.xd.ec2.environment.NodeAgent;
+import org.springframework.xd.ec2.environment.NodeEvent;
+
+public class TestNodeEventSubscriber {
+
+	@Rule
+	public TemporaryFolder home = new TemporaryFolder();
+
+	private EventCollector collector;
+
+	private NodeEventSubscriber subscriber;
+
+	@Before
+	public void setUp() throws Exception {
+		collector = new EventCollector(0);
+		collector.start();
+		subscriber = new NodeEventSubscriber(50);
+		subscriber.subscribe("localhost", collector.getPort());
+	}
+
+	@After
+	public void tearDown() {
+		subscriber.shutdown();
+		collector.stop();
+	}
+
+	@Test
+	public void testReadyIsPushed() throws Exception {
+		write("config.txt", "Complete\n");
+		ServerSocket xd = new ServerSocket(0);
+		try {
+			assertTrue(createAgent("container-1", xd.getLocalPort()).run());
+		}
+		finally {
+			xd.close();
+		}
+		NodeEvent event = subscriber.whenReported("container-1").get(10, TimeUnit.SECONDS);
+		assertEquals(NodeEvent.Type.READY, event.getType());
+	}
+
+	@Test
+	public void testConfigurationFailureIsPushed() throws Exception {
+		write("config.txt", "");
+		write("configError.txt", "java.io.FileNotFoundException: /home/ubuntu/.bashrc\n");
+		assertFalse(createAgent("admin", 9).run());
+		NodeEvent event = subscriber.whenReported("admin").get(10, TimeUnit.SECONDS);
+		assertEquals(NodeEvent.Type.FAILED, event.getType());
+		assertTrue(event.getDetail().contains("FileNotFoundException"));
+	}
+
+	@Test
+	public void testPendingWaitCompletesOnShutdown() throws Exception {
+		subscriber.shutdown();
+		assertNull(subscriber.whenReported("container-0").get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testEventLineRoundTrip() {
+		NodeEvent event = NodeEvent.fromLine(new NodeEvent("container-2", NodeEvent.Type.FAILED,
+				"line one\nkey=value & more").toLine());
+		assertEquals("container-2", event.getNode());
+		assertEquals(NodeEvent.Type.FAILED, event.getType());
+		assertEquals("line one\nkey=value & more", event.getDetail());
+	}
+
+	private NodeAgent createAgent(String node, int port) {
+		NodeAgent agent = new NodeAgent();
+		agent.setArgument("node", node);
+		agent.setArgument("port", "" + port);
+		agent.setArgument("collector", "localhost:" + collector.getPort());
+		agent.setArgument("timeout", "5000");
+		agent.setArgument("home", home.getRoot().getPath());
+		return agent;
+	}
+
+	private void write(String name, String content) throws Exception {
+		FileWriter writer = new FileWriter(new File(home.getRoot(), name));
+		writer.write(content);
+		writer.close();
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class TestPortProber {
+
+	private PortProber portProber;
+
+	@Before
+	public void setUp() {
+		portProber = new PortProber(1, 20, 200);
+	}
+
+	@After
+	public void tearDown() {
+		portProber.shutdown();
+	}
+
+	@Test
+	public void testOpenPortIsDetected() throws Exception {
+		ServerSocket server = new ServerSocket(0);
+		try {
+			assertTrue(portProber.whenOpen(HostAndPort.fromParts("127.0.0.1", server.getLocalPort()), 2000)
+					.get(5, TimeUnit.SECONDS));
+		}
+		finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testClosedPortTimesOut() throws Exception {
+		int port = closedPort();
+		assertFalse(portProber.whenOpen(HostAndPort.fromParts("127.0.0.1", port), 100)
+				.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testAnyOpenPortIsDetected() throws Exception {
+		int closed = closedPort();
+		ServerSocket server = new ServerSocket(0);
+		try {
+			assertTrue(portProber.whenAnyOpen(Arrays.asList(HostAndPort.fromParts("127.0.0.1", closed),
+					HostAndPort.fromParts("127.0.0.1", server.getLocalPort())), 2000).get(5, TimeUnit.SECONDS));
+		}
+		finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testManyTargetsOnOneSelector() throws Exception {
+		int closed = closedPort();
+		ServerSocket server = new ServerSocket(0, 1000);
+		try {
+			List<ListenableFuture<Boolean>> open = new ArrayList<ListenableFuture<Boolean>>();
+			List<ListenableFuture<Boolean>> timedOut = new ArrayList<ListenableFuture<Boolean>>();
+			for (int i = 0; i < 250; i++) {
+				open.add(portProber.whenOpen(HostAndPort.fromParts("127.0.0.1", server.getLocalPort()), 5000));
+				timedOut.add(portProber.whenOpen(HostAndPort.fromParts("127.0.0.1", closed), 300));
+			}
+			for (Boolean result : Futures.allAsList(open).get(10, TimeUnit.SECONDS)) {
+				assertTrue(result);
+			}
+			for (Boolean result : Futures.allAsList(timedOut).get(10, TimeUnit.SECONDS)) {
+				assertFalse(result);
+			}
+		}
+		finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testPortOpenedLaterIsDetected() throws Exception {
+		int port = closedPort();
+		ListenableFuture<Boolean> result = portProber.whenOpen(HostAndPort.fromParts("127.0.0.1", port), 5000);
+		Thread.sleep(150);
+		assertFalse(result.isDone());
+		ServerSocket server = new ServerSocket(port);
+		try {
+			assertTrue(result.get(5, TimeUnit.SECONDS));
+		}
+		finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testReadinessProbeRunsOnConnection() throws Exception {
+		ServerSocket server = new ServerSocket(0);
+		try {
+			ReadinessProbe answersOne = new ReadinessProbe() {
+
+				@Override
+				public boolean isReady(Socket socket, HostAndPort target) throws IOException {
+					return socket.isConnected() && target.getPort() > 0;
+				}
+			};
+			ReadinessProbe neverReady = new ReadinessProbe() {
+
+				@Override
+				public boolean isReady(Socket socket, HostAndPort target) throws IOException {
+					return false;
+				}
+			};
+			HostAndPort target = HostAndPort.fromParts("127.0.0.1", server.getLocalPort());
+			assertTrue(portProber.whenReady(target, answersOne, 2000).get(5, TimeUnit.SECONDS));
+			assertFalse(portProber.whenReady(target, neverReady, 200).get(5, TimeUnit.SECONDS));
+		}
+		finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testShutdownCompletesPendingWaits() throws Exception {
+		ListenableFuture<Boolean> result = portProber.whenOpen(HostAndPort.fromParts("127.0.0.1", closedPort()),
+				60000);
+		portProber.shutdown();
+		assertFalse(result.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testIdleSelectorBlocks() throws Exception {
+		Thread.sleep(100);
+		long selects = portProber.getSelectCount();
+		Thread.sleep(500);
+		assertTrue("selector woke " + (portProber.getSelectCount() - selects) + " times while idle",
+				portProber.getSelectCount() - selects <= 2);
+	}
+
+	@Test
+	public void testSelectorBlocksBetweenScheduledAttempts() throws Exception {
+		PortProber slowProber = new PortProber(1, 1000, 200);
+		try {
+			ListenableFuture<Boolean> result = slowProber.whenOpen(HostAndPort.fromParts("127.0.0.1", closedPort()),
+					60000);
+			Thread.sleep(300);
+			long selects = slowProber.getSelectCount();
+			Thread.sleep(500);
+			assertTrue("selector woke " + (slowProber.getSelectCount() - selects) + " times between attempts",
+					slowProber.getSelectCount() - selects <= 5);
+			assertFalse(result.isDone());
+		}
+		finally {
+			slowProber.shutdown();
+		}
+	}
+
+	private int closedPort() throws Exception {
+		ServerSocket server = new ServerSocket(0);
+		int port = server.getLocalPort();
+		server.close();
+		return port;
+	}
+
+}
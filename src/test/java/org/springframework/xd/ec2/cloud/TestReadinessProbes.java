@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.net.HostAndPort;
+
+/**
+ * Runs every probe against a local stand-in server that expects the exact request of the protocol
+ * and answers with a canned reply.
+ */
+public class TestReadinessProbes {
+
+	private static final byte[] REDIS_PING = "*1\r\n$4\r\nPING\r\n".getBytes();
+
+	private static final byte[] AMQP_HEADER = { 'A', 'M', 'Q', 'P', 0, 0, 9, 1 };
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testRedisPong() throws Exception {
+		assertTrue(probe(ReadinessProbes.REDIS, REDIS_PING, "+PONG\r\n".getBytes()));
+	}
+
+	@Test
+	public void testRedisLoading() throws Exception {
+		assertFalse(probe(ReadinessProbes.REDIS, REDIS_PING,
+				"-LOADING Redis is loading the dataset in memory\r\n".getBytes()));
+	}
+
+	@Test
+	public void testAmqpConnectionStart() throws Exception {
+		ByteArrayOutputStream reply = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(reply);
+		out.writeByte(1);
+		out.writeShort(0);
+		out.writeInt(4);
+		out.writeShort(10);
+		out.writeShort(10);
+		out.writeByte(0xCE);
+		assertTrue(probe(ReadinessProbes.AMQP, AMQP_HEADER, reply.toByteArray()));
+	}
+
+	@Test
+	public void testAmqpVersionMismatch() throws Exception {
+		assertFalse(probe(ReadinessProbes.AMQP, AMQP_HEADER, new byte[] { 'A', 'M', 'Q', 'P', 0, 0, 9, 1 }));
+	}
+
+	@Test
+	public void testZooKeeperImok() throws Exception {
+		assertTrue(probe(ReadinessProbes.ZOOKEEPER, "ruok".getBytes(), "imok".getBytes()));
+	}
+
+	@Test
+	public void testKafkaMetadata() throws Exception {
+		assertTrue(probe(ReadinessProbes.KAFKA, kafkaMetadataRequest(), kafkaMetadataResponse(1)));
+	}
+
+	@Test
+	public void testKafkaWithoutBroker() throws Exception {
+		assertFalse(probe(ReadinessProbes.KAFKA, kafkaMetadataRequest(), kafkaMetadataResponse(0)));
+	}
+
+	@Test
+	public void testHttpOk() throws Exception {
+		assertTrue(probe(ReadinessProbes.http("/"), httpRequest(), "HTTP/1.1 200 OK\r\n\r\n".getBytes()));
+	}
+
+	@Test
+	public void testHttpUnavailable() throws Exception {
+		assertFalse(probe(ReadinessProbes.http("/"), httpRequest(),
+				"HTTP/1.1 503 Service Unavailable\r\n\r\n".getBytes()));
+	}
+
+	@Test
+	public void testConnectionClosedWithoutReply() throws Exception {
+		assertFalse(probe(ReadinessProbes.ZOOKEEPER, "ruok".getBytes(), new byte[0]));
+	}
+
+	private boolean probe(ReadinessProbe readinessProbe, final byte[] request, final byte[] reply) throws Exception {
+		final ServerSocket server = new ServerSocket(0);
+		try {
+			Future<byte[]> received = executor.submit(new Callable<byte[]>() {
+
+				@Override
+				public byte[] call() throws Exception {
+					Socket client = server.accept();
+					try {
+						byte[] result = new byte[request.length];
+						new DataInputStream(client.getInputStream()).readFully(result);
+						client.getOutputStream().write(reply);
+						client.getOutputStream().flush();
+						return result;
+					}
+					finally {
+						client.close();
+					}
+				}
+			});
+			HostAndPort target = HostAndPort.fromParts("127.0.0.1", server.getLocalPort());
+			Socket socket = new Socket(target.getHostText(), target.getPort());
+			boolean result;
+			try {
+				socket.setSoTimeout(2000);
+				result = readinessProbe.isReady(socket, target);
+			}
+			catch (IOException ioe) {
+				result = false;
+			}
+			finally {
+				socket.close();
+			}
+			assertArrayEquals(request, received.get(2, TimeUnit.SECONDS));
+			return result;
+		}
+		finally {
+			server.close();
+		}
+	}
+
+	private byte[] httpRequest() {
+		return "GET / HTTP/1.0\r\nHost: 127.0.0.1\r\nConnection: close\r\n\r\n".getBytes();
+	}
+
+	private byte[] kafkaMetadataRequest() throws Exception {
+		ByteArrayOutputStream request = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(request);
+		out.writeInt(2 + 2 + 4 + 2 + 6 + 4);
+		out.writeShort(3);
+		out.writeShort(0);
+		out.writeInt(0x58440001);
+		out.writeShort(6);
+		out.write("xd-ec2".getBytes());
+		out.writeInt(0);
+		return request.toByteArray();
+	}
+
+	private byte[] kafkaMetadataResponse(int brokers) throws Exception {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(response);
+		out.writeInt(8);
+		out.writeInt(0x58440001);
+		out.writeInt(brokers);
+		return response.toByteArray();
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Predicates;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class TestRetryPolicy {
+
+	private ScheduledExecutorService scheduler;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testBackoffDoublesUpToMax() {
+		RetryPolicy policy = new RetryPolicy("test", 5, 100, 350, 0, 0, 10000);
+		assertEquals(100, policy.getBackoff(1));
+		assertEquals(200, policy.getBackoff(2));
+		assertEquals(350, policy.getBackoff(3));
+		assertEquals(350, policy.getBackoff(10));
+	}
+
+	@Test
+	public void testJitterStaysWithinBounds() {
+		RetryPolicy policy = new RetryPolicy("test", 5, 1000, 1000, 0.5, 0, 10000);
+		for (int i = 0; i < 100; i++) {
+			long backoff = policy.getBackoff(1);
+			assertTrue("backoff " + backoff, backoff > 500 && backoff <= 1000);
+		}
+	}
+
+	@Test
+	public void testPhaseIsConfiguredFromProperties() {
+		Properties properties = new Properties();
+		properties.setProperty("retry.ssh.attempts", "7");
+		properties.setProperty("retry.ssh.timeout", "1234");
+		RetryPolicy policy = RetryPolicy.forPhase(RetryPolicy.Phase.SSH, properties);
+		assertEquals(7, policy.getMaxAttempts());
+		assertEquals(1234, policy.getTimeout());
+		assertEquals(1, RetryPolicy.forPhase(RetryPolicy.Phase.RESOURCE, properties).getMaxAttempts());
+	}
+
+	@Test
+	public void testStepIsRetriedUntilItSucceeds() {
+		final AtomicInteger calls = new AtomicInteger();
+		String result = new RetryPolicy("test", 3, 1, 1, 0, 0, 10000).execute(new Callable<String>() {
+
+			@Override
+			public String call() {
+				if (calls.incrementAndGet() < 3) {
+					throw new IllegalStateException("not yet");
+				}
+				return "done";
+			}
+		});
+		assertEquals("done", result);
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	public void testAttemptsAreExhausted() {
+		final AtomicInteger calls = new AtomicInteger();
+		try {
+			new RetryPolicy("test", 2, 1, 1, 0, 0, 10000).execute(new Callable<String>() {
+
+				@Override
+				public String call() {
+					calls.incrementAndGet();
+					throw new IllegalStateException("failed");
+				}
+			});
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException ise) {
+			assertEquals(2, calls.get());
+		}
+	}
+
+	@Test
+	public void testIllegalArgumentIsNotRetried() {
+		final AtomicInteger calls = new AtomicInteger();
+		try {
+			new RetryPolicy("test", 3, 1, 1, 0, 0, 10000).execute(new Callable<String>() {
+
+				@Override
+				public String call() {
+					calls.incrementAndGet();
+					throw new IllegalArgumentException("invalid");
+				}
+			});
+			fail("IllegalArgumentException expected");
+		}
+		catch (IllegalArgumentException iae) {
+			assertEquals(1, calls.get());
+		}
+	}
+
+	@Test
+	public void testNoRetryOnceBudgetIsSpent() {
+		final AtomicInteger calls = new AtomicInteger();
+		try {
+			new RetryPolicy("test", 10, 200, 200, 0, 0, 300).execute(new Callable<String>() {
+
+				@Override
+				public String call() {
+					calls.incrementAndGet();
+					throw new IllegalStateException("failed");
+				}
+			});
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException ise) {
+			assertEquals(2, calls.get());
+		}
+	}
+
+	@Test
+	public void testAsyncAttemptIsRetriedUntilAccepted() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		ListenableFuture<Boolean> result = new RetryPolicy("test", 3, 10, 10, 0, 1000, 10000).executeAsync(
+				new RetryPolicy.Attempt<Boolean>() {
+
+					@Override
+					public ListenableFuture<Boolean> start(long timeout) {
+						assertEquals(1000, timeout);
+						return Futures.immediateFuture(calls.incrementAndGet() == 2);
+					}
+				}, Predicates.equalTo(Boolean.TRUE), scheduler, executor);
+		assertTrue(result.get(5, TimeUnit.SECONDS));
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void testAsyncReturnsLastOutcomeWhenAttemptsAreExhausted() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		ListenableFuture<Boolean> result = new RetryPolicy("test", 3, 1, 1, 0, 1000, 10000).executeAsync(
+				new RetryPolicy.Attempt<Boolean>() {
+
+					@Override
+					public ListenableFuture<Boolean> start(long timeout) {
+						calls.incrementAndGet();
+						return Futures.immediateFuture(false);
+					}
+				}, Predicates.equalTo(Boolean.TRUE), scheduler, executor);
+		assertFalse(result.get(5, TimeUnit.SECONDS));
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	public void testAsyncRetriesRunOnTheExecutor() throws Exception {
+		final Thread schedulerThread = scheduler.submit(new Callable<Thread>() {
+
+			@Override
+			public Thread call() {
+				return Thread.currentThread();
+			}
+		}).get();
+		final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+		ListenableFuture<Boolean> result = new RetryPolicy("test", 3, 1, 1, 0, 1000, 10000).executeAsync(
+				new RetryPolicy.Attempt<Boolean>() {
+
+					@Override
+					public ListenableFuture<Boolean> start(long timeout) {
+						threads.add(Thread.currentThread());
+						return Futures.immediateFuture(threads.size() == 3);
+					}
+				}, Predicates.equalTo(Boolean.TRUE), scheduler, executor);
+		assertTrue(result.get(5, TimeUnit.SECONDS));
+		assertEquals(3, threads.size());
+		assertFalse(threads.contains(schedulerThread));
+	}
+
+	@Test
+	public void testAsyncStepRunsEveryAttemptOnTheExecutor() throws Exception {
+		final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+		ListenableFuture<String> result = new RetryPolicy("test", 3, 1, 1, 0, 1000, 10000).executeAsync(
+				new Callable<String>() {
+
+					@Override
+					public String call() {
+						threads.add(Thread.currentThread());
+						if (threads.size() < 3) {
+							throw new IllegalStateException("connection refused");
+						}
+						return "copied";
+					}
+				}, scheduler, executor);
+		assertEquals("copied", result.get(5, TimeUnit.SECONDS));
+		assertEquals(3, threads.size());
+		assertFalse(threads.contains(Thread.currentThread()));
+	}
+
+	@Test
+	public void testAsyncStepFailsWithItsLastFailure() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		ListenableFuture<String> result = new RetryPolicy("test", 2, 1, 1, 0, 1000, 10000).executeAsync(
+				new Callable<String>() {
+
+					@Override
+					public String call() {
+						throw new IllegalStateException("attempt " + calls.incrementAndGet());
+					}
+				}, scheduler, executor);
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			fail("IllegalStateException expected");
+		}
+		catch (ExecutionException expected) {
+			assertEquals("attempt 2", expected.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void testAsyncFailsWhenTheSchedulerIsShutDown() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		ListenableFuture<Boolean> result = new RetryPolicy("test", 5, 200, 200, 0, 1000, 10000).executeAsync(
+				new RetryPolicy.Attempt<Boolean>() {
+
+					@Override
+					public ListenableFuture<Boolean> start(long timeout) {
+						calls.incrementAndGet();
+						return Futures.immediateFailedFuture(new IllegalStateException("refused"));
+					}
+				}, Predicates.equalTo(Boolean.TRUE), scheduler, executor);
+		scheduler.shutdown();
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			fail("RejectedExecutionException expected");
+		}
+		catch (ExecutionException expected) {
+			assertTrue(expected.getCause() instanceof RejectedExecutionException);
+		}
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void testAsyncFailsWhenTheExecutorRejectsTheRetry() throws Exception {
+		executor.shutdown();
+		ListenableFuture<Boolean> result = new RetryPolicy("test", 3, 1, 1, 0, 1000, 10000).executeAsync(
+				new RetryPolicy.Attempt<Boolean>() {
+
+					@Override
+					public ListenableFuture<Boolean> start(long timeout) {
+						return Futures.immediateFuture(false);
+					}
+				}, Predicates.equalTo(Boolean.TRUE), scheduler, executor);
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			fail("RejectedExecutionException expected");
+		}
+		catch (ExecutionException expected) {
+			assertTrue(expected.getCause() instanceof RejectedExecutionException);
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.xd.ec2.cloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jclouds.domain.Credentials;
+import org.jclouds.domain.LoginCredentials;
+import org.jclouds.io.Payload;
+import org.jclouds.ssh.SshClient;
+import org.jclouds.ssh.SshException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.net.HostAndPort;
+
+public class TestSshSessionPool {
+
+	private List<SshClient> clients;
+
+	private SshSessionPool pool;
+
+	@Before
+	public void setUp() {
+		clients = new ArrayList<SshClient>();
+		pool = new SshSessionPool(LoginCredentials.fromCredentials(new Credentials("ubuntu", "key")), 5000) {
+
+			@Override
+			protected SshClient createClient(HostAndPort host, LoginCredentials loginCredentials, int timeout) {
+				SshClient client = mock(SshClient.class);
+				clients.add(client);
+				return client;
+			}
+		};
+	}
+
+	@Test
+	public void testCopyAndExecShareOneConnection() {
+		Payload payload = SshSessionPool.stringPayload("script");
+		pool.put("host-a", "/home/ubuntu/deploy.jar", payload);
+		pool.exec("host-a", "ls");
+		pool.exec("host-a", "ls");
+		assertEquals(1, clients.size());
+		verify(clients.get(0), times(1)).connect();
+		verify(clients.get(0)).put("/home/ubuntu/deploy.jar", payload);
+		verify(clients.get(0), times(2)).exec("ls");
+	}
+
+	@Test
+	public void testEachHostHasItsOwnConnection() {
+		pool.exec("host-a", "ls");
+		pool.exec("host-b", "ls");
+		assertEquals(2, clients.size());
+		pool.shutdown();
+		verify(clients.get(0)).disconnect();
+		verify(clients.get(1)).disconnect();
+	}
+
+	@Test
+	public void testFailedSessionIsReplaced() {
+		pool.exec("host-a", "ls");
+		doThrow(new SshException("connection reset")).when(clients.get(0)).exec("fail");
+		try {
+			pool.exec("host-a", "fail");
+			fail("SshException expected");
+		}
+		catch (SshException expected) {
+			// the broken session is dropped
+		}
+		verify(clients.get(0)).disconnect();
+		pool.exec("host-a", "ls");
+		assertEquals(2, clients.size());
+		verify(clients.get(1)).connect();
+	}
+
+	@Test
+	public void testPayloadsDeclareTheirLength() throws Exception {
+		Payload payload = SshSessionPool.stringPayload("\u00e9chec");
+		assertEquals(Long.valueOf(6), payload.getContentMetadata().getContentLength());
+		assertEquals("\u00e9chec", new String(ByteStreams.toByteArray(payload.openStream()), Charsets.UTF_8));
+
+		File file = File.createTempFile("xd-config", ".jar");
+		try {
+			Files.write("jar", file, Charsets.UTF_8);
+			payload = SshSessionPool.filePayload(file);
+			assertEquals(Long.valueOf(3), payload.getContentMetadata().getContentLength());
+			assertEquals("jar", new String(ByteStreams.toByteArray(payload.openStream()), Charsets.UTF_8));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+}